@@ -7,6 +7,7 @@
  */
 package com.robin;
 
+import java.io.File;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.HashMap;
@@ -20,7 +21,11 @@ import com.android.ddmlib.IDevice;
 import com.jayway.android.robotium.remotecontrol.solo.Solo;
 
 import com.robin.capture.Email;
+import com.robin.capture.ImageComparator;
+import com.robin.capture.ImageComparison;
+import com.robin.capture.ScreenComparison;
 import com.robin.device.DevicePool;
+import com.robin.history.TestHistoryStore;
 import com.robin.reporter.Reporter;
 import com.robin.testcase.BaseTest;
 import com.robin.testcase.TestCaseSetup;
@@ -29,6 +34,7 @@ import com.robin.uielements.TranslationFile;
 import com.robin.uielements.TranslationMap;
 import com.robin.utilities.Utilities;
 import com.robin.utilities.android.IntentReceiver;
+import com.robin.utilities.config.ConfigParams;
 import com.robin.utilities.config.Configuration;
 import com.robin.utilities.config.RobinConfiguration;
 import com.robin.utilities.email.EMail;
@@ -48,10 +54,15 @@ public class BaseFunctionality
      */
     protected static final int DEVICE_LIST_POLLING_TIME = 1000;
 
+    private static final String DEFAULT_HISTORY_FILE =
+        "history" + File.separator + "robin-history.txt";
+
     private static Configuration config = new RobinConfiguration();
 
     private static Utilities utils = new Utilities();
 
+    private static TestHistoryStore history;
+
     /**
      * Stores thread specific testBase objects.
      */
@@ -103,6 +114,21 @@ public class BaseFunctionality
         return utils;
     }
 
+    /**
+     * @return the local test execution history of all runs
+     */
+    public static synchronized TestHistoryStore history()
+    {
+        if (history == null)
+        {
+            history =
+                new TestHistoryStore(new File(config().getValue(
+                    ConfigParams.HISTORY_FILE,
+                    DEFAULT_HISTORY_FILE)));
+        }
+        return history;
+    }
+
     public class RobinBaseActions
     {
         public void rotateToLandscape(final int... indexOfSolo)
@@ -470,6 +496,34 @@ public class BaseFunctionality
             activityLoaded(activityName, indexOfSolo);
         }
 
+        /**
+         * Checks the screen of the device against the named baseline image,
+         * see {@link ScreenComparison}.
+         * @param baselineName the name of the baseline
+         * @param comparator the comparator with its tolerance and ignored
+         *        regions
+         * @param indexOfSolo index of solo in use
+         */
+        public void screenMatches(final String baselineName,
+            final ImageComparator comparator, final int... indexOfSolo)
+        {
+            final String style = Reporter.CHECKING_EVENT_STYLE;
+            log().firstInLine(
+                "Checking the screen against the "
+                    + log().valueStyleString(baselineName) + " baseline...",
+                style,
+                indexOfSolo);
+            log().tic();
+            ImageComparison result =
+                ScreenComparison.compare(baselineName, comparator, indexOfSolo);
+            log().toc(style);
+            if (result != null)
+            {
+                Assert.assertTrue(result.matches(), "The screen differs from "
+                    + "the '" + baselineName + "' baseline: " + result);
+            }
+        }
+
         public EMail newMail(final String username, final String password)
         {
             final String readEventStyle = Reporter.READ_EVENT_STYLE;
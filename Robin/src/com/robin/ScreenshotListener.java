@@ -14,9 +14,20 @@ import org.testng.ITestContext;
 import org.testng.ITestListener;
 import org.testng.ITestResult;
 
+import com.android.ddmlib.IDevice;
+import com.jayway.android.robotium.remotecontrol.solo.SoloRemoteControl;
+
+import com.robin.capture.ArtifactWriter;
+import com.robin.capture.ScreenRecorder;
 import com.robin.capture.Screenshot;
 import com.robin.device.DevicePool;
+import com.robin.device.DeviceSessionPool;
+import com.robin.device.SimulatedDevices;
+import com.robin.history.TestExecutionRecord;
+import com.robin.reporter.CommandLatencyReport;
 import com.robin.reporter.Reporter;
+import com.robin.reporter.TraceRecorder;
+import com.robin.reporter.logcat.LogCatBuffer;
 import com.robin.reporter.logcat.LogCatHandler;
 import com.robin.testcase.BaseTest;
 import com.robin.testcase.SetupException;
@@ -96,6 +107,8 @@ public class ScreenshotListener implements ITestListener,
                 Reporter.getDiv(Reporter.VALUE_STYLE, DevicePool
                     .getDeviceDescriptionString(testSetup.getDevice()));
             Reporter.setCurrentTestResult(result);
+            Reporter.startTest(result, DevicePool
+                .getDeviceDescriptionString(testSetup.getDevice()));
             Reporter.log(String.format(Reporter.getDiv(
                 Reporter.CONFIG_EVENT_STYLE,
                 "Robin session started on %s."), deviceName));
@@ -120,13 +133,10 @@ public class ScreenshotListener implements ITestListener,
         Reporter.log(Reporter.getDiv(
             Reporter.CONFIG_EVENT_STYLE,
             "Test completed succesfully."));
-        try
-        {
-            deleteLogcat();
-        } catch (SetupException e)
-        {
-            e.printStackTrace();
-        }
+        recordHistory(result, TestExecutionRecord.Result.PASS);
+        recordDeviceResults(true);
+        discardLogcat();
+        Reporter.finishTest(result);
     }
 
     @Override
@@ -146,6 +156,8 @@ public class ScreenshotListener implements ITestListener,
         Reporter.log(Reporter.getDiv(
             Reporter.CONFIG_EVENT_STYLE,
             "Test is skipped."));
+        recordHistory(result, TestExecutionRecord.Result.SKIP);
+        Reporter.finishTest(result);
     }
 
     @Override
@@ -163,7 +175,10 @@ public class ScreenshotListener implements ITestListener,
                 result.getThrowable().toString()));
         }
         Reporter.setCurrentTestResult(result);
+        recordHistory(result, TestExecutionRecord.Result.FAIL);
+        recordDeviceResults(false);
         createSavedFiles();
+        Reporter.finishTest(result);
     }
 
     @Override
@@ -196,6 +211,67 @@ public class ScreenshotListener implements ITestListener,
         }
     }
 
+    /**
+     * Stores the test execution in the local test history. The record is
+     * written by the history writer thread.
+     * @param result the TestNG result of the test method
+     * @param outcome the result to store
+     */
+    protected void recordHistory(final ITestResult result,
+        final TestExecutionRecord.Result outcome)
+    {
+        TestCaseSetup testSetup = BaseFunctionality.test().setup();
+        String device = "";
+        long setupDuration = 0;
+        int commandCount = 0;
+        if (testSetup != null)
+        {
+            device =
+                DevicePool.getDeviceDescriptionString(testSetup.getDevice());
+            setupDuration = testSetup.getSetupDuration();
+            for (int i = 0; i <= testSetup.getLastSoloIndex(); i++)
+            {
+                SoloRemoteControl control =
+                    testSetup.getSolo(i).getRemoteControl();
+                if (control != null)
+                {
+                    commandCount += control.getCommandCount();
+                }
+            }
+        }
+        final long duration =
+            Math.max(0, result.getEndMillis() - result.getStartMillis());
+        BaseFunctionality.history().add(
+            new TestExecutionRecord(
+                result.getStartMillis(),
+                result.getTestClass().getRealClass().getSimpleName(),
+                result.getMethod().getMethodName(),
+                device,
+                outcome,
+                duration,
+                setupDuration,
+                commandCount,
+                outcome == TestExecutionRecord.Result.PASS ? ""
+                    : TestExecutionRecord.failureSignature(result
+                        .getThrowable())));
+    }
+
+    /**
+     * Feeds the test result into the health score of the used devices.
+     * @param passed whether the test passed
+     */
+    private void recordDeviceResults(final boolean passed)
+    {
+        TestCaseSetup testSetup = BaseFunctionality.test().setup();
+        if (testSetup != null)
+        {
+            for (IDevice device : testSetup.getDevices())
+            {
+                DevicePool.recordTestResult(device, passed);
+            }
+        }
+    }
+
     /**
      * Creates Screenshot and LogCat with appropriate filenames.
      */
@@ -227,6 +303,11 @@ public class ScreenshotListener implements ITestListener,
                 {
                     Screenshot.capture(screenshotName, i);
                 }
+                ScreenRecorder.report(BaseTest
+                    .test()
+                    .setup()
+                    .getDevice(i)
+                    .getSerialNumber(), screenshotName);
                 reportLogCat();
             }
         } catch (Exception e)
@@ -256,10 +337,15 @@ public class ScreenshotListener implements ITestListener,
                             .getAbsolutePath(), logCatHandler
                             .getLogCatFile()
                             .getName())) + " saved."));
+            Reporter.log(logCatHandler.getFailureView());
         }
     }
 
-    private void deleteLogcat() throws SetupException
+    /**
+     * Marks the end of a passed test in the logcat buffers, nothing is written
+     * to disk.
+     */
+    private void discardLogcat()
     {
         for (LogCatHandler logCatHandler : BaseTest
             .test()
@@ -267,11 +353,6 @@ public class ScreenshotListener implements ITestListener,
             .getLogCatHandlers())
         {
             logCatHandler.closeLogCatFile();
-            if (!logCatHandler.getLogCatFile().delete())
-            {
-                throw new SetupException(new RuntimeException(
-                    "Unable to delete logcat file."));
-            }
         }
     }
 
@@ -298,8 +379,13 @@ public class ScreenshotListener implements ITestListener,
                     result.getThrowable().getMessage()));
             }
             Reporter.setCurrentTestResult(result);
+            recordDeviceResults(false);
             createSavedFiles();
         }
+        if (method.isConfigurationMethod())
+        {
+            Reporter.finishTest(result);
+        }
     }
 
     @Override
@@ -323,6 +409,7 @@ public class ScreenshotListener implements ITestListener,
         TranslationMap.parse(config);
         DevicePool.init(Integer.parseInt(config
             .getValue(ConfigParams.MIN_DEVICE_TO_USE)));
+        TraceRecorder.start();
     }
 
     @Override
@@ -331,5 +418,15 @@ public class ScreenshotListener implements ITestListener,
         Reporter.logConsole("Total tests run: " + allTestRun + ", Failures: "
             + allTestFail + ", Skips: " + allTestSkip + ", ConfigFail: "
             + allConfigFail);
+        DevicePool.logHealthSummary();
+        CommandLatencyReport.logRunSummary();
+        Screenshot.logCaptureSummary();
+        DeviceSessionPool.closeAllSessions();
+        SimulatedDevices.stopAll();
+        LogCatBuffer.stopAll();
+        ArtifactWriter.flush();
+        TraceRecorder.stop();
+        Reporter.closeStream();
+        BaseFunctionality.history().close();
     }
 }
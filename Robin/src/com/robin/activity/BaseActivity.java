@@ -24,6 +24,7 @@ import com.jayway.android.robotium.remotecontrol.solo.RemoteSoloException;
 import com.jayway.android.robotium.remotecontrol.solo.Solo;
 
 import com.robin.BaseFunctionality;
+import com.robin.capture.ImageComparator;
 import com.robin.reporter.Reporter;
 import com.robin.uielements.Locator;
 import com.robin.uielements.StringLocator;
@@ -1228,6 +1229,17 @@ public class BaseActivity extends BaseFunctionality
             activityLoaded(activityClass, indexOfSolo);
         }
 
+        public void screenMatches(final String baselineName)
+        {
+            screenMatches(baselineName, new ImageComparator(), indexOfSolo);
+        }
+
+        public void screenMatches(final String baselineName,
+            final ImageComparator comparator)
+        {
+            screenMatches(baselineName, comparator, indexOfSolo);
+        }
+
         public void checkBoxChecked(final Locator locator)
         {
             final String uID = preCheckBoxCheckEvent(locator);
@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2013 Ustream Inc.
+ * author chaotx <lombai.ferenc@ustream.tv>
+ *
+ * For the full copyright and license information, please view the LICENSE
+ * file that was distributed with this source code.
+ */
+package com.robin.capture;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.robin.reporter.Reporter;
+
+/**
+ * Writes the captured artifacts, like screenshots and mail bodies, on a small
+ * pool of writer threads. The unique file name is reserved on the calling
+ * thread, so the file can be linked into the report at once, while encoding
+ * and disk I/O happen in the background. When the bounded queue is full the
+ * calling thread writes the artifact itself.
+ */
+public final class ArtifactWriter
+{
+    /**
+     * Writes the content of an artifact.
+     */
+    public interface Content
+    {
+        /**
+         * @param out the stream of the reserved file, closed by the caller
+         * @throws IOException if the content cannot be written
+         */
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    private static final int WRITER_THREADS = 2;
+
+    private static final int QUEUE_CAPACITY = 64;
+
+    private static final int BUFFER_SIZE = 65536;
+
+    /**
+     * Seconds to wait for the pending artifacts at the end of the execution.
+     */
+    private static final int FLUSH_TIMEOUT = 120;
+
+    /**
+     * Most file names with a kept counter, the counters are dropped when it is
+     * reached. The counter only saves the retries of the taken names, the
+     * file creation keeps the names unique without it.
+     */
+    private static final int MAX_NAME_COUNTERS = 4096;
+
+    private static final Map<String, AtomicInteger> NAME_COUNTERS =
+        new ConcurrentHashMap<String, AtomicInteger>();
+
+    private static final Object PENDING_LOCK = new Object();
+
+    private static int pending = 0;
+
+    private static final ThreadPoolExecutor WRITERS =
+        new ThreadPoolExecutor(
+            WRITER_THREADS,
+            WRITER_THREADS,
+            0L,
+            TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<Runnable>(QUEUE_CAPACITY),
+            new ThreadFactory()
+            {
+                private final AtomicInteger threadCount = new AtomicInteger();
+
+                @Override
+                public Thread newThread(final Runnable runnable)
+                {
+                    Thread thread =
+                        new Thread(runnable, "ArtifactWriter-"
+                            + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            },
+            new ThreadPoolExecutor.CallerRunsPolicy());
+
+    private ArtifactWriter()
+    {
+    }
+
+    /**
+     * Creates a new empty file in the directory with the given name, or with
+     * the name extended by "_01", "_02"... if it is taken. The name is
+     * reserved atomically, concurrent callers never get the same file.
+     * @param directory the directory, created if it does not exist
+     * @param fileName the file name with extension
+     * @return the reserved file
+     * @throws IOException if the directory or the file cannot be created
+     */
+    public static File reserve(final String directory, final String fileName)
+        throws IOException
+    {
+        File dir = new File(directory);
+        if (!dir.mkdirs() && !dir.isDirectory())
+        {
+            throw new IOException("Could not create '" + directory
+                + "' directory.");
+        }
+        final int extensionStart = fileName.lastIndexOf('.');
+        final String baseFileName =
+            extensionStart < 0 ? fileName : fileName.substring(
+                0,
+                extensionStart);
+        final String fileExtension =
+            extensionStart < 0 ? "" : fileName.substring(extensionStart);
+        final String key = dir.getAbsolutePath() + File.separator + fileName;
+        AtomicInteger counter = NAME_COUNTERS.get(key);
+        if (counter == null)
+        {
+            synchronized (NAME_COUNTERS)
+            {
+                counter = NAME_COUNTERS.get(key);
+                if (counter == null)
+                {
+                    if (NAME_COUNTERS.size() >= MAX_NAME_COUNTERS)
+                    {
+                        NAME_COUNTERS.clear();
+                    }
+                    counter = new AtomicInteger();
+                    NAME_COUNTERS.put(key, counter);
+                }
+            }
+        }
+        while (true)
+        {
+            final int tryNum = counter.getAndIncrement();
+            final String finalFileName =
+                tryNum == 0 ? fileName : baseFileName + "_"
+                    + String.format("%02d", tryNum) + fileExtension;
+            File file = new File(dir, finalFileName);
+            // files of earlier executions are skipped as well
+            if (file.createNewFile())
+            {
+                return file;
+            }
+        }
+    }
+
+    /**
+     * Queues the content to be written into a reserved file.
+     * @param file the file returned by {@link #reserve(String, String)}
+     * @param content the content of the file
+     * @return the future of the written file, failing with the IOException
+     *         of the writing
+     */
+    public static Future<File> submit(final File file, final Content content)
+    {
+        synchronized (PENDING_LOCK)
+        {
+            pending++;
+        }
+        return WRITERS.submit(new Callable<File>()
+        {
+            @Override
+            public File call() throws IOException
+            {
+                try
+                {
+                    write(file, content);
+                    return file;
+                } catch (IOException e)
+                {
+                    Reporter.logConsole("Could not write " + file.getPath()
+                        + ": " + e.getMessage());
+                    throw e;
+                } catch (RuntimeException e)
+                {
+                    e.printStackTrace();
+                    throw e;
+                } finally
+                {
+                    synchronized (PENDING_LOCK)
+                    {
+                        pending--;
+                        PENDING_LOCK.notifyAll();
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Waits until every queued artifact is written, called at the end of the
+     * execution.
+     */
+    public static void flush()
+    {
+        final long deadline =
+            System.currentTimeMillis()
+                + TimeUnit.SECONDS.toMillis(FLUSH_TIMEOUT);
+        synchronized (PENDING_LOCK)
+        {
+            while (pending > 0)
+            {
+                final long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0)
+                {
+                    Reporter.logConsole(pending
+                        + " artifact(s) are still not written.");
+                    return;
+                }
+                try
+                {
+                    PENDING_LOCK.wait(remaining);
+                } catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private static void write(final File file, final Content content)
+        throws IOException
+    {
+        OutputStream out =
+            new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE);
+        try
+        {
+            content.writeTo(out);
+        } finally
+        {
+            out.close();
+        }
+    }
+}
@@ -9,17 +9,21 @@ package com.robin.capture;
 
 import java.awt.image.BufferedImage;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
 
-import javax.imageio.ImageIO;
+import org.safs.android.auto.lib.ImageUtils;
+
+import com.android.ddmlib.RawImage;
 
 import com.robin.BaseFunctionality;
-import com.robin.utilities.config.Configuration;
+import com.robin.reporter.Reporter;
 
 /**
+ * The captures only reserve the unique file, the content is written by the
+ * {@link ArtifactWriter} in the background.
  * @author Zsolt Takacs <takacs.zsolt@ustream.tv>
  */
 public class FileWriter
@@ -34,18 +38,16 @@ public class FileWriter
     public static File capture(final String fileName,
         final String content)
     {
-        File outputFile = createNewUniqueFilename(fileName);
-        try
-        {
-            FileOutputStream fos = new FileOutputStream(outputFile);
-            Writer writer = new OutputStreamWriter(fos, "UTF-8");
-            writer.write(content);
-            writer.close();
-        } catch (Exception e)
+        return capture(fileName, new ArtifactWriter.Content()
         {
-            e.printStackTrace();
-        }
-        return outputFile;
+            @Override
+            public void writeTo(final OutputStream out) throws IOException
+            {
+                Writer writer = new OutputStreamWriter(out, "UTF-8");
+                writer.write(content);
+                writer.flush();
+            }
+        });
     }
 
     public static String getRelativePath(final File output)
@@ -65,15 +67,51 @@ public class FileWriter
      */
     public static File capture(final String fileName, final BufferedImage image)
     {
-        File outputFile = createNewUniqueFilename(fileName);
-        try
+        return capture(fileName, new ArtifactWriter.Content()
         {
-            ImageIO.write(image, "png", outputFile);
-        } catch (Exception e)
+            @Override
+            public void writeTo(final OutputStream out) throws IOException
+            {
+                ImageUtils.writePng(image, out);
+            }
+        });
+    }
+
+    /**
+     * Captures a screenshot of a device, the image is converted into a pooled
+     * image and encoded on the writer thread.
+     * @param fileName the name of the png file to write into.
+     * @param image the screenshot of the device
+     * @return the File object representing the created file
+     */
+    public static File capture(final String fileName, final RawImage image)
+    {
+        return capture(fileName, new ArtifactWriter.Content()
         {
-            e.printStackTrace();
-        }
-        return outputFile;
+            @Override
+            public void writeTo(final OutputStream out) throws IOException
+            {
+                if (image == null)
+                {
+                    throw new IOException("No screenshot of the device.");
+                }
+                BufferedImage converted =
+                    ImageUtils.convertImageDirect(image, ImageUtils
+                        .acquireImage(image.width, image.height));
+                if (converted == null)
+                {
+                    throw new IOException("Unsupported screenshot of "
+                        + image.bpp + " bits per pixel.");
+                }
+                try
+                {
+                    ImageUtils.writePng(converted, out);
+                } finally
+                {
+                    ImageUtils.releaseImage(converted);
+                }
+            }
+        });
     }
 
     /**
@@ -86,55 +124,32 @@ public class FileWriter
     public static File capture(final String fileName,
         final byte[] content)
     {
-        File outputFile = createNewUniqueFilename(fileName);
-        try
-        {
-            FileOutputStream fos = new FileOutputStream(outputFile);
-            fos.write(content);
-            fos.close();
-        } catch (Exception e)
+        return capture(fileName, new ArtifactWriter.Content()
         {
-            e.printStackTrace();
-        }
-        return outputFile;
+            @Override
+            public void writeTo(final OutputStream out) throws IOException
+            {
+                out.write(content);
+            }
+        });
     }
 
-    private static File createNewUniqueFilename(final String fileName)
+    private static File capture(final String fileName,
+        final ArtifactWriter.Content content)
     {
-        final String baseFileName =
-            fileName.substring(0, fileName.lastIndexOf('.'));
-        final String fileExtension =
-            fileName.substring(fileName.lastIndexOf('.'), fileName.length());
-        Configuration config = BaseFunctionality.config();
-        final String imagePath = config.getValue("screenshot.dir");
-        String finalFileName = fileName;
+        final String imagePath =
+            BaseFunctionality.config().getValue("screenshot.dir");
+        File outputFile;
         try
         {
-            final int maxTryNum = 100;
-            int tryNum = 1;
-            File imageDir = new File(imagePath);
-            if (!imageDir.exists())
-            {
-                if (!imageDir.mkdirs())
-                {
-                    throw new IOException("Could not create '" + imagePath
-                        + "' directory.");
-                }
-            }
-            while (new File(imagePath + File.separator + finalFileName)
-                .exists() && maxTryNum > tryNum)
-            {
-                finalFileName =
-                    baseFileName + "_" + String.format("%02d", tryNum)
-                        + fileExtension;
-                tryNum++;
-            }
-        } catch (Exception e)
+            outputFile = ArtifactWriter.reserve(imagePath, fileName);
+        } catch (IOException e)
         {
             e.printStackTrace();
+            return new File(imagePath + File.separator + fileName);
         }
-        return new File(imagePath + File.separator + finalFileName);
+        ArtifactWriter.submit(outputFile, content);
+        Reporter.logArtifact(getRelativePath(outputFile));
+        return outputFile;
     }
-
-
 }
@@ -0,0 +1,534 @@
+/*
+ * Copyright (C) 2013 Ustream Inc.
+ * author chaotx <lombai.ferenc@ustream.tv>
+ *
+ * For the full copyright and license information, please view the LICENSE
+ * file that was distributed with this source code.
+ */
+package com.robin.capture;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compares an image against a baseline image pixel by pixel. A pixel differs
+ * if any of its color channels differs more than the tolerance, the pixels of
+ * the ignored regions are skipped. The images first are compared by their
+ * {@link PerceptualHash}, images differing more than the hash distance limit
+ * show another screen and their diff image is drawn in the same pass that
+ * counts their different pixels.
+ * <p>
+ * The images are converted into int[] rasters and compared in row tiles on a
+ * shared pool of a thread per processor. The diff image is only drawn when
+ * the image does not match.
+ */
+public final class ImageComparator
+{
+    private static final int THREADS =
+        Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Tiles per thread, so a slow thread does not delay the comparison.
+     */
+    private static final int TILES_PER_THREAD = 4;
+
+    private static final int MIN_TILE_ROWS = 16;
+
+    /**
+     * The perceptual hash samples about this many pixels of a row.
+     */
+    private static final int HASH_SAMPLES = 256;
+
+    private static final int DEFAULT_MAX_HASH_DISTANCE = 16;
+
+    private static final int RGB_MASK = 0xFFFFFF;
+
+    private static final int DIFFERENT_COLOR = 0xFF0000;
+
+    private static final int IGNORED_COLOR = 0x203060;
+
+    /**
+     * Brightness of the faded matching pixels, from 0xC0 to 0xFF.
+     */
+    private static final int FADED_BASE = 0xC0;
+
+    private static final int FADED_SHIFT = 4;
+
+    private static final int GRAY = 0x010101;
+
+    private static final int BGR_PIXEL = 3;
+
+    private static final int ABGR_PIXEL = 4;
+
+    private static final ThreadPoolExecutor COMPARATORS =
+        new ThreadPoolExecutor(
+            THREADS,
+            THREADS,
+            0L,
+            TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<Runnable>(),
+            new ThreadFactory()
+            {
+                private final AtomicInteger threadCount = new AtomicInteger();
+
+                @Override
+                public Thread newThread(final Runnable runnable)
+                {
+                    Thread thread =
+                        new Thread(runnable, "ImageComparator-"
+                            + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private int tolerance = 0;
+
+    private int maxDifferentPixels = 0;
+
+    private int maxHashDistance = DEFAULT_MAX_HASH_DISTANCE;
+
+    private final List<Rectangle> ignoredRegions = new ArrayList<Rectangle>();
+
+    /**
+     * @param toleranceParam the difference of a color channel (0-255) still
+     *        taken as equal, 0 by default
+     * @return this comparator
+     */
+    public ImageComparator tolerance(final int toleranceParam)
+    {
+        tolerance = toleranceParam;
+        return this;
+    }
+
+    /**
+     * @param pixels the number of different pixels the image still matches
+     *        with, 0 by default
+     * @return this comparator
+     */
+    public ImageComparator maxDifferentPixels(final int pixels)
+    {
+        maxDifferentPixels = pixels;
+        return this;
+    }
+
+    /**
+     * @param distance the number of different bits of the perceptual hashes
+     *        (0-128) above which the image is taken as another screen, 16 by
+     *        default
+     * @return this comparator
+     */
+    public ImageComparator maxHashDistance(final int distance)
+    {
+        maxHashDistance = distance;
+        return this;
+    }
+
+    /**
+     * @param region a region of the image left out of the comparison, like a
+     *        clock or an animation
+     * @return this comparator
+     */
+    public ImageComparator ignore(final Rectangle region)
+    {
+        ignoredRegions.add(new Rectangle(region));
+        return this;
+    }
+
+    /**
+     * @param image the image
+     * @param baseline the expected image
+     * @return the result of the comparison
+     */
+    public ImageComparison compare(final BufferedImage image,
+        final BufferedImage baseline)
+    {
+        final long start = System.currentTimeMillis();
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        if (width != baseline.getWidth() || height != baseline.getHeight())
+        {
+            return new ImageComparison(false, "The size " + width + "x"
+                + height + " differs from the baseline size "
+                + baseline.getWidth() + "x" + baseline.getHeight(), -1, 0, -1,
+                null, System.currentTimeMillis() - start);
+        }
+        final int[] actual = getRgb(toIntRgb(image));
+        final int[] expected = getRgb(toIntRgb(baseline));
+        final List<Rectangle> ignored = clip(width, height);
+        final int comparedPixels = width * height - countIgnored(ignored);
+        final int step = Math.max(1, width / HASH_SAMPLES);
+        final int hashDistance =
+            PerceptualHash.distance(
+                PerceptualHash.compute(actual, width, height, step, ignored),
+                PerceptualHash.compute(expected, width, height, step, ignored));
+        if (hashDistance > maxHashDistance)
+        {
+            // surely not matching, count and draw the differences at once
+            final BufferedImage diffImage =
+                new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            final int differentPixels =
+                compareTiles(
+                    actual,
+                    expected,
+                    width,
+                    height,
+                    ignored,
+                    getRgb(diffImage));
+            return new ImageComparison(false, "Another screen, hash distance "
+                + hashDistance + ", " + differentPixels + " of "
+                + comparedPixels + " pixels differ", differentPixels,
+                comparedPixels, hashDistance, diffImage,
+                System.currentTimeMillis() - start);
+        }
+        final int differentPixels =
+            compareTiles(actual, expected, width, height, ignored, null);
+        final boolean matching = differentPixels <= maxDifferentPixels;
+        BufferedImage diffImage = null;
+        if (!matching)
+        {
+            diffImage =
+                new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            compareTiles(
+                actual,
+                expected,
+                width,
+                height,
+                ignored,
+                getRgb(diffImage));
+        }
+        return new ImageComparison(
+            matching,
+            null,
+            differentPixels,
+            comparedPixels,
+            hashDistance,
+            diffImage,
+            System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Converts the image into a TYPE_INT_RGB image, the rows are converted in
+     * parallel tiles.
+     * @param image the image
+     * @return the image itself if its pixels are already packed into an int[]
+     *         without a gap, otherwise the converted image
+     */
+    public static BufferedImage toIntRgb(final BufferedImage image)
+    {
+        if (isPackedInt(image))
+        {
+            return image;
+        }
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        final BufferedImage converted =
+            new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        final int[] rgb = getRgb(converted);
+        final int pixelSize = getPackedBytes(image);
+        runTiles(height, new Tile()
+        {
+            @Override
+            public int run(final int startRow, final int endRow)
+            {
+                if (pixelSize > 0)
+                {
+                    copyBytes(image, pixelSize, rgb, startRow, endRow);
+                } else
+                {
+                    image.getRGB(
+                        0,
+                        startRow,
+                        width,
+                        endRow - startRow,
+                        rgb,
+                        startRow * width,
+                        width);
+                }
+                return 0;
+            }
+        });
+        return converted;
+    }
+
+    /**
+     * Compares the rows of a tile.
+     */
+    private interface Tile
+    {
+        /**
+         * @return the number of different pixels of the rows
+         */
+        int run(int startRow, int endRow);
+    }
+
+    private int compareTiles(final int[] actual, final int[] expected,
+        final int width, final int height, final List<Rectangle> ignored,
+        final int[] diff)
+    {
+        return runTiles(height, new Tile()
+        {
+            @Override
+            public int run(final int startRow, final int endRow)
+            {
+                final boolean[] ignoredColumns =
+                    ignored.isEmpty() ? null : new boolean[width];
+                int different = 0;
+                for (int y = startRow; y < endRow; y++)
+                {
+                    final boolean ignoring =
+                        markIgnored(ignored, y, ignoredColumns);
+                    for (int x = 0, i = y * width; x < width; x++, i++)
+                    {
+                        if (ignoring && ignoredColumns[x])
+                        {
+                            if (diff != null)
+                            {
+                                diff[i] = IGNORED_COLOR;
+                            }
+                            continue;
+                        }
+                        final int pixel = actual[i];
+                        final boolean differs =
+                            ((pixel ^ expected[i]) & RGB_MASK) != 0
+                                && isDifferent(pixel, expected[i]);
+                        if (differs)
+                        {
+                            different++;
+                        }
+                        if (diff != null)
+                        {
+                            diff[i] = differs ? DIFFERENT_COLOR : fade(pixel);
+                        }
+                    }
+                }
+                return different;
+            }
+        });
+    }
+
+    private boolean isDifferent(final int pixel, final int other)
+    {
+        return Math.abs((pixel >> 16 & 0xFF) - (other >> 16 & 0xFF)) > tolerance
+            || Math.abs((pixel >> 8 & 0xFF) - (other >> 8 & 0xFF)) > tolerance
+            || Math.abs((pixel & 0xFF) - (other & 0xFF)) > tolerance;
+    }
+
+    private static int fade(final int pixel)
+    {
+        final int brightness =
+            (pixel >> 16 & 0xFF) + (pixel >> 8 & 0xFF) * 2 + (pixel & 0xFF);
+        return (FADED_BASE + (brightness >> FADED_SHIFT)) * GRAY;
+    }
+
+    /**
+     * @return true if the row has ignored columns, marked in the array
+     */
+    private static boolean markIgnored(final List<Rectangle> ignored,
+        final int y, final boolean[] ignoredColumns)
+    {
+        boolean ignoring = false;
+        for (Rectangle region : ignored)
+        {
+            if (y >= region.y && y < region.y + region.height)
+            {
+                if (!ignoring)
+                {
+                    Arrays.fill(ignoredColumns, false);
+                    ignoring = true;
+                }
+                Arrays.fill(
+                    ignoredColumns,
+                    region.x,
+                    region.x + region.width,
+                    true);
+            }
+        }
+        return ignoring;
+    }
+
+    private List<Rectangle> clip(final int width, final int height)
+    {
+        if (ignoredRegions.isEmpty())
+        {
+            return Collections.emptyList();
+        }
+        final Rectangle bounds = new Rectangle(0, 0, width, height);
+        List<Rectangle> clipped = new ArrayList<Rectangle>();
+        for (Rectangle region : ignoredRegions)
+        {
+            final Rectangle inside = region.intersection(bounds);
+            if (!inside.isEmpty())
+            {
+                clipped.add(inside);
+            }
+        }
+        return clipped;
+    }
+
+    /**
+     * Counts the ignored pixels row by row, as the regions may overlap.
+     */
+    private static int countIgnored(final List<Rectangle> ignored)
+    {
+        if (ignored.isEmpty())
+        {
+            return 0;
+        }
+        Rectangle bounds = new Rectangle(ignored.get(0));
+        for (Rectangle region : ignored)
+        {
+            bounds.add(region);
+        }
+        final boolean[] columns = new boolean[bounds.x + bounds.width];
+        int count = 0;
+        for (int y = bounds.y; y < bounds.y + bounds.height; y++)
+        {
+            if (markIgnored(ignored, y, columns))
+            {
+                for (int x = bounds.x; x < columns.length; x++)
+                {
+                    if (columns[x])
+                    {
+                        count++;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Runs the tile over the rows in parallel.
+     * @return the sum of the tile results
+     */
+    private static int runTiles(final int height, final Tile tile)
+    {
+        final int rows =
+            Math.max(MIN_TILE_ROWS, (height + THREADS * TILES_PER_THREAD - 1)
+                / (THREADS * TILES_PER_THREAD));
+        List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+        for (int startRow = 0; startRow < height; startRow += rows)
+        {
+            final int start = startRow;
+            final int end = Math.min(height, startRow + rows);
+            tasks.add(new Callable<Integer>()
+            {
+                @Override
+                public Integer call()
+                {
+                    return tile.run(start, end);
+                }
+            });
+        }
+        int sum = 0;
+        try
+        {
+            for (Future<Integer> result : COMPARATORS.invokeAll(tasks))
+            {
+                sum += result.get();
+            }
+        } catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Image comparison interrupted.", e);
+        } catch (ExecutionException e)
+        {
+            throw new IllegalStateException(
+                "Image comparison failed.",
+                e.getCause());
+        }
+        return sum;
+    }
+
+    private static int[] getRgb(final BufferedImage image)
+    {
+        return ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+    }
+
+    private static boolean isPackedInt(final BufferedImage image)
+    {
+        if (image.getType() != BufferedImage.TYPE_INT_RGB
+            && image.getType() != BufferedImage.TYPE_INT_ARGB)
+        {
+            return false;
+        }
+        final WritableRaster raster = image.getRaster();
+        return raster.getDataBuffer() instanceof DataBufferInt
+            && raster.getDataBuffer().getOffset() == 0
+            && raster.getSampleModelTranslateX() == 0
+            && raster.getSampleModelTranslateY() == 0
+            && raster.getSampleModel() instanceof SinglePixelPackedSampleModel
+            && ((SinglePixelPackedSampleModel) raster.getSampleModel())
+                .getScanlineStride() == image.getWidth();
+    }
+
+    /**
+     * @return the bytes of a pixel of a gapless TYPE_3BYTE_BGR or
+     *         TYPE_4BYTE_ABGR image, 0 for other images
+     */
+    private static int getPackedBytes(final BufferedImage image)
+    {
+        final int pixelSize;
+        if (image.getType() == BufferedImage.TYPE_3BYTE_BGR)
+        {
+            pixelSize = BGR_PIXEL;
+        } else if (image.getType() == BufferedImage.TYPE_4BYTE_ABGR)
+        {
+            pixelSize = ABGR_PIXEL;
+        } else
+        {
+            return 0;
+        }
+        final Raster raster = image.getRaster();
+        final DataBuffer buffer = raster.getDataBuffer();
+        final boolean packed =
+            buffer instanceof DataBufferByte && buffer.getOffset() == 0
+                && raster.getSampleModelTranslateX() == 0
+                && raster.getSampleModelTranslateY() == 0
+                && raster.getSampleModel() instanceof ComponentSampleModel
+                && ((ComponentSampleModel) raster.getSampleModel())
+                    .getScanlineStride() == image.getWidth() * pixelSize;
+        return packed ? pixelSize : 0;
+    }
+
+    /**
+     * Copies the rows of a BGR or ABGR image, the blue byte is the last but
+     * two of a pixel in both.
+     */
+    private static void copyBytes(final BufferedImage image,
+        final int pixelSize, final int[] rgb, final int startRow,
+        final int endRow)
+    {
+        final byte[] data =
+            ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        final int width = image.getWidth();
+        final int blue = pixelSize - BGR_PIXEL;
+        for (int i = startRow * width, s = i * pixelSize + blue, end =
+            endRow * width; i < end; i++, s += pixelSize)
+        {
+            rgb[i] =
+                (data[s + 2] & 0xFF) << 16 | (data[s + 1] & 0xFF) << 8
+                    | (data[s] & 0xFF);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2013 Ustream Inc.
+ * author chaotx <lombai.ferenc@ustream.tv>
+ *
+ * For the full copyright and license information, please view the LICENSE
+ * file that was distributed with this source code.
+ */
+package com.robin.capture;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * The result of comparing an image against its baseline by an
+ * {@link ImageComparator}.
+ */
+public final class ImageComparison
+{
+    private final boolean matching;
+
+    private final String reason;
+
+    private final int differentPixels;
+
+    private final int comparedPixels;
+
+    private final int hashDistance;
+
+    private final BufferedImage diffImage;
+
+    private final long millis;
+
+    ImageComparison(final boolean matchingParam, final String reasonParam,
+        final int differentPixelsParam, final int comparedPixelsParam,
+        final int hashDistanceParam, final BufferedImage diffImageParam,
+        final long millisParam)
+    {
+        matching = matchingParam;
+        reason = reasonParam;
+        differentPixels = differentPixelsParam;
+        comparedPixels = comparedPixelsParam;
+        hashDistance = hashDistanceParam;
+        diffImage = diffImageParam;
+        millis = millisParam;
+    }
+
+    /**
+     * @return true if the image matches the baseline within the limits of the
+     *         comparator
+     */
+    public boolean matches()
+    {
+        return matching;
+    }
+
+    /**
+     * @return the number of pixels differing more than the tolerance, -1 if
+     *         the sizes differ
+     */
+    public int getDifferentPixels()
+    {
+        return differentPixels;
+    }
+
+    /**
+     * @return the number of pixels outside the ignored regions
+     */
+    public int getComparedPixels()
+    {
+        return comparedPixels;
+    }
+
+    /**
+     * @return the number of different bits of the perceptual hashes, -1 if
+     *         the sizes differ
+     */
+    public int getHashDistance()
+    {
+        return hashDistance;
+    }
+
+    /**
+     * @return the image marking the different pixels red over the faded
+     *         image, null if the image matches or the sizes differ
+     */
+    public BufferedImage getDiffImage()
+    {
+        return diffImage;
+    }
+
+    /**
+     * @return the milliseconds the comparison took
+     */
+    public long getMillis()
+    {
+        return millis;
+    }
+
+    @Override
+    public String toString()
+    {
+        if (reason != null)
+        {
+            return reason + " (" + millis + " ms)";
+        }
+        return differentPixels + " of " + comparedPixels
+            + " pixels differ, hash distance " + hashDistance + " (" + millis
+            + " ms)";
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2013 Ustream Inc.
+ * author chaotx <lombai.ferenc@ustream.tv>
+ *
+ * For the full copyright and license information, please view the LICENSE
+ * file that was distributed with this source code.
+ */
+package com.robin.capture;
+
+import java.awt.Rectangle;
+import java.util.List;
+
+/**
+ * Difference hash of an image: the image is divided into 9x9 blocks, a bit is
+ * set where the mean brightness of a block is above the mean of its right,
+ * and in the second word of its lower, neighbor by a margin. Small changes,
+ * like a blinking cursor in a plain area, keep the hash, while another screen
+ * differs in many bits.
+ */
+final class PerceptualHash
+{
+    private static final int SIZE = 9;
+
+    /**
+     * Difference of the mean brightness, on the 0-1020 scale of the weighted
+     * sum, a block must exceed to set its bit.
+     */
+    private static final int MARGIN = 8;
+
+    private PerceptualHash()
+    {
+    }
+
+    /**
+     * @param rgb the pixels of the image, row by row
+     * @param width the width of the image
+     * @param height the height of the image
+     * @param step only every step-th pixel of every step-th row is sampled
+     * @param ignored the regions left out of the hash, can be empty
+     * @return the two words of the hash
+     */
+    static long[] compute(final int[] rgb, final int width, final int height,
+        final int step, final List<Rectangle> ignored)
+    {
+        final long[] sums = new long[SIZE * SIZE];
+        final int[] counts = new int[SIZE * SIZE];
+        for (int y = 0; y < height; y += step)
+        {
+            final int row = y * SIZE / height * SIZE;
+            for (int x = 0, i = y * width; x < width; x += step, i += step)
+            {
+                if (!ignored.isEmpty() && isIgnored(ignored, x, y))
+                {
+                    continue;
+                }
+                final int pixel = rgb[i];
+                final int block = row + x * SIZE / width;
+                sums[block] +=
+                    (pixel >> 16 & 0xFF) + (pixel >> 8 & 0xFF) * 2
+                        + (pixel & 0xFF);
+                counts[block]++;
+            }
+        }
+        final long[] hash = new long[2];
+        for (int y = 0; y < SIZE - 1; y++)
+        {
+            for (int x = 0; x < SIZE - 1; x++)
+            {
+                final int block = y * SIZE + x;
+                hash[0] =
+                    hash[0] << 1 | isBrighter(sums, counts, block, block + 1);
+                hash[1] =
+                    hash[1] << 1
+                        | isBrighter(sums, counts, block, block + SIZE);
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * @return the number of different bits of the two hashes
+     */
+    static int distance(final long[] hash, final long[] other)
+    {
+        return Long.bitCount(hash[0] ^ other[0])
+            + Long.bitCount(hash[1] ^ other[1]);
+    }
+
+    private static long isBrighter(final long[] sums, final int[] counts,
+        final int block, final int neighbor)
+    {
+        return sums[block] * counts[neighbor] > (sums[neighbor]
+            + (long) MARGIN * counts[neighbor])
+            * counts[block] ? 1 : 0;
+    }
+
+    private static boolean isIgnored(final List<Rectangle> ignored,
+        final int x, final int y)
+    {
+        for (Rectangle region : ignored)
+        {
+            if (region.contains(x, y))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+}
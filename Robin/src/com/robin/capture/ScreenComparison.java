@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2013 Ustream Inc.
+ * author chaotx <lombai.ferenc@ustream.tv>
+ *
+ * For the full copyright and license information, please view the LICENSE
+ * file that was distributed with this source code.
+ */
+package com.robin.capture;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+
+import org.safs.android.auto.lib.ImageUtils;
+
+import com.android.ddmlib.IDevice;
+import com.android.ddmlib.RawImage;
+
+import com.robin.BaseFunctionality;
+import com.robin.reporter.Reporter;
+import com.robin.testcase.BaseTest;
+import com.robin.utilities.config.ConfigParams;
+
+/**
+ * Compares the screen of a device against a stored baseline image. The
+ * baselines are kept per screen resolution under the
+ * {@link ConfigParams#BASELINE_DIR}, as "1080x1920/name.png". A missing
+ * baseline is created from the screen. When the screen does not match, the
+ * screen, the baseline and the diff image are linked into the report.
+ */
+public final class ScreenComparison
+{
+    private static final String DEFAULT_BASELINE_DIR = "baselines";
+
+    /**
+     * Baselines kept converted in memory, as a test checks the same screens
+     * again and again.
+     */
+    private static final int CACHED_BASELINES = 16;
+
+    private static final int THUMBNAIL_WIDTH = 120;
+
+    private static final Map<String, Baseline> BASELINES =
+        new LinkedHashMap<String, Baseline>(CACHED_BASELINES, 0.75f, true)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                final Map.Entry<String, Baseline> eldest)
+            {
+                return size() > CACHED_BASELINES;
+            }
+        };
+
+    /**
+     * A baseline image converted by {@link ImageComparator#toIntRgb}.
+     */
+    private static final class Baseline
+    {
+        private final long lastModified;
+
+        private final BufferedImage image;
+
+        private Baseline(final long lastModifiedParam,
+            final BufferedImage imageParam)
+        {
+            lastModified = lastModifiedParam;
+            image = imageParam;
+        }
+    }
+
+    private ScreenComparison()
+    {
+    }
+
+    /**
+     * Compares the screen of the device against the named baseline.
+     * @param name the name of the baseline
+     * @param comparator the comparator with its limits
+     * @param indexOfSolo the index of the solo of the device
+     * @return the result of the comparison, null if the baseline was created
+     */
+    public static ImageComparison compare(final String name,
+        final ImageComparator comparator, final int... indexOfSolo)
+    {
+        final IDevice device = BaseTest.test().setup().getDevice(indexOfSolo);
+        final BufferedImage screen = getScreen(device);
+        final File file =
+            new File(BaseFunctionality.config().getValue(
+                ConfigParams.BASELINE_DIR,
+                DEFAULT_BASELINE_DIR), screen.getWidth() + "x"
+                + screen.getHeight() + File.separator + name + ".png");
+        final BufferedImage baseline = getBaseline(file);
+        if (baseline == null)
+        {
+            createBaseline(file, screen);
+            Reporter.log(Reporter.getDiv(
+                Reporter.CHECKING_EVENT_STYLE,
+                "Baseline "
+                    + Reporter.getDiv(Reporter.VALUE_STYLE, file.getPath())
+                    + " created from the screen."));
+            return null;
+        }
+        final ImageComparison result = comparator.compare(screen, baseline);
+        if (!result.matches())
+        {
+            report(name, screen, baseline, result);
+        }
+        return result;
+    }
+
+    private static BufferedImage getScreen(final IDevice device)
+    {
+        RawImage raw;
+        try
+        {
+            raw = device.getScreenshot();
+        } catch (Exception e)
+        {
+            throw new IllegalStateException("Could not capture the screen of "
+                + device.getSerialNumber() + ": " + e.getMessage(), e);
+        }
+        BufferedImage screen = ImageUtils.convertImageDirect(raw, null);
+        return screen != null ? screen : ImageUtils.convertImage(raw);
+    }
+
+    private static BufferedImage getBaseline(final File file)
+    {
+        final String key = file.getAbsolutePath();
+        final long lastModified = file.lastModified();
+        if (lastModified == 0)
+        {
+            return null;
+        }
+        synchronized (BASELINES)
+        {
+            Baseline cached = BASELINES.get(key);
+            if (cached != null && cached.lastModified == lastModified)
+            {
+                return cached.image;
+            }
+        }
+        BufferedImage image;
+        try
+        {
+            image = ImageIO.read(file);
+        } catch (IOException e)
+        {
+            throw new IllegalStateException("Could not read the baseline "
+                + file.getPath() + ": " + e.getMessage(), e);
+        }
+        if (image == null)
+        {
+            throw new IllegalStateException("The baseline " + file.getPath()
+                + " is not an image.");
+        }
+        image = ImageComparator.toIntRgb(image);
+        synchronized (BASELINES)
+        {
+            BASELINES.put(key, new Baseline(lastModified, image));
+        }
+        return image;
+    }
+
+    private static void createBaseline(final File file,
+        final BufferedImage screen)
+    {
+        try
+        {
+            File dir = file.getParentFile();
+            if (!dir.mkdirs() && !dir.isDirectory())
+            {
+                throw new IOException("Could not create '" + dir.getPath()
+                    + "' directory.");
+            }
+            OutputStream out =
+                new BufferedOutputStream(new FileOutputStream(file));
+            try
+            {
+                ImageUtils.writePng(screen, out);
+            } finally
+            {
+                out.close();
+            }
+        } catch (IOException e)
+        {
+            throw new IllegalStateException("Could not create the baseline "
+                + file.getPath() + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static void report(final String name, final BufferedImage screen,
+        final BufferedImage baseline, final ImageComparison result)
+    {
+        final String fileName =
+            BaseTest.test().screenShotFileName().replace(".png", "_" + name);
+        StringBuilder images = new StringBuilder();
+        images.append(getThumbnail(
+            "screen",
+            FileWriter.capture(fileName + "_screen.png", screen)));
+        images.append(getThumbnail(
+            "baseline",
+            FileWriter.capture(fileName + "_baseline.png", baseline)));
+        if (result.getDiffImage() != null)
+        {
+            images.append(getThumbnail(
+                "diff",
+                FileWriter.capture(
+                    fileName + "_diff.png",
+                    result.getDiffImage())));
+        }
+        Reporter.log(Reporter.getToogleText("Screen differs from the '"
+            + name + "' baseline: " + result, images.toString()));
+    }
+
+    private static String getThumbnail(final String title, final File file)
+    {
+        final String path = FileWriter.getRelativePath(file);
+        return "<div style=\"display:inline-block;margin:2px\">"
+            + Reporter.getHtmlLink(path, "<img src=\"" + path + "\" width=\""
+                + THUMBNAIL_WIDTH + "\"/>") + "<br/>" + title + "</div>";
+    }
+}
@@ -0,0 +1,364 @@
+/*
+ * Copyright (C) 2013 Ustream Inc.
+ * author chaotx <lombai.ferenc@ustream.tv>
+ *
+ * For the full copyright and license information, please view the LICENSE
+ * file that was distributed with this source code.
+ */
+package com.robin.capture;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.imageio.ImageIO;
+
+import org.safs.android.auto.lib.ImageUtils;
+
+import com.android.ddmlib.IDevice;
+import com.android.ddmlib.RawImage;
+
+import com.robin.BaseFunctionality;
+import com.robin.reporter.Reporter;
+import com.robin.utilities.config.ConfigParams;
+import com.robin.utilities.config.Configuration;
+
+/**
+ * Records the screen of a leased device in the background at a low frame
+ * rate, keeping the last seconds as small JPEG frames in a bounded ring. A
+ * frame looking the same as the previous one, by its {@link PerceptualHash},
+ * extends the previous frame and replaces its image, so small changes the
+ * hash does not see still show the latest screen. When the test fails the
+ * frames are written into the report as a strip, otherwise they are
+ * discarded.
+ * <p>
+ * The recording is off unless {@link ConfigParams#SCREEN_RECORDING_INTERVAL}
+ * is set. The recorder waits longer between the frames when capturing takes
+ * more than the configured share of the time, so the observed test is not
+ * slowed down.
+ */
+public final class ScreenRecorder
+{
+    private static final int DEFAULT_SECONDS = 10;
+
+    private static final int DEFAULT_MEMORY_KB = 4096;
+
+    private static final int DEFAULT_CPU_PERCENT = 10;
+
+    private static final int FRAME_WIDTH = 360;
+
+    private static final float JPEG_QUALITY = 0.6f;
+
+    private static final int THUMBNAIL_WIDTH = 120;
+
+    private static final int PERCENT = 100;
+
+    private static final int KILO = 1024;
+
+    private static final double MILLIS_PER_SECOND = 1000.0;
+
+    private static final Map<String, ScreenRecorder> RECORDERS =
+        new ConcurrentHashMap<String, ScreenRecorder>();
+
+    /**
+     * A frame shown from its start until its end, the time of the last
+     * capture found the same, with the image of that last capture.
+     */
+    private static final class Frame
+    {
+        private final long start;
+
+        private long end;
+
+        private final long[] hash;
+
+        private byte[] jpeg;
+
+        private Frame(final long time, final long[] hashParam,
+            final byte[] jpegParam)
+        {
+            start = time;
+            end = time;
+            hash = hashParam;
+            jpeg = jpegParam;
+        }
+    }
+
+    private final IDevice device;
+
+    private final long interval;
+
+    private final long keepMillis;
+
+    private final long maxBytes;
+
+    private final int cpuPercent;
+
+    private final boolean screencap;
+
+    private final LinkedList<Frame> frames = new LinkedList<Frame>();
+
+    private long bytes = 0;
+
+    private volatile boolean running = true;
+
+    private ScreenRecorder(final IDevice deviceParam, final long intervalParam,
+        final Configuration config)
+    {
+        device = deviceParam;
+        interval = intervalParam;
+        keepMillis =
+            (long) (MILLIS_PER_SECOND * Integer.parseInt(config.getValue(
+                ConfigParams.SCREEN_RECORDING_SECONDS,
+                String.valueOf(DEFAULT_SECONDS))));
+        maxBytes =
+            (long) KILO
+                * Integer.parseInt(config.getValue(
+                    ConfigParams.SCREEN_RECORDING_MEMORY_KB,
+                    String.valueOf(DEFAULT_MEMORY_KB)));
+        cpuPercent =
+            Math.max(1, Math.min(PERCENT, Integer.parseInt(config.getValue(
+                ConfigParams.SCREEN_RECORDING_CPU_PERCENT,
+                String.valueOf(DEFAULT_CPU_PERCENT)))));
+        screencap =
+            Screenshot.MODE_SCREENCAP.equals(config.getValue(
+                ConfigParams.SCREENSHOT_MODE,
+                Screenshot.MODE_FRAMEBUFFER));
+    }
+
+    /**
+     * Starts recording the screen of the device if the recording is enabled.
+     * A recording still running on the device is discarded.
+     * @param device the leased device
+     */
+    public static void start(final IDevice device)
+    {
+        final Configuration config = BaseFunctionality.config();
+        final long interval =
+            Long.parseLong(config.getValue(
+                ConfigParams.SCREEN_RECORDING_INTERVAL,
+                "0"));
+        if (interval <= 0)
+        {
+            return;
+        }
+        final ScreenRecorder recorder =
+            new ScreenRecorder(device, interval, config);
+        ScreenRecorder previous =
+            RECORDERS.put(device.getSerialNumber(), recorder);
+        if (previous != null)
+        {
+            previous.running = false;
+        }
+        Thread thread = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                recorder.record();
+            }
+        }, "ScreenRecorder-" + device.getSerialNumber());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops the recording of the device and discards its frames.
+     * @param serialNumber the serial number of the device
+     */
+    public static void stop(final String serialNumber)
+    {
+        ScreenRecorder recorder = RECORDERS.remove(serialNumber);
+        if (recorder != null)
+        {
+            recorder.running = false;
+        }
+    }
+
+    /**
+     * Writes the recorded frames of the device into files and links them
+     * into the report as a strip, the newest frame last.
+     * @param serialNumber the serial number of the device
+     * @param fileName the base file name of the frames, like the screenshot
+     *        file name
+     */
+    public static void report(final String serialNumber,
+        final String fileName)
+    {
+        ScreenRecorder recorder = RECORDERS.get(serialNumber);
+        if (recorder == null)
+        {
+            return;
+        }
+        List<Frame> recorded = recorder.getFrames();
+        if (recorded.isEmpty())
+        {
+            return;
+        }
+        final long last = recorded.get(recorded.size() - 1).end;
+        final String baseName =
+            fileName.contains(".") ? fileName.substring(
+                0,
+                fileName.lastIndexOf('.')) : fileName;
+        StringBuilder strip = new StringBuilder();
+        for (int i = 0; i < recorded.size(); i++)
+        {
+            final Frame frame = recorded.get(i);
+            File file =
+                FileWriter.capture(
+                    baseName + "_frame" + String.format("%02d", i) + ".jpg",
+                    frame.jpeg);
+            final String path = FileWriter.getRelativePath(file);
+            final String time =
+                String.format(
+                    "%.1f s",
+                    (frame.start - last) / MILLIS_PER_SECOND);
+            strip.append("<div style=\"display:inline-block;margin:2px\">")
+                .append(Reporter.getHtmlLink(path, "<img src=\"" + path
+                    + "\" width=\"" + THUMBNAIL_WIDTH + "\"/>"))
+                .append("<br/>").append(time).append("</div>");
+        }
+        Reporter.log(Reporter.getToogleText(
+            "Screen recording: " + recorded.size() + " frames of the last "
+                + String.format(
+                    "%.1f",
+                    (last - recorded.get(0).start) / MILLIS_PER_SECOND)
+                + " s",
+            strip.toString()));
+    }
+
+    private synchronized List<Frame> getFrames()
+    {
+        return new ArrayList<Frame>(frames);
+    }
+
+    private void record()
+    {
+        BufferedImage pooled = null;
+        while (running)
+        {
+            final long start = System.currentTimeMillis();
+            try
+            {
+                BufferedImage screen = null;
+                if (screencap)
+                {
+                    byte[] png = Screencap.capture(device);
+                    if (png != null)
+                    {
+                        screen = ImageIO.read(new ByteArrayInputStream(png));
+                    }
+                } else
+                {
+                    RawImage raw = device.getScreenshot();
+                    if (raw != null)
+                    {
+                        pooled =
+                            ImageUtils.convertImageDirect(
+                                raw,
+                                pooled == null ? ImageUtils.acquireImage(
+                                    raw.width,
+                                    raw.height) : pooled);
+                        screen = pooled;
+                    }
+                }
+                if (screen != null)
+                {
+                    addFrame(start, scale(screen));
+                }
+            } catch (Exception e)
+            {
+                // the device is busy or gone, try again with the next frame
+            }
+            final long busy = System.currentTimeMillis() - start;
+            final long pause =
+                Math.max(interval - busy, busy * PERCENT / cpuPercent - busy);
+            try
+            {
+                Thread.sleep(Math.max(1, pause));
+            } catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        ImageUtils.releaseImage(pooled);
+    }
+
+    private void addFrame(final long time, final BufferedImage image)
+        throws IOException
+    {
+        final long[] hash =
+            PerceptualHash.compute(
+                ((DataBufferInt) image.getRaster().getDataBuffer()).getData(),
+                image.getWidth(),
+                image.getHeight(),
+                1,
+                Collections.<Rectangle> emptyList());
+        ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+        ImageUtils.writeJpeg(image, JPEG_QUALITY, jpeg);
+        synchronized (this)
+        {
+            if (!frames.isEmpty()
+                && Arrays.equals(frames.getLast().hash, hash))
+            {
+                final Frame last = frames.getLast();
+                bytes += jpeg.size() - last.jpeg.length;
+                last.jpeg = jpeg.toByteArray();
+                last.end = time;
+            } else
+            {
+                frames.addLast(new Frame(time, hash, jpeg.toByteArray()));
+                bytes += jpeg.size();
+            }
+            trim(time);
+        }
+    }
+
+    /**
+     * Drops the oldest frames out of the time window or the memory budget,
+     * the newest frame is always kept.
+     */
+    private void trim(final long now)
+    {
+        while (frames.size() > 1
+            && (bytes > maxBytes || frames.getFirst().end < now - keepMillis))
+        {
+            bytes -= frames.removeFirst().jpeg.length;
+        }
+    }
+
+    private static BufferedImage scale(final BufferedImage screen)
+    {
+        final int width = Math.min(FRAME_WIDTH, screen.getWidth());
+        final int height =
+            Math.max(1, screen.getHeight() * width / screen.getWidth());
+        BufferedImage frame =
+            new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = frame.createGraphics();
+        try
+        {
+            graphics.setRenderingHint(
+                RenderingHints.KEY_INTERPOLATION,
+                RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.drawImage(screen, 0, 0, width, height, null);
+        } finally
+        {
+            graphics.dispose();
+        }
+        return frame;
+    }
+}
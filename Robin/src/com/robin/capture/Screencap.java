@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2013 Ustream Inc.
+ * author chaotx <lombai.ferenc@ustream.tv>
+ *
+ * For the full copyright and license information, please view the LICENSE
+ * file that was distributed with this source code.
+ */
+package com.robin.capture;
+
+import java.io.ByteArrayOutputStream;
+
+import com.android.ddmlib.IDevice;
+import com.android.ddmlib.IShellOutputReceiver;
+
+/**
+ * Captures the screen with "screencap -p" on the device. The device encodes
+ * the PNG, so only the compressed image is transferred instead of the raw
+ * framebuffer, and the host stores the bytes without decoding them.
+ */
+public final class Screencap
+{
+    private static final String COMMAND = "screencap -p";
+
+    /**
+     * Milliseconds the screencap may stay silent before it is given up.
+     */
+    private static final int SHELL_TIMEOUT = 10000;
+
+    private static final int INITIAL_SIZE = 1 << 20;
+
+    private static final byte[] PNG_SIGNATURE =
+        {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n' };
+
+    private Screencap()
+    {
+    }
+
+    /**
+     * @param device the device
+     * @return the PNG bytes of the screen or null if the device did not
+     *         return a PNG
+     */
+    public static byte[] capture(final IDevice device)
+    {
+        PngReceiver receiver = new PngReceiver();
+        try
+        {
+            device.executeShellCommand(COMMAND, receiver, SHELL_TIMEOUT);
+        } catch (Exception e)
+        {
+            return null;
+        }
+        return toPng(receiver.getBytes());
+    }
+
+    /**
+     * The shell of devices before Android 7 runs in a pty converting every
+     * "\n" to "\r\n", which is undone when the PNG signature shows it.
+     */
+    private static byte[] toPng(final byte[] output)
+    {
+        if (startsWith(output, PNG_SIGNATURE))
+        {
+            return output;
+        }
+        byte[] png = new byte[output.length];
+        int length = 0;
+        for (int i = 0; i < output.length; i++)
+        {
+            if (output[i] != '\r' || i + 1 >= output.length
+                || output[i + 1] != '\n')
+            {
+                png[length++] = output[i];
+            }
+        }
+        if (!startsWith(png, PNG_SIGNATURE))
+        {
+            return null;
+        }
+        byte[] result = new byte[length];
+        System.arraycopy(png, 0, result, 0, length);
+        return result;
+    }
+
+    private static boolean startsWith(final byte[] data, final byte[] prefix)
+    {
+        if (data.length < prefix.length)
+        {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++)
+        {
+            if (data[i] != prefix[i])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Collects the binary output of the shell command.
+     */
+    private static class PngReceiver implements IShellOutputReceiver
+    {
+        private final ByteArrayOutputStream bytes =
+            new ByteArrayOutputStream(INITIAL_SIZE);
+
+        @Override
+        public synchronized void addOutput(final byte[] data,
+            final int offset, final int length)
+        {
+            bytes.write(data, offset, length);
+        }
+
+        @Override
+        public void flush()
+        {
+        }
+
+        @Override
+        public boolean isCancelled()
+        {
+            return false;
+        }
+
+        public synchronized byte[] getBytes()
+        {
+            return bytes.toByteArray();
+        }
+    }
+}
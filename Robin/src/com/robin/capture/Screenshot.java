@@ -7,35 +7,96 @@
  */
 package com.robin.capture;
 
-import java.awt.image.BufferedImage;
 import java.io.File;
+import java.util.Map;
+import java.util.TreeMap;
 
-import org.safs.android.auto.lib.ImageUtils;
-
+import com.android.ddmlib.IDevice;
 import com.android.ddmlib.RawImage;
+import com.jayway.android.robotium.remotecontrol.solo.LatencyHistogram;
 
 import com.robin.BaseFunctionality;
 import com.robin.reporter.Reporter;
+import com.robin.reporter.TraceRecorder;
 import com.robin.testcase.BaseTest;
+import com.robin.utilities.config.ConfigParams;
 
+/**
+ * Captures the screen of a device into the report, by pulling the raw
+ * framebuffer with ddmlib or with {@link Screencap} on the device, see
+ * {@link ConfigParams#SCREENSHOT_MODE}. The capture latency is recorded per
+ * mode.
+ */
 public class Screenshot
 {
+    /**
+     * Pulls the raw framebuffer and encodes the PNG on the host.
+     */
+    public static final String MODE_FRAMEBUFFER = "framebuffer";
+
+    /**
+     * Runs "screencap -p" on the device and stores its PNG as it is.
+     */
+    public static final String MODE_SCREENCAP = "screencap";
+
+    private static final Map<String, LatencyHistogram> LATENCIES =
+        new TreeMap<String, LatencyHistogram>();
+
     public static void capture(final String fileName, final int... indexOfSolo)
     {
-        RawImage img = null;
+        final IDevice device = BaseTest.test().setup().getDevice(indexOfSolo);
+        long start = System.currentTimeMillis();
+        final TraceRecorder.Span span =
+            TraceRecorder.begin(
+                TraceRecorder.CAPTURE,
+                "screenshot",
+                device.getSerialNumber());
+        String mode = MODE_FRAMEBUFFER;
+        File output = null;
         try
         {
-            img =
-                BaseTest.test().setup().getDevice(indexOfSolo).getScreenshot();
-        } catch (Exception e)
+            if (MODE_SCREENCAP.equals(BaseFunctionality.config().getValue(
+                ConfigParams.SCREENSHOT_MODE,
+                MODE_FRAMEBUFFER)))
+            {
+                byte[] png = Screencap.capture(device);
+                if (png != null)
+                {
+                    mode = MODE_SCREENCAP;
+                    output = FileWriter.capture(fileName, png);
+                } else
+                {
+                    // the failed attempt is a screencap latency, the fallback
+                    // is timed on its own
+                    final long now = System.currentTimeMillis();
+                    recordLatency(MODE_SCREENCAP, now - start);
+                    start = now;
+                    Reporter.logConsole("screencap failed on "
+                        + device.getSerialNumber()
+                        + ", pulling the framebuffer.");
+                }
+            }
+            if (output == null)
+            {
+                RawImage img = null;
+                try
+                {
+                    img = device.getScreenshot();
+                } catch (Exception e)
+                {
+                    e.printStackTrace();
+                }
+                //TODO: Rotation does not work on all activity.
+                // decide if we need to rotate:
+                // RawImage rimg = img.getRotated();
+                output = FileWriter.capture(fileName, img);
+            }
+        } finally
         {
-            e.printStackTrace();
+            span.end();
         }
-        //TODO: Rotation does not work on all activity.
-        // decide if we need to rotate:
-        // RawImage rimg = img.getRotated();
-        BufferedImage bimg = ImageUtils.convertImage(img);
-        File output = FileWriter.capture(fileName, bimg);
+        final long latency = System.currentTimeMillis() - start;
+        recordLatency(mode, latency);
         final String relativeFilePath = FileWriter.getRelativePath(output);
         Reporter.log(Reporter.getDiv(
             Reporter.CONFIG_EVENT_STYLE,
@@ -44,7 +105,36 @@ public class Screenshot
                 + Reporter.getDiv(
                     Reporter.VALUE_STYLE,
                     Reporter.getHtmlLink(relativeFilePath, output.getName()))
-                + " captured."));
+                + " captured (" + mode + ", " + latency + " ms)."));
+    }
+
+    /**
+     * Prints the capture latencies of the run per mode to the console.
+     */
+    public static void logCaptureSummary()
+    {
+        synchronized (LATENCIES)
+        {
+            for (Map.Entry<String, LatencyHistogram> entry : LATENCIES
+                .entrySet())
+            {
+                Reporter.logConsole("Screenshot capture '" + entry.getKey()
+                    + "': " + entry.getValue());
+            }
+        }
     }
 
+    private static void recordLatency(final String mode, final long latency)
+    {
+        synchronized (LATENCIES)
+        {
+            LatencyHistogram histogram = LATENCIES.get(mode);
+            if (histogram == null)
+            {
+                histogram = new LatencyHistogram();
+                LATENCIES.put(mode, histogram);
+            }
+            histogram.record(latency);
+        }
+    }
 }
@@ -0,0 +1,272 @@
+/*
+ * Copyright (C) 2013 Ustream Inc.
+ * author chaotx <lombai.ferenc@ustream.tv>
+ *
+ * For the full copyright and license information, please view the LICENSE
+ * file that was distributed with this source code.
+ */
+package com.robin.device;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Rolling health statistics of a single device. The score is computed from
+ * the most recent apk install times, solo initialization times, command round
+ * trip times and test results: 100 is a perfectly healthy device, 0 is a
+ * device that is too slow or fails every test.
+ * <p>
+ * The timings with samples are averaged, a timing without samples is left
+ * out instead of being taken as perfect. The average is scaled by the pass
+ * rate of the tests, so a device failing most of its tests scores low even
+ * with normal timings.
+ */
+public class DeviceHealth
+{
+    public static final int MAX_SCORE = 100;
+
+    /**
+     * Number of samples kept for each metric.
+     */
+    private static final int WINDOW_SIZE = 20;
+
+    /**
+     * Number of command round trip times kept.
+     */
+    private static final int COMMAND_WINDOW_SIZE = 200;
+
+    /**
+     * Number of test results needed before the score is considered reliable.
+     */
+    private static final int MIN_RESULTS_FOR_SCORE = 3;
+
+    private static final long INSTALL_TIME_LIMIT = 30000;
+
+    private static final long SOLO_INIT_TIME_LIMIT = 30000;
+
+    private static final long COMMAND_TIME_LIMIT = 5000;
+
+    private static final int PERCENT = 100;
+
+    private static final int PERCENTILE_MEDIAN = 50;
+
+    private static final int PERCENTILE_95 = 95;
+
+    private final String serialNumber;
+
+    private final LinkedList<Long> installTimes = new LinkedList<Long>();
+
+    private final LinkedList<Long> soloInitTimes = new LinkedList<Long>();
+
+    private final LinkedList<Long> commandTimes = new LinkedList<Long>();
+
+    private final LinkedList<Long> connectTimes = new LinkedList<Long>();
+
+    private final LinkedList<Boolean> results = new LinkedList<Boolean>();
+
+    private boolean quarantined = false;
+
+    private long lastProbeTime = 0;
+
+    public DeviceHealth(final String serialNumberParam)
+    {
+        serialNumber = serialNumberParam;
+    }
+
+    public String getSerialNumber()
+    {
+        return serialNumber;
+    }
+
+    public synchronized void addInstallTime(final long milliseconds)
+    {
+        addSample(installTimes, milliseconds, WINDOW_SIZE);
+    }
+
+    public synchronized void addSoloInitTime(final long milliseconds)
+    {
+        addSample(soloInitTimes, milliseconds, WINDOW_SIZE);
+    }
+
+    /**
+     * @param milliseconds time from the first connection attempt to the
+     *        verified connection of the remote control, not part of the score
+     */
+    public synchronized void addConnectTime(final long milliseconds)
+    {
+        addSample(connectTimes, milliseconds, WINDOW_SIZE);
+    }
+
+    public synchronized void addCommandTimes(final long[] milliseconds)
+    {
+        for (long time : milliseconds)
+        {
+            addSample(commandTimes, time, COMMAND_WINDOW_SIZE);
+        }
+    }
+
+    public synchronized void addTestResult(final boolean passed)
+    {
+        results.add(passed);
+        if (results.size() > WINDOW_SIZE)
+        {
+            results.removeFirst();
+        }
+    }
+
+    /**
+     * @return true if there are enough samples to quarantine the device
+     */
+    public synchronized boolean isScoreReliable()
+    {
+        return results.size() >= MIN_RESULTS_FOR_SCORE;
+    }
+
+    /**
+     * @return the health score between 0 (unusable) and 100 (healthy)
+     */
+    public synchronized int getScore()
+    {
+        double timings = 0;
+        int timed = 0;
+        if (!installTimes.isEmpty())
+        {
+            timings +=
+                timingScore(
+                    percentile(installTimes, PERCENTILE_MEDIAN),
+                    INSTALL_TIME_LIMIT);
+            timed++;
+        }
+        if (!soloInitTimes.isEmpty())
+        {
+            timings +=
+                timingScore(
+                    percentile(soloInitTimes, PERCENTILE_MEDIAN),
+                    SOLO_INIT_TIME_LIMIT);
+            timed++;
+        }
+        if (!commandTimes.isEmpty())
+        {
+            timings +=
+                timingScore(
+                    percentile(commandTimes, PERCENTILE_95),
+                    COMMAND_TIME_LIMIT);
+            timed++;
+        }
+        final double timing = timed == 0 ? 1 : timings / timed;
+        return (int) Math.round(timing * (1 - getFailureRate())
+            * MAX_SCORE);
+    }
+
+    public synchronized double getFailureRate()
+    {
+        if (results.isEmpty())
+        {
+            return 0;
+        }
+        int failed = 0;
+        for (Boolean passed : results)
+        {
+            if (!passed)
+            {
+                failed++;
+            }
+        }
+        return (double) failed / results.size();
+    }
+
+    public synchronized boolean isQuarantined()
+    {
+        return quarantined;
+    }
+
+    public synchronized void quarantine()
+    {
+        quarantined = true;
+        lastProbeTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Releases the device from quarantine and drops the collected samples, so
+     * the device starts over with a clean score.
+     */
+    public synchronized void release()
+    {
+        quarantined = false;
+        installTimes.clear();
+        soloInitTimes.clear();
+        commandTimes.clear();
+        connectTimes.clear();
+        results.clear();
+    }
+
+    public synchronized long getLastProbeTime()
+    {
+        return lastProbeTime;
+    }
+
+    public synchronized void setLastProbeTime(final long time)
+    {
+        lastProbeTime = time;
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return String.format(
+            "health %d%s (install p50 %d ms, solo init p50 %d ms, "
+                + "connect p50 %d ms, command p95 %d ms, "
+                + "failure rate %d%% of %d)",
+            getScore(),
+            quarantined ? " QUARANTINED" : "",
+            percentile(installTimes, PERCENTILE_MEDIAN),
+            percentile(soloInitTimes, PERCENTILE_MEDIAN),
+            percentile(connectTimes, PERCENTILE_MEDIAN),
+            percentile(commandTimes, PERCENTILE_95),
+            Math.round(getFailureRate() * PERCENT),
+            results.size());
+    }
+
+    /**
+     * Scores a timing value: 1 up to the limit, decreasing linearly to 0 at
+     * twice the limit.
+     */
+    private static double timingScore(final long value, final long limit)
+    {
+        if (value <= limit)
+        {
+            return 1;
+        }
+        return Math.max(0, 2 - (double) value / limit);
+    }
+
+    private static void addSample(final LinkedList<Long> samples,
+        final long value, final int windowSize)
+    {
+        samples.add(value);
+        if (samples.size() > windowSize)
+        {
+            samples.removeFirst();
+        }
+    }
+
+    /**
+     * @param samples the values
+     * @param percentile the percentile between 0 and 100
+     * @return the nearest-rank percentile, 0 for no samples
+     */
+    static long percentile(final List<Long> samples, final int percentile)
+    {
+        if (samples.isEmpty())
+        {
+            return 0;
+        }
+        List<Long> sorted = new ArrayList<Long>(samples);
+        Collections.sort(sorted);
+        int rank =
+            (int) Math.ceil(percentile / (double) PERCENT * sorted.size());
+        return sorted.get(Math.max(0, rank - 1));
+    }
+}
@@ -15,6 +15,7 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.safs.android.auto.lib.DUtilities;
 import org.testng.Assert;
@@ -22,9 +23,13 @@ import org.testng.Assert;
 import com.android.ddmlib.AndroidDebugBridge;
 import com.android.ddmlib.AndroidDebugBridge.IDeviceChangeListener;
 import com.android.ddmlib.IDevice;
+import com.android.ddmlib.NullOutputReceiver;
 import com.android.ddmlib.RawImage;
 
+import com.robin.BaseFunctionality;
 import com.robin.reporter.Reporter;
+import com.robin.reporter.TraceRecorder;
+import com.robin.utilities.config.ConfigParams;
 
 public class DevicePool
 {
@@ -41,9 +46,45 @@ public class DevicePool
         .synchronizedMap(new ConcurrentHashMap<IDevice, Boolean>());
     private static final int WAITDEVICETIMEOUT = 5000;
 
+    /**
+     * Stores the health statistics of the devices by serial number, so they
+     * survive device reconnections.
+     */
+    private static final ConcurrentMap<String, DeviceHealth> HEALTH =
+        new ConcurrentHashMap<String, DeviceHealth>();
+
+    /**
+     * Caches the device descriptions by serial number, as reading the display
+     * resolution pulls a full screenshot. Only complete descriptions are
+     * cached, the entry is dropped when the device is removed.
+     */
+    private static final ConcurrentMap<String, String> DESCRIPTIONS =
+        new ConcurrentHashMap<String, String>();
+
+    private static final int DEFAULT_HEALTH_THRESHOLD = 50;
+
+    /**
+     * Minimum time between two probes of a quarantined device.
+     */
+    private static final int PROBE_INTERVAL = 30000;
+
+    /**
+     * Maximum response time of the quarantine probe shell command.
+     */
+    private static final int PROBE_TIMEOUT = 5000;
+
     public static void init(final int minDeviceNumber)
 
     {
+        final int simulatedDevices =
+            Integer.parseInt(BaseFunctionality.config().getValue(
+                ConfigParams.SIMULATED_DEVICES,
+                "0"));
+        if (simulatedDevices > 0)
+        {
+            startSimulatedDevices(simulatedDevices);
+            return;
+        }
         DUtilities.getAndroidDebugBridge();
         AndroidDebugBridge.addDeviceChangeListener(DEVICE_LISTENER);
 
@@ -53,6 +94,25 @@ public class DevicePool
         }
     }
 
+    /**
+     * Runs the tests on simulated devices only, adb is not used.
+     * @param count the number of simulated devices
+     */
+    private static void startSimulatedDevices(final int count)
+    {
+        final String[] latency =
+            BaseFunctionality.config()
+                .getValue(ConfigParams.SIMULATED_LATENCY, "0-0")
+                .split("-");
+        SimulatedDevices.start(
+            count,
+            Integer.parseInt(latency[0].trim()),
+            Integer.parseInt(latency[latency.length - 1].trim()),
+            Double.parseDouble(BaseFunctionality.config().getValue(
+                ConfigParams.SIMULATED_FAILURE_RATE,
+                "0")));
+    }
+
     public static void addDeviceToList(final IDevice device)
     {
         synchronized (DEVICES)
@@ -69,6 +129,7 @@ public class DevicePool
         synchronized (DEVICES)
         {
             DEVICES.remove(device);
+            DESCRIPTIONS.remove(device.getSerialNumber());
             Reporter.log("Device Pool removed device : '"
                 + device.getSerialNumber(), true);
             DEVICES.notifyAll();
@@ -77,41 +138,83 @@ public class DevicePool
 
     public static IDevice getDeviceForExecution(final String selectorRegexp)
     {
-            IDevice deviceToLock;
-        synchronized (DEVICES)
+        final TraceRecorder.Span lease =
+            TraceRecorder.begin(TraceRecorder.LEASE, selectorRegexp);
+        try
+        {
+            final IDevice device = waitForDevice(selectorRegexp);
+            lease.end(device.getSerialNumber());
+            return device;
+        } finally
+        {
+            lease.end();
+        }
+    }
+
+    private static IDevice waitForDevice(final String selectorRegexp)
+    {
+        while (true)
         {
-            if (isDeviceExists(selectorRegexp))
+            IDevice deviceToProbe;
+            synchronized (DEVICES)
             {
-                while (true)
+                if (!isDeviceExists(selectorRegexp))
+                {
+                    Assert.fail("No matching device found for '"
+                        + selectorRegexp + "'. Devices list: "
+                        + getDevicesListString());
+                }
+                IDevice deviceToLock =
+                    getHealthiestUnlockedMatchingDevice(selectorRegexp);
+                if (deviceToLock != null)
+                {
+                    lockDevice(deviceToLock, selectorRegexp);
+                    return deviceToLock;
+                }
+                deviceToProbe = reserveDeviceToProbe(selectorRegexp);
+                if (deviceToProbe == null)
                 {
-                    deviceToLock =
-                        getFirstUnlockedMatchingDevice(selectorRegexp);
+                    deviceToLock = getQuarantinedFallbackDevice(selectorRegexp);
                     if (deviceToLock != null)
                     {
-                        DEVICES.put(deviceToLock, DEVICE_IN_USE);
-                        Reporter.log("Locked '"
-                            + getDeviceDescriptionString(deviceToLock)
-                            + "' for execution. (selector: " + selectorRegexp
-                            + ")", true);
+                        lockDevice(deviceToLock, selectorRegexp);
                         return deviceToLock;
-                    } else
+                    }
+                    try
                     {
-                        try
-                        {
-                            DEVICES.wait();
-                        } catch (InterruptedException e)
-                        {
-                            e.printStackTrace();
-                        }
+                        DEVICES.wait(PROBE_INTERVAL);
+                    } catch (InterruptedException e)
+                    {
+                        e.printStackTrace();
                     }
+                    continue;
                 }
-            } else
-            {
-                Assert.fail("No matching device found for '" + selectorRegexp
-                    + "'. Devices list: " + getDevicesListString());
             }
+            // the probe may take seconds, the pool is not locked meanwhile
+            final boolean passed = probeQuarantinedDevice(deviceToProbe);
+            synchronized (DEVICES)
+            {
+                if (DEVICES.containsKey(deviceToProbe))
+                {
+                    if (passed)
+                    {
+                        lockDevice(deviceToProbe, selectorRegexp);
+                        return deviceToProbe;
+                    }
+                    DEVICES.put(deviceToProbe, DEVICE_READY);
+                }
+                DEVICES.notifyAll();
             }
-        return null;
+        }
+    }
+
+    private static void lockDevice(final IDevice device,
+        final String selectorRegexp)
+    {
+        DEVICES.put(device, DEVICE_IN_USE);
+        Reporter.log("Locked '" + getDeviceDescriptionString(device)
+            + "' for execution. (selector: " + selectorRegexp + ", "
+            + getDeviceHealth(device) + ")", true);
     }
 
     private static String getDevicesListString()
@@ -124,19 +227,213 @@ public class DevicePool
         return listString;
     }
 
-    private static IDevice getFirstUnlockedMatchingDevice(final String name)
+    /**
+     * Selects the free, not quarantined matching device with the best health
+     * score. To be called holding the lock of the pool.
+     * @param name the device selector regexp
+     * @return the device or null if no healthy matching device is free
+     */
+    private static IDevice getHealthiestUnlockedMatchingDevice(
+        final String name)
+    {
+        IDevice healthiest = null;
+        int healthiestScore = -1;
+        for (IDevice matchingDevice : getMatchingDeviceList(name))
+        {
+            DeviceHealth health = getDeviceHealth(matchingDevice);
+            if (!health.isQuarantined() && DEVICES.get(matchingDevice)
+                && health.getScore() > healthiestScore)
+            {
+                healthiest = matchingDevice;
+                healthiestScore = health.getScore();
+            }
+        }
+        return healthiest;
+    }
+
+    /**
+     * Reserves a free quarantined matching device whose last probe is older
+     * than the probe interval, so no other thread uses or probes it while it
+     * is probed outside the lock. To be called holding the lock of the pool.
+     * @param name the device selector regexp
+     * @return the reserved device or null if no device is due for a probe
+     */
+    private static IDevice reserveDeviceToProbe(final String name)
     {
-        List<IDevice> matchingDevices = getMatchingDeviceList(name);
-        for (IDevice matchingDevice : matchingDevices)
+        final long now = System.currentTimeMillis();
+        for (IDevice matchingDevice : getMatchingDeviceList(name))
         {
-            if (DEVICES.get(matchingDevice))
+            DeviceHealth health = getDeviceHealth(matchingDevice);
+            if (health.isQuarantined() && DEVICES.get(matchingDevice)
+                && now - health.getLastProbeTime() >= PROBE_INTERVAL)
             {
+                health.setLastProbeTime(now);
+                DEVICES.put(matchingDevice, DEVICE_IN_USE);
                 return matchingDevice;
             }
         }
         return null;
     }
 
+    /**
+     * Selects the free quarantined matching device with the best health
+     * score when every matching device is quarantined. To be called holding
+     * the lock of the pool.
+     * @param name the device selector regexp
+     * @return the device or null if a healthy matching device exists or no
+     *         quarantined one is free
+     */
+    private static IDevice getQuarantinedFallbackDevice(final String name)
+    {
+        IDevice fallback = null;
+        for (IDevice matchingDevice : getMatchingDeviceList(name))
+        {
+            DeviceHealth health = getDeviceHealth(matchingDevice);
+            if (!health.isQuarantined())
+            {
+                return null;
+            }
+            if (DEVICES.get(matchingDevice)
+                && (fallback == null || health.getScore() > getDeviceHealth(
+                    fallback).getScore()))
+            {
+                fallback = matchingDevice;
+            }
+        }
+        if (fallback != null)
+        {
+            Reporter.log("All devices matching '" + name
+                + "' are quarantined, using '"
+                + getDeviceDescriptionString(fallback) + "'.", true);
+        }
+        return fallback;
+    }
+
+    /**
+     * Probes a quarantined device reserved by
+     * {@link #reserveDeviceToProbe(String)}, without holding the lock of the
+     * pool. A device answering a shell command in time is released from the
+     * quarantine.
+     * @param device the quarantined device
+     * @return true if the device passed the probe and got released
+     */
+    private static boolean probeQuarantinedDevice(final IDevice device)
+    {
+        final long start = System.currentTimeMillis();
+        try
+        {
+            if (!device.isOnline())
+            {
+                throw new IllegalStateException("device is offline");
+            }
+            device.executeShellCommand(
+                "echo robin",
+                NullOutputReceiver.getReceiver(),
+                PROBE_TIMEOUT);
+        } catch (Exception e)
+        {
+            Reporter.log("Device Pool quarantine probe failed on '"
+                + getDeviceDescriptionString(device) + "': " + e.getMessage(),
+                true);
+            return false;
+        }
+        getDeviceHealth(device).release();
+        Reporter.log("Device Pool released '"
+            + getDeviceDescriptionString(device)
+            + "' from quarantine, probe answered in "
+            + (System.currentTimeMillis() - start) + " ms.", true);
+        return true;
+    }
+
+    /**
+     * @param device the device
+     * @return the health statistics of the device
+     */
+    public static DeviceHealth getDeviceHealth(final IDevice device)
+    {
+        final String serial = device.getSerialNumber();
+        DeviceHealth health = HEALTH.get(serial);
+        if (health == null)
+        {
+            HEALTH.putIfAbsent(serial, new DeviceHealth(serial));
+            health = HEALTH.get(serial);
+        }
+        return health;
+    }
+
+    public static void recordInstallTime(final IDevice device,
+        final long milliseconds)
+    {
+        getDeviceHealth(device).addInstallTime(milliseconds);
+        checkDeviceHealth(device);
+    }
+
+    public static void recordSoloInitTime(final IDevice device,
+        final long milliseconds)
+    {
+        getDeviceHealth(device).addSoloInitTime(milliseconds);
+        checkDeviceHealth(device);
+    }
+
+    public static void recordConnectTime(final IDevice device,
+        final long milliseconds)
+    {
+        getDeviceHealth(device).addConnectTime(milliseconds);
+    }
+
+    public static void recordCommandTimes(final IDevice device,
+        final long[] milliseconds)
+    {
+        getDeviceHealth(device).addCommandTimes(milliseconds);
+        checkDeviceHealth(device);
+    }
+
+    public static void recordTestResult(final IDevice device,
+        final boolean passed)
+    {
+        getDeviceHealth(device).addTestResult(passed);
+        checkDeviceHealth(device);
+    }
+
+    /**
+     * Quarantines the device if its health score dropped below the
+     * configured threshold.
+     */
+    private static void checkDeviceHealth(final IDevice device)
+    {
+        DeviceHealth health = getDeviceHealth(device);
+        synchronized (health)
+        {
+            if (health.isQuarantined() || !health.isScoreReliable()
+                || health.getScore() >= getHealthThreshold())
+            {
+                return;
+            }
+            health.quarantine();
+        }
+        Reporter.log("Device Pool quarantined '"
+            + getDeviceDescriptionString(device) + "': " + health + ".", true);
+    }
+
+    private static int getHealthThreshold()
+    {
+        return Integer.parseInt(BaseFunctionality.config().getValue(
+            ConfigParams.DEVICE_HEALTH_THRESHOLD,
+            String.valueOf(DEFAULT_HEALTH_THRESHOLD)));
+    }
+
+    /**
+     * Prints the health statistics of all known devices to the console.
+     */
+    public static void logHealthSummary()
+    {
+        for (DeviceHealth health : HEALTH.values())
+        {
+            Reporter.logConsole("Device health of '"
+                + health.getSerialNumber() + "': " + health);
+        }
+    }
+
     public static boolean isDeviceExists(final String name)
     {
         return getMatchingDeviceList(name).size() > 0;
@@ -197,14 +494,27 @@ public class DevicePool
     {
         if (device != null)
         {
+            final String cached = DESCRIPTIONS.get(device.getSerialNumber());
+            if (cached != null)
+            {
+                return cached;
+            }
             final String sep = "_";
+            final String manufacturer = getDeviceManufacturer(device);
+            final String model = getDeviceModel(device);
+            final String apiLevel = getDeviceApiLevel(device);
+            final String resolution = getDeviceDisplayResolution(device);
             String name =
-                getDeviceManufacturer(device) + sep + getDeviceModel(device)
-                    + sep + getDeviceApiLevel(device) + sep
-                    + getDeviceDisplayResolution(device) + sep
-                    + device.getSerialNumber() + sep
+                manufacturer + sep + model + sep + apiLevel + sep + resolution
+                    + sep + device.getSerialNumber() + sep
                     + getDeviceLanguage(device);
-            return name.replace(" ", "_");
+            name = name.replace(" ", "_");
+            if (manufacturer != null && model != null && apiLevel != null
+                && !resolution.startsWith("?"))
+            {
+                DESCRIPTIONS.put(device.getSerialNumber(), name);
+            }
+            return name;
         }
         return "???";
     }
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2013 Ustream Inc.
+ * author chaotx <lombai.ferenc@ustream.tv>
+ *
+ * For the full copyright and license information, please view the LICENSE
+ * file that was distributed with this source code.
+ */
+package com.robin.device;
+
+import java.io.File;
+import java.io.IOException;
+
+import com.android.ddmlib.IDevice;
+import com.jayway.android.robotium.remotecontrol.solo.Solo;
+import com.jayway.android.robotium.remotecontrol.solo.SoloRemoteControl;
+import com.robin.utilities.android.ApkInstallLedger;
+
+/**
+ * A running solo session on a device: the test runner instrumentation and the
+ * socket connection to it. In session mode the session is kept alive between
+ * the test methods leasing the device, only the application under test is
+ * relaunched.
+ */
+public class DeviceSession
+{
+    private final String serialNumber;
+
+    private final Solo solo;
+
+    private final File autApk;
+
+    private final String autDigest;
+
+    private int testCount = 0;
+
+    public DeviceSession(final IDevice device, final Solo soloParam,
+        final File autApkParam)
+    {
+        serialNumber = device.getSerialNumber();
+        solo = soloParam;
+        autApk = autApkParam;
+        autDigest = getDigest(autApkParam);
+    }
+
+    public String getSerialNumber()
+    {
+        return serialNumber;
+    }
+
+    public Solo getSolo()
+    {
+        return solo;
+    }
+
+    /**
+     * @return the re-signed application under test the session was started
+     *         for
+     */
+    public File getAutApk()
+    {
+        return autApk;
+    }
+
+    /**
+     * Checks the session was started for the same apk file, unchanged since.
+     * The re-signed apk keeps its path when it is rebuilt, so its content
+     * digest is compared as well.
+     * @param apk the re-signed application under test of the new test
+     * @return true if the session can run the application
+     */
+    public boolean isStartedFor(final File apk)
+    {
+        if (!autApk.equals(apk))
+        {
+            return false;
+        }
+        final String digest = getDigest(apk);
+        return autDigest == null ? digest == null : autDigest.equals(digest);
+    }
+
+    /**
+     * @return the number of tests that used this session
+     */
+    public int getTestCount()
+    {
+        return testCount;
+    }
+
+    /**
+     * Checks that the protocol runner is still connected and the remote solo
+     * answers a no-op command.
+     * @return true if the session can be reused
+     */
+    public boolean isHealthy()
+    {
+        SoloRemoteControl control = solo.getRemoteControl();
+        if (control == null || !control.isSessionAlive())
+        {
+            return false;
+        }
+        try
+        {
+            return solo.sleep(0);
+        } catch (Exception e)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Prepares the session for a new test: finishes the opened activities,
+     * relaunches the main activity and resets the command statistics.
+     * @throws Exception if the remote solo failed to restart the application
+     */
+    public void restartApplication() throws Exception
+    {
+        solo.finishOpenedActivities();
+        solo.startMainLauncher();
+        solo.getRemoteControl().resetCommandStatistics();
+        testCount++;
+    }
+
+    /**
+     * Stops the remote service and the local protocol runner. Errors are
+     * ignored, the session may already be broken.
+     */
+    public void close()
+    {
+        try
+        {
+            solo.shutdownRemote();
+        } catch (Exception e)
+        {
+            e.printStackTrace();
+        }
+        closeLocal();
+    }
+
+    /**
+     * Stops only the local protocol runner, used when the device is gone.
+     */
+    public void closeLocal()
+    {
+        try
+        {
+            solo.shutdown();
+        } catch (Exception e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @param apk the apk file
+     * @return the content digest of the apk, or null if it can not be read
+     */
+    private static String getDigest(final File apk)
+    {
+        try
+        {
+            return ApkInstallLedger.getDigest(apk);
+        } catch (IOException e)
+        {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2013 Ustream Inc.
+ * author chaotx <lombai.ferenc@ustream.tv>
+ *
+ * For the full copyright and license information, please view the LICENSE
+ * file that was distributed with this source code.
+ */
+package com.robin.device;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.android.ddmlib.IDevice;
+
+import com.robin.reporter.Reporter;
+
+/**
+ * Stores the persistent device sessions by device serial number. A session is
+ * used only by the test holding the device lease of the {@link DevicePool}.
+ */
+public final class DeviceSessionPool
+{
+    private static final Map<String, DeviceSession> SESSIONS =
+        new ConcurrentHashMap<String, DeviceSession>();
+
+    private DeviceSessionPool()
+    {
+    }
+
+    /**
+     * @param device the device
+     * @return the session of the device or null if there is none
+     */
+    public static DeviceSession getSession(final IDevice device)
+    {
+        return SESSIONS.get(device.getSerialNumber());
+    }
+
+    public static void addSession(final DeviceSession session)
+    {
+        DeviceSession previous =
+            SESSIONS.put(session.getSerialNumber(), session);
+        if (previous != null && previous != session)
+        {
+            previous.close();
+        }
+    }
+
+    /**
+     * Removes and closes the session of the device.
+     * @param device the device
+     */
+    public static void closeSession(final IDevice device)
+    {
+        DeviceSession session = SESSIONS.remove(device.getSerialNumber());
+        if (session != null)
+        {
+            session.close();
+        }
+    }
+
+    /**
+     * Removes the session of a disconnected device and stops its local
+     * protocol runner.
+     * @param device the disconnected device
+     */
+    public static void dropSession(final IDevice device)
+    {
+        DeviceSession session = SESSIONS.remove(device.getSerialNumber());
+        if (session != null)
+        {
+            Reporter.logConsole("Dropped session of disconnected device "
+                + device.getSerialNumber() + " after "
+                + session.getTestCount() + " test(s).");
+            session.closeLocal();
+        }
+    }
+
+    /**
+     * Closes every session, called at the end of the execution.
+     */
+    public static void closeAllSessions()
+    {
+        List<DeviceSession> sessions =
+            new ArrayList<DeviceSession>(SESSIONS.values());
+        SESSIONS.clear();
+        for (DeviceSession session : sessions)
+        {
+            session.close();
+        }
+    }
+}
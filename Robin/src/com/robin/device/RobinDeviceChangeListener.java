@@ -7,8 +7,11 @@
  */
 package com.robin.device;
 
+import org.safs.sockets.android.PortLeaseManager;
+
 import com.android.ddmlib.AndroidDebugBridge.IDeviceChangeListener;
 import com.android.ddmlib.IDevice;
+import com.jayway.android.robotium.remotecontrol.solo.SoloRemoteControl;
 
 public class RobinDeviceChangeListener implements IDeviceChangeListener
 {
@@ -26,6 +29,9 @@ public class RobinDeviceChangeListener implements IDeviceChangeListener
     public void deviceDisconnected(final IDevice device)
     {
         DevicePool.removeDeviceFromList(device);
+        SoloRemoteControl.notifyDeviceDisconnected(device.getSerialNumber());
+        DeviceSessionPool.dropSession(device);
+        PortLeaseManager.releaseDevice(device.getSerialNumber());
     }
 
     @Override
@@ -37,6 +43,10 @@ public class RobinDeviceChangeListener implements IDeviceChangeListener
         } else
         {
             DevicePool.removeDeviceFromList(device);
+            SoloRemoteControl.notifyDeviceDisconnected(
+                device.getSerialNumber());
+            DeviceSessionPool.dropSession(device);
+            PortLeaseManager.releaseDevice(device.getSerialNumber());
         }
     }
 
@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2013 Ustream Inc.
+ * author chaotx <lombai.ferenc@ustream.tv>
+ *
+ * For the full copyright and license information, please view the LICENSE
+ * file that was distributed with this source code.
+ */
+package com.robin.device;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.android.ddmlib.IDevice;
+import com.android.ddmlib.IShellOutputReceiver;
+import com.android.ddmlib.RawImage;
+import com.jayway.android.robotium.remotecontrol.solo.SimulatedDevice;
+import com.jayway.android.robotium.remotecontrol.solo.SimulatedViewTree;
+
+import com.robin.reporter.Reporter;
+
+/**
+ * In-JVM simulated devices for running the Robin pipeline without phones.
+ * Each simulated device is a {@link SimulatedDevice} answering the solo
+ * protocol on a local port and a fake {@link IDevice} registered into the
+ * {@link DevicePool}. Shell commands of a fake device do nothing, its
+ * screenshots are blank.
+ */
+public final class SimulatedDevices
+{
+    private static final String SERIAL_PREFIX = "robin-sim-";
+
+    private static final int SCREEN_WIDTH = 480;
+
+    private static final int SCREEN_HEIGHT = 800;
+
+    private static final int BYTES_PER_PIXEL = 4;
+
+    private static final Map<String, SimulatedDevice> SIMULATORS =
+        new ConcurrentHashMap<String, SimulatedDevice>();
+
+    private SimulatedDevices()
+    {
+    }
+
+    /**
+     * Starts simulated devices and adds them to the device pool.
+     * @param count the number of devices to start
+     * @param minLatency minimum milliseconds to answer a solo command
+     * @param maxLatency maximum milliseconds to answer a solo command
+     * @param failureRate 0.0-1.0 probability of a failing solo command
+     */
+    public static void start(final int count, final int minLatency,
+        final int maxLatency, final double failureRate)
+    {
+        for (int i = 1; i <= count; i++)
+        {
+            final String serial = String.format("%s%03d", SERIAL_PREFIX, i);
+            SimulatedDevice simulator =
+                new SimulatedDevice(serial, SimulatedViewTree.createDefault());
+            simulator.setLatency(minLatency, maxLatency);
+            simulator.setFailureRate(failureRate);
+            simulator.start();
+            SIMULATORS.put(serial, simulator);
+            DevicePool.addDeviceToList(createDevice(serial));
+        }
+        Reporter.log("Started " + count + " simulated device(s).", true);
+    }
+
+    /**
+     * Stops every simulated device.
+     */
+    public static void stopAll()
+    {
+        for (SimulatedDevice simulator : SIMULATORS.values())
+        {
+            simulator.stop();
+        }
+        SIMULATORS.clear();
+    }
+
+    /**
+     * @param device the device
+     * @return true if the device is simulated
+     */
+    public static boolean isSimulated(final IDevice device)
+    {
+        return SIMULATORS.containsKey(device.getSerialNumber());
+    }
+
+    /**
+     * @param device the device
+     * @return the simulator of the device or null if the device is real
+     */
+    public static SimulatedDevice getSimulator(final IDevice device)
+    {
+        return SIMULATORS.get(device.getSerialNumber());
+    }
+
+    /**
+     * Creates a fake device without a simulator. Only the methods used by
+     * Robin are answered, every other method returns null, false or 0.
+     * @param serial the serial number of the device
+     * @return the fake device
+     */
+    public static IDevice createDevice(final String serial)
+    {
+        final Map<String, String> properties = new HashMap<String, String>();
+        properties.put("ro.product.manufacturer", "Robin");
+        properties.put("ro.product.model", "Simulator");
+        properties.put(IDevice.PROP_BUILD_API_LEVEL, "16");
+        properties.put(IDevice.PROP_BUILD_VERSION, "4.1.1");
+        properties.put("persist.sys.language", "en");
+        properties.put("persist.sys.country", "US");
+        InvocationHandler handler = new InvocationHandler()
+        {
+            @Override
+            public Object invoke(final Object proxy, final Method method,
+                final Object[] args)
+            {
+                final String name = method.getName();
+                if ("getSerialNumber".equals(name) || "toString".equals(name))
+                {
+                    return serial;
+                } else if ("hashCode".equals(name))
+                {
+                    return serial.hashCode();
+                } else if ("equals".equals(name))
+                {
+                    return proxy == args[0];
+                } else if ("getState".equals(name))
+                {
+                    return IDevice.DeviceState.ONLINE;
+                } else if ("isOnline".equals(name))
+                {
+                    return true;
+                } else if ("getProperty".equals(name))
+                {
+                    return properties.get(args[0]);
+                } else if ("getProperties".equals(name))
+                {
+                    return properties;
+                } else if ("getPropertyCount".equals(name))
+                {
+                    return properties.size();
+                } else if ("getScreenshot".equals(name))
+                {
+                    return createScreenshot();
+                } else if ("executeShellCommand".equals(name))
+                {
+                    ((IShellOutputReceiver) args[1]).flush();
+                    return null;
+                }
+                return getDefaultValue(method.getReturnType());
+            }
+        };
+        return (IDevice) Proxy.newProxyInstance(
+            IDevice.class.getClassLoader(),
+            new Class<?>[] {IDevice.class },
+            handler);
+    }
+
+    private static Object getDefaultValue(final Class<?> type)
+    {
+        if (type == boolean.class)
+        {
+            return false;
+        } else if (type == int.class)
+        {
+            return 0;
+        } else if (type == long.class)
+        {
+            return 0L;
+        }
+        return null;
+    }
+
+    private static RawImage createScreenshot()
+    {
+        RawImage image = new RawImage();
+        image.version = 1;
+        image.bpp = BYTES_PER_PIXEL * 8;
+        image.width = SCREEN_WIDTH;
+        image.height = SCREEN_HEIGHT;
+        image.size = SCREEN_WIDTH * SCREEN_HEIGHT * BYTES_PER_PIXEL;
+        image.red_offset = 0;
+        image.red_length = 8;
+        image.green_offset = 8;
+        image.green_length = 8;
+        image.blue_offset = 16;
+        image.blue_length = 8;
+        image.alpha_offset = 24;
+        image.alpha_length = 8;
+        image.data = new byte[image.size];
+        return image;
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright (C) 2013 Ustream Inc.
+ * author chaotx <lombai.ferenc@ustream.tv>
+ *
+ * For the full copyright and license information, please view the LICENSE
+ * file that was distributed with this source code.
+ */
+package com.robin.history;
+
+/**
+ * One test method execution as stored in the test history. A record is
+ * serialized to a single tab separated line of the history file.
+ */
+public final class TestExecutionRecord
+{
+    /**
+     * Outcome of a test method execution.
+     */
+    public enum Result
+    {
+        PASS, FAIL, SKIP
+    }
+
+    private static final char SEPARATOR = '\t';
+
+    private static final int FIELD_COUNT = 9;
+
+    private static final int MAX_SIGNATURE_MESSAGE_LENGTH = 120;
+
+    private final long timestamp;
+
+    private final String testClassName;
+
+    private final String methodName;
+
+    private final String device;
+
+    private final Result result;
+
+    private final long duration;
+
+    private final long setupTime;
+
+    private final int commandCount;
+
+    private final String failureSignature;
+
+    public TestExecutionRecord(final long timestampParam,
+        final String testClassNameParam, final String methodNameParam,
+        final String deviceParam, final Result resultParam,
+        final long durationParam, final long setupTimeParam,
+        final int commandCountParam, final String failureSignatureParam)
+    {
+        timestamp = timestampParam;
+        testClassName = valueOrEmpty(testClassNameParam);
+        methodName = valueOrEmpty(methodNameParam);
+        device = valueOrEmpty(deviceParam);
+        result = resultParam;
+        duration = durationParam;
+        setupTime = setupTimeParam;
+        commandCount = commandCountParam;
+        failureSignature = valueOrEmpty(failureSignatureParam);
+    }
+
+    public long getTimestamp()
+    {
+        return timestamp;
+    }
+
+    public String getTestClassName()
+    {
+        return testClassName;
+    }
+
+    public String getMethodName()
+    {
+        return methodName;
+    }
+
+    /**
+     * @return the device description string the test was executed on
+     */
+    public String getDevice()
+    {
+        return device;
+    }
+
+    public Result getResult()
+    {
+        return result;
+    }
+
+    /**
+     * @return the test method duration in milliseconds
+     */
+    public long getDuration()
+    {
+        return duration;
+    }
+
+    /**
+     * @return the setup (install, instrumentation, solo init) duration in
+     *         milliseconds
+     */
+    public long getSetupTime()
+    {
+        return setupTime;
+    }
+
+    /**
+     * @return the number of remote commands sent to the device(s)
+     */
+    public int getCommandCount()
+    {
+        return commandCount;
+    }
+
+    /**
+     * @return the normalized failure signature, empty for passed tests
+     */
+    public String getFailureSignature()
+    {
+        return failureSignature;
+    }
+
+    /**
+     * Creates a stable signature of a failure: exception type, the message
+     * with numbers masked and the first stack frame. Equal root causes on
+     * different runs and devices produce the same signature.
+     * @param throwable the failure cause, may be null
+     * @return the signature or empty string if throwable is null
+     */
+    public static String failureSignature(final Throwable throwable)
+    {
+        if (throwable == null)
+        {
+            return "";
+        }
+        String message = throwable.getMessage();
+        if (message == null)
+        {
+            message = "";
+        } else
+        {
+            int newLine = message.indexOf('\n');
+            if (newLine >= 0)
+            {
+                message = message.substring(0, newLine);
+            }
+            message = message.replaceAll("[0-9]+", "#");
+            if (message.length() > MAX_SIGNATURE_MESSAGE_LENGTH)
+            {
+                message = message.substring(0, MAX_SIGNATURE_MESSAGE_LENGTH);
+            }
+        }
+        StringBuilder signature =
+            new StringBuilder(throwable.getClass().getName());
+        signature.append(": ").append(message);
+        StackTraceElement[] stack = throwable.getStackTrace();
+        if (stack != null && stack.length > 0)
+        {
+            signature
+                .append(" at ")
+                .append(stack[0].getClassName())
+                .append('.')
+                .append(stack[0].getMethodName());
+        }
+        return signature.toString();
+    }
+
+    /**
+     * @return the record as a single history file line (without line end)
+     */
+    public String toLine()
+    {
+        StringBuilder line = new StringBuilder();
+        line.append(timestamp).append(SEPARATOR);
+        line.append(escape(testClassName)).append(SEPARATOR);
+        line.append(escape(methodName)).append(SEPARATOR);
+        line.append(escape(device)).append(SEPARATOR);
+        line.append(result.name()).append(SEPARATOR);
+        line.append(duration).append(SEPARATOR);
+        line.append(setupTime).append(SEPARATOR);
+        line.append(commandCount).append(SEPARATOR);
+        line.append(escape(failureSignature));
+        return line.toString();
+    }
+
+    /**
+     * Parses a history file line.
+     * @param line the line created by {@link #toLine()}
+     * @return the record or null if the line is corrupted (e.g. a partially
+     *         written last line)
+     */
+    public static TestExecutionRecord fromLine(final String line)
+    {
+        String[] fields = line.split(String.valueOf(SEPARATOR), -1);
+        if (fields.length != FIELD_COUNT)
+        {
+            return null;
+        }
+        try
+        {
+            return new TestExecutionRecord(
+                Long.parseLong(fields[0]),
+                unescape(fields[1]),
+                unescape(fields[2]),
+                unescape(fields[3]),
+                Result.valueOf(fields[4]),
+                Long.parseLong(fields[5]),
+                Long.parseLong(fields[6]),
+                Integer.parseInt(fields[7]),
+                unescape(fields[8]));
+        } catch (IllegalArgumentException e)
+        {
+            return null;
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format(
+            "%s.%s on %s: %s in %d ms (setup %d ms, %d commands)",
+            testClassName,
+            methodName,
+            device,
+            result,
+            duration,
+            setupTime,
+            commandCount);
+    }
+
+    private static String valueOrEmpty(final String value)
+    {
+        return value == null ? "" : value;
+    }
+
+    private static String escape(final String value)
+    {
+        return value
+            .replace("\\", "\\\\")
+            .replace("\t", "\\t")
+            .replace("\r", "\\r")
+            .replace("\n", "\\n");
+    }
+
+    private static String unescape(final String value)
+    {
+        if (value.indexOf('\\') < 0)
+        {
+            return value;
+        }
+        StringBuilder out = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length())
+            {
+                char next = value.charAt(++i);
+                switch (next)
+                {
+                case 't':
+                    out.append('\t');
+                    break;
+                case 'r':
+                    out.append('\r');
+                    break;
+                case 'n':
+                    out.append('\n');
+                    break;
+                default:
+                    out.append(next);
+                    break;
+                }
+            } else
+            {
+                out.append(c);
+            }
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,382 @@
+/*
+ * Copyright (C) 2013 Ustream Inc.
+ * author chaotx <lombai.ferenc@ustream.tv>
+ *
+ * For the full copyright and license information, please view the LICENSE
+ * file that was distributed with this source code.
+ */
+package com.robin.history;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import com.robin.reporter.Reporter;
+
+/**
+ * Embedded, append-only store of the test executions of every run. Records are
+ * queued by the test threads and appended to the history file in batches by a
+ * single background writer thread, so adding a record never waits for disk
+ * I/O. The history file is a plain UTF-8 text file, one
+ * {@link TestExecutionRecord} per line, that survives between runs.
+ */
+public class TestHistoryStore
+{
+    /**
+     * Selects the records returned by {@link TestHistoryStore#query(Filter)}.
+     */
+    public interface Filter
+    {
+        boolean accept(final TestExecutionRecord record);
+    }
+
+    private static final String ENCODING = "UTF-8";
+
+    private static final int MAX_BATCH_SIZE = 256;
+
+    private static final long FLUSH_TIMEOUT = 10000;
+
+    private final File historyFile;
+
+    private final BlockingQueue<TestExecutionRecord> queue =
+        new LinkedBlockingQueue<TestExecutionRecord>();
+
+    private final Object writeLock = new Object();
+
+    private long submittedCount = 0;
+
+    private long writtenCount = 0;
+
+    private Thread writerThread;
+
+    private volatile boolean closed = false;
+
+    public TestHistoryStore(final File historyFileParam)
+    {
+        historyFile = historyFileParam;
+    }
+
+    public File getHistoryFile()
+    {
+        return historyFile;
+    }
+
+    /**
+     * Queues a record to be appended to the history file. Never blocks.
+     * @param record the test execution to store
+     */
+    public void add(final TestExecutionRecord record)
+    {
+        if (closed)
+        {
+            return;
+        }
+        synchronized (writeLock)
+        {
+            submittedCount++;
+            startWriterIfNeeded();
+        }
+        queue.offer(record);
+    }
+
+    /**
+     * Waits until every record added before this call is written to disk.
+     */
+    public void flush()
+    {
+        synchronized (writeLock)
+        {
+            final long target = submittedCount;
+            final long deadline = System.currentTimeMillis() + FLUSH_TIMEOUT;
+            long remaining = FLUSH_TIMEOUT;
+            while (writtenCount < target && remaining > 0)
+            {
+                try
+                {
+                    writeLock.wait(remaining);
+                } catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                remaining = deadline - System.currentTimeMillis();
+            }
+        }
+    }
+
+    /**
+     * Flushes the pending records and stops accepting new ones.
+     */
+    public void close()
+    {
+        flush();
+        closed = true;
+        synchronized (writeLock)
+        {
+            if (writerThread != null)
+            {
+                writerThread.interrupt();
+                writerThread = null;
+            }
+        }
+    }
+
+    /**
+     * @return every stored record in execution order
+     */
+    public List<TestExecutionRecord> getRecords()
+    {
+        return query(null);
+    }
+
+    /**
+     * @param testClassName simple name of the test class
+     * @param methodName name of the test method
+     * @return the stored executions of the given test method
+     */
+    public List<TestExecutionRecord> getRecords(final String testClassName,
+        final String methodName)
+    {
+        return query(new Filter()
+        {
+            @Override
+            public boolean accept(final TestExecutionRecord record)
+            {
+                return record.getTestClassName().equals(testClassName)
+                    && record.getMethodName().equals(methodName);
+            }
+        });
+    }
+
+    /**
+     * @param deviceRegexp regular expression matching device description
+     *        strings
+     * @return the stored executions on the matching devices
+     */
+    public List<TestExecutionRecord> getRecordsOfDevice(
+        final String deviceRegexp)
+    {
+        return query(new Filter()
+        {
+            @Override
+            public boolean accept(final TestExecutionRecord record)
+            {
+                return record.getDevice().matches(deviceRegexp);
+            }
+        });
+    }
+
+    /**
+     * Reads the history file after flushing the pending records.
+     * @param filter the record selector, null selects all records
+     * @return the selected records in execution order
+     */
+    public List<TestExecutionRecord> query(final Filter filter)
+    {
+        flush();
+        List<TestExecutionRecord> records =
+            new ArrayList<TestExecutionRecord>();
+        if (!historyFile.exists())
+        {
+            return records;
+        }
+        BufferedReader reader = null;
+        try
+        {
+            reader =
+                new BufferedReader(new InputStreamReader(new FileInputStream(
+                    historyFile), ENCODING));
+            String line;
+            while ((line = reader.readLine()) != null)
+            {
+                TestExecutionRecord record =
+                    TestExecutionRecord.fromLine(line);
+                if (record != null && (filter == null || filter.accept(record)))
+                {
+                    records.add(record);
+                }
+            }
+        } catch (IOException e)
+        {
+            Reporter.logConsole("Could not read test history '"
+                + historyFile.getAbsolutePath() + "': " + e.getMessage());
+        } finally
+        {
+            closeQuietly(reader);
+        }
+        return records;
+    }
+
+    /**
+     * @param records test executions
+     * @return the ratio of failed executions, 0 for an empty list
+     */
+    public static double getFailureRate(
+        final List<TestExecutionRecord> records)
+    {
+        int executed = 0;
+        int failed = 0;
+        for (TestExecutionRecord record : records)
+        {
+            if (record.getResult() != TestExecutionRecord.Result.SKIP)
+            {
+                executed++;
+                if (record.getResult() == TestExecutionRecord.Result.FAIL)
+                {
+                    failed++;
+                }
+            }
+        }
+        return executed == 0 ? 0 : (double) failed / executed;
+    }
+
+    /**
+     * Flakiness is the ratio of pass/fail flips between consecutive
+     * executions: a test that always passes or always fails scores 0, one that
+     * alternates scores 1.
+     * @param records test executions of a single test method in execution
+     *        order
+     * @return the flakiness between 0 and 1
+     */
+    public static double getFlakiness(final List<TestExecutionRecord> records)
+    {
+        TestExecutionRecord.Result previous = null;
+        int transitions = 0;
+        int flips = 0;
+        for (TestExecutionRecord record : records)
+        {
+            if (record.getResult() == TestExecutionRecord.Result.SKIP)
+            {
+                continue;
+            }
+            if (previous != null)
+            {
+                transitions++;
+                if (previous != record.getResult())
+                {
+                    flips++;
+                }
+            }
+            previous = record.getResult();
+        }
+        return transitions == 0 ? 0 : (double) flips / transitions;
+    }
+
+    /**
+     * @param records test executions
+     * @return the average duration in milliseconds of the non skipped
+     *         executions, 0 for an empty list
+     */
+    public static long getAverageDuration(
+        final List<TestExecutionRecord> records)
+    {
+        long sum = 0;
+        int count = 0;
+        for (TestExecutionRecord record : records)
+        {
+            if (record.getResult() != TestExecutionRecord.Result.SKIP)
+            {
+                sum += record.getDuration();
+                count++;
+            }
+        }
+        return count == 0 ? 0 : sum / count;
+    }
+
+    private void startWriterIfNeeded()
+    {
+        if (writerThread == null)
+        {
+            writerThread = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    writeLoop();
+                }
+            }, "RobinTestHistoryWriter");
+            writerThread.setDaemon(true);
+            writerThread.start();
+        }
+    }
+
+    private void writeLoop()
+    {
+        List<TestExecutionRecord> batch = new ArrayList<TestExecutionRecord>();
+        while (true)
+        {
+            try
+            {
+                batch.add(queue.take());
+            } catch (InterruptedException e)
+            {
+                if (queue.isEmpty())
+                {
+                    return;
+                }
+            }
+            queue.drainTo(batch, MAX_BATCH_SIZE - batch.size());
+            writeBatch(batch);
+            synchronized (writeLock)
+            {
+                writtenCount += batch.size();
+                writeLock.notifyAll();
+            }
+            batch.clear();
+        }
+    }
+
+    private void writeBatch(final List<TestExecutionRecord> batch)
+    {
+        File parent = historyFile.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists())
+        {
+            parent.mkdirs();
+        }
+        BufferedWriter writer = null;
+        try
+        {
+            writer =
+                new BufferedWriter(new OutputStreamWriter(new FileOutputStream(
+                    historyFile,
+                    true), ENCODING));
+            for (TestExecutionRecord record : batch)
+            {
+                writer.write(record.toLine());
+                writer.newLine();
+            }
+            writer.flush();
+        } catch (IOException e)
+        {
+            Reporter.logConsole("Could not write test history '"
+                + historyFile.getAbsolutePath() + "': " + e.getMessage());
+        } finally
+        {
+            closeQuietly(writer);
+        }
+    }
+
+    private static void closeQuietly(final Closeable closeable)
+    {
+        if (closeable != null)
+        {
+            try
+            {
+                closeable.close();
+            } catch (IOException e)
+            {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2013 Ustream Inc.
+ * author chaotx <lombai.ferenc@ustream.tv>
+ *
+ * For the full copyright and license information, please view the LICENSE
+ * file that was distributed with this source code.
+ */
+package com.robin.reporter;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.jayway.android.robotium.remotecontrol.solo.CommandLatencies;
+import com.jayway.android.robotium.remotecontrol.solo.LatencyHistogram;
+
+/**
+ * Reports the solo command latencies of each test and aggregates them for the
+ * whole run. Commands are listed by their summed round trip time, so the
+ * commands dominating the suite time come first.
+ */
+public final class CommandLatencyReport
+{
+    private static final int MEDIAN = 50;
+
+    private static final int PERCENTILE_95 = 95;
+
+    private static final CommandLatencies RUN_LATENCIES =
+        new CommandLatencies();
+
+    private CommandLatencyReport()
+    {
+    }
+
+    /**
+     * Adds the latencies of a test to the run and writes them into the report
+     * of the current test.
+     * @param latencies the command latencies of the test
+     */
+    public static void logTest(final CommandLatencies latencies)
+    {
+        if (latencies.isEmpty())
+        {
+            return;
+        }
+        RUN_LATENCIES.add(latencies);
+        Reporter.log(Reporter.getToogleText(
+            "Solo command latencies",
+            getHtmlTable(latencies)));
+    }
+
+    /**
+     * Prints the latencies of every command of the run to the console.
+     */
+    public static void logRunSummary()
+    {
+        for (String command : getCommandsByTotalTime(RUN_LATENCIES))
+        {
+            StringBuilder line =
+                new StringBuilder("Solo command '").append(command)
+                    .append("': sum=")
+                    .append(getTotal(RUN_LATENCIES, command))
+                    .append("ms");
+            for (int phase = CommandLatencies.PHASE_TOTAL; phase >= 0; phase--)
+            {
+                line.append(", ")
+                    .append(CommandLatencies.PHASE_NAMES[phase])
+                    .append(' ')
+                    .append(RUN_LATENCIES.getHistogram(command, phase));
+            }
+            Reporter.logConsole(line.toString());
+        }
+    }
+
+    private static String getHtmlTable(final CommandLatencies latencies)
+    {
+        StringBuilder html =
+            new StringBuilder("<table><tr><th>command</th><th>n</th>"
+                + "<th>sum ms</th>");
+        for (int phase = CommandLatencies.PHASE_TOTAL; phase >= 0; phase--)
+        {
+            html.append("<th>")
+                .append(CommandLatencies.PHASE_NAMES[phase])
+                .append(" p50/p95/max ms</th>");
+        }
+        html.append("</tr>");
+        for (String command : getCommandsByTotalTime(latencies))
+        {
+            LatencyHistogram total =
+                latencies.getHistogram(command, CommandLatencies.PHASE_TOTAL);
+            html.append("<tr><td>").append(Reporter.escapeHtml(command))
+                .append("</td><td>").append(total.getCount())
+                .append("</td><td>").append(total.getTotal())
+                .append("</td>");
+            for (int phase = CommandLatencies.PHASE_TOTAL; phase >= 0; phase--)
+            {
+                LatencyHistogram histogram =
+                    latencies.getHistogram(command, phase);
+                html.append("<td>")
+                    .append(histogram.getPercentile(MEDIAN)).append('/')
+                    .append(histogram.getPercentile(PERCENTILE_95))
+                    .append('/').append(histogram.getMax()).append("</td>");
+            }
+            html.append("</tr>");
+        }
+        return html.append("</table>").toString();
+    }
+
+    private static long getTotal(final CommandLatencies latencies,
+        final String command)
+    {
+        return latencies.getHistogram(command, CommandLatencies.PHASE_TOTAL)
+            .getTotal();
+    }
+
+    private static List<String> getCommandsByTotalTime(
+        final CommandLatencies latencies)
+    {
+        List<String> commands = latencies.getCommands();
+        final Map<String, Long> totals = new HashMap<String, Long>();
+        for (String command : commands)
+        {
+            totals.put(command, getTotal(latencies, command));
+        }
+        Collections.sort(commands, new Comparator<String>()
+        {
+            @Override
+            public int compare(final String first, final String second)
+            {
+                return totals.get(second).compareTo(totals.get(first));
+            }
+        });
+        return commands;
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2013 Ustream Inc.
+ * author chaotx <lombai.ferenc@ustream.tv>
+ *
+ * For the full copyright and license information, please view the LICENSE
+ * file that was distributed with this source code.
+ */
+package com.robin.reporter;
+
+/**
+ * A report event of the {@link ReportStream}, stored as a single line of the
+ * events file.
+ */
+public final class ReportEvent
+{
+    /**
+     * The kind of the event.
+     */
+    public enum Type
+    {
+        /**
+         * A test or configuration method started, the name is the method, the
+         * style is {@link ReportRenderer#TEST} or
+         * {@link ReportRenderer#CONFIGURATION} and the device is set if known.
+         */
+        START,
+        /**
+         * A report line, the text is HTML, the style is the class of its div
+         * if not empty.
+         */
+        LINE,
+        /**
+         * Like a line, but without a line break after it.
+         */
+        INLINE,
+        /**
+         * A captured file, the text is its path relative to the report
+         * directory.
+         */
+        ARTIFACT,
+        /**
+         * The method finished, the style is the result, the text is the
+         * failure if any.
+         */
+        END
+    }
+
+    /**
+     * The id of the events not belonging to a test method.
+     */
+    public static final int RUN_ID = 0;
+
+    private static final char SEPARATOR = '\t';
+
+    private static final int FIELD_COUNT = 7;
+
+    private final long timestamp;
+
+    private final int testId;
+
+    private final Type type;
+
+    private final String name;
+
+    private final String device;
+
+    private final String style;
+
+    private final String text;
+
+    public ReportEvent(final long timestampParam, final int testIdParam,
+        final Type typeParam, final String nameParam, final String deviceParam,
+        final String styleParam, final String textParam)
+    {
+        timestamp = timestampParam;
+        testId = testIdParam;
+        type = typeParam;
+        name = valueOrEmpty(nameParam);
+        device = valueOrEmpty(deviceParam);
+        style = valueOrEmpty(styleParam);
+        text = valueOrEmpty(textParam);
+    }
+
+    public long getTimestamp()
+    {
+        return timestamp;
+    }
+
+    public int getTestId()
+    {
+        return testId;
+    }
+
+    public Type getType()
+    {
+        return type;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public String getDevice()
+    {
+        return device;
+    }
+
+    public String getStyle()
+    {
+        return style;
+    }
+
+    public String getText()
+    {
+        return text;
+    }
+
+    /**
+     * @return the event as a single events file line (without line end)
+     */
+    public String toLine()
+    {
+        StringBuilder line = new StringBuilder(text.length() + 64);
+        line.append(timestamp).append(SEPARATOR);
+        line.append(testId).append(SEPARATOR);
+        line.append(type.name()).append(SEPARATOR);
+        line.append(escape(name)).append(SEPARATOR);
+        line.append(escape(device)).append(SEPARATOR);
+        line.append(escape(style)).append(SEPARATOR);
+        line.append(escape(text));
+        return line.toString();
+    }
+
+    /**
+     * Parses an events file line.
+     * @param line the line created by {@link #toLine()}
+     * @return the event or null if the line is corrupted (e.g. a partially
+     *         written last line)
+     */
+    public static ReportEvent fromLine(final String line)
+    {
+        String[] fields = line.split(String.valueOf(SEPARATOR), -1);
+        if (fields.length != FIELD_COUNT)
+        {
+            return null;
+        }
+        try
+        {
+            return new ReportEvent(
+                Long.parseLong(fields[0]),
+                Integer.parseInt(fields[1]),
+                Type.valueOf(fields[2]),
+                unescape(fields[3]),
+                unescape(fields[4]),
+                unescape(fields[5]),
+                unescape(fields[6]));
+        } catch (IllegalArgumentException e)
+        {
+            return null;
+        }
+    }
+
+    private static String valueOrEmpty(final String value)
+    {
+        return value == null ? "" : value;
+    }
+
+    private static String escape(final String value)
+    {
+        if (value.indexOf('\\') < 0 && value.indexOf('\t') < 0
+            && value.indexOf('\r') < 0 && value.indexOf('\n') < 0)
+        {
+            return value;
+        }
+        return value
+            .replace("\\", "\\\\")
+            .replace("\t", "\\t")
+            .replace("\r", "\\r")
+            .replace("\n", "\\n");
+    }
+
+    private static String unescape(final String value)
+    {
+        if (value.indexOf('\\') < 0)
+        {
+            return value;
+        }
+        StringBuilder out = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length())
+            {
+                char next = value.charAt(++i);
+                switch (next)
+                {
+                case 't':
+                    out.append('\t');
+                    break;
+                case 'r':
+                    out.append('\r');
+                    break;
+                case 'n':
+                    out.append('\n');
+                    break;
+                default:
+                    out.append(next);
+                    break;
+                }
+            } else
+            {
+                out.append(c);
+            }
+        }
+        return out.toString();
+    }
+}
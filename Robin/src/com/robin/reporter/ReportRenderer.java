@@ -0,0 +1,416 @@
+/*
+ * Copyright (C) 2013 Ustream Inc.
+ * author chaotx <lombai.ferenc@ustream.tv>
+ *
+ * For the full copyright and license information, please view the LICENSE
+ * file that was distributed with this source code.
+ */
+package com.robin.reporter;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Renders the HTML report from {@link ReportEvent}s as they come: a page per
+ * test or configuration method, written while the method runs and closed when
+ * it finishes, a run log page for the events of no method, and an index
+ * page with a row per finished test. Only the pages of the running methods
+ * are open, so the memory does not grow with the number of tests.
+ * <p>
+ * The pages are in a directory of the report directory and resolve the
+ * links of the lines relative to the report directory, like the ReportNG
+ * pages.
+ */
+public final class ReportRenderer
+{
+    /**
+     * The style of the start event of a test method.
+     */
+    public static final String TEST = "test";
+
+    /**
+     * The style of the start event of a configuration method.
+     */
+    public static final String CONFIGURATION = "configuration";
+
+    /**
+     * The result of the pages not finished when the rendering is closed.
+     */
+    public static final String UNFINISHED = "UNFINISHED";
+
+    private static final String PASS = "PASS";
+
+    private static final String ENCODING = "UTF-8";
+
+    private static final String INDEX_PAGE = "index.html";
+
+    private static final String RUN_PAGE = "run.html";
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final String PAGE_HEAD =
+        "<!DOCTYPE html>\n<html><head><meta charset=\"UTF-8\"/>"
+            + "<base href=\"../\"/><title>%s</title><style>"
+            + ".textoutput{display:none}"
+            + "table{border-collapse:collapse}"
+            + "td,th{border:1px solid #ccc;padding:2px 6px}"
+            + "tr.FAIL td{background:#fdd}tr.SKIP td{background:#ffd}"
+            + "</style><script>function toggleElement(id, display){"
+            + "var e=document.getElementById(id);"
+            + "e.style.display=e.style.display==display?'none':display;}"
+            + "</script></head><body>\n";
+
+    private static final String PAGE_FOOT = "</body></html>\n";
+
+    /**
+     * The open page of a running method.
+     */
+    private static final class Page
+    {
+        private final Writer writer;
+
+        private final String name;
+
+        private final String device;
+
+        private final boolean test;
+
+        private final long start;
+
+        private final List<String> artifacts = new ArrayList<String>();
+
+        private Page(final Writer writerParam, final ReportEvent event)
+        {
+            writer = writerParam;
+            name = event.getName();
+            device = event.getDevice();
+            test = !CONFIGURATION.equals(event.getStyle());
+            start = event.getTimestamp();
+        }
+    }
+
+    private final File directory;
+
+    private final String directoryName;
+
+    private final Map<Integer, Page> pages = new HashMap<Integer, Page>();
+
+    private final Map<String, Integer> resultCounts =
+        new TreeMap<String, Integer>();
+
+    private Writer index;
+
+    private Writer runLog;
+
+    /**
+     * @param directoryParam the directory of the pages, in the report
+     *        directory
+     */
+    public ReportRenderer(final File directoryParam)
+    {
+        directory = directoryParam;
+        directoryName = directoryParam.getName();
+    }
+
+    /**
+     * Renders the pages of an events file, like of an interrupted run.
+     * @param eventsFile the events file written by the {@link ReportStream}
+     * @param directory the directory of the pages, in the report directory
+     * @throws IOException if the events cannot be read or the pages cannot be
+     *         written
+     */
+    public static void render(final File eventsFile, final File directory)
+        throws IOException
+    {
+        ReportRenderer renderer = new ReportRenderer(directory);
+        BufferedReader reader =
+            new BufferedReader(new InputStreamReader(new FileInputStream(
+                eventsFile), ENCODING));
+        try
+        {
+            String line;
+            while ((line = reader.readLine()) != null)
+            {
+                ReportEvent event = ReportEvent.fromLine(line);
+                if (event != null)
+                {
+                    renderer.onEvent(event);
+                }
+            }
+        } finally
+        {
+            closeQuietly(reader);
+            renderer.close();
+        }
+    }
+
+    /**
+     * @param event the next event of the run
+     * @throws IOException if a page cannot be written
+     */
+    public void onEvent(final ReportEvent event) throws IOException
+    {
+        if (event.getType() == ReportEvent.Type.START)
+        {
+            start(event);
+            return;
+        }
+        final Page page = pages.get(event.getTestId());
+        if (page == null)
+        {
+            logRun(event);
+            return;
+        }
+        switch (event.getType())
+        {
+        case LINE:
+        case INLINE:
+            writeLine(page.writer, event);
+            break;
+        case ARTIFACT:
+            page.artifacts.add(event.getText());
+            break;
+        case END:
+            finish(event.getTestId(), page, event);
+            break;
+        default:
+            break;
+        }
+    }
+
+    /**
+     * Flushes the open pages, so the report of the run so far can be read.
+     * @throws IOException if a page cannot be written
+     */
+    public void flush() throws IOException
+    {
+        for (Page page : pages.values())
+        {
+            page.writer.flush();
+        }
+        if (index != null)
+        {
+            index.flush();
+        }
+        if (runLog != null)
+        {
+            runLog.flush();
+        }
+    }
+
+    /**
+     * Finishes the pages of the methods still running and the index page.
+     * @throws IOException if a page cannot be written
+     */
+    public void close() throws IOException
+    {
+        for (Integer testId : new ArrayList<Integer>(pages.keySet()))
+        {
+            final Page page = pages.get(testId);
+            finish(testId, page, new ReportEvent(
+                page.start,
+                testId,
+                ReportEvent.Type.END,
+                page.name,
+                page.device,
+                UNFINISHED,
+                null));
+        }
+        getIndex().write("</table><p>");
+        for (Map.Entry<String, Integer> count : resultCounts.entrySet())
+        {
+            getIndex().write(count.getKey() + ": " + count.getValue() + " ");
+        }
+        getIndex().write("</p>\n" + PAGE_FOOT);
+        index.close();
+        if (runLog != null)
+        {
+            runLog.write(PAGE_FOOT);
+            runLog.close();
+        }
+    }
+
+    private void start(final ReportEvent event) throws IOException
+    {
+        final Page previous = pages.remove(event.getTestId());
+        if (previous != null)
+        {
+            closeQuietly(previous.writer);
+        }
+        Writer writer = open(getPageName(event.getTestId()));
+        final Page page = new Page(writer, event);
+        pages.put(event.getTestId(), page);
+        writer.write(String.format(PAGE_HEAD, escape(page.name)));
+        writer.write("<h2>" + escape(page.name) + "</h2>\n");
+        if (page.device.length() > 0)
+        {
+            writer.write("<p>" + escape(page.device) + "</p>\n");
+        }
+    }
+
+    private void finish(final int testId, final Page page,
+        final ReportEvent event) throws IOException
+    {
+        pages.remove(testId);
+        final String result = event.getStyle();
+        final long duration = event.getTimestamp() - page.start;
+        final Writer writer = page.writer;
+        try
+        {
+            writer.write("<hr/><p class=\"" + result + "\">" + result + " in "
+                + duration + " ms.</p>\n");
+            if (event.getText().length() > 0)
+            {
+                writer.write("<pre>" + escape(event.getText()) + "</pre>\n");
+            }
+            if (!page.artifacts.isEmpty())
+            {
+                writer.write("<p>Artifacts:</p><ul>\n");
+                for (String path : page.artifacts)
+                {
+                    writer.write("<li>" + Reporter.getHtmlLink(path)
+                        + "</li>\n");
+                }
+                writer.write("</ul>\n");
+            }
+            writer.write(PAGE_FOOT);
+        } finally
+        {
+            writer.close();
+        }
+        if (page.test || !PASS.equals(result))
+        {
+            count(page.test ? result : CONFIGURATION + " " + result);
+            getIndex().write("<tr class=\"" + result + "\"><td>" + testId
+                + "</td><td>" + getPageLink(testId, page.name) + "</td><td>"
+                + escape(page.device) + "</td><td>" + result + "</td><td>"
+                + duration + "</td></tr>\n");
+        }
+    }
+
+    private void logRun(final ReportEvent event) throws IOException
+    {
+        if (event.getType() != ReportEvent.Type.LINE
+            && event.getType() != ReportEvent.Type.INLINE)
+        {
+            return;
+        }
+        if (runLog == null)
+        {
+            runLog = open(RUN_PAGE);
+            runLog.write(String.format(PAGE_HEAD, "Run log"));
+            runLog.write("<h2>Run log</h2>\n");
+        }
+        if (event.getTestId() != ReportEvent.RUN_ID)
+        {
+            runLog.write(getPageLink(
+                event.getTestId(),
+                "#" + event.getTestId())
+                + " ");
+        }
+        writeLine(runLog, event);
+    }
+
+    private static void writeLine(final Writer writer,
+        final ReportEvent event) throws IOException
+    {
+        if (event.getStyle().length() > 0)
+        {
+            writer.write("<div class=\"");
+            writer.write(event.getStyle());
+            writer.write("\">");
+            writer.write(event.getText());
+            writer.write("</div>");
+        } else
+        {
+            writer.write(event.getText());
+        }
+        if (event.getType() == ReportEvent.Type.LINE)
+        {
+            writer.write(Reporter.NEWLINE);
+            writer.write('\n');
+        }
+    }
+
+    private Writer getIndex() throws IOException
+    {
+        if (index == null)
+        {
+            index = open(INDEX_PAGE);
+            index.write(String.format(PAGE_HEAD, "Robin report"));
+            index.write("<h2>Robin report</h2><p>"
+                + getLink(RUN_PAGE, "Run log") + "</p>\n<table><tr><th>#</th>"
+                + "<th>Method</th><th>Device</th><th>Result</th><th>ms</th>"
+                + "</tr>\n");
+        }
+        return index;
+    }
+
+    private void count(final String result)
+    {
+        Integer count = resultCounts.get(result);
+        resultCounts.put(result, count == null ? 1 : count + 1);
+    }
+
+    private String getPageLink(final int testId, final String text)
+    {
+        return getLink(getPageName(testId), escape(text));
+    }
+
+    /**
+     * The pages resolve links relative to the report directory.
+     */
+    private String getLink(final String pageName, final String text)
+    {
+        return "<a href=\"" + directoryName + "/" + pageName + "\">" + text
+            + "</a>";
+    }
+
+    private static String getPageName(final int testId)
+    {
+        return "t" + testId + ".html";
+    }
+
+    private Writer open(final String pageName) throws IOException
+    {
+        if (!directory.mkdirs() && !directory.isDirectory())
+        {
+            throw new IOException("Could not create '" + directory.getPath()
+                + "' directory.");
+        }
+        return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(
+            new File(directory, pageName)), ENCODING), BUFFER_SIZE);
+    }
+
+    private static String escape(final String text)
+    {
+        return Reporter.escapeHtml(text);
+    }
+
+    private static void closeQuietly(final Closeable closeable)
+    {
+        if (closeable != null)
+        {
+            try
+            {
+                closeable.close();
+            } catch (IOException e)
+            {
+                e.printStackTrace();
+            }
+        }
+    }
+}
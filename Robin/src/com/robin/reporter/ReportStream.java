@@ -0,0 +1,311 @@
+/*
+ * Copyright (C) 2013 Ustream Inc.
+ * author chaotx <lombai.ferenc@ustream.tv>
+ *
+ * For the full copyright and license information, please view the LICENSE
+ * file that was distributed with this source code.
+ */
+package com.robin.reporter;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.ITestResult;
+
+/**
+ * Append-only stream of the report events of a run. The events are queued by
+ * the test threads and appended to the events file by a single background
+ * writer thread, which renders the HTML pages of the {@link ReportRenderer}
+ * from them as well. The queue is bounded, a test thread waits when the
+ * writer falls behind, so the report never piles up in memory.
+ */
+public final class ReportStream
+{
+    /**
+     * The name of the events file in the directory of the stream.
+     */
+    public static final String EVENTS_FILE = "events.tsv";
+
+    private static final String ENCODING = "UTF-8";
+
+    private static final int QUEUE_CAPACITY = 8192;
+
+    private static final int MAX_BATCH_SIZE = 512;
+
+    private static final int BUFFER_SIZE = 65536;
+
+    private static final long CLOSE_TIMEOUT = 60000;
+
+    /**
+     * The attribute of the test result holding its report id.
+     */
+    private static final String TEST_ID_ATTRIBUTE = "robin.reportTestId";
+
+    private final File eventsFile;
+
+    private final ReportRenderer renderer;
+
+    private final BlockingQueue<ReportEvent> queue =
+        new ArrayBlockingQueue<ReportEvent>(QUEUE_CAPACITY);
+
+    private final AtomicInteger testIdCounter = new AtomicInteger();
+
+    private final Thread writerThread;
+
+    private volatile boolean closed = false;
+
+    /**
+     * Starts the writer thread of the stream.
+     * @param directory the directory of the events file and the pages, in
+     *        the report directory
+     */
+    public ReportStream(final File directory)
+    {
+        eventsFile = new File(directory, EVENTS_FILE);
+        renderer = new ReportRenderer(directory);
+        writerThread = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                writeLoop();
+            }
+        }, "RobinReportWriter");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Queues a report line of the current test.
+     * @param result the current test result, null for the run log
+     * @param style the class of the div of the line, null for none
+     * @param html the HTML of the line
+     * @param newLine whether a line break follows the line
+     */
+    public void line(final ITestResult result, final String style,
+        final String html, final boolean newLine)
+    {
+        add(new ReportEvent(
+            System.currentTimeMillis(),
+            getTestId(result),
+            newLine ? ReportEvent.Type.LINE : ReportEvent.Type.INLINE,
+            null,
+            null,
+            style,
+            html));
+    }
+
+    /**
+     * Queues a captured file of the current test.
+     * @param result the current test result, null for the run log
+     * @param path the path of the file relative to the report directory
+     */
+    public void artifact(final ITestResult result, final String path)
+    {
+        add(new ReportEvent(
+            System.currentTimeMillis(),
+            getTestId(result),
+            ReportEvent.Type.ARTIFACT,
+            null,
+            null,
+            null,
+            path));
+    }
+
+    /**
+     * Starts the page of a test with the device it runs on. Without this call
+     * the page is started by the first line of the test, without a device.
+     * @param result the test result
+     * @param device the description of the device
+     */
+    public void start(final ITestResult result, final String device)
+    {
+        synchronized (result)
+        {
+            if (result.getAttribute(TEST_ID_ATTRIBUTE) == null)
+            {
+                newTestId(result, device);
+            }
+        }
+    }
+
+    /**
+     * Finishes the page of a test or configuration method.
+     * @param result the finished result
+     */
+    public void finish(final ITestResult result)
+    {
+        final Throwable throwable = result.getThrowable();
+        add(new ReportEvent(
+            System.currentTimeMillis(),
+            getTestId(result),
+            ReportEvent.Type.END,
+            null,
+            null,
+            getResultName(result.getStatus()),
+            throwable == null ? null : throwable.toString()));
+    }
+
+    /**
+     * Writes the queued events, finishes the pages and stops the writer
+     * thread. Later events are dropped.
+     */
+    public void close()
+    {
+        closed = true;
+        writerThread.interrupt();
+        try
+        {
+            writerThread.join(CLOSE_TIMEOUT);
+        } catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public File getEventsFile()
+    {
+        return eventsFile;
+    }
+
+    private int getTestId(final ITestResult result)
+    {
+        if (result == null)
+        {
+            return ReportEvent.RUN_ID;
+        }
+        synchronized (result)
+        {
+            Object testId = result.getAttribute(TEST_ID_ATTRIBUTE);
+            if (testId != null)
+            {
+                return (Integer) testId;
+            }
+            return newTestId(result, null);
+        }
+    }
+
+    private int newTestId(final ITestResult result, final String device)
+    {
+        final int testId = testIdCounter.incrementAndGet();
+        result.setAttribute(TEST_ID_ATTRIBUTE, testId);
+        String name =
+            result.getTestClass().getRealClass().getSimpleName() + "."
+                + result.getMethod().getMethodName();
+        if (result.getParameters() != null
+            && result.getParameters().length > 0)
+        {
+            name += Arrays.toString(result.getParameters());
+        }
+        add(new ReportEvent(
+            System.currentTimeMillis(),
+            testId,
+            ReportEvent.Type.START,
+            name,
+            device,
+            result.getMethod().isTest()
+                ? ReportRenderer.TEST
+                : ReportRenderer.CONFIGURATION,
+            null));
+        return testId;
+    }
+
+    private static String getResultName(final int status)
+    {
+        switch (status)
+        {
+        case ITestResult.SUCCESS:
+            return "PASS";
+        case ITestResult.FAILURE:
+            return "FAIL";
+        case ITestResult.SKIP:
+            return "SKIP";
+        default:
+            return ReportRenderer.UNFINISHED;
+        }
+    }
+
+    private void add(final ReportEvent event)
+    {
+        if (closed)
+        {
+            return;
+        }
+        try
+        {
+            queue.put(event);
+        } catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeLoop()
+    {
+        Writer writer = null;
+        try
+        {
+            File parent = eventsFile.getAbsoluteFile().getParentFile();
+            if (!parent.mkdirs() && !parent.isDirectory())
+            {
+                throw new IOException("Could not create '" + parent.getPath()
+                    + "' directory.");
+            }
+            // a new run starts a new file, the test ids restart at zero
+            writer =
+                new BufferedWriter(new OutputStreamWriter(new FileOutputStream(
+                    eventsFile), ENCODING), BUFFER_SIZE);
+            List<ReportEvent> batch = new ArrayList<ReportEvent>();
+            while (!closed || !queue.isEmpty())
+            {
+                try
+                {
+                    batch.add(queue.take());
+                } catch (InterruptedException e)
+                {
+                    // closed, the loop ends when the queue is written
+                    continue;
+                }
+                queue.drainTo(batch, MAX_BATCH_SIZE - batch.size());
+                for (ReportEvent event : batch)
+                {
+                    writer.write(event.toLine());
+                    writer.write('\n');
+                    renderer.onEvent(event);
+                }
+                writer.flush();
+                renderer.flush();
+                batch.clear();
+            }
+            renderer.close();
+        } catch (IOException e)
+        {
+            closed = true;
+            queue.clear();
+            Reporter.logConsole("Could not write the report stream '"
+                + eventsFile.getAbsolutePath() + "': " + e.getMessage());
+        } finally
+        {
+            if (writer != null)
+            {
+                try
+                {
+                    writer.close();
+                } catch (IOException e)
+                {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+}
@@ -65,6 +65,15 @@ public final class Reporter
 
     private static PrintStream logFileOutput = null;
 
+    /**
+     * The directory of the streamed report in the report directory.
+     */
+    private static final String STREAM_DIR = "robin-report";
+
+    private static volatile boolean streamChecked = false;
+
+    private static volatile ReportStream stream = null;
+
     private Reporter()
     {
     }
@@ -100,6 +109,124 @@ public final class Reporter
         return BASE_VERBOSITY >= level;
     }
 
+    /**
+     * Writes into the report stream if it is on, see
+     * {@link ConfigParams#REPORT_STREAM}, otherwise into the output of the
+     * current testNG result.
+     */
+    private static void output(final String html, final boolean newLine)
+    {
+        final ReportStream reportStream = getStream();
+        if (reportStream != null)
+        {
+            reportStream.line(getCurrentTestResult(), null, html, newLine);
+        } else
+        {
+            org.testng.Reporter.log(newLine ? addNewLine(html) : html);
+        }
+    }
+
+    /**
+     * Writes a message inside a div with the style valued class attribute.
+     * The report stream stores the style and the message apart, the div is
+     * only built when the page is rendered.
+     */
+    static void logStyled(final String style, final String message,
+        final int level, final boolean newLine)
+    {
+        if (!isLogLevel(level))
+        {
+            return;
+        }
+        final ReportStream reportStream = getStream();
+        if (reportStream != null)
+        {
+            reportStream.line(getCurrentTestResult(), style, message, newLine);
+        } else
+        {
+            output(getDiv(style, message), newLine);
+        }
+    }
+
+    /**
+     * Records a captured file of the current test in the report stream.
+     * @param relativePath the path of the file relative to the report
+     *        directory
+     */
+    public static void logArtifact(final String relativePath)
+    {
+        final ReportStream reportStream = getStream();
+        if (reportStream != null)
+        {
+            reportStream.artifact(getCurrentTestResult(), relativePath);
+        }
+    }
+
+    /**
+     * Starts the page of the test in the report stream.
+     * @param result the started test
+     * @param device the description of the device of the test, can be null
+     */
+    public static void startTest(final ITestResult result, final String device)
+    {
+        final ReportStream reportStream = getStream();
+        if (reportStream != null)
+        {
+            reportStream.start(result, device);
+        }
+    }
+
+    /**
+     * Finishes the page of the test or configuration method in the report
+     * stream.
+     * @param result the finished result
+     */
+    public static void finishTest(final ITestResult result)
+    {
+        final ReportStream reportStream = getStream();
+        if (reportStream != null)
+        {
+            reportStream.finish(result);
+        }
+    }
+
+    /**
+     * Writes the pending events of the report stream and finishes its pages,
+     * called at the end of the execution.
+     */
+    public static void closeStream()
+    {
+        final ReportStream reportStream = getStream();
+        if (reportStream != null)
+        {
+            reportStream.close();
+        }
+    }
+
+    private static ReportStream getStream()
+    {
+        if (!streamChecked)
+        {
+            synchronized (Reporter.class)
+            {
+                if (!streamChecked)
+                {
+                    if (Boolean.parseBoolean(BaseFunctionality
+                        .config()
+                        .getValue(ConfigParams.REPORT_STREAM, "false")))
+                    {
+                        stream =
+                            new ReportStream(new File(BaseFunctionality
+                                .config()
+                                .getValue("report.dir"), STREAM_DIR));
+                    }
+                    streamChecked = true;
+                }
+            }
+        }
+        return stream;
+    }
+
     /**
      * Paste a new line into the HTML report as xml source, using original
      * testNG reporter class.
@@ -107,7 +234,7 @@ public final class Reporter
      */
     public static void log(final String logLineText)
     {
-        org.testng.Reporter.log(addNewLine(logLineText));
+        output(logLineText, true);
     }
 
     public static void logConsole(final String logLineText)
@@ -128,7 +255,7 @@ public final class Reporter
         {
             printToStandardOutput(logLineText);
         }
-        org.testng.Reporter.log(addNewLine(logLineText));
+        output(logLineText, true);
     }
 
     /**
@@ -151,7 +278,7 @@ public final class Reporter
     {
         if (isLogLevel(level))
         {
-            org.testng.Reporter.log(addNewLine(logLineText));
+            output(logLineText, true);
         }
     }
 
@@ -172,7 +299,7 @@ public final class Reporter
             {
                 printToStandardOutput(logLineText);
             }
-            org.testng.Reporter.log(addNewLine(logLineText));
+            output(logLineText, true);
         }
     }
 
@@ -183,7 +310,7 @@ public final class Reporter
      */
     public static void logInLine(final String logLineText)
     {
-        org.testng.Reporter.log(logLineText);
+        output(logLineText, false);
     }
 
     /**
@@ -199,7 +326,7 @@ public final class Reporter
         {
             printToStandardOutput(logLineText);
         }
-        org.testng.Reporter.log(logLineText);
+        output(logLineText, false);
     }
 
     /**
@@ -213,7 +340,7 @@ public final class Reporter
     {
         if (isLogLevel(level))
         {
-            org.testng.Reporter.log(logLineText);
+            output(logLineText, false);
         }
     }
 
@@ -234,7 +361,7 @@ public final class Reporter
             {
                 printToStandardOutput(logLineText);
             }
-            org.testng.Reporter.log(logLineText);
+            output(logLineText, false);
         }
     }
 
@@ -269,18 +396,16 @@ public final class Reporter
     public static String getToogleText(final String title, final String text)
     {
         final String textClass = "textoutput";
-        final String textID = textClass + "-" + textIdCounter;
+        final int textNumber;
         synchronized (Reporter.class)
         {
-            textIdCounter++;
-            return addNewLine(String.format(
-                "<a title=\"Click to expand/collapse\""
-                    + " href=\"javascript:toggleElement('%s', 'block')\">%s"
-                    + "</a>",
-                textID,
-                title))
-                + getDiv(textID, textClass, text);
+            textNumber = textIdCounter++;
         }
+        final String textID = textClass + "-" + textNumber;
+        return addNewLine("<a title=\"Click to expand/collapse\""
+            + " href=\"javascript:toggleElement('" + textID + "', 'block')\">"
+            + title + "</a>")
+            + getDiv(textID, textClass, text);
     }
 
     /**
@@ -291,7 +416,7 @@ public final class Reporter
      */
     public static String getDiv(final String divClass, final String divText)
     {
-        return String.format("<div class=\"%s\">%s</div>", divClass, divText);
+        return "<div class=\"" + divClass + "\">" + divText + "</div>";
     }
 
     /**
@@ -304,11 +429,8 @@ public final class Reporter
     public static String getDiv(final String divID, final String divClass,
         final String divText)
     {
-        return String.format(
-            "<div id=\"%s\" class=\"%s\">%s</div>",
-            divID,
-            divClass,
-            divText);
+        return "<div id=\"" + divID + "\" class=\"" + divClass + "\">"
+            + divText + "</div>";
     }
 
     /**
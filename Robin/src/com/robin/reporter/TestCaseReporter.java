@@ -46,7 +46,7 @@ public class TestCaseReporter
      */
     public void log(final String message, final String style)
     {
-        Reporter.log(Reporter.getDiv(style, message), getVerbLevel());
+        Reporter.logStyled(style, message, getVerbLevel(), true);
     }
 
     /**
@@ -57,7 +57,7 @@ public class TestCaseReporter
      */
     public void logInLine(final String message, final String style)
     {
-        Reporter.logInLine(Reporter.getDiv(style, message), getVerbLevel());
+        Reporter.logStyled(style, message, getVerbLevel(), false);
     }
 
 }
@@ -0,0 +1,456 @@
+/*
+ * Copyright (C) 2013 Ustream Inc.
+ * author chaotx <lombai.ferenc@ustream.tv>
+ *
+ * For the full copyright and license information, please view the LICENSE
+ * file that was distributed with this source code.
+ */
+package com.robin.reporter;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.jayway.android.robotium.remotecontrol.solo.CommandTracer;
+import com.jayway.android.robotium.remotecontrol.solo.SoloRemoteControl;
+import com.robin.BaseFunctionality;
+import com.robin.utilities.config.ConfigParams;
+
+/**
+ * Records the time spans of a run, like the device lease waits, the setup
+ * phases and the solo commands, tagged with the thread and the device, into
+ * a Chrome trace event file (chrome://tracing, Perfetto) when the
+ * {@link ConfigParams#TRACE} switch is on.
+ * <p>
+ * A test thread only queues the finished span, a background writer thread
+ * appends the queued spans to the file a few times a second. When the writer
+ * falls behind the span is dropped instead of stopping the test thread. Only
+ * the first span of a thread carries the thread name. The file is a JSON
+ * array closed when the run finishes, the viewers read the file of an
+ * interrupted run as well.
+ */
+public final class TraceRecorder implements CommandTracer
+{
+    /**
+     * Waiting for a free matching device.
+     */
+    public static final String LEASE = "lease";
+
+    /**
+     * Waiting for the multi-device and sequential conditions of a method.
+     */
+    public static final String ADMISSION = "admission";
+
+    /**
+     * Resigning, building and installing the apks.
+     */
+    public static final String APK = "apk";
+
+    /**
+     * Launching the test runner instrumentation.
+     */
+    public static final String INSTRUMENTATION = "instrumentation";
+
+    /**
+     * Initializing the solo connection.
+     */
+    public static final String SOLO = "solo";
+
+    /**
+     * A solo command, named by the command.
+     */
+    public static final String COMMAND = "command";
+
+    /**
+     * Capturing a screenshot or the logcat of a test.
+     */
+    public static final String CAPTURE = "capture";
+
+    /**
+     * Stopping the solo of a device at the end of a test.
+     */
+    public static final String TEARDOWN = "teardown";
+
+    /**
+     * The name of the trace file in the report directory.
+     */
+    public static final String TRACE_FILE = "robin-trace.json";
+
+    private static final String ENCODING = "UTF-8";
+
+    private static final int QUEUE_CAPACITY = 16384;
+
+    /**
+     * Milliseconds between the writes, the writer drains the queue at once
+     * instead of waking up for every span.
+     */
+    private static final long WRITE_INTERVAL = 100;
+
+    private static final int BUFFER_SIZE = 65536;
+
+    private static final long CLOSE_TIMEOUT = 60000;
+
+    private static final long NANOS_PER_MICRO = 1000;
+
+    private static final int PID = 1;
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private static final int HEX_SHIFT = 4;
+
+    private static final int HEX_MASK = 0xf;
+
+    private static final Span DISABLED = new Span(null, null, null, null, 0);
+
+    private static volatile TraceRecorder recorder = null;
+
+    /**
+     * A started span, queued when it ends.
+     */
+    public static final class Span
+    {
+        private final TraceRecorder owner;
+
+        private final String category;
+
+        private final String name;
+
+        private final long threadId;
+
+        /**
+         * The name of the thread on its first span, null on the later ones.
+         */
+        private final String threadName;
+
+        private final long start;
+
+        private String device;
+
+        private long end;
+
+        private boolean ended = false;
+
+        private Span(final TraceRecorder ownerParam,
+            final String categoryParam, final String nameParam,
+            final String deviceParam, final long startParam)
+        {
+            owner = ownerParam;
+            category = categoryParam;
+            name = nameParam;
+            device = deviceParam;
+            final Thread thread = Thread.currentThread();
+            threadId = thread.getId();
+            threadName =
+                owner == null || owner.isThreadNamed() ? null : thread
+                    .getName();
+            start = startParam;
+        }
+
+        /**
+         * Ends the span, a span ends only once.
+         */
+        public void end()
+        {
+            if (owner != null && !ended)
+            {
+                ended = true;
+                end = System.nanoTime();
+                owner.add(this);
+            }
+        }
+
+        /**
+         * Ends the span with the device known only at its end, like the
+         * leased one.
+         * @param deviceParam the serial number of the device
+         */
+        public void end(final String deviceParam)
+        {
+            if (owner != null && !ended)
+            {
+                device = deviceParam;
+                end();
+            }
+        }
+    }
+
+    private final File file;
+
+    private final BlockingQueue<Span> queue =
+        new ArrayBlockingQueue<Span>(QUEUE_CAPACITY);
+
+    private final long origin = System.nanoTime();
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final ThreadLocal<Boolean> threadNamed = new ThreadLocal<Boolean>();
+
+    private final Thread writerThread;
+
+    private volatile boolean closed = false;
+
+    private long written = 0;
+
+    private TraceRecorder(final File fileParam)
+    {
+        file = fileParam;
+        writerThread = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                writeLoop();
+            }
+        }, "RobinTraceWriter");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Starts the recording of the run into the report directory, if the
+     * {@link ConfigParams#TRACE} switch is on.
+     */
+    public static synchronized void start()
+    {
+        if (recorder == null
+            && Boolean.parseBoolean(BaseFunctionality.config().getValue(
+                ConfigParams.TRACE,
+                "false")))
+        {
+            recorder =
+                new TraceRecorder(new File(BaseFunctionality
+                    .config()
+                    .getValue("report.dir"), TRACE_FILE));
+            SoloRemoteControl.setCommandTracer(recorder);
+        }
+    }
+
+    /**
+     * Writes the queued spans and closes the trace file. Spans ending later
+     * are not recorded.
+     */
+    public static synchronized void stop()
+    {
+        final TraceRecorder stopped = recorder;
+        if (stopped == null)
+        {
+            return;
+        }
+        recorder = null;
+        SoloRemoteControl.setCommandTracer(null);
+        stopped.close();
+    }
+
+    /**
+     * Starts a span on the current thread.
+     * @param category the kind of the span, like {@link #LEASE}
+     * @param name the name of the span
+     * @return the span to end, it does nothing when the recording is off
+     */
+    public static Span begin(final String category, final String name)
+    {
+        return begin(category, name, null);
+    }
+
+    /**
+     * Starts a span on the current thread.
+     * @param category the kind of the span, like {@link #LEASE}
+     * @param name the name of the span
+     * @param device the serial number of the device, null if none
+     * @return the span to end, it does nothing when the recording is off
+     */
+    public static Span begin(final String category, final String name,
+        final String device)
+    {
+        final TraceRecorder current = recorder;
+        if (current == null)
+        {
+            return DISABLED;
+        }
+        return new Span(current, category, name, device, System.nanoTime());
+    }
+
+    @Override
+    public void commandPerformed(final String deviceSerial,
+        final String command, final long startNanos, final long endNanos)
+    {
+        final Span span =
+            new Span(this, COMMAND, command, deviceSerial, startNanos);
+        span.ended = true;
+        span.end = endNanos;
+        add(span);
+    }
+
+    /**
+     * @return true if a span of the current thread already carried its name,
+     *         marks the thread named otherwise
+     */
+    private boolean isThreadNamed()
+    {
+        if (threadNamed.get() != null)
+        {
+            return true;
+        }
+        threadNamed.set(Boolean.TRUE);
+        return false;
+    }
+
+    private void add(final Span span)
+    {
+        if (!closed && !queue.offer(span))
+        {
+            dropped.incrementAndGet();
+            if (span.threadName != null
+                && span.threadId == Thread.currentThread().getId())
+            {
+                // the next span of the thread carries the name instead
+                threadNamed.remove();
+            }
+        }
+    }
+
+    private void close()
+    {
+        closed = true;
+        writerThread.interrupt();
+        try
+        {
+            writerThread.join(CLOSE_TIMEOUT);
+        } catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        Reporter.logConsole("Trace of " + written + " spans ("
+            + dropped.get() + " dropped) saved at: " + file.getPath());
+    }
+
+    private void writeLoop()
+    {
+        Writer writer = null;
+        try
+        {
+            File parent = file.getAbsoluteFile().getParentFile();
+            if (!parent.mkdirs() && !parent.isDirectory())
+            {
+                throw new IOException("Could not create '" + parent.getPath()
+                    + "' directory.");
+            }
+            writer =
+                new BufferedWriter(new OutputStreamWriter(new FileOutputStream(
+                    file), ENCODING), BUFFER_SIZE);
+            writer.write("[{\"name\":\"process_name\",\"ph\":\"M\",\"pid\":"
+                + PID + ",\"args\":{\"name\":\"Robin\"}}");
+            final StringBuilder event = new StringBuilder();
+            List<Span> batch = new ArrayList<Span>();
+            while (!closed || !queue.isEmpty())
+            {
+                try
+                {
+                    Thread.sleep(WRITE_INTERVAL);
+                } catch (InterruptedException e)
+                {
+                    // closed, the loop ends when the queue is written
+                }
+                queue.drainTo(batch);
+                for (Span span : batch)
+                {
+                    event.setLength(0);
+                    if (span.threadName != null)
+                    {
+                        appendThreadName(event, span);
+                    }
+                    appendSpan(event, span);
+                    writer.append(event);
+                }
+                written += batch.size();
+                writer.flush();
+                batch.clear();
+            }
+            writer.write("\n]\n");
+        } catch (IOException e)
+        {
+            closed = true;
+            queue.clear();
+            Reporter.logConsole("Could not write the trace '"
+                + file.getAbsolutePath() + "': " + e.getMessage());
+        } finally
+        {
+            if (writer != null)
+            {
+                try
+                {
+                    writer.close();
+                } catch (IOException e)
+                {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private static void appendThreadName(final StringBuilder event,
+        final Span span)
+    {
+        event.append(",\n{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":");
+        event.append(PID).append(",\"tid\":").append(span.threadId);
+        event.append(",\"args\":{\"name\":");
+        appendString(event, span.threadName);
+        event.append("}}");
+    }
+
+    private void appendSpan(final StringBuilder event, final Span span)
+    {
+        event.append(",\n{\"name\":");
+        appendString(event, span.name);
+        event.append(",\"cat\":");
+        appendString(event, span.category);
+        event.append(",\"ph\":\"X\",\"ts\":");
+        event.append((span.start - origin) / NANOS_PER_MICRO);
+        event.append(",\"dur\":");
+        event.append((span.end - span.start) / NANOS_PER_MICRO);
+        event.append(",\"pid\":").append(PID);
+        event.append(",\"tid\":").append(span.threadId);
+        if (span.device != null)
+        {
+            event.append(",\"args\":{\"device\":");
+            appendString(event, span.device);
+            event.append('}');
+        }
+        event.append('}');
+    }
+
+    private static void appendString(final StringBuilder event,
+        final String value)
+    {
+        event.append('"');
+        if (value != null)
+        {
+            for (int i = 0; i < value.length(); i++)
+            {
+                final char c = value.charAt(i);
+                if (c == '"' || c == '\\')
+                {
+                    event.append('\\').append(c);
+                } else if (c < ' ')
+                {
+                    event
+                        .append("\\u00")
+                        .append(HEX_DIGITS[c >> HEX_SHIFT])
+                        .append(HEX_DIGITS[c & HEX_MASK]);
+                } else
+                {
+                    event.append(c);
+                }
+            }
+        }
+        event.append('"');
+    }
+}
@@ -0,0 +1,532 @@
+/*
+ * Copyright (C) 2013 Ustream Inc.
+ * author hrabo <hrabovszki.gyorgy@ustream.tv>
+ *
+ * For the full copyright and license information, please view the LICENSE
+ * file that was distributed with this source code.
+ */
+package com.robin.reporter.logcat;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.safs.android.auto.lib.AndroidTools;
+import org.safs.android.auto.lib.Process2;
+
+import com.robin.BaseFunctionality;
+import com.robin.reporter.Reporter;
+import com.robin.reporter.TraceRecorder;
+import com.robin.utilities.config.ConfigParams;
+
+/**
+ * One long-lived logcat reader per device feeding a bounded in-memory ring of
+ * lines. Tests only put start and end markers into the ring, the lines between
+ * the markers of a test are written to disk only if the test fails.
+ * <p>
+ * The lines are parsed by a {@link LogCatParser} while they are read, the
+ * time, pid, tid, level, tag id and message offset of every line are kept in
+ * columns next to the raw line, so the lines of a test can be filtered by
+ * {@link #query(long, long, int, int, String, long)} without parsing them
+ * again.
+ */
+public final class LogCatBuffer
+{
+    private static final int DEFAULT_CAPACITY = 20000;
+
+    /**
+     * Seconds to wait for clearing the logcat of the device.
+     */
+    private static final int CLEAR_TIMEOUT = 10;
+
+    private static final String MARKER_PREFIX = "--------- robin ";
+
+    /**
+     * The serial number matching any device, adb is run without "-s" for it.
+     */
+    private static final String ANY_DEVICE = ".*";
+
+    private static final String ACTIVITY_MANAGER = "ActivityManager";
+
+    private static final String START_PROC = "Start proc ";
+
+    private static final String START_PROC_PID = " pid=";
+
+    private static final Map<String, LogCatBuffer> BUFFERS =
+        new ConcurrentHashMap<String, LogCatBuffer>();
+
+    private static AndroidTools androidTools = AndroidTools.get();
+
+    private final String serialNumber;
+
+    private final LogCatBuilder logCatBuilder;
+
+    private final String[] lines;
+
+    /**
+     * Device time of the lines, lines not parsed have the time of the
+     * previous line so the column stays ordered.
+     */
+    private final long[] times;
+
+    private final int[] pids;
+
+    private final int[] tids;
+
+    private final byte[] levels;
+
+    private final int[] tagIds;
+
+    private final int[] messageStarts;
+
+    private final LogCatTags tagNames = new LogCatTags();
+
+    private long lastTime = 0;
+
+    private volatile LogCatCrashDetector crashDetector;
+
+    /**
+     * Sequence number of the next line, the ring holds the lines from
+     * nextLine - lines.length.
+     */
+    private long nextLine = 0;
+
+    private Process2 process;
+
+    /**
+     * The log of the device is cleared by the first start only, a restart
+     * keeps the lines the tests running on the device already marked.
+     */
+    private boolean cleared = false;
+
+    private LogCatBuffer(final String serialNumberParam,
+        final LogCatBuilder logCatBuilderParam, final int capacity)
+    {
+        serialNumber = serialNumberParam;
+        logCatBuilder = logCatBuilderParam;
+        lines = new String[capacity];
+        times = new long[capacity];
+        pids = new int[capacity];
+        tids = new int[capacity];
+        levels = new byte[capacity];
+        tagIds = new int[capacity];
+        messageStarts = new int[capacity];
+    }
+
+    /**
+     * Gets the buffer of a device, the logcat reader is started by the first
+     * marker.
+     * @param serialNumber the serial number of the device
+     * @param logCatBuilder builds the logcat options and filters if the buffer
+     *        of the device is created by this call
+     * @return the logcat buffer of the device
+     */
+    public static LogCatBuffer forDevice(final String serialNumber,
+        final LogCatBuilder logCatBuilder)
+    {
+        LogCatBuffer buffer = BUFFERS.get(serialNumber);
+        if (buffer == null)
+        {
+            synchronized (BUFFERS)
+            {
+                buffer = BUFFERS.get(serialNumber);
+                if (buffer == null)
+                {
+                    buffer =
+                        new LogCatBuffer(
+                            serialNumber,
+                            logCatBuilder,
+                            getCapacity());
+                    BUFFERS.put(serialNumber, buffer);
+                }
+            }
+        }
+        return buffer;
+    }
+
+    /**
+     * @param serialNumber the serial number of the device
+     * @return the buffer of the device or null if it has none
+     */
+    public static LogCatBuffer get(final String serialNumber)
+    {
+        return BUFFERS.get(serialNumber);
+    }
+
+    /**
+     * Stops the logcat reader of every device.
+     */
+    public static void stopAll()
+    {
+        for (LogCatBuffer buffer : BUFFERS.values())
+        {
+            buffer.stop();
+        }
+        BUFFERS.clear();
+    }
+
+    private static int getCapacity()
+    {
+        return Integer.parseInt(BaseFunctionality.config().getValue(
+            ConfigParams.LOGCAT_BUFFER_LINES,
+            String.valueOf(DEFAULT_CAPACITY)));
+    }
+
+    /**
+     * @return the logcat options and filters the reader is started with
+     */
+    public LogCat getLogCat()
+    {
+        return logCatBuilder.getLogCat();
+    }
+
+    /**
+     * Adds a marker line, starting the logcat reader if it is not running.
+     * @param text the marker text
+     * @return the sequence number of the marker line
+     */
+    public long mark(final String text)
+    {
+        ensureStarted();
+        return append(MARKER_PREFIX + text, null);
+    }
+
+    /**
+     * Selects the lines of a range matching every given condition.
+     * @param fromLine sequence number of the first line
+     * @param toLine sequence number of the last line
+     * @param pid the process of the lines, -1 for any process
+     * @param minLevel the lowest {@link LogCatParser} level of the lines,
+     *        lines not parsed only match {@link LogCatParser#UNKNOWN}
+     * @param tag the tag of the lines, null for any tag
+     * @param millis the length of the time window ending at the last line of
+     *        the range, 0 for the whole range
+     * @return the matching lines still in the ring
+     */
+    public List<String> query(final long fromLine, final long toLine,
+        final int pid, final int minLevel, final String tag, final long millis)
+    {
+        List<String> result = new ArrayList<String>();
+        synchronized (this)
+        {
+            long first = Math.max(fromLine, nextLine - lines.length);
+            final long last = Math.min(toLine, nextLine - 1);
+            final int tagId = tag == null ? -1 : tagNames.find(tag);
+            if (first > last || (tag != null && tagId < 0))
+            {
+                return result;
+            }
+            if (millis > 0)
+            {
+                first = findFirstAfter(first, last,
+                    times[index(last)] - millis);
+            }
+            for (long line = first; line <= last; line++)
+            {
+                final int index = index(line);
+                if (levels[index] >= minLevel
+                    && (pid < 0 || pids[index] == pid)
+                    && (tagId < 0 || tagIds[index] == tagId))
+                {
+                    result.add(lines[index]);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Looks up the last start of an application process by the activity
+     * manager in the ring.
+     * @param packageName the package of the application
+     * @return the pid of the process or -1 if its start is not in the ring
+     */
+    public synchronized int findPid(final String packageName)
+    {
+        final int activityManager = tagNames.find(ACTIVITY_MANAGER);
+        if (activityManager < 0)
+        {
+            return -1;
+        }
+        final long oldest = Math.max(0, nextLine - lines.length);
+        for (long line = nextLine - 1; line >= oldest; line--)
+        {
+            final int index = index(line);
+            if (tagIds[index] == activityManager)
+            {
+                final int pid =
+                    getStartedPid(
+                        lines[index],
+                        messageStarts[index],
+                        packageName);
+                if (pid >= 0)
+                {
+                    return pid;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param detector gets every parsed line read from now on, null to stop
+     *        the detection
+     */
+    void setCrashDetector(final LogCatCrashDetector detector)
+    {
+        crashDetector = detector;
+    }
+
+    LogCatCrashDetector getCrashDetector()
+    {
+        return crashDetector;
+    }
+
+    /**
+     * Parses "Start proc 1234:com.example/u0a55 for activity ..." and the
+     * older "Start proc com.example for activity ...: pid=1234 uid=...".
+     * @return the pid or -1 if the message is not the start of the package
+     */
+    static int getStartedPid(final String line, final int message,
+        final String packageName)
+    {
+        if (!line.startsWith(START_PROC, message))
+        {
+            return -1;
+        }
+        final int start = message + START_PROC.length();
+        int end = start;
+        while (end < line.length() && Character.isDigit(line.charAt(end)))
+        {
+            end++;
+        }
+        if (end > start)
+        {
+            final int after = end + 1 + packageName.length();
+            if (line.charAt(end) == ':'
+                && line.startsWith(packageName, end + 1)
+                && (after == line.length() || line.charAt(after) == '/'
+                    || line.charAt(after) == ' '))
+            {
+                return Integer.parseInt(line.substring(start, end));
+            }
+            return -1;
+        }
+        final int pidStart = line.indexOf(START_PROC_PID, start);
+        if (!line.startsWith(packageName + " ", start) || pidStart < 0)
+        {
+            return -1;
+        }
+        end = pidStart + START_PROC_PID.length();
+        while (end < line.length() && Character.isDigit(line.charAt(end)))
+        {
+            end++;
+        }
+        return end > pidStart + START_PROC_PID.length() ? Integer
+            .parseInt(line.substring(pidStart + START_PROC_PID.length(), end))
+            : -1;
+    }
+
+    /**
+     * Binary search of the first line not older than the given time.
+     */
+    private long findFirstAfter(final long first, final long last,
+        final long time)
+    {
+        long low = first;
+        long high = last;
+        while (low < high)
+        {
+            final long middle = (low + high) >>> 1;
+            if (times[index(middle)] < time)
+            {
+                low = middle + 1;
+            } else
+            {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private int index(final long line)
+    {
+        return (int) (line % lines.length);
+    }
+
+    /**
+     * Writes the lines from a marker to another marker into a file. Lines
+     * already overwritten in the ring are noted in the file.
+     * @param fromLine sequence number of the first line
+     * @param toLine sequence number of the last line
+     * @param file the file to write
+     * @throws IOException if the file cannot be written
+     */
+    public void write(final long fromLine, final long toLine, final File file)
+        throws IOException
+    {
+        final TraceRecorder.Span span =
+            TraceRecorder.begin(TraceRecorder.CAPTURE, "logcat", serialNumber);
+        List<String> slice = new ArrayList<String>();
+        long dropped = 0;
+        synchronized (this)
+        {
+            final long first = Math.max(fromLine, nextLine - lines.length);
+            final long last = Math.min(toLine, nextLine - 1);
+            dropped = first - fromLine;
+            for (long line = first; line <= last; line++)
+            {
+                slice.add(lines[index(line)]);
+            }
+        }
+        Writer writer = new FileWriter(file);
+        try
+        {
+            if (dropped > 0)
+            {
+                writer.write(MARKER_PREFIX + dropped
+                    + " lines dropped from the buffer\n");
+            }
+            for (String line : slice)
+            {
+                writer.write(line);
+                writer.write('\n');
+            }
+        } finally
+        {
+            writer.close();
+            span.end();
+        }
+    }
+
+    private synchronized long append(final String line,
+        final LogCatParser parsed)
+    {
+        final int index = index(nextLine);
+        lines[index] = line;
+        if (parsed == null)
+        {
+            times[index] = lastTime;
+            pids[index] = -1;
+            tids[index] = -1;
+            levels[index] = LogCatParser.UNKNOWN;
+            tagIds[index] = -1;
+            messageStarts[index] = 0;
+        } else
+        {
+            // logcat merges the buffers, keep the time column ordered
+            lastTime = Math.max(lastTime, parsed.getTime());
+            times[index] = lastTime;
+            pids[index] = parsed.getPid();
+            tids[index] = parsed.getTid();
+            levels[index] = (byte) parsed.getLevel();
+            tagIds[index] =
+                tagNames.intern(
+                    line,
+                    parsed.getTagStart(),
+                    parsed.getTagEnd());
+            messageStarts[index] = parsed.getMessageStart();
+        }
+        return nextLine++;
+    }
+
+    private synchronized void ensureStarted()
+    {
+        if (process != null)
+        {
+            return;
+        }
+        logCatBuilder.createLogCat();
+        logCatBuilder.buildOption();
+        logCatBuilder.buildFilter();
+        List<String> parameters = new ArrayList<String>();
+        if (!serialNumber.equals(ANY_DEVICE))
+        {
+            parameters.add("-s");
+            parameters.add(serialNumber);
+        }
+        parameters.add("logcat");
+        try
+        {
+            if (!cleared)
+            {
+                // the history of the device would only fill the ring
+                List<String> clear = new ArrayList<String>(parameters);
+                clear.add("-c");
+                androidTools.adb(clear).waitFor(CLEAR_TIMEOUT);
+                cleared = true;
+            }
+            parameters.addAll(getLogCat().getOptions());
+            parameters.addAll(getLogCat().getFilters());
+            Reporter.logConsole("Starting logcat buffer: adb " + parameters);
+            process = androidTools.adb(parameters);
+        } catch (IOException e)
+        {
+            e.printStackTrace();
+            return;
+        } catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        process.discardStderr();
+        final Process2 reading = process;
+        Thread reader = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                read(reading);
+            }
+        }, "LogCatBuffer-" + serialNumber);
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    private void read(final Process2 reading)
+    {
+        BufferedReader reader = reading.getStdoutReader();
+        LogCatParser parser = new LogCatParser();
+        try
+        {
+            String line = reader.readLine();
+            while (line != null)
+            {
+                final boolean parsed = parser.parse(line);
+                append(line, parsed ? parser : null);
+                final LogCatCrashDetector detector = crashDetector;
+                if (parsed && detector != null)
+                {
+                    detector.onLine(line, parser);
+                }
+                line = reader.readLine();
+            }
+        } catch (IOException e)
+        {
+            // the process was stopped or the device disconnected
+        }
+        synchronized (this)
+        {
+            if (process == reading)
+            {
+                // restarted by the next marker
+                process = null;
+            }
+        }
+    }
+
+    private synchronized void stop()
+    {
+        if (process != null)
+        {
+            process.destroy();
+            process = null;
+        }
+    }
+}
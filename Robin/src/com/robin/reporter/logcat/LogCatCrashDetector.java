@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2013 Ustream Inc.
+ * author hrabo <hrabovszki.gyorgy@ustream.tv>
+ *
+ * For the full copyright and license information, please view the LICENSE
+ * file that was distributed with this source code.
+ */
+package com.robin.reporter.logcat;
+
+import com.jayway.android.robotium.remotecontrol.solo.SoloRemoteControl;
+
+import com.robin.reporter.Reporter;
+
+/**
+ * Watches the logcat stream of a device for a crash, an ANR or the death of
+ * the process of the application under test. The first one found fails the
+ * pending and further solo commands of the device with the lines of the crash,
+ * instead of letting every command wait for its timeout.
+ * <p>
+ * The lines are checked on the reader thread of the {@link LogCatBuffer}.
+ */
+public final class LogCatCrashDetector
+{
+    private static final String ANDROID_RUNTIME = "AndroidRuntime";
+
+    private static final String ACTIVITY_MANAGER = "ActivityManager";
+
+    private static final String FATAL_EXCEPTION = "FATAL EXCEPTION";
+
+    /**
+     * Lines of a stack trace or an ANR report kept at most.
+     */
+    private static final int MAX_REPORT_LINES = 200;
+
+    private final String serialNumber;
+
+    private final String packageName;
+
+    /**
+     * "Process: com.example, PID: 1234" following a fatal exception.
+     */
+    private final String processPrefix;
+
+    /**
+     * "ANR in com.example (com.example/.MainActivity)".
+     */
+    private final String anrPrefix;
+
+    /**
+     * "Process com.example (pid 1234) has died".
+     */
+    private final String diedPrefix;
+
+    private int pid;
+
+    private StringBuilder report;
+
+    private int reportLines;
+
+    private int reportPid;
+
+    private int reportTid;
+
+    private String reportTag;
+
+    private volatile String crash;
+
+    private LogCatCrashDetector(final String serialNumberParam,
+        final String packageNameParam, final int pidParam)
+    {
+        serialNumber = serialNumberParam;
+        packageName = packageNameParam;
+        pid = pidParam;
+        processPrefix = "Process: " + packageName + ",";
+        anrPrefix = "ANR in " + packageName;
+        diedPrefix = "Process " + packageName + " (pid ";
+    }
+
+    /**
+     * Starts watching the logcat buffer of the device. Nothing is watched if
+     * the device has no logcat buffer.
+     * @param serialNumber the serial number of the device
+     * @param packageName the package of the application under test
+     */
+    public static void start(final String serialNumber,
+        final String packageName)
+    {
+        LogCatBuffer buffer = LogCatBuffer.get(serialNumber);
+        if (buffer != null)
+        {
+            buffer.setCrashDetector(new LogCatCrashDetector(
+                serialNumber,
+                packageName,
+                buffer.findPid(packageName)));
+        }
+    }
+
+    /**
+     * Stops watching the logcat buffer of the device, to be called before the
+     * application is stopped on purpose.
+     * @param serialNumber the serial number of the device
+     * @return the lines of the crash or null if no crash was found
+     */
+    public static String stop(final String serialNumber)
+    {
+        LogCatBuffer buffer = LogCatBuffer.get(serialNumber);
+        if (buffer == null)
+        {
+            return null;
+        }
+        LogCatCrashDetector detector = buffer.getCrashDetector();
+        buffer.setCrashDetector(null);
+        return detector == null ? null : detector.crash;
+    }
+
+    /**
+     * @param line the logcat line
+     * @param parsed the parser holding the fields of the line
+     */
+    void onLine(final String line, final LogCatParser parsed)
+    {
+        if (crash != null)
+        {
+            return;
+        }
+        if (report != null)
+        {
+            if (parsed.getPid() == reportPid && parsed.getTid() == reportTid
+                && isTag(line, parsed, reportTag))
+            {
+                report.append(line).append('\n');
+                if (++reportLines >= MAX_REPORT_LINES)
+                {
+                    finishReport();
+                }
+                return;
+            }
+            if (parsed.getPid() != reportPid
+                && !isTag(line, parsed, ACTIVITY_MANAGER))
+            {
+                // another process logging in the middle of the report
+                return;
+            }
+            finishReport();
+            if (crash != null)
+            {
+                return;
+            }
+        }
+        final int message = parsed.getMessageStart();
+        if (isTag(line, parsed, ANDROID_RUNTIME))
+        {
+            if (line.startsWith(FATAL_EXCEPTION, message))
+            {
+                startReport(line, parsed, ANDROID_RUNTIME);
+            }
+        } else if (isTag(line, parsed, ACTIVITY_MANAGER))
+        {
+            if (line.startsWith(anrPrefix, message)
+                && isPackageEnd(line, message + anrPrefix.length()))
+            {
+                startReport(line, parsed, ACTIVITY_MANAGER);
+            } else if (line.startsWith(diedPrefix, message))
+            {
+                crashed(line);
+            } else
+            {
+                final int started =
+                    LogCatBuffer.getStartedPid(line, message, packageName);
+                if (started >= 0)
+                {
+                    pid = started;
+                }
+            }
+        }
+    }
+
+    private void startReport(final String line, final LogCatParser parsed,
+        final String tag)
+    {
+        report = new StringBuilder(line).append('\n');
+        reportLines = 1;
+        reportPid = parsed.getPid();
+        reportTid = parsed.getTid();
+        reportTag = tag;
+    }
+
+    private void finishReport()
+    {
+        final String text = report.toString();
+        final boolean fatalException = ANDROID_RUNTIME.equals(reportTag);
+        final boolean ofApplication =
+            !fatalException || (pid >= 0 && reportPid == pid)
+                || text.contains(processPrefix);
+        report = null;
+        if (ofApplication)
+        {
+            crashed(text);
+        }
+    }
+
+    private void crashed(final String text)
+    {
+        crash = text;
+        final int notified =
+            SoloRemoteControl.notifyRemoteClientLost(
+                serialNumber,
+                "The application under test " + packageName
+                    + " crashed on device '" + serialNumber + "':\n" + text);
+        Reporter.logConsole("Crash of " + packageName + " detected on "
+            + serialNumber + ", failed the commands of " + notified
+            + " solo connection(s).");
+    }
+
+    private static boolean isTag(final String line,
+        final LogCatParser parsed, final String tag)
+    {
+        return parsed.getTagEnd() - parsed.getTagStart() == tag.length()
+            && line.startsWith(tag, parsed.getTagStart());
+    }
+
+    /**
+     * A package name ends at the end of the message or at a space, so
+     * "com.example" does not match "com.example.other".
+     */
+    private static boolean isPackageEnd(final String line, final int index)
+    {
+        return index == line.length() || line.charAt(index) == ' ';
+    }
+}
@@ -8,41 +8,50 @@
 package com.robin.reporter.logcat;
 
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
-import org.safs.android.auto.lib.AndroidTools;
-
 import com.robin.BaseFunctionality;
 import com.robin.reporter.Reporter;
+import com.robin.utilities.android.ApkInstallLedger;
+import com.robin.utilities.config.ConfigParams;
 
 // Director
 public class LogCatHandler
 {
 
-    private static AndroidTools androidTools = AndroidTools.get();
+    private static final int DEFAULT_FAILURE_SECONDS = 30;
+
+    private static final long MILLIS_PER_SECOND = 1000;
+
     private File logFile;
-    private FileWriter writer;
-    private List<String> commandParameters;
     private LogCatBuilder logCatBuilder;
+    private LogCatBuffer buffer;
+    private long startLine = -1;
+    private long endLine = -1;
+    private boolean written = false;
 
     public void setLogCatBuilder(final LogCatBuilder logCatBuilder)
     {
         this.logCatBuilder = logCatBuilder;
     }
 
+    /**
+     * Marks the start of the test in the logcat buffer of the device. The
+     * lines of the test are only written to the file by
+     * {@link #getLogCatFile()}, when the test fails.
+     */
     public void constructLogCat()
     {
         logCatBuilder.createLogCat();
         logCatBuilder.buildOption();
         logCatBuilder.buildFilter();
+        String deviceName =
+            BaseFunctionality.test().setup().getDevice().getSerialNumber();
+        buffer = LogCatBuffer.forDevice(deviceName, logCatBuilder);
         setLogCatFile();
-        setFileWriter();
-        setCommandParameters();
-        writeLogcat();
+        startLine =
+            buffer.mark("test start: " + BaseFunctionality.test().fileName());
     }
 
     private void setLogCatFile()
@@ -51,55 +60,6 @@ public class LogCatHandler
             new File(BaseFunctionality.config().getValue("logcat.dir")
                 + File.separator + BaseFunctionality.test().fileName()
                 + getLogCat().toString() + ".log");
-        Reporter.logConsole("LogCat file will be saved at: "
-            + logFile.getPath());
-    }
-
-    private void setFileWriter()
-    {
-        try
-        {
-            writer = new FileWriter(logFile);
-        } catch (IOException e)
-        {
-            e.printStackTrace();
-        }
-    }
-
-    private void setCommandParameters()
-    {
-        String logCatParam = "logcat";
-        String deviceName =
-            BaseFunctionality.test().setup().getDevice().getSerialNumber();
-        commandParameters = new ArrayList<String>();
-        commandParameters.add(logCatParam);
-        commandParameters.addAll(logCatBuilder.getLogCat().getOptions());
-        commandParameters.addAll(logCatBuilder.getLogCat().getFilters());
-        if (!deviceName.equals(".*"))
-        {
-            commandParameters.add(0, deviceName);
-            commandParameters.add(0, "-s");
-        }
-        logParameter();
-    }
-
-    private void writeLogcat()
-    {
-        try
-        {
-            androidTools.adb(commandParameters).connectStdout(writer);
-        } catch (IOException e)
-        {
-            e.printStackTrace();
-        }
-    }
-
-    private void logParameter()
-    {
-        String[] parameters =
-            commandParameters.toArray(new String[commandParameters.size()]);
-        Reporter.logConsole("ATTEMPTING ADB LogCat command: adb "
-            + Arrays.toString(parameters));
     }
 
     private LogCat getLogCat()
@@ -107,38 +67,90 @@ public class LogCatHandler
         return logCatBuilder.getLogCat();
     }
 
+    /**
+     * Writes the lines of the test from the logcat buffer into the file, the
+     * first time it is called.
+     * @return the logcat file of the test
+     */
     public File getLogCatFile()
     {
+        closeLogCatFile();
+        if (!written)
+        {
+            written = true;
+            try
+            {
+                buffer.write(startLine, endLine, logFile);
+                Reporter.logConsole("LogCat file saved at: "
+                    + logFile.getPath());
+            } catch (IOException e)
+            {
+                e.printStackTrace();
+            }
+        }
         return logFile;
     }
 
-    public void closeLogCatFile()
+    /**
+     * Gets the warnings and errors the application under test logged in the
+     * last seconds of the test, see
+     * {@link ConfigParams#LOGCAT_FAILURE_SECONDS}. Every process is kept if
+     * the start of the application is not in the logcat buffer.
+     * @return the toggle part HTML code of the lines
+     */
+    public String getFailureView()
     {
+        closeLogCatFile();
+        final long seconds =
+            Long.parseLong(BaseFunctionality.config().getValue(
+                ConfigParams.LOGCAT_FAILURE_SECONDS,
+                String.valueOf(DEFAULT_FAILURE_SECONDS)));
+        String process = "every process";
+        int pid = -1;
         try
         {
-            writer.close();
+            final String packageName =
+                ApkInstallLedger.getApkInfo(
+                    BaseFunctionality.test().setup().getAutApk())
+                    .getPackageName();
+            pid = buffer.findPid(packageName);
+            if (pid >= 0)
+            {
+                process = packageName + " (pid " + pid + ")";
+            }
         } catch (IOException e)
         {
-            e.printStackTrace();
+            Reporter.logConsole("Could not read the package of the AUT: "
+                + e.getMessage());
+        }
+        List<String> lines =
+            buffer.query(
+                startLine,
+                endLine,
+                pid,
+                LogCatParser.WARN,
+                null,
+                seconds * MILLIS_PER_SECOND);
+        StringBuilder text = new StringBuilder("<pre>");
+        for (String line : lines)
+        {
+            text.append(Reporter.escapeHtml(line)).append('\n');
         }
+        text.append("</pre>");
+        return Reporter.getToogleText("LogCat warnings and errors of "
+            + process + " in the last " + seconds + " seconds: "
+            + lines.size() + " lines", text.toString());
     }
 
-    public static void clearLogCat(final int... indexOfSolo)
+    /**
+     * Marks the end of the test in the logcat buffer of the device.
+     */
+    public void closeLogCatFile()
     {
-        try
-        {
-            androidTools.adb(
-                "-s",
-                BaseFunctionality
-                    .test()
-                    .setup()
-                    .getDevice(indexOfSolo)
-                    .getSerialNumber(),
-                "logcat",
-                "-c");
-        } catch (IOException e)
+        if (endLine < 0)
         {
-            e.printStackTrace();
+            endLine =
+                buffer.mark("test end: " + BaseFunctionality.test().fileName());
         }
     }
 }
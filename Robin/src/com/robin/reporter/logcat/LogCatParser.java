@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2013 Ustream Inc.
+ * author hrabo <hrabovszki.gyorgy@ustream.tv>
+ *
+ * For the full copyright and license information, please view the LICENSE
+ * file that was distributed with this source code.
+ */
+package com.robin.reporter.logcat;
+
+/**
+ * Streaming parser of the logcat lines of the threadtime format:
+ * "MM-DD HH:MM:SS.mmm  PID  TID L TAG     : message". The fields of the last
+ * parsed line are kept in the parser and the tag and the message are offsets
+ * into the line, so parsing a line allocates nothing. An instance is used by
+ * one thread only.
+ */
+public final class LogCatParser
+{
+    /**
+     * Level of the lines not in the threadtime format, like the markers and
+     * the "--------- beginning of main" lines.
+     */
+    public static final int UNKNOWN = 0;
+
+    public static final int VERBOSE = 2;
+
+    public static final int DEBUG = 3;
+
+    public static final int INFO = 4;
+
+    public static final int WARN = 5;
+
+    public static final int ERROR = 6;
+
+    public static final int ASSERT = 7;
+
+    private static final int TIME_LENGTH = 18;
+
+    private static final int[] DAYS_BEFORE_MONTH =
+        {0, 31, 59, 90, 120, 151, 181, 212, 243, 273, 304, 334 };
+
+    private static final int HOURS_PER_DAY = 24;
+
+    private static final int SIXTY = 60;
+
+    private static final int MILLIS_PER_SECOND = 1000;
+
+    private long time;
+
+    private int pid;
+
+    private int tid;
+
+    private int level;
+
+    private int tagStart;
+
+    private int tagEnd;
+
+    private int messageStart;
+
+    /**
+     * Parses a line, the fields are valid until the next call.
+     * @param line the logcat line
+     * @return false if the line is not in the threadtime format
+     */
+    public boolean parse(final String line)
+    {
+        final int length = line.length();
+        if (length < TIME_LENGTH || line.charAt(2) != '-'
+            || line.charAt(5) != ' ' || line.charAt(14) != '.')
+        {
+            return false;
+        }
+        final int month = number(line, 0, 2) - 1;
+        final int day = number(line, 3, 5);
+        final int hour = number(line, 6, 8);
+        final int minute = number(line, 9, 11);
+        final int second = number(line, 12, 14);
+        final int millis = number(line, 15, TIME_LENGTH);
+        if (month < 0 || month >= DAYS_BEFORE_MONTH.length || day < 0
+            || hour < 0 || minute < 0 || second < 0 || millis < 0)
+        {
+            return false;
+        }
+        int index = skipSpaces(line, TIME_LENGTH);
+        int end = skipDigits(line, index);
+        pid = number(line, index, end);
+        index = skipSpaces(line, end);
+        end = skipDigits(line, index);
+        tid = number(line, index, end);
+        index = skipSpaces(line, end);
+        if (pid < 0 || tid < 0 || index + 1 >= length
+            || line.charAt(index + 1) != ' ')
+        {
+            return false;
+        }
+        level = getLevel(line.charAt(index));
+        tagStart = index + 2;
+        final int separator = line.indexOf(": ", tagStart);
+        if (level == UNKNOWN || separator < 0)
+        {
+            return false;
+        }
+        tagEnd = separator;
+        while (tagEnd > tagStart && line.charAt(tagEnd - 1) == ' ')
+        {
+            tagEnd--;
+        }
+        messageStart = separator + 2;
+        time =
+            ((((long) DAYS_BEFORE_MONTH[month] + day) * HOURS_PER_DAY + hour)
+                * SIXTY + minute)
+                * SIXTY * MILLIS_PER_SECOND + second * MILLIS_PER_SECOND
+                + millis;
+        return true;
+    }
+
+    /**
+     * @return the milliseconds since the start of the year on the device
+     *         clock, leap days are not counted
+     */
+    public long getTime()
+    {
+        return time;
+    }
+
+    public int getPid()
+    {
+        return pid;
+    }
+
+    public int getTid()
+    {
+        return tid;
+    }
+
+    /**
+     * @return the level of the line from {@link #VERBOSE} to {@link #ASSERT}
+     */
+    public int getLevel()
+    {
+        return level;
+    }
+
+    /**
+     * @return the index of the first character of the tag in the line
+     */
+    public int getTagStart()
+    {
+        return tagStart;
+    }
+
+    /**
+     * @return the index after the last character of the tag in the line
+     */
+    public int getTagEnd()
+    {
+        return tagEnd;
+    }
+
+    /**
+     * @return the index of the first character of the message in the line
+     */
+    public int getMessageStart()
+    {
+        return messageStart;
+    }
+
+    /**
+     * @param letter the level letter of logcat, like 'W'
+     * @return the level of the letter or {@link #UNKNOWN}
+     */
+    public static int getLevel(final char letter)
+    {
+        switch (letter)
+        {
+            case 'V':
+                return VERBOSE;
+            case 'D':
+                return DEBUG;
+            case 'I':
+                return INFO;
+            case 'W':
+                return WARN;
+            case 'E':
+                return ERROR;
+            case 'F':
+            case 'A':
+                return ASSERT;
+            default:
+                return UNKNOWN;
+        }
+    }
+
+    private static int number(final String line, final int start,
+        final int end)
+    {
+        if (start >= end)
+        {
+            return -1;
+        }
+        int value = 0;
+        for (int i = start; i < end; i++)
+        {
+            final char c = line.charAt(i);
+            if (c < '0' || c > '9')
+            {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static int skipSpaces(final String line, final int start)
+    {
+        int index = start;
+        while (index < line.length() && line.charAt(index) == ' ')
+        {
+            index++;
+        }
+        return index;
+    }
+
+    private static int skipDigits(final String line, final int start)
+    {
+        int index = start;
+        while (index < line.length() && Character.isDigit(line.charAt(index)))
+        {
+            index++;
+        }
+        return index;
+    }
+}
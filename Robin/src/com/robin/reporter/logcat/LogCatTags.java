@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2013 Ustream Inc.
+ * author hrabo <hrabovszki.gyorgy@ustream.tv>
+ *
+ * For the full copyright and license information, please view the LICENSE
+ * file that was distributed with this source code.
+ */
+package com.robin.reporter.logcat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Interns the logcat tags into int ids. A tag already seen is looked up from
+ * the region of the line without creating a String. Not thread safe, the
+ * {@link LogCatBuffer} synchronizes.
+ */
+final class LogCatTags
+{
+    private static final int INITIAL_SLOTS = 256;
+
+    private final List<String> names = new ArrayList<String>();
+
+    /**
+     * Open addressing hash table of tag id + 1, 0 marks an empty slot.
+     */
+    private int[] slots = new int[INITIAL_SLOTS];
+
+    /**
+     * @param line the logcat line
+     * @param start the index of the first character of the tag
+     * @param end the index after the last character of the tag
+     * @return the id of the tag
+     */
+    int intern(final String line, final int start, final int end)
+    {
+        final int length = end - start;
+        final int mask = slots.length - 1;
+        int slot = hash(line, start, end) & mask;
+        while (slots[slot] != 0)
+        {
+            final String name = names.get(slots[slot] - 1);
+            if (name.length() == length
+                && line.regionMatches(start, name, 0, length))
+            {
+                return slots[slot] - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        names.add(line.substring(start, end));
+        slots[slot] = names.size();
+        if (names.size() * 2 > slots.length)
+        {
+            rehash();
+        }
+        return names.size() - 1;
+    }
+
+    /**
+     * @param tag the tag
+     * @return the id of the tag or -1 if the tag was not seen
+     */
+    int find(final String tag)
+    {
+        final int mask = slots.length - 1;
+        int slot = hash(tag, 0, tag.length()) & mask;
+        while (slots[slot] != 0)
+        {
+            if (names.get(slots[slot] - 1).equals(tag))
+            {
+                return slots[slot] - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    String getName(final int id)
+    {
+        return names.get(id);
+    }
+
+    private void rehash()
+    {
+        slots = new int[slots.length * 2];
+        final int mask = slots.length - 1;
+        for (int id = 0; id < names.size(); id++)
+        {
+            final String name = names.get(id);
+            int slot = hash(name, 0, name.length()) & mask;
+            while (slots[slot] != 0)
+            {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = id + 1;
+        }
+    }
+
+    private static int hash(final String text, final int start,
+        final int end)
+    {
+        int hash = 0;
+        for (int i = start; i < end; i++)
+        {
+            hash = 31 * hash + text.charAt(i);
+        }
+        // spread the high bits into the masked low bits
+        return hash ^ (hash >>> 16);
+    }
+}
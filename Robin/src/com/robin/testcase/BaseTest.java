@@ -8,6 +8,7 @@
 package com.robin.testcase;
 
 import java.io.File;
+import java.io.IOException;
 import java.lang.reflect.Method;
 
 import org.safs.android.auto.lib.DUtilities;
@@ -18,15 +19,25 @@ import org.testng.annotations.Optional;
 import org.testng.annotations.Parameters;
 
 import com.android.ddmlib.IDevice;
+import com.jayway.android.robotium.remotecontrol.solo.SimulatedDevice;
 import com.jayway.android.robotium.remotecontrol.solo.Solo;
+import com.jayway.android.robotium.remotecontrol.solo.SoloRemoteControl;
 
 import com.robin.BaseFunctionality;
+import com.robin.capture.ScreenRecorder;
 import com.robin.device.DevicePool;
+import com.robin.device.DeviceSession;
+import com.robin.device.DeviceSessionPool;
+import com.robin.device.SimulatedDevices;
+import com.robin.reporter.CommandLatencyReport;
 import com.robin.reporter.Reporter;
+import com.robin.reporter.TraceRecorder;
+import com.robin.reporter.logcat.LogCatCrashDetector;
 import com.robin.reporter.logcat.LogCatHandler;
 import com.robin.reporter.logcat.LogCatTimeFormatDebugFilterBuilder;
 import com.robin.utilities.Utilities;
 import com.robin.utilities.android.AndroidUtilities;
+import com.robin.utilities.android.ApkInstallLedger;
 import com.robin.utilities.config.ConfigParams;
 
 /**
@@ -41,8 +52,6 @@ public class BaseTest extends BaseFunctionality
 
     private static Object messengerApkLock = new Object();
 
-    private static Object soloInitLock = new Object();
-
     /**
      * Performing setup for tests.
      * 1. Rebuild / install apks
@@ -64,18 +73,41 @@ public class BaseTest extends BaseFunctionality
         TestExecutionManager.registerMethod(
             method,
             testSetup.getDeviceSelectorRegexp());
+        final long setupStart = System.currentTimeMillis();
         createFilesForTest(testSetup.getAutApk());
         startRobotium(
             testSetup.getAutApk(),
             testSetup.getDeviceSelectorRegexp());
+        testSetup.setSetupDuration(System.currentTimeMillis() - setupStart);
     }
 
     private void createFilesForTest(final File autFile)
     {
         final boolean isDebug = true;
-        ApkResigner.resignAUT(autFile);
-        File autAPK = ApkResigner.getReSignedAUT(autFile);
+        final TraceRecorder.Span resign =
+            TraceRecorder.begin(TraceRecorder.APK, "resign");
+        File autAPK;
+        try
+        {
+            ApkResigner.resignAUT(autFile);
+            autAPK = ApkResigner.getReSignedAUT(autFile);
+        } finally
+        {
+            resign.end();
+        }
+        final TraceRecorder.Span build =
+            TraceRecorder.begin(TraceRecorder.APK, "build");
+        try
+        {
+            buildApks(autAPK, isDebug);
+        } finally
+        {
+            build.end();
+        }
+    }
 
+    private void buildApks(final File autAPK, final boolean isDebug)
+    {
         File messengerApk = getDesiredMessengerApk(isDebug);
         if (!messengerApk.exists())
         {
@@ -216,7 +248,18 @@ public class BaseTest extends BaseFunctionality
             Reporter.CONFIG_EVENT_STYLE);
         for (int i = 0; i <= test().lastSoloIndex(); i++)
         {
-            stopRobotium(i);
+            final TraceRecorder.Span teardown =
+                TraceRecorder.begin(TraceRecorder.TEARDOWN, "stop", test()
+                    .setup()
+                    .getDevice(i)
+                    .getSerialNumber());
+            try
+            {
+                stopRobotium(i);
+            } finally
+            {
+                teardown.end();
+            }
         }
     }
 
@@ -258,41 +301,97 @@ public class BaseTest extends BaseFunctionality
 
         test().setup().addDevice(device);
         int newSoloIndex = test().lastSoloIndex() + 1;
-        addLogCat(newSoloIndex);
+        final SimulatedDevice simulator = SimulatedDevices.getSimulator(device);
+        if (simulator == null)
+        {
+            addLogCat(newSoloIndex);
+        }
         logTestcaseSetup();
         final boolean isDebugBuild = true;
         final boolean isRobotiumDebug =
             Boolean.parseBoolean(config()
                 .getValue(ConfigParams.ROBOTIUM_LOGGING));
 
+        File autAPK =
+            simulator == null ? ApkResigner.getReSignedAUT(autFile) : autFile;
+        if (isSessionMode() && reuseDeviceSession(device, autAPK))
+        {
+            if (simulator == null)
+            {
+                startCrashDetection(device, autAPK);
+                ScreenRecorder.start(device);
+            }
+            return;
+        }
+
         final String serial = device.getSerialNumber();
-        AndroidUtilities androidUtils = new AndroidUtilities();
+        if (simulator == null)
+        {
+            AndroidUtilities androidUtils = new AndroidUtilities();
 
-        File autAPK = ApkResigner.getReSignedAUT(autFile);
-        androidUtils.installReplaceApk(autAPK, device);
+            installApk(androidUtils, autAPK, device);
 
-        File messengerApk = getDesiredMessengerApk(isDebugBuild);
-        androidUtils.installReplaceApk(messengerApk, device);
+            File messengerApk = getDesiredMessengerApk(isDebugBuild);
+            installApk(androidUtils, messengerApk, device);
 
-        // Robotium test runner apk build and install
-        File desiredRunnerApk = getDesiredRunnerApkFile(autAPK);
-        androidUtils.installReplaceApk(desiredRunnerApk, device);
+            // Robotium test runner apk build and install
+            File desiredRunnerApk = getDesiredRunnerApkFile(autAPK);
+            installApk(androidUtils, desiredRunnerApk, device);
 
-        androidUtils.unlockDeviceScreen(serial);
+            final TraceRecorder.Span instrumentation =
+                TraceRecorder.begin(
+                    TraceRecorder.INSTRUMENTATION,
+                    "launch",
+                    serial);
+            try
+            {
+                androidUtils.unlockDeviceScreen(serial);
 
-        androidUtils.launchTestInstrumentation(
-            DUtilities.TEST_RUNNER_INSTRUMENT,
-            serial);
+                androidUtils.launchTestInstrumentation(
+                    DUtilities.TEST_RUNNER_INSTRUMENT,
+                    serial);
+            } finally
+            {
+                instrumentation.end();
+            }
+        }
 
         test().setup().addSolo(new Solo());
         Solo solo = test().solo(test().lastSoloIndex());
-        solo.setPortForwarding(true);
+        // a simulated device listens on a local port, no adb forward needed
+        solo.setPortForwarding(simulator == null);
+        if (simulator != null)
+        {
+            solo.setRemotePort(simulator.getPort());
+        }
+        solo.setDeviceSerial(serial);
+        solo.setHeartbeatInterval(Long.parseLong(config().getValue(
+            ConfigParams.HEARTBEAT_INTERVAL,
+            "0")));
+        solo.setPayloadCompression(Boolean.parseBoolean(config().getValue(
+            ConfigParams.PAYLOAD_COMPRESSION,
+            "false")));
         try
         {
-            synchronized (soloInitLock)
+            final long soloInitStart = System.currentTimeMillis();
+            final TraceRecorder.Span soloInit =
+                TraceRecorder.begin(TraceRecorder.SOLO, "initialize", serial);
+            try
             {
-                DUtilities.USE_DEVICE_SERIAL = "-s " + serial;
                 solo.initialize();
+            } finally
+            {
+                soloInit.end();
+            }
+            DevicePool.recordSoloInitTime(
+                device,
+                System.currentTimeMillis() - soloInitStart);
+            final long connectTime = solo.getRemoteControl().getConnectTime();
+            if (connectTime >= 0)
+            {
+                DevicePool.recordConnectTime(device, connectTime);
+                Reporter.logConsole("Solo connected to " + serial + " in "
+                    + connectTime + " ms.");
             }
         } catch (Exception e)
         {
@@ -315,6 +414,13 @@ public class BaseTest extends BaseFunctionality
         {
             Assert.fail("Solo read current activity failed.", e);
         }
+        if (isSessionMode())
+        {
+            DeviceSessionPool.addSession(new DeviceSession(
+                device,
+                solo,
+                autAPK));
+        }
         test()
             .setup()
             .getReporter()
@@ -327,6 +433,126 @@ public class BaseTest extends BaseFunctionality
                             .getDevice(newSoloIndex))),
                     log().valueStyleString(mainActivityUID)),
                 Reporter.CONFIG_EVENT_STYLE);
+        if (simulator == null)
+        {
+            startCrashDetection(device, autAPK);
+            ScreenRecorder.start(device);
+        }
+    }
+
+    /**
+     * Watches the logcat of the device for a crash of the application under
+     * test, see {@link ConfigParams#CRASH_DETECTION}.
+     */
+    private void startCrashDetection(final IDevice device, final File autApk)
+    {
+        if (!Boolean.parseBoolean(config().getValue(
+            ConfigParams.CRASH_DETECTION,
+            "true")))
+        {
+            return;
+        }
+        try
+        {
+            LogCatCrashDetector.start(
+                device.getSerialNumber(),
+                ApkInstallLedger.getApkInfo(autApk).getPackageName());
+        } catch (IOException e)
+        {
+            Reporter.log("No crash detection on " + device.getSerialNumber()
+                + ": " + e.getMessage(), true);
+        }
+    }
+
+    /**
+     * Installs the apk if it changed since the last install on the device, or
+     * always when the {@link ConfigParams#FORCE_REINSTALL} switch is on.
+     */
+    private void installApk(final AndroidUtilities androidUtils,
+        final File apk, final IDevice device)
+    {
+        final long installStart = System.currentTimeMillis();
+        final TraceRecorder.Span install =
+            TraceRecorder.begin(
+                TraceRecorder.APK,
+                "install " + apk.getName(),
+                device.getSerialNumber());
+        boolean installed = true;
+        try
+        {
+            if (Boolean.parseBoolean(config().getValue(
+                ConfigParams.FORCE_REINSTALL,
+                "false")))
+            {
+                androidUtils.installReplaceApk(apk, device);
+            } else
+            {
+                installed = androidUtils.installApkIfChanged(apk, device);
+            }
+        } finally
+        {
+            install.end();
+        }
+        if (installed)
+        {
+            DevicePool.recordInstallTime(
+                device,
+                System.currentTimeMillis() - installStart);
+        }
+    }
+
+    private boolean isSessionMode()
+    {
+        return Boolean.parseBoolean(config().getValue(
+            ConfigParams.SESSION_MODE,
+            "false"));
+    }
+
+    /**
+     * Reuses the running session of the device if it was started for the same
+     * application and passes the health check. A broken or outdated session
+     * is closed, so the caller performs a full setup.
+     * @param device the leased device
+     * @param autApk the re-signed application under test
+     * @return true if the session is reused and the application relaunched
+     */
+    private boolean reuseDeviceSession(final IDevice device, final File autApk)
+    {
+        DeviceSession session = DeviceSessionPool.getSession(device);
+        if (session == null)
+        {
+            return false;
+        }
+        if (!session.isStartedFor(autApk) || !session.isHealthy())
+        {
+            Reporter.log("Closing unusable session on '"
+                + device.getSerialNumber() + "', rebuilding it.", true);
+            DeviceSessionPool.closeSession(device);
+            return false;
+        }
+        try
+        {
+            session.restartApplication();
+        } catch (Exception e)
+        {
+            Reporter.log("Application restart failed in session on '"
+                + device.getSerialNumber() + "', rebuilding it. "
+                + e.getMessage(), true);
+            DeviceSessionPool.closeSession(device);
+            return false;
+        }
+        test().setup().addSolo(session.getSolo());
+        test()
+            .setup()
+            .getReporter()
+            .log(
+                String.format(
+                    "Robin reused session on '%s' device (test %d of the "
+                        + "session).",
+                    log().valueStyleString(device.getSerialNumber()),
+                    session.getTestCount() + 1),
+                Reporter.CONFIG_EVENT_STYLE);
+        return true;
     }
 
     private File getDesiredRunnerApkFile(final File autApk)
@@ -342,12 +568,61 @@ public class BaseTest extends BaseFunctionality
 
     protected void stopRobotium(final int... indexOfSolo)
     {
+        final IDevice device = test().setup().getDevice(indexOfSolo);
+        ScreenRecorder.stop(device.getSerialNumber());
+        final String crash =
+            LogCatCrashDetector.stop(device.getSerialNumber());
+        SoloRemoteControl control = test().solo(indexOfSolo).getRemoteControl();
+        if (control != null)
+        {
+            DevicePool.recordCommandTimes(device, control.getCommandTimes());
+            logPayloadBytes(control);
+            CommandLatencyReport.logTest(control.getCommandLatencies());
+        }
+        if (crash != null)
+        {
+            Reporter.log(Reporter.getToogleText(
+                "Application crash detected on " + device.getSerialNumber(),
+                "<pre>" + Reporter.escapeHtml(crash) + "</pre>"));
+            // the remote client is gone, any remote command fails at once so
+            // the device is released without waiting for timeouts
+            if (DeviceSessionPool.getSession(device) != null)
+            {
+                DeviceSessionPool.closeSession(device);
+            } else
+            {
+                test().solo(indexOfSolo).shutdown();
+            }
+            return;
+        }
+        if (isSessionMode() && DeviceSessionPool.getSession(device) != null)
+        {
+            // the session is kept alive for the next test on the device
+            return;
+        }
         Assert.assertTrue(
             test().solo(indexOfSolo).shutdownRemote(),
             "Fail to shutdown remote service.");
         test().solo(indexOfSolo).shutdown();
     }
 
+    private void logPayloadBytes(final SoloRemoteControl control)
+    {
+        final long wireBytes = control.getPayloadWireBytes();
+        final long bytes = control.getPayloadBytes();
+        if (bytes == 0)
+        {
+            return;
+        }
+        Reporter.log(String.format(
+            "Solo results: %d bytes on the wire, %d bytes uncompressed"
+                + " (%d%%, compression %s).",
+            wireBytes,
+            bytes,
+            wireBytes * 100 / bytes,
+            control.isPayloadCompressionNegotiated() ? "on" : "off"), true);
+    }
+
     private void addLogCat(final int... indexOfSolo)
     {
         constructDebugLevelLongFormatLogCat(indexOfSolo);
@@ -355,7 +630,6 @@ public class BaseTest extends BaseFunctionality
 
     private void constructDebugLevelLongFormatLogCat(final int... indexOfSolo)
     {
-        LogCatHandler.clearLogCat(indexOfSolo);
         LogCatHandler logCatHandler = new LogCatHandler();
         logCatHandler
             .setLogCatBuilder(new LogCatTimeFormatDebugFilterBuilder());
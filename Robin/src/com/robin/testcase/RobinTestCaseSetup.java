@@ -32,6 +32,8 @@ public class RobinTestCaseSetup implements TestCaseSetup
 
     private long actTime = 0;
 
+    private long setupDuration = 0;
+
     private ArrayList<Solo> soloList = new ArrayList<Solo>();
 
     private ArrayList<User> userList = new ArrayList<User>();
@@ -128,6 +130,12 @@ public class RobinTestCaseSetup implements TestCaseSetup
         devices.add(device);
     }
 
+    @Override
+    public ArrayList<IDevice> getDevices()
+    {
+        return devices;
+    }
+
     /**
      * Getter for className.
      * @return the className
@@ -257,6 +265,22 @@ public class RobinTestCaseSetup implements TestCaseSetup
         return Long.toString(System.currentTimeMillis() - actTime);
     }
 
+    /**
+     * Stores the duration of the device and solo session setup.
+     * @param milliseconds the setup duration
+     */
+    @Override
+    public void setSetupDuration(final long milliseconds)
+    {
+        setupDuration = milliseconds;
+    }
+
+    @Override
+    public long getSetupDuration()
+    {
+        return setupDuration;
+    }
+
     @Override
     public void addLogCatHandler(final LogCatHandler logCatHandler)
     {
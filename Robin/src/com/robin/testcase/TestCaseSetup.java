@@ -41,6 +41,8 @@ public interface TestCaseSetup
 
     void addDevice(final IDevice device);
 
+    ArrayList<IDevice> getDevices();
+
     String getTestClassName();
 
     void setTestClassName(final String className);
@@ -69,6 +71,10 @@ public interface TestCaseSetup
 
     String toc();
 
+    void setSetupDuration(final long milliseconds);
+
+    long getSetupDuration();
+
     void addLogCatHandler(final LogCatHandler logCatHandler);
 
     ArrayList<LogCatHandler> getLogCatHandlers();
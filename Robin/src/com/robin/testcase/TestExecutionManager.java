@@ -12,6 +12,7 @@ import java.util.ArrayList;
 import org.testng.Assert;
 
 import com.robin.device.DevicePool;
+import com.robin.reporter.TraceRecorder;
 import com.robin.testcase.annotations.MultiDevice;
 import com.robin.testcase.annotations.Sequential;
 
@@ -42,39 +43,49 @@ public class TestExecutionManager
         final boolean sequentialMethod = isMethodSequential(method);
         final boolean globallySequentialMethod =
             isMethodGloballySequential(method);
-        synchronized (runningMethods)
+        final TraceRecorder.Span admission =
+            TraceRecorder.begin(TraceRecorder.ADMISSION, method
+                .getDeclaringClass()
+                .getSimpleName() + "." + method.getName());
+        try
         {
-            while (true)
+            synchronized (runningMethods)
             {
-                int matchingDeviceNum =
-                    DevicePool.getMatchingDeviceList(deviceSelector).size();
-                if (matchingDeviceNum >= methodMaxDevice
-                    && !isOtherMultiDeviceRunning()
-                    && (!sequentialMethod || !globallySequentialMethod
-                        && !isMethodAlreadyRunning(method)
-                        && !isOtherSequentialClassGroupRunning(method)
-                        || !isOtherSequentialMethodRunning()))
-                {
-                    runningMethods.add(method);
-                    return;
-                } else
+                while (true)
                 {
-                    Assert.assertTrue(
-                        methodMaxDevice <= matchingDeviceNum,
-                        "Method " + method.getDeclaringClass().getName() + "."
-                            + method.getName() + " need more device ("
-                            + methodMaxDevice + ") than available ("
-                            + matchingDeviceNum + ") for " + deviceSelector
-                            + " device selector expression!");
-                    try
+                    int matchingDeviceNum =
+                        DevicePool.getMatchingDeviceList(deviceSelector).size();
+                    if (matchingDeviceNum >= methodMaxDevice
+                        && !isOtherMultiDeviceRunning()
+                        && (!sequentialMethod || !globallySequentialMethod
+                            && !isMethodAlreadyRunning(method)
+                            && !isOtherSequentialClassGroupRunning(method)
+                            || !isOtherSequentialMethodRunning()))
                     {
-                        runningMethods.wait();
-                    } catch (InterruptedException e)
+                        runningMethods.add(method);
+                        return;
+                    } else
                     {
-                        e.printStackTrace();
+                        Assert.assertTrue(
+                            methodMaxDevice <= matchingDeviceNum,
+                            "Method " + method.getDeclaringClass().getName()
+                                + "." + method.getName() + " need more device ("
+                                + methodMaxDevice + ") than available ("
+                                + matchingDeviceNum + ") for " + deviceSelector
+                                + " device selector expression!");
+                        try
+                        {
+                            runningMethods.wait();
+                        } catch (InterruptedException e)
+                        {
+                            e.printStackTrace();
+                        }
                     }
                 }
             }
+        } finally
+        {
+            admission.end();
         }
     }
 
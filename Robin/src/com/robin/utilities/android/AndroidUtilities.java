@@ -43,7 +43,49 @@ public class AndroidUtilities
         installAPK(apk, serial);
     }
 
-    public void installReplaceApk(final File apk, final IDevice device)
+    /**
+     * Installs the apk unless the same apk content is already installed on
+     * the device according to the {@link ApkInstallLedger}. The data of an
+     * already installed package is cleared instead, so the application starts
+     * from a clean state as after a reinstall.
+     * @param apk the apk file
+     * @param device the target device
+     * @return true if the apk was installed, false if it was up to date
+     */
+    public boolean installApkIfChanged(final File apk, final IDevice device)
+    {
+        ApkInstallLedger.ApkInfo apkInfo;
+        try
+        {
+            apkInfo = ApkInstallLedger.getApkInfo(apk);
+        } catch (IOException e)
+        {
+            Reporter.log("Could not read " + apk.getAbsolutePath()
+                + " for the install ledger: " + e.getMessage(), true);
+            installReplaceApk(apk, device);
+            return true;
+        }
+        if (ApkInstallLedger.isInstalled(device, apkInfo)
+            && ApkInstallLedger.clearData(device, apkInfo.getPackageName()))
+        {
+            Reporter.log("Skip install of unchanged " + apk.getAbsolutePath()
+                + " on " + device.getSerialNumber() + ", data cleared.", true);
+            return false;
+        }
+        if (installReplaceApk(apk, device))
+        {
+            ApkInstallLedger.recordInstall(device, apkInfo);
+        }
+        return true;
+    }
+
+    /**
+     * Uninstalls the package of the apk and installs the apk.
+     * @param apk the apk file
+     * @param device the target device
+     * @return true if the install succeeded
+     */
+    public boolean installReplaceApk(final File apk, final IDevice device)
     {
         Reporter.log("Install&Replace " + apk.getAbsolutePath() + " on "
             + device.getSerialNumber(), true);
@@ -70,7 +112,9 @@ public class AndroidUtilities
         {
             Reporter.log("Could not install: " + apk.getAbsolutePath()
                 + " because " + installResult);
+            return false;
         }
+        return true;
     }
 
     public void uninstallAPKPackage(final String targetPackage,
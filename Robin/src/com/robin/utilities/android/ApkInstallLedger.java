@@ -0,0 +1,275 @@
+/*
+ * Copyright (C) 2013 Ustream Inc.
+ * author chaotx <lombai.ferenc@ustream.tv>
+ *
+ * For the full copyright and license information, please view the LICENSE
+ * file that was distributed with this source code.
+ */
+package com.robin.utilities.android;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.safs.android.auto.lib.DUtilities;
+
+import com.android.ddmlib.IDevice;
+
+/**
+ * Per-device ledger of the installed apks. After a successful install the
+ * SHA-1 digest of the apk and the 'pm path' of the package are stored in a
+ * small ledger file on the device. An apk is up to date on a device if the
+ * package is installed at the recorded path and the recorded digest equals
+ * the digest of the local apk file. The ledger survives host restarts, and a
+ * package reinstalled by anybody else gets a new path and so invalidates its
+ * entry.
+ */
+public final class ApkInstallLedger
+{
+    private static final String LEDGER_DIR = "/data/local/tmp/";
+
+    private static final String LEDGER_PREFIX = "robin_ledger_";
+
+    private static final String PM_PATH_PREFIX = "package:";
+
+    private static final int SHELL_TIMEOUT = 10000;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Local apk package name and digest cache keyed by path, length and last
+     * modification time, so unchanged files are hashed and parsed only once.
+     */
+    private static final Map<String, ApkInfo> APK_INFOS =
+        new ConcurrentHashMap<String, ApkInfo>();
+
+    /**
+     * Local apk digest cache with the keys of {@link #APK_INFOS}.
+     */
+    private static final Map<String, String> APK_DIGESTS =
+        new ConcurrentHashMap<String, String>();
+
+    /**
+     * Package name and content digest of a local apk file.
+     */
+    public static final class ApkInfo
+    {
+        private final String packageName;
+
+        private final String digest;
+
+        private ApkInfo(final String packageNameParam, final String digestParam)
+        {
+            packageName = packageNameParam;
+            digest = digestParam;
+        }
+
+        public String getPackageName()
+        {
+            return packageName;
+        }
+
+        public String getDigest()
+        {
+            return digest;
+        }
+    }
+
+    private ApkInstallLedger()
+    {
+    }
+
+    /**
+     * @param apk the local apk file
+     * @return the package name and content digest of the apk
+     * @throws IOException if the apk can not be read
+     */
+    public static ApkInfo getApkInfo(final File apk) throws IOException
+    {
+        final String key = getCacheKey(apk);
+        ApkInfo info = APK_INFOS.get(key);
+        if (info == null)
+        {
+            final String packageName =
+                DUtilities.getTargetPackageValue(apk.getAbsolutePath());
+            if (packageName == null)
+            {
+                throw new IOException("Could not read the package of "
+                    + apk.getAbsolutePath());
+            }
+            info = new ApkInfo(packageName, getDigest(apk));
+            APK_INFOS.put(key, info);
+        }
+        return info;
+    }
+
+    /**
+     * @param apk the local apk file
+     * @return the SHA-1 digest of the apk content
+     * @throws IOException if the apk can not be read
+     */
+    public static String getDigest(final File apk) throws IOException
+    {
+        final String key = getCacheKey(apk);
+        String digest = APK_DIGESTS.get(key);
+        if (digest == null)
+        {
+            digest = digest(apk);
+            APK_DIGESTS.put(key, digest);
+        }
+        return digest;
+    }
+
+    /**
+     * Checks on the device whether the given apk is installed unchanged.
+     * @param device the device
+     * @param apkInfo the package and digest of the local apk
+     * @return true if the package is installed from the same apk content
+     */
+    public static boolean isInstalled(final IDevice device,
+        final ApkInfo apkInfo)
+    {
+        try
+        {
+            final String pmPath =
+                getPackagePath(device, apkInfo.getPackageName());
+            if (pmPath.length() == 0)
+            {
+                return false;
+            }
+            ShellOutputReceiver ledger = new ShellOutputReceiver();
+            device.executeShellCommand(
+                "cat " + getLedgerFile(apkInfo.getPackageName()),
+                ledger,
+                SHELL_TIMEOUT);
+            return ledger.getFirstLine().equals(
+                getLedgerEntry(apkInfo.getDigest(), pmPath));
+        } catch (Exception e)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Records a successful install of the apk on the device.
+     * @param device the device
+     * @param apkInfo the package and digest of the installed apk
+     * @return true if the ledger entry was written
+     */
+    public static boolean recordInstall(final IDevice device,
+        final ApkInfo apkInfo)
+    {
+        try
+        {
+            final String pmPath =
+                getPackagePath(device, apkInfo.getPackageName());
+            if (pmPath.length() == 0)
+            {
+                return false;
+            }
+            device.executeShellCommand(
+                "echo '" + getLedgerEntry(apkInfo.getDigest(), pmPath)
+                    + "' > " + getLedgerFile(apkInfo.getPackageName()),
+                new ShellOutputReceiver(),
+                SHELL_TIMEOUT);
+            return true;
+        } catch (Exception e)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Resets the application state by clearing the package data.
+     * @param device the device
+     * @param packageName the package to clear
+     * @return true if the package manager reported success
+     */
+    public static boolean clearData(final IDevice device,
+        final String packageName)
+    {
+        try
+        {
+            ShellOutputReceiver receiver = new ShellOutputReceiver();
+            device.executeShellCommand(
+                "pm clear " + packageName,
+                receiver,
+                SHELL_TIMEOUT);
+            return receiver.getLines().contains("Success");
+        } catch (Exception e)
+        {
+            return false;
+        }
+    }
+
+    private static String getPackagePath(final IDevice device,
+        final String packageName) throws Exception
+    {
+        ShellOutputReceiver receiver = new ShellOutputReceiver();
+        device.executeShellCommand(
+            "pm path " + packageName,
+            receiver,
+            SHELL_TIMEOUT);
+        for (String line : receiver.getLines())
+        {
+            if (line.startsWith(PM_PATH_PREFIX))
+            {
+                return line.substring(PM_PATH_PREFIX.length());
+            }
+        }
+        return "";
+    }
+
+    private static String getLedgerFile(final String packageName)
+    {
+        return LEDGER_DIR + LEDGER_PREFIX + packageName;
+    }
+
+    private static String getLedgerEntry(final String digest,
+        final String pmPath)
+    {
+        return digest + " " + pmPath;
+    }
+
+    private static String getCacheKey(final File apk)
+    {
+        return apk.getAbsolutePath() + "|" + apk.length() + "|"
+            + apk.lastModified();
+    }
+
+    private static String digest(final File apk) throws IOException
+    {
+        MessageDigest messageDigest;
+        try
+        {
+            messageDigest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e)
+        {
+            throw new IOException(e.getMessage());
+        }
+        InputStream in = new FileInputStream(apk);
+        try
+        {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1)
+            {
+                messageDigest.update(buffer, 0, read);
+            }
+        } finally
+        {
+            in.close();
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : messageDigest.digest())
+        {
+            hex.append(String.format("%02x", b & 0xff));
+        }
+        return hex.toString();
+    }
+}
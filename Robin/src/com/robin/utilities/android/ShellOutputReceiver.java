@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2013 Ustream Inc.
+ * author chaotx <lombai.ferenc@ustream.tv>
+ *
+ * For the full copyright and license information, please view the LICENSE
+ * file that was distributed with this source code.
+ */
+package com.robin.utilities.android;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.android.ddmlib.MultiLineReceiver;
+
+/**
+ * Collects the output lines of a device shell command.
+ */
+public class ShellOutputReceiver extends MultiLineReceiver
+{
+    private final List<String> lines = new ArrayList<String>();
+
+    @Override
+    public boolean isCancelled()
+    {
+        return false;
+    }
+
+    @Override
+    public synchronized void processNewLines(final String[] newLines)
+    {
+        for (String line : newLines)
+        {
+            if (line.length() > 0)
+            {
+                lines.add(line.trim());
+            }
+        }
+    }
+
+    /**
+     * @return the non empty output lines
+     */
+    public synchronized List<String> getLines()
+    {
+        return new ArrayList<String>(lines);
+    }
+
+    /**
+     * @return the first non empty output line or empty string
+     */
+    public synchronized String getFirstLine()
+    {
+        return lines.isEmpty() ? "" : lines.get(0);
+    }
+}
@@ -45,6 +45,120 @@ public final class ConfigParams
 
     public static final String SCREENSHOT_PATH = "robin.screenshotPath";
 
+    /**
+     * Append-only file of the local test execution history.
+     */
+    public static final String HISTORY_FILE = "robin.historyFile";
+
+    /**
+     * Devices with a health score (0-100) below this value are quarantined.
+     */
+    public static final String DEVICE_HEALTH_THRESHOLD =
+        "robin.deviceHealthThreshold";
+
+    /**
+     * Reinstall every apk before each test even if it is already installed
+     * unchanged on the device.
+     */
+    public static final String FORCE_REINSTALL = "robin.forceReinstall";
+
+    /**
+     * Keep the test runner instrumentation and the solo connection alive
+     * between the tests on a device.
+     */
+    public static final String SESSION_MODE = "robin.sessionMode";
+
+    /**
+     * Milliseconds between heartbeats on the solo connection, 0 disables
+     * heartbeats.
+     */
+    public static final String HEARTBEAT_INTERVAL = "robin.heartbeatInterval";
+
+    /**
+     * Offer the device to compress large solo results on the wire.
+     */
+    public static final String PAYLOAD_COMPRESSION =
+        "robin.payloadCompression";
+
+    /**
+     * Number of in-JVM simulated devices to run the tests on instead of the
+     * devices connected to adb, 0 uses the real devices.
+     */
+    public static final String SIMULATED_DEVICES = "robin.simulatedDevices";
+
+    /**
+     * Milliseconds range "min-max" a simulated device takes to answer a solo
+     * command.
+     */
+    public static final String SIMULATED_LATENCY = "robin.simulatedLatency";
+
+    /**
+     * Probability (0.0-1.0) of a solo command failing on a simulated device.
+     */
+    public static final String SIMULATED_FAILURE_RATE =
+        "robin.simulatedFailureRate";
+
+    /**
+     * Number of logcat lines kept in memory per device.
+     */
+    public static final String LOGCAT_BUFFER_LINES = "robin.logcatBufferLines";
+
+    /**
+     * Seconds of logcat before the failure shown in the report.
+     */
+    public static final String LOGCAT_FAILURE_SECONDS =
+        "robin.logcatFailureSeconds";
+
+    /**
+     * Fail the solo commands at once when the application under test crashes.
+     */
+    public static final String CRASH_DETECTION = "robin.crashDetection";
+
+    /**
+     * How the screenshots are captured, "framebuffer" or "screencap".
+     */
+    public static final String SCREENSHOT_MODE = "robin.screenshotMode";
+
+    /**
+     * Milliseconds between the frames of the background screen recording, 0
+     * turns the recording off.
+     */
+    public static final String SCREEN_RECORDING_INTERVAL =
+        "robin.screenRecordingInterval";
+
+    /**
+     * Seconds of the screen recording kept before the failure.
+     */
+    public static final String SCREEN_RECORDING_SECONDS =
+        "robin.screenRecordingSeconds";
+
+    /**
+     * Kilobytes of compressed frames kept per device.
+     */
+    public static final String SCREEN_RECORDING_MEMORY_KB =
+        "robin.screenRecordingMemoryKb";
+
+    /**
+     * Share of the time, in percent, the recorder may spend capturing.
+     */
+    public static final String SCREEN_RECORDING_CPU_PERCENT =
+        "robin.screenRecordingCpuPercent";
+
+    /**
+     * Directory of the baseline images of the screen comparisons.
+     */
+    public static final String BASELINE_DIR = "robin.baselineDir";
+
+    /**
+     * Stream the report events into a file instead of the testNG reporter.
+     */
+    public static final String REPORT_STREAM = "robin.reportStream";
+
+    /**
+     * Record a Chrome trace of the setup phases and commands of the run.
+     */
+    public static final String TRACE = "robin.trace";
+
     private ConfigParams()
     {
 
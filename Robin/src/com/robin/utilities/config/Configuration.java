@@ -11,6 +11,14 @@ public interface Configuration
 {
     String getValue(final String key);
 
+    /**
+     * Gets an optional configuration value.
+     * @param key the configuration key
+     * @param defaultValue the value returned when the key is not configured
+     * @return the configured value or the defaultValue
+     */
+    String getValue(final String key, final String defaultValue);
+
     void addConfigFile(final String filename);
 
     void addConfigFileIfExists(final String filename);
@@ -58,6 +58,12 @@ public final class RobinConfiguration implements Configuration
         return result;
     }
 
+    @Override
+    public String getValue(final String key, final String defaultValue)
+    {
+        return properties.getProperty(key, defaultValue);
+    }
+
     @Override
     public void addConfigFile(final String filename)
     {
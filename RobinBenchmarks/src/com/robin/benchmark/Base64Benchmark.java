@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2013 Ustream Inc.
+ * author chaotx <lombai.ferenc@ustream.tv>
+ *
+ * For the full copyright and license information, please view the LICENSE
+ * file that was distributed with this source code.
+ */
+package com.robin.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.tools.codec.Base64Codec;
+import org.w3c.tools.codec.Base64Decoder;
+import org.w3c.tools.codec.Base64Encoder;
+import org.w3c.tools.codec.Base64FormatException;
+
+/**
+ * Base64 coding of the binary solo results, like screenshots and serialized
+ * objects: the bulk codec, the streams and the String helpers of Message.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Base64Benchmark
+{
+    /**
+     * Bytes to encode.
+     */
+    @Param({"10240", "5242880" })
+    private int size;
+
+    private byte[] bytes;
+
+    private String encoded;
+
+    private byte[] encodedBytes;
+
+    @Setup
+    public void createBytes()
+    {
+        bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        encoded = Base64Encoder.encodeBase64Bytes(bytes);
+        encodedBytes = Base64Codec.encode(bytes);
+    }
+
+    @Benchmark
+    public byte[] codecEncode()
+    {
+        return Base64Codec.encode(bytes);
+    }
+
+    @Benchmark
+    public byte[] codecDecode() throws Base64FormatException
+    {
+        return Base64Codec.decode(encodedBytes);
+    }
+
+    @Benchmark
+    public byte[] streamEncode() throws IOException
+    {
+        ByteArrayOutputStream out =
+            new ByteArrayOutputStream(encodedBytes.length);
+        new Base64Encoder(new ByteArrayInputStream(bytes), out).process();
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] streamDecode() throws IOException, Base64FormatException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(size);
+        new Base64Decoder(new ByteArrayInputStream(encodedBytes), out)
+            .process();
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public String encode()
+    {
+        return Base64Encoder.encodeBase64Bytes(bytes);
+    }
+
+    @Benchmark
+    public byte[] decode()
+    {
+        return Base64Decoder.decodeBase64Bytes(encoded);
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2013 Ustream Inc.
+ * author chaotx <lombai.ferenc@ustream.tv>
+ *
+ * For the full copyright and license information, please view the LICENSE
+ * file that was distributed with this source code.
+ */
+package com.robin.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.android.ddmlib.IDevice;
+import com.robin.device.DevicePool;
+import com.robin.device.SimulatedDevices;
+
+/**
+ * Device selection from a pool of fake devices, done whenever a test looks
+ * for a device matching its selector.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DevicePoolBenchmark
+{
+    /**
+     * Number of devices in the pool.
+     */
+    @Param({"1", "10", "100" })
+    private int deviceCount;
+
+    private final List<IDevice> devices = new ArrayList<IDevice>();
+
+    @Setup
+    public void fillPool()
+    {
+        for (int i = 1; i <= deviceCount; i++)
+        {
+            IDevice device =
+                SimulatedDevices.createDevice(String.format("bench-%03d", i));
+            devices.add(device);
+            DevicePool.addDeviceToList(device);
+        }
+    }
+
+    @TearDown
+    public void emptyPool()
+    {
+        for (IDevice device : devices)
+        {
+            DevicePool.removeDeviceFromList(device);
+        }
+        devices.clear();
+    }
+
+    @Benchmark
+    public List<IDevice> matchAll()
+    {
+        return DevicePool.getMatchingDeviceList(".*");
+    }
+
+    @Benchmark
+    public List<IDevice> matchOne()
+    {
+        return DevicePool.getMatchingDeviceList(".*_bench-001_.*");
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2013 Ustream Inc.
+ * author chaotx <lombai.ferenc@ustream.tv>
+ *
+ * For the full copyright and license information, please view the LICENSE
+ * file that was distributed with this source code.
+ */
+package com.robin.benchmark;
+
+import java.awt.geom.AffineTransform;
+import java.awt.image.AffineTransformOp;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.safs.android.auto.lib.ImageUtils;
+
+import com.android.ddmlib.RawImage;
+
+/**
+ * Conversion of a device screenshot to an image and its PNG encoding, done
+ * for every screenshot saved into the report. The wrapping conversion with a
+ * custom ColorModel is compared with the direct conversion into a pooled
+ * standard image, and the AffineTransformOp rotation with the index remap.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ImageBenchmark
+{
+    private static final int ROTATION = 90;
+
+    /**
+     * Bits per pixel of the framebuffer, 16 on older devices.
+     */
+    @Param({"16", "32" })
+    private int bpp;
+
+    /**
+     * Screen resolution, width x height.
+     */
+    @Param({"480x800", "1080x1920", "1440x2560" })
+    private String resolution;
+
+    private RawImage rawImage;
+
+    private BufferedImage image;
+
+    private BufferedImage directImage;
+
+    private BufferedImage pooledImage;
+
+    @Setup
+    public void createScreenshot()
+    {
+        final String[] size = resolution.split("x");
+        final int width = Integer.parseInt(size[0]);
+        final int height = Integer.parseInt(size[1]);
+        rawImage = new RawImage();
+        rawImage.version = 1;
+        rawImage.bpp = bpp;
+        rawImage.width = width;
+        rawImage.height = height;
+        rawImage.size = width * height * bpp / 8;
+        if (bpp == 16)
+        {
+            rawImage.red_offset = 11;
+            rawImage.red_length = 5;
+            rawImage.green_offset = 5;
+            rawImage.green_length = 6;
+            rawImage.blue_offset = 0;
+            rawImage.blue_length = 5;
+        } else
+        {
+            rawImage.red_offset = 0;
+            rawImage.red_length = 8;
+            rawImage.green_offset = 8;
+            rawImage.green_length = 8;
+            rawImage.blue_offset = 16;
+            rawImage.blue_length = 8;
+            rawImage.alpha_offset = 24;
+            rawImage.alpha_length = 8;
+        }
+        rawImage.data = new byte[rawImage.size];
+        // a screen is mostly flat areas, only the upper part is noisy
+        byte[] noise = new byte[rawImage.size / 4];
+        new Random(bpp).nextBytes(noise);
+        System.arraycopy(noise, 0, rawImage.data, 0, noise.length);
+        image = ImageUtils.convertImage(rawImage);
+        directImage = ImageUtils.convertImageDirect(rawImage, null);
+        pooledImage = ImageUtils.acquireImage(width, height);
+    }
+
+    @Benchmark
+    public BufferedImage convertImage()
+    {
+        return ImageUtils.convertImage(rawImage);
+    }
+
+    @Benchmark
+    public byte[] encodePng() throws IOException
+    {
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", png);
+        return png.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] convertAndEncodePng() throws IOException
+    {
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(ImageUtils.convertImage(rawImage), "png", png);
+        return png.toByteArray();
+    }
+
+    @Benchmark
+    public BufferedImage convertImageDirect()
+    {
+        return ImageUtils.convertImageDirect(rawImage, pooledImage);
+    }
+
+    @Benchmark
+    public byte[] encodePngDirect() throws IOException
+    {
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageUtils.writePng(directImage, png);
+        return png.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] convertDirectAndEncodePng() throws IOException
+    {
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        BufferedImage converted =
+            ImageUtils.convertImageDirect(rawImage, ImageUtils.acquireImage(
+                rawImage.width,
+                rawImage.height));
+        ImageUtils.writePng(converted, png);
+        ImageUtils.releaseImage(converted);
+        return png.toByteArray();
+    }
+
+    /**
+     * The former rotation of DUtilities.getDeviceScreenImage: a pixel by
+     * pixel copy of the wrapped image and a nearest neighbor AffineTransformOp.
+     */
+    @Benchmark
+    public BufferedImage rotateTransformOp()
+    {
+        BufferedImage copy =
+            ImageUtils.getCopiedImage(
+                image,
+                image.getWidth(),
+                image.getHeight(),
+                null);
+        AffineTransform transform = new AffineTransform();
+        transform.translate(copy.getHeight(), 0);
+        transform.rotate(Math.toRadians(ROTATION));
+        return new AffineTransformOp(
+            transform,
+            AffineTransformOp.TYPE_NEAREST_NEIGHBOR).filter(copy, null);
+    }
+
+    /**
+     * The index remap of the wrapped image, no copy is needed.
+     */
+    @Benchmark
+    public BufferedImage rotateIndexRemap()
+    {
+        return ImageUtils.rotateImage(image, ROTATION);
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2013 Ustream Inc.
+ * author chaotx <lombai.ferenc@ustream.tv>
+ *
+ * For the full copyright and license information, please view the LICENSE
+ * file that was distributed with this source code.
+ */
+package com.robin.benchmark;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.robin.capture.ImageComparator;
+import com.robin.capture.ImageComparison;
+
+/**
+ * Comparison of a converted device screenshot against a cached baseline, as
+ * done by every screen check. The tiled int[] comparison is compared with a
+ * getRGB pixel loop.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ImageComparatorBenchmark
+{
+    private static final int STATUS_BAR_HEIGHT = 60;
+
+    /**
+     * Screen resolution, width x height.
+     */
+    @Param({"480x800", "1080x1920", "1440x2560" })
+    private String resolution;
+
+    private BufferedImage screen;
+
+    private BufferedImage changedScreen;
+
+    private BufferedImage baseline;
+
+    private ImageComparator comparator;
+
+    @Setup
+    public void createImages()
+    {
+        final String[] size = resolution.split("x");
+        final int width = Integer.parseInt(size[0]);
+        final int height = Integer.parseInt(size[1]);
+        screen = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+        changedScreen =
+            new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+        // a screen is mostly flat areas, only the upper part is noisy
+        Random random = new Random(width);
+        for (int y = 0; y < height / 4; y++)
+        {
+            for (int x = 0; x < width; x++)
+            {
+                final int rgb = random.nextInt();
+                screen.setRGB(x, y, rgb);
+                changedScreen.setRGB(x, y, rgb);
+            }
+        }
+        changedScreen.setRGB(width / 2, height / 2, 0xFF0000);
+        baseline = ImageComparator.toIntRgb(screen);
+        comparator =
+            new ImageComparator().tolerance(2).ignore(
+                new Rectangle(0, 0, width, STATUS_BAR_HEIGHT));
+    }
+
+    @Benchmark
+    public ImageComparison compareMatching()
+    {
+        return comparator.compare(screen, baseline);
+    }
+
+    @Benchmark
+    public ImageComparison compareWithDiffImage()
+    {
+        return comparator.compare(changedScreen, baseline);
+    }
+
+    @Benchmark
+    public int compareGetRgb()
+    {
+        int different = 0;
+        for (int y = STATUS_BAR_HEIGHT; y < screen.getHeight(); y++)
+        {
+            for (int x = 0; x < screen.getWidth(); x++)
+            {
+                if (screen.getRGB(x, y) != baseline.getRGB(x, y))
+                {
+                    different++;
+                }
+            }
+        }
+        return different;
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2013 Ustream Inc.
+ * author chaotx <lombai.ferenc@ustream.tv>
+ *
+ * For the full copyright and license information, please view the LICENSE
+ * file that was distributed with this source code.
+ */
+package com.robin.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.jayway.android.robotium.remotecontrol.solo.Message;
+
+/**
+ * Conversion of the view UID lists answered by the getcurrent* and
+ * getviews solo commands.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageBenchmark
+{
+    /**
+     * Number of UIDs in the list.
+     */
+    @Param({"10", "100", "1000" })
+    private int uidCount;
+
+    private List<String> uids;
+
+    private String delimitedUids;
+
+    @Setup
+    public void createUids()
+    {
+        uids = new ArrayList<String>(uidCount);
+        for (int i = 0; i < uidCount; i++)
+        {
+            // the device answers random UUIDs as view UIDs
+            uids.add(new UUID(i, i * 31L).toString());
+        }
+        delimitedUids = Message.convertToDelimitedString(uids);
+    }
+
+    @Benchmark
+    public String convertToDelimitedString()
+    {
+        return Message.convertToDelimitedString(uids);
+    }
+
+    @Benchmark
+    public List<String> parseStringArrayList()
+    {
+        return Message.parseStringArrayList(delimitedUids);
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2013 Ustream Inc.
+ * author chaotx <lombai.ferenc@ustream.tv>
+ *
+ * For the full copyright and license information, please view the LICENSE
+ * file that was distributed with this source code.
+ */
+package com.robin.benchmark;
+
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.safs.android.messenger.client.MessageResult;
+
+import com.jayway.android.robotium.remotecontrol.client.processor.AbstractProcessor;
+
+/**
+ * Conversion of the views found on the device to cache keys, done for every
+ * getviews and getcurrent* solo command. Every view is already cached, like
+ * on a screen queried again.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProcessorCacheBenchmark
+{
+    /**
+     * Number of views in the cache and in the converted list.
+     */
+    @Param({"10", "100", "1000" })
+    private int viewCount;
+
+    private CacheProcessor processor;
+
+    private Hashtable<String, Object> cache;
+
+    private List<Object> views;
+
+    /**
+     * Exposes the cache handling of the processors, without a test runner.
+     */
+    private static class CacheProcessor extends AbstractProcessor
+    {
+        CacheProcessor()
+        {
+            super(null);
+        }
+
+        @Override
+        public void processProperties(final Properties props)
+        {
+        }
+
+        @Override
+        public MessageResult processMessage(final String message)
+        {
+            return null;
+        }
+
+        String[] keys(final Hashtable<String, Object> keyCache,
+            final List<Object> items)
+        {
+            return convertToKeys(keyCache, items);
+        }
+    }
+
+    @Setup
+    public void createViews()
+    {
+        processor = new CacheProcessor();
+        cache = new Hashtable<String, Object>();
+        views = new ArrayList<Object>(viewCount);
+        for (int i = 0; i < viewCount; i++)
+        {
+            views.add(new Object());
+        }
+        processor.keys(cache, views);
+    }
+
+    @Benchmark
+    public String[] convertCachedViews()
+    {
+        return processor.keys(cache, views);
+    }
+}
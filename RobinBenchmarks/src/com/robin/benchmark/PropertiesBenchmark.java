@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2013 Ustream Inc.
+ * author chaotx <lombai.ferenc@ustream.tv>
+ *
+ * For the full copyright and license information, please view the LICENSE
+ * file that was distributed with this source code.
+ */
+package com.robin.benchmark;
+
+import java.io.CharArrayReader;
+import java.io.CharArrayWriter;
+import java.io.IOException;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.jayway.android.robotium.remotecontrol.solo.Message;
+
+/**
+ * Serialization of the Properties of a typical solo dispatch and its result,
+ * the way the controller sends them and the device reads them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PropertiesBenchmark
+{
+    private Properties dispatch;
+
+    private Properties result;
+
+    private String storedDispatch;
+
+    private String storedResult;
+
+    @Setup
+    public void createProperties() throws IOException
+    {
+        dispatch = new Properties();
+        dispatch.setProperty(Message.KEY_TARGET, Message.target_solo);
+        dispatch.setProperty(Message.KEY_COMMAND, Message.cmd_clickontext);
+        dispatch.setProperty(Message.PARAM_TEXT, "Remember me");
+        dispatch.setProperty(Message.PARAM_MATCH, "1");
+        dispatch.setProperty(Message.PARAM_SCROLL, "true");
+        dispatch.setProperty(Message.PARAM_TIMEOUT, "30000");
+
+        result = new Properties();
+        result.putAll(dispatch);
+        result.setProperty(Message.KEY_ISREMOTERESULT, "true");
+        result.setProperty(Message.KEY_REMOTERESULTCODE, "0");
+        result.setProperty(Message.KEY_REMOTERESULTINFO,
+            "Clicked on 'Remember me' in MainActivity.");
+
+        storedDispatch = store(dispatch, "testRecordData");
+        storedResult = store(result, "ResultProperties");
+    }
+
+    private static String store(final Properties props, final String comment)
+        throws IOException
+    {
+        CharArrayWriter writer = new CharArrayWriter();
+        props.store(writer, comment);
+        return writer.toString();
+    }
+
+    private static Properties load(final String stored) throws IOException
+    {
+        Properties props = new Properties();
+        props.load(new CharArrayReader(stored.toCharArray()));
+        return props;
+    }
+
+    @Benchmark
+    public String storeDispatch() throws IOException
+    {
+        return store(dispatch, "testRecordData");
+    }
+
+    @Benchmark
+    public Properties loadDispatch() throws IOException
+    {
+        return load(storedDispatch);
+    }
+
+    @Benchmark
+    public String storeResult() throws IOException
+    {
+        return store(result, "ResultProperties");
+    }
+
+    @Benchmark
+    public Properties loadResult() throws IOException
+    {
+        return load(storedResult);
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2013 Ustream Inc.
+ * author chaotx <lombai.ferenc@ustream.tv>
+ *
+ * For the full copyright and license information, please view the LICENSE
+ * file that was distributed with this source code.
+ */
+package com.robin.benchmark;
+
+import java.io.InvalidObjectException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.safs.sockets.AvailablePortFinder;
+import org.safs.sockets.SocketProtocol;
+
+/**
+ * Round trip of a message through the {@link SocketProtocol} framing over a
+ * loopback connection. A remote mode protocol echoes every message back to
+ * the local controller, like the device answering a solo command.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class ProtocolBenchmark
+{
+    private static final int FIRST_PORT = 33410;
+
+    private static final long TIMEOUT = 10000;
+
+    /**
+     * Characters of the message, a short command and a large result.
+     */
+    @Param({"256", "65536" })
+    private int messageSize;
+
+    private SocketProtocol controller;
+
+    private SocketProtocol remote;
+
+    private Thread echo;
+
+    private volatile boolean running;
+
+    private String message;
+
+    @Setup
+    public void connect() throws InterruptedException
+    {
+        final int port = AvailablePortFinder.getNextAvailable(FIRST_PORT);
+        remote = new SocketProtocol();
+        remote._debugEnabled = false;
+        remote.setLocalMode(false);
+        remote.setRemotePort(port);
+        controller = new SocketProtocol();
+        controller._debugEnabled = false;
+        controller.setRemotePort(port);
+        running = true;
+        echo = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                echo();
+            }
+        }, "ProtocolBenchmarkEcho");
+        echo.setDaemon(true);
+        echo.start();
+        if (!controller.connectProtocolRunners())
+        {
+            throw new IllegalStateException(
+                "Could not connect to the echo protocol on port " + port);
+        }
+        char[] chars = new char[messageSize];
+        Arrays.fill(chars, 'x');
+        message = new String(chars);
+    }
+
+    @TearDown
+    public void disconnect() throws InterruptedException
+    {
+        running = false;
+        controller.closeProtocolRunners();
+        echo.join(TIMEOUT);
+        remote.closeProtocolRunners();
+    }
+
+    private void echo()
+    {
+        try
+        {
+            while (running && !remote.connectProtocolRunners())
+            {
+                Thread.yield();
+            }
+            while (running)
+            {
+                String input = remote.waitForInput(TIMEOUT);
+                if (input != null)
+                {
+                    remote.sendResponse(input);
+                }
+            }
+        } catch (InvalidObjectException e)
+        {
+            // the controller closed the connection
+        }
+    }
+
+    @Benchmark
+    public String roundTrip() throws InvalidObjectException
+    {
+        controller.sendResponse(message);
+        return controller.waitForInput(TIMEOUT);
+    }
+}
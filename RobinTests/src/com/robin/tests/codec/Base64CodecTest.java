@@ -0,0 +1,103 @@
+package com.robin.tests.codec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+import org.w3c.tools.codec.Base64Codec;
+import org.w3c.tools.codec.Base64Decoder;
+import org.w3c.tools.codec.Base64FormatException;
+
+/**
+ * Checks the table driven codec decodes malformed input like the original
+ * w3c stream decoder did.
+ */
+@Test(description = "BASE64 codec compatibility.", groups = { "CodecTests" })
+public class Base64CodecTest
+{
+    private static final int RANDOM_INPUTS = 100;
+
+    private static final int MAX_RANDOM_LENGTH = 3000;
+
+    @DataProvider(name = "decoded")
+    public Object[][] decoded()
+    {
+        return new Object[][] {
+            { "QUJD", new byte[] { 65, 66, 67 } },
+            { "QUI=", new byte[] { 65, 66 } },
+            { "QQ==", new byte[] { 65 } },
+            { "QU\nJ D", new byte[] { 65, 66, 67 } },
+            // the padding ends the data at the third or fourth character
+            { "Q===", new byte[] { 64 } },
+            { "QU=D", new byte[] { 65 } },
+            { "QQ==QUJD", new byte[] { 65 } },
+            // and is decoded as the value 1 at the first and second
+            { "Q=JD", new byte[] { 64, 18, 67 } },
+            { "QUJD====", new byte[] { 65, 66, 67, 4 } }, };
+    }
+
+    @DataProvider(name = "malformed")
+    public Object[][] malformed()
+    {
+        return new Object[][] { { "Q" }, { "QUJ" }, { "QU=" }, { "=QUJD" },
+            { "QUJD=QUJD" }, };
+    }
+
+    @Test(description = "Decodes well formed and misplaced padding like the"
+        + " stream decoder.", dataProvider = "decoded")
+    public void testDecode(final String encoded, final byte[] expected)
+        throws Exception
+    {
+        Assert.assertEquals(Base64Codec.decode(encoded), expected, encoded);
+        Assert.assertEquals(decodeStream(encoded), expected, encoded);
+    }
+
+    @Test(description = "Incomplete groups throw Base64FormatException.",
+        dataProvider = "malformed")
+    public void testMalformed(final String encoded) throws Exception
+    {
+        try
+        {
+            Base64Codec.decode(encoded);
+            Assert.fail("Decoded " + encoded);
+        } catch (Base64FormatException e)
+        {
+            // expected
+        }
+        try
+        {
+            decodeStream(encoded);
+            Assert.fail("Decoded stream " + encoded);
+        } catch (Base64FormatException e)
+        {
+            // expected
+        }
+    }
+
+    @Test(description = "Encoded random bytes decode to the same bytes.")
+    public void testRoundTrip() throws Exception
+    {
+        final Random random = new Random(1);
+        for (int i = 0; i < RANDOM_INPUTS; i++)
+        {
+            final byte[] bytes = new byte[random.nextInt(MAX_RANDOM_LENGTH)];
+            random.nextBytes(bytes);
+            final String encoded = Base64Codec.encodeToString(bytes);
+            Assert.assertEquals(Base64Codec.decode(encoded), bytes, encoded);
+            Assert.assertEquals(decodeStream(encoded), bytes, encoded);
+        }
+    }
+
+    private static byte[] decodeStream(final String encoded)
+        throws Exception
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new Base64Decoder(
+            new ByteArrayInputStream(encoded.getBytes("ISO-8859-1")),
+            out).process();
+        return out.toByteArray();
+    }
+}
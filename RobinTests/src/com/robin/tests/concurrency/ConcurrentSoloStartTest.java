@@ -0,0 +1,393 @@
+package com.robin.tests.concurrency;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+import org.safs.sockets.android.DroidSocketProtocol;
+import org.safs.sockets.android.PortLeaseManager;
+
+import com.android.ddmlib.IDevice;
+import com.jayway.android.robotium.remotecontrol.solo.SimulatedDevice;
+import com.jayway.android.robotium.remotecontrol.solo.SimulatedViewTree;
+import com.jayway.android.robotium.remotecontrol.solo.Solo;
+import com.robin.device.DevicePool;
+import com.robin.device.SimulatedDevices;
+
+/**
+ * Leases simulated devices and starts their solos at the same time, as a
+ * parallel run starts its tests, and checks every solo is connected to its
+ * own device. The ports are forwarded as with adb, to the simulator of the
+ * serial on the forward command.
+ */
+@Test(description = "Concurrent solo initialization on simulated devices.",
+    groups = { "ConcurrencyTests" })
+public class ConcurrentSoloStartTest
+{
+    private static final int DEVICE_COUNT = 12;
+
+    private static final String SERIAL_PREFIX = "concurrent-";
+
+    private final List<SimulatedDevice> simulators =
+        new ArrayList<SimulatedDevice>();
+
+    private final List<IDevice> devices = new ArrayList<IDevice>();
+
+    private final Map<String, Solo> solos =
+        new ConcurrentHashMap<String, Solo>();
+
+    private final Map<String, SimulatedDevice> simulatorsBySerial =
+        new ConcurrentHashMap<String, SimulatedDevice>();
+
+    private final RelayForwarder forwarder = new RelayForwarder();
+
+    @Test(description = "Leases N simulated devices and initializes their"
+        + " solos in parallel.")
+    public void testConcurrentInitialization() throws Exception
+    {
+        DroidSocketProtocol.setPortForwarder(forwarder);
+        for (int i = 0; i < DEVICE_COUNT; i++)
+        {
+            final String serial = String.format("%s%03d", SERIAL_PREFIX, i);
+            SimulatedDevice simulator =
+                new SimulatedDevice(serial, SimulatedViewTree.createDefault());
+            simulator.start();
+            simulators.add(simulator);
+            simulatorsBySerial.put(serial, simulator);
+            IDevice device = SimulatedDevices.createDevice(serial);
+            devices.add(device);
+            DevicePool.addDeviceToList(device);
+        }
+        final CountDownLatch startGate = new CountDownLatch(1);
+        final List<Throwable> failures = new ArrayList<Throwable>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < DEVICE_COUNT; i++)
+        {
+            Thread thread = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        startGate.await();
+                        final String serial =
+                            DevicePool.getDeviceForExecution(
+                                ".*" + SERIAL_PREFIX + ".*").getSerialNumber();
+                        Solo solo = new Solo();
+                        Assert.assertNull(
+                            solos.put(serial, solo),
+                            "Device leased twice: " + serial);
+                        solo.setDeviceSerial(serial);
+                        solo.initialize();
+                    } catch (Throwable e)
+                    {
+                        synchronized (failures)
+                        {
+                            failures.add(e);
+                        }
+                    }
+                }
+            }, "SoloStart-" + i);
+            thread.start();
+            threads.add(thread);
+        }
+        startGate.countDown();
+        for (Thread thread : threads)
+        {
+            thread.join();
+        }
+        Assert.assertTrue(failures.isEmpty(), "Solo initialization failed: "
+            + failures);
+
+        Assert.assertEquals(solos.size(), DEVICE_COUNT, "Leased devices");
+
+        Assert.assertEquals(
+            forwarder.getForwards().size(),
+            DEVICE_COUNT,
+            "Forwards: " + forwarder.getForwards());
+        Set<Integer> ports = new HashSet<Integer>();
+        Set<String> serials = new HashSet<String>();
+        for (Forward forward : forwarder.getForwards())
+        {
+            ports.add(forward.localPort);
+            serials.add(forward.serial);
+            final Solo solo = solos.get(forward.serial);
+            Assert.assertNotNull(solo, "Solo of " + forward);
+            Assert.assertEquals(
+                solo.getRemoteControl().deviceSerial,
+                forward.serial,
+                "Serial of the solo");
+            Assert.assertEquals(
+                forward.localPort,
+                PortLeaseManager.getLease(forward.serial).getControllerPort(),
+                "Controller port leased to " + forward.serial);
+            Assert.assertEquals(
+                forward.remotePort,
+                solo.getRemoteControl().remotePort,
+                "Device port of " + forward);
+            Assert.assertTrue(PortLeaseManager.isForwarded(
+                forward.serial, forward.localPort, forward.remotePort),
+                "Lease of " + forward + " is not forwarded");
+        }
+        Assert.assertEquals(ports.size(), DEVICE_COUNT, "Distinct ports");
+        Assert.assertEquals(serials.size(), DEVICE_COUNT, "Distinct serials");
+        for (SimulatedDevice simulator : simulators)
+        {
+            Assert.assertEquals(
+                simulator.getConnectionCount(),
+                1,
+                "Connections of " + simulator.getSerialNumber());
+        }
+
+        // every session reaches its own device only
+        for (int i = 0; i < DEVICE_COUNT; i++)
+        {
+            final int[] before = getCommandCounts();
+            solos.get(simulators.get(i).getSerialNumber()).getCurrentActivity();
+            final int[] after = getCommandCounts();
+            for (int j = 0; j < DEVICE_COUNT; j++)
+            {
+                Assert.assertEquals(
+                    after[j] - before[j],
+                    i == j ? 1 : 0,
+                    "Commands of " + simulators.get(j).getSerialNumber()
+                        + " after a command of solo " + i);
+            }
+        }
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void stopDevices()
+    {
+        for (Solo solo : solos.values())
+        {
+            if (solo.getRemoteControl() != null)
+            {
+                solo.shutdown();
+            }
+        }
+        DroidSocketProtocol.setPortForwarder(null);
+        forwarder.close();
+        for (SimulatedDevice simulator : simulators)
+        {
+            simulator.stop();
+            PortLeaseManager.releaseDevice(simulator.getSerialNumber());
+        }
+        for (IDevice device : devices)
+        {
+            DevicePool.removeDeviceFromList(device);
+        }
+        solos.clear();
+        simulators.clear();
+        simulatorsBySerial.clear();
+        devices.clear();
+    }
+
+    private int[] getCommandCounts()
+    {
+        int[] counts = new int[simulators.size()];
+        for (int i = 0; i < counts.length; i++)
+        {
+            counts[i] = simulators.get(i).getCommandCount();
+        }
+        return counts;
+    }
+
+    /**
+     * An adb forward command.
+     */
+    private static class Forward
+    {
+        private final String serial;
+
+        private final int localPort;
+
+        private final int remotePort;
+
+        Forward(final String serial, final int localPort, final int remotePort)
+        {
+            this.serial = serial;
+            this.localPort = localPort;
+            this.remotePort = remotePort;
+        }
+
+        @Override
+        public String toString()
+        {
+            return serial + " tcp:" + localPort + " tcp:" + remotePort;
+        }
+    }
+
+    /**
+     * Records the adb forward commands and relays the forwarded local port to
+     * the simulator of the serial, as adb relays it to the device.
+     */
+    private class RelayForwarder implements DroidSocketProtocol.PortForwarder
+    {
+        private static final String TCP = "tcp:";
+
+        private static final String LOCALHOST = "localhost";
+
+        private final List<Forward> forwards = new ArrayList<Forward>();
+
+        private final List<ServerSocket> servers =
+            new ArrayList<ServerSocket>();
+
+        private final List<Socket> sockets = new ArrayList<Socket>();
+
+        @Override
+        public void forward(final String[] adbParams) throws IOException
+        {
+            // -s <serial> forward tcp:<localPort> tcp:<remotePort>
+            if (adbParams.length != 5 || !"-s".equals(adbParams[0])
+                || !"forward".equals(adbParams[2]))
+            {
+                throw new IOException("Unexpected adb forward: "
+                    + Arrays.toString(adbParams));
+            }
+            final Forward forward =
+                new Forward(adbParams[1], parsePort(adbParams[3]),
+                    parsePort(adbParams[4]));
+            final SimulatedDevice simulator =
+                simulatorsBySerial.get(forward.serial);
+            if (simulator == null)
+            {
+                throw new IOException("No device " + forward.serial);
+            }
+            final ServerSocket server = new ServerSocket(forward.localPort);
+            synchronized (this)
+            {
+                forwards.add(forward);
+                servers.add(server);
+            }
+            Thread acceptor = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        while (true)
+                        {
+                            relay(server.accept(), simulator.getPort());
+                        }
+                    } catch (IOException e)
+                    {
+                        // closed
+                    }
+                }
+            }, "Forward-" + forward.serial);
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+
+        synchronized List<Forward> getForwards()
+        {
+            return new ArrayList<Forward>(forwards);
+        }
+
+        synchronized void close()
+        {
+            for (ServerSocket server : servers)
+            {
+                closeQuietly(server);
+            }
+            for (Socket socket : sockets)
+            {
+                closeQuietly(socket);
+            }
+            forwards.clear();
+            servers.clear();
+            sockets.clear();
+        }
+
+        private void relay(final Socket client, final int devicePort)
+            throws IOException
+        {
+            final Socket device =
+                new Socket(LOCALHOST, devicePort);
+            synchronized (this)
+            {
+                sockets.add(client);
+                sockets.add(device);
+            }
+            pipe(client, device);
+            pipe(device, client);
+        }
+
+        private void pipe(final Socket from, final Socket to)
+            throws IOException
+        {
+            final InputStream in = from.getInputStream();
+            final OutputStream out = to.getOutputStream();
+            Thread pipe = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    byte[] buffer = new byte[4096];
+                    try
+                    {
+                        for (int n; (n = in.read(buffer)) != -1;)
+                        {
+                            out.write(buffer, 0, n);
+                            out.flush();
+                        }
+                    } catch (IOException e)
+                    {
+                        // closed
+                    }
+                    closeQuietly(from);
+                    closeQuietly(to);
+                }
+            }, "Relay-" + from.getLocalPort());
+            pipe.setDaemon(true);
+            pipe.start();
+        }
+
+        private int parsePort(final String param) throws IOException
+        {
+            if (!param.startsWith(TCP))
+            {
+                throw new IOException("Not a tcp port: " + param);
+            }
+            return Integer.parseInt(param.substring(TCP.length()));
+        }
+
+        private void closeQuietly(final ServerSocket server)
+        {
+            try
+            {
+                server.close();
+            } catch (IOException e)
+            {
+                // already closed
+            }
+        }
+
+        private void closeQuietly(final Socket socket)
+        {
+            try
+            {
+                socket.close();
+            } catch (IOException e)
+            {
+                // already closed
+            }
+        }
+    }
+}
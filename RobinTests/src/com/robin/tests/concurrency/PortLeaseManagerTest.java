@@ -0,0 +1,116 @@
+package com.robin.tests.concurrency;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+import org.safs.sockets.android.PortLeaseManager;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Leases controller ports for many devices at the same time, as a parallel
+ * run starting on a large device farm does.
+ */
+@Test(description = "Concurrent controller port leases.",
+    groups = { "ConcurrencyTests" })
+public class PortLeaseManagerTest
+{
+    private static final int LEASE_COUNT = 50;
+
+    private static final int FIRST_PORT = 2411;
+
+    private static final String SERIAL_PREFIX = "lease-";
+
+    @Test(description = "Leases ports for 50 devices at once.")
+    public void testConcurrentLeases() throws Exception
+    {
+        final Map<String, Integer> ports = leaseAll();
+        Set<Integer> distinctPorts = new HashSet<Integer>(ports.values());
+        Assert.assertEquals(
+            distinctPorts.size(),
+            LEASE_COUNT,
+            "Ports handed out twice: " + ports);
+        Assert.assertEquals(PortLeaseManager.getLeaseCount(), LEASE_COUNT);
+
+        // a device leasing again keeps its port
+        for (Map.Entry<String, Integer> port : ports.entrySet())
+        {
+            Assert.assertEquals(PortLeaseManager.leaseControllerPort(
+                port.getKey(),
+                FIRST_PORT).getControllerPort(), port.getValue().intValue());
+        }
+
+        for (String serial : ports.keySet())
+        {
+            Assert.assertNotNull(
+                PortLeaseManager.releaseDevice(serial),
+                "Lease of " + serial);
+        }
+        Assert.assertEquals(PortLeaseManager.getLeaseCount(), 0);
+
+        // the released ports are handed out again
+        final Map<String, Integer> releasedPorts = leaseAll();
+        Assert.assertEquals(
+            new HashSet<Integer>(releasedPorts.values()),
+            distinctPorts,
+            "Ports after release");
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void releaseLeases()
+    {
+        for (int i = 0; i < LEASE_COUNT; i++)
+        {
+            PortLeaseManager.releaseDevice(SERIAL_PREFIX + i);
+        }
+    }
+
+    private Map<String, Integer> leaseAll() throws InterruptedException
+    {
+        final Map<String, Integer> ports =
+            new ConcurrentHashMap<String, Integer>();
+        final CountDownLatch startGate = new CountDownLatch(1);
+        final List<Throwable> failures = new ArrayList<Throwable>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < LEASE_COUNT; i++)
+        {
+            final String serial = SERIAL_PREFIX + i;
+            Thread thread = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        startGate.await();
+                        ports.put(serial, PortLeaseManager.leaseControllerPort(
+                            serial,
+                            FIRST_PORT).getControllerPort());
+                    } catch (Throwable e)
+                    {
+                        synchronized (failures)
+                        {
+                            failures.add(e);
+                        }
+                    }
+                }
+            }, "PortLease-" + i);
+            thread.start();
+            threads.add(thread);
+        }
+        startGate.countDown();
+        for (Thread thread : threads)
+        {
+            thread.join();
+        }
+        Assert.assertTrue(failures.isEmpty(), "Lease failed: " + failures);
+        Assert.assertEquals(ports.size(), LEASE_COUNT, "Leased devices");
+        return ports;
+    }
+}
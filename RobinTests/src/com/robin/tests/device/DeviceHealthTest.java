@@ -0,0 +1,158 @@
+package com.robin.tests.device;
+
+import java.util.concurrent.TimeoutException;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import com.android.ddmlib.IDevice;
+import com.jayway.android.robotium.remotecontrol.solo.SimulatedDevice;
+import com.jayway.android.robotium.remotecontrol.solo.SimulatedViewTree;
+import com.jayway.android.robotium.remotecontrol.solo.Solo;
+import com.jayway.android.robotium.remotecontrol.solo.SoloWorker;
+import com.robin.device.DeviceHealth;
+import com.robin.device.DevicePool;
+import com.robin.device.SimulatedDevices;
+
+/**
+ * Checks the health score quarantines the devices failing their tests.
+ */
+@Test(description = "Device health scoring and quarantine.",
+    groups = { "DeviceHealthTests" })
+public class DeviceHealthTest
+{
+    private static final String SERIAL = "throttled-000";
+
+    private static final int TEST_COUNT = 3;
+
+    private static final int COMMAND_TIMEOUT = 1;
+
+    private static final long MILLIS_PER_SECOND = 1000;
+
+    private static final int HEALTH_THRESHOLD = 50;
+
+    private SimulatedDevice simulator;
+
+    private IDevice device;
+
+    private Solo solo;
+
+    private int readyTimeout;
+
+    private int runningTimeout;
+
+    private int resultTimeout;
+
+    @Test(description = "A device failing every test with normal timings"
+        + " scores below the quarantine threshold.")
+    public void testFailingDeviceScore()
+    {
+        DeviceHealth health = new DeviceHealth("failing");
+        for (int i = 0; i < TEST_COUNT; i++)
+        {
+            health.addInstallTime(MILLIS_PER_SECOND);
+            health.addSoloInitTime(MILLIS_PER_SECOND);
+            health.addCommandTimes(new long[] { 100, 200 });
+            health.addTestResult(false);
+        }
+        Assert.assertTrue(
+            health.getScore() < HEALTH_THRESHOLD,
+            "Score of a device failing every test: " + health);
+    }
+
+    @Test(description = "Timings without samples are not scored as"
+        + " perfect.")
+    public void testMissingSamplesScore()
+    {
+        DeviceHealth health = new DeviceHealth("slow");
+        // no install and solo init samples, like a reused session
+        health.addCommandTimes(new long[] { 60000, 60000 });
+        health.addTestResult(true);
+        Assert.assertEquals(health.getScore(), 0, "Score: " + health);
+    }
+
+    @Test(description = "A throttled device whose every test times out is"
+        + " quarantined.")
+    public void testAllTestsTimeOut() throws Exception
+    {
+        simulator =
+            new SimulatedDevice(SERIAL, SimulatedViewTree.createDefault());
+        // every command is Running but never gets a result
+        simulator.setHangRate(1);
+        simulator.start();
+        device = SimulatedDevices.createDevice(SERIAL);
+        DevicePool.addDeviceToList(device);
+        Assert.assertEquals(DevicePool.getDeviceForExecution(
+            ".*" + SERIAL + ".*").getSerialNumber(), SERIAL);
+
+        solo = new Solo();
+        solo.setPortForwarding(false);
+        solo.setRemotePort(simulator.getPort());
+        solo.setDeviceSerial(SERIAL);
+        solo.initialize();
+        readyTimeout = SoloWorker.default_ready_stimeout;
+        runningTimeout = SoloWorker.default_running_stimeout;
+        resultTimeout = SoloWorker.default_result_stimeout;
+        SoloWorker.default_ready_stimeout = COMMAND_TIMEOUT;
+        SoloWorker.default_running_stimeout = COMMAND_TIMEOUT;
+        SoloWorker.default_result_stimeout = COMMAND_TIMEOUT;
+
+        for (int i = 0; i < TEST_COUNT; i++)
+        {
+            try
+            {
+                solo.getCurrentActivity();
+                Assert.fail("The command of test " + i + " did not time out.");
+            } catch (TimeoutException e)
+            {
+                // the throttled device did not answer
+            }
+        }
+        final long[] times = solo.getRemoteControl().getCommandTimes();
+        Assert.assertEquals(times.length, TEST_COUNT, "Timed out commands");
+        for (long time : times)
+        {
+            Assert.assertTrue(
+                time >= COMMAND_TIMEOUT * MILLIS_PER_SECOND,
+                "Timed out command time " + time);
+        }
+
+        // the results as BaseTest records them
+        DevicePool.recordCommandTimes(device, times);
+        for (int i = 0; i < TEST_COUNT; i++)
+        {
+            DevicePool.recordTestResult(device, false);
+        }
+        final DeviceHealth health = DevicePool.getDeviceHealth(device);
+        Assert.assertTrue(health.isQuarantined(), "Health: " + health);
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void stopDevice()
+    {
+        if (solo != null && solo.getRemoteControl() != null)
+        {
+            solo.shutdown();
+        }
+        if (resultTimeout > 0)
+        {
+            SoloWorker.default_ready_stimeout = readyTimeout;
+            SoloWorker.default_running_stimeout = runningTimeout;
+            SoloWorker.default_result_stimeout = resultTimeout;
+        }
+        if (simulator != null)
+        {
+            simulator.stop();
+        }
+        if (device != null)
+        {
+            DevicePool.getDeviceHealth(device).release();
+            DevicePool.removeDeviceFromList(device);
+        }
+        solo = null;
+        simulator = null;
+        device = null;
+        resultTimeout = 0;
+    }
+}
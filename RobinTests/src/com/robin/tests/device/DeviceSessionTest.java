@@ -0,0 +1,68 @@
+package com.robin.tests.device;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import com.robin.device.DeviceSession;
+import com.robin.device.SimulatedDevices;
+
+/**
+ * Checks a session is reused only for the apk it was started for.
+ */
+@Test(description = "Device session reuse.",
+    groups = { "DeviceSessionTests" })
+public class DeviceSessionTest
+{
+    private static final long MODIFICATION_TIME = 1000000000000L;
+
+    private File apk;
+
+    @Test(description = "A rebuilt apk of the same size at the same path"
+        + " does not reuse the session.")
+    public void testRebuiltApk() throws Exception
+    {
+        apk = File.createTempFile("aut", ".apk");
+        write(apk, "first build", MODIFICATION_TIME);
+        final DeviceSession session =
+            new DeviceSession(
+                SimulatedDevices.createDevice("session-000"),
+                null,
+                apk);
+        Assert.assertTrue(session.isStartedFor(apk), "Same apk");
+        Assert.assertFalse(
+            session.isStartedFor(new File(apk.getAbsolutePath() + ".other")),
+            "Other apk");
+
+        write(apk, "other build", MODIFICATION_TIME + 1000);
+        Assert.assertFalse(session.isStartedFor(apk), "Rebuilt apk");
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void deleteApk()
+    {
+        if (apk != null && !apk.delete())
+        {
+            apk.deleteOnExit();
+        }
+        apk = null;
+    }
+
+    private static void write(final File file, final String content,
+        final long modificationTime) throws IOException
+    {
+        FileOutputStream out = new FileOutputStream(file);
+        try
+        {
+            out.write(content.getBytes("UTF-8"));
+        } finally
+        {
+            out.close();
+        }
+        Assert.assertTrue(file.setLastModified(modificationTime));
+    }
+}
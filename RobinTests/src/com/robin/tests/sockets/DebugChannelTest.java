@@ -0,0 +1,165 @@
+package com.robin.tests.sockets;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import org.safs.sockets.AbstractProtocolRunner;
+import org.safs.sockets.DebugChannel;
+import org.safs.sockets.Message;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Sends debug messages through a {@link DebugChannel} into a runner keeping
+ * the frames instead of sending them.
+ */
+@Test(description = "Batched, leveled debug channel.",
+    groups = { "SocketTests" })
+public class DebugChannelTest
+{
+    private static final int LINE_COUNT = 300;
+
+    private static final int LINE_LENGTH = 200;
+
+    private static final long DELIVERY_TIMEOUT = 30000;
+
+    private final List<String> frames = new ArrayList<String>();
+
+    private DebugChannel channel;
+
+    @Test(description = "Verbose output larger than a frame is sent in"
+        + " several frames without dropping lines.")
+    public void testLongBatchIsCarriedOver() throws Exception
+    {
+        channel = new DebugChannel(new FrameRecorder());
+        channel.setMaxLinesPerSecond(0);
+        List<String> sent = new ArrayList<String>();
+        char[] padding = new char[LINE_LENGTH];
+        Arrays.fill(padding, 'x');
+        for (int i = 0; i < LINE_COUNT; i++)
+        {
+            final String line = i + new String(padding);
+            Assert.assertTrue(channel.send(line), "Line " + i + " queued");
+            sent.add(line);
+        }
+        List<String> received = waitForLines(LINE_COUNT);
+        Assert.assertEquals(received, sent, "Received lines");
+        synchronized (frames)
+        {
+            Assert.assertTrue(frames.size() > 1, "Frames: " + frames.size());
+            for (String frame : frames)
+            {
+                Assert.assertFalse(
+                    frame.contains("dropped"),
+                    "Lines dropped without pressure");
+            }
+        }
+    }
+
+    @Test(description = "Messages above the level are filtered out.")
+    public void testLevelFilter()
+    {
+        channel = new DebugChannel(new FrameRecorder());
+        channel.setLevel(DebugChannel.LEVEL_INFO);
+        Assert.assertFalse(channel.send(DebugChannel.LEVEL_DEBUG, "verbose"));
+        Assert.assertFalse(channel.send("engine"));
+        Assert.assertTrue(channel.send(DebugChannel.LEVEL_INFO, "info"));
+        Assert.assertTrue(channel.send(DebugChannel.LEVEL_ERROR, "error"));
+    }
+
+    @Test(description = "Warnings pass the rate limit.")
+    public void testWarningsPassTheRateLimit()
+    {
+        channel = new DebugChannel(new FrameRecorder());
+        channel.setMaxLinesPerSecond(1);
+        // the limit may start a new second between the messages
+        while (channel.send("first"))
+        {
+            Thread.yield();
+        }
+        Assert.assertFalse(channel.send("limited"));
+        Assert.assertTrue(channel.send(DebugChannel.LEVEL_WARN, "warning"));
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void stopChannel()
+    {
+        if (channel != null)
+        {
+            channel.shutdown();
+        }
+        channel = null;
+        synchronized (frames)
+        {
+            frames.clear();
+        }
+    }
+
+    private List<String> waitForLines(final int count)
+        throws InterruptedException
+    {
+        final long deadline = System.currentTimeMillis() + DELIVERY_TIMEOUT;
+        synchronized (frames)
+        {
+            while (true)
+            {
+                List<String> lines = new ArrayList<String>();
+                for (String frame : frames)
+                {
+                    lines.addAll(Arrays.asList(frame.substring(
+                        (Message.msg_debugs + Message.msg_sep).length()).split(
+                        String.valueOf(Message.DEBUG_BATCH_SEPARATOR))));
+                }
+                final long remaining = deadline - System.currentTimeMillis();
+                if (lines.size() >= count || remaining <= 0)
+                {
+                    return lines;
+                }
+                frames.wait(remaining);
+            }
+        }
+    }
+
+    /**
+     * Keeps the frames of the channel.
+     */
+    private class FrameRecorder extends AbstractProtocolRunner
+    {
+        @Override
+        public boolean sendProtocolMessage(final String message)
+        {
+            synchronized (frames)
+            {
+                frames.add(message);
+                frames.notifyAll();
+            }
+            return true;
+        }
+
+        @Override
+        public void processProtocolMessage(final String message)
+        {
+        }
+
+        @Override
+        public boolean sendShutdown()
+        {
+            return false;
+        }
+
+        @Override
+        public boolean sendDispatchProps(final Properties trd)
+        {
+            return false;
+        }
+
+        @Override
+        public boolean sendDispatchFile(final String filepath)
+        {
+            return false;
+        }
+    }
+}
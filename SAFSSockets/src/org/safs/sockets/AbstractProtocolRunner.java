@@ -7,7 +7,6 @@ package org.safs.sockets;
 import java.io.CharArrayWriter;
 import java.io.InvalidObjectException;
 import java.util.Properties;
-import java.util.Vector;
 
 
 /**
@@ -50,7 +49,7 @@ public abstract class AbstractProtocolRunner implements Runnable, ConnectionList
 	
 	/** All Listeners registered with this instance--whether they be simple NamedListeners, 
 	 * DebugListeners, or ConnectionListeners. */
-	protected Vector runnerlisteners = new Vector();
+	protected final ListenerRegistry runnerlisteners = new ListenerRegistry();
 	
 	/**
 	 * Our running thread monitors this value to know whether or not it should continue 
@@ -58,6 +57,20 @@ public abstract class AbstractProtocolRunner implements Runnable, ConnectionList
 	 * @see #shutdownThread() */
 	private boolean shutdownThread = false;
 	
+	/**
+	 * Milliseconds between heartbeats sent by the local controller. 0 disables heartbeats.
+	 * @see #setHeartbeatInterval(long) */
+	private long heartbeatInterval = 0;
+	
+	/** Number of heartbeat intervals without any input before the remote peer is considered lost. */
+	private int maxMissedHeartbeats = 3;
+	
+	/** time in milliseconds the last message was received from the remote peer. */
+	private long lastInputTime = 0;
+	
+	/** time in milliseconds the last heartbeat was sent to the remote peer. */
+	private long lastHeartbeatTime = 0;
+	
 	/**
 	 * The underlying SocketProtocol instance performing the actual TCP communication.
 	 */
@@ -92,11 +105,7 @@ public abstract class AbstractProtocolRunner implements Runnable, ConnectionList
 	 * @see ConnectionListener
 	 */
 	public boolean addListener(NamedListener listener){
-		if(! runnerlisteners.contains(listener)){
-			runnerlisteners.add(listener);
-			return true;
-		}
-		return false;
+		return runnerlisteners.add(listener);
 	}
 	
 	/**
@@ -109,11 +118,7 @@ public abstract class AbstractProtocolRunner implements Runnable, ConnectionList
 	 * @see ConnectionListener
 	 */
 	public boolean removeListener(NamedListener listener){
-		if(runnerlisteners.contains(listener)){
-			runnerlisteners.remove(listener);
-			return true;
-		}
-		return false;
+		return runnerlisteners.remove(listener);
 	}
 	
 	/**
@@ -160,6 +165,7 @@ public abstract class AbstractProtocolRunner implements Runnable, ConnectionList
 			// makeClientConnection			
 			if(!protocolserver.isConnected()){
 				protocolserver.connectProtocolRunners();
+				lastInputTime = lastHeartbeatTime = System.currentTimeMillis();
 			}
 			// listen for remote messages
 			if(protocolserver.isConnected()){
@@ -167,20 +173,95 @@ public abstract class AbstractProtocolRunner implements Runnable, ConnectionList
 				catch(Exception x){ message = null; }				
 				// route message to appropriate listener callbacks
 				if(message != null && message.length() > 0){
-					processProtocolMessage(message);
+					lastInputTime = System.currentTimeMillis();
+					if(message.equals(SocketProtocol.MSG_HEARTBEAT)){
+						if(!protocolserver.isLocalMode()){
+							try{ sendProtocolMessage(SocketProtocol.MSG_HEARTBEAT);}catch(Exception x){}
+						}
+					}else{
+						processProtocolMessage(message);
+					}
 				}
+				if(protocolserver.isLocalMode()) checkHeartbeat();
 			}else{ // not yet connected
 				try{Thread.sleep(100);}catch(Exception x){}
 			}
 		}//while
-		for(int n = 0; n < runnerlisteners.size(); n++){
-			try{((ConnectionListener)runnerlisteners.get(n)).onReceiveLocalShutdown(SocketProtocol.STATUS_SHUTDOWN_NORMAL);}
+		ConnectionListener[] listeners = runnerlisteners.get(ConnectionListener.class);
+		for(int n = 0; n < listeners.length; n++){
+			try{listeners[n].onReceiveLocalShutdown(SocketProtocol.STATUS_SHUTDOWN_NORMAL);}
 			catch(Exception x){}
 		}
 		protocolserver.closeProtocolRunners();
 	}
 	
 
+	/**
+	 * Used Internally. Used by Local Controller side.
+	 * Send a heartbeat when one is due and declare the remote peer lost if nothing has been 
+	 * received for {@link #maxMissedHeartbeats} heartbeat intervals.
+	 * @see #onPeerLost(String)
+	 */
+	private void checkHeartbeat(){
+		if(heartbeatInterval <= 0) return;
+		long now = System.currentTimeMillis();
+		long silence = now - lastInputTime;
+		if(silence > heartbeatInterval * maxMissedHeartbeats){
+			onPeerLost("No input from the remote peer for "+ silence +" ms.");
+			shutdownThread();
+		}else if(now - lastHeartbeatTime >= heartbeatInterval){
+			lastHeartbeatTime = now;
+			try{ sendProtocolMessage(SocketProtocol.MSG_HEARTBEAT);}
+			catch(Exception x){ debug("Heartbeat failure: "+ x.getClass().getSimpleName()+", "+ x.getMessage()); }
+		}
+	}
+	
+	/**
+	 * Enable heartbeats on the local controller side. Every interval the controller sends a 
+	 * {@link SocketProtocol#MSG_HEARTBEAT} which the remote runner echoes. If no input at all is 
+	 * received for the given number of intervals, registered PeerListeners are notified 
+	 * and this thread shuts down.
+	 * <p>
+	 * Must be set before the thread is started. Disabled by default.
+	 * @param msInterval milliseconds between heartbeats, 0 disables heartbeats.
+	 * @param maxMissed number of silent intervals tolerated before the peer is considered lost.
+	 * @see #onPeerLost(String)
+	 */
+	public void setHeartbeatInterval(long msInterval, int maxMissed){
+		heartbeatInterval = msInterval;
+		if(maxMissed > 0) maxMissedHeartbeats = maxMissed;
+	}
+	
+	/** 
+	 * Enable heartbeats tolerating the default 3 missed heartbeats.
+	 * @see #setHeartbeatInterval(long, int) */
+	public void setHeartbeatInterval(long msInterval){
+		setHeartbeatInterval(msInterval, maxMissedHeartbeats);
+	}
+	
+	/** @return milliseconds between heartbeats, 0 if heartbeats are disabled. */
+	public long getHeartbeatInterval(){
+		return heartbeatInterval;
+	}
+	
+	/**
+	 * Notify all registered PeerListeners the remote peer is lost.
+	 * If no PeerListeners are registered, ConnectionListeners receive a local shutdown 
+	 * with cause {@link SocketProtocol#STATUS_SHUTDOWN_REMOTE_CLIENT} instead.
+	 * @param reason description of why the peer is considered lost.
+	 * @see PeerListener#onPeerLost(String)
+	 */
+	public void onPeerLost(String reason){
+		debug(getListenerName()+" remote peer lost: "+ reason);
+		boolean sent = false;
+		PeerListener[] listeners = runnerlisteners.get(PeerListener.class);
+		for(int i = 0; i < listeners.length; i++){
+			listeners[i].onPeerLost(reason);
+			sent = true;
+		}
+		if(!sent) onReceiveLocalShutdown(SocketProtocol.STATUS_SHUTDOWN_REMOTE_CLIENT);
+	}
+	
 	/**
 	 * Command the ProtocolRunner thread to shutdown.  
 	 * If the thread is running, this will ultimately null out all communication 
@@ -211,12 +292,10 @@ public abstract class AbstractProtocolRunner implements Runnable, ConnectionList
 	public void onReceiveDebug(String message){
 		if(_debugEnabled){
 			boolean sent = false;
-			for(int i = 0; i< runnerlisteners.size();i++){
-				try{
-					((DebugListener)runnerlisteners.get(i)).onReceiveDebug(message);
-					sent = true;
-				}
-				catch(ClassCastException e){/* not all listeners are appropriate */ }
+			DebugListener[] listeners = runnerlisteners.get(DebugListener.class);
+			for(int i = 0; i < listeners.length; i++){
+				listeners[i].onReceiveDebug(message);
+				sent = true;
 			}
 			if(!sent) System.out.println(message);
 		}
@@ -229,12 +308,10 @@ public abstract class AbstractProtocolRunner implements Runnable, ConnectionList
 	 */
 	public void onReceiveConnection(){
 		boolean sent = false;
-		for(int i = 0; i< runnerlisteners.size();i++){
-			try{
-				((ConnectionListener)runnerlisteners.get(i)).onReceiveConnection();
-				sent = true;
-			}
-			catch(ClassCastException e){/* not all listeners are appropriate */ }
+		ConnectionListener[] listeners = runnerlisteners.get(ConnectionListener.class);
+		for(int i = 0; i < listeners.length; i++){
+			listeners[i].onReceiveConnection();
+			sent = true;
 		}
 		if(!sent) System.out.println("Protocol Runners Connected");
 	}
@@ -250,12 +327,10 @@ public abstract class AbstractProtocolRunner implements Runnable, ConnectionList
 	 */
 	public void onReceiveLocalShutdown(int cause){
 		boolean sent = false;
-		for(int i = 0; i< runnerlisteners.size();i++){
-			try{
-				((ConnectionListener)runnerlisteners.get(i)).onReceiveLocalShutdown(cause);
-				sent = true;
-			}
-			catch(ClassCastException e){/* not all listeners are appropriate */ }
+		ConnectionListener[] listeners = runnerlisteners.get(ConnectionListener.class);
+		for(int i = 0; i < listeners.length; i++){
+			listeners[i].onReceiveLocalShutdown(cause);
+			sent = true;
 		}
 		if(!sent) System.out.println("Processing a local shutdown notification: "+ SocketProtocol.getShutdownCauseDescription(cause));
 	}
@@ -271,12 +346,10 @@ public abstract class AbstractProtocolRunner implements Runnable, ConnectionList
 	 */
 	public void onReceiveRemoteShutdown(int cause){
 		boolean sent = false;
-		for(int i = 0; i< runnerlisteners.size();i++){
-			try{
-				((ConnectionListener)runnerlisteners.get(i)).onReceiveRemoteShutdown(cause);
-				sent = true;
-			}
-			catch(ClassCastException e){/* not all listeners are appropriate */ }
+		ConnectionListener[] listeners = runnerlisteners.get(ConnectionListener.class);
+		for(int i = 0; i < listeners.length; i++){
+			listeners[i].onReceiveRemoteShutdown(cause);
+			sent = true;
 		}
 		if(!sent) System.out.println("Processing a remote shutdown notification: "+ SocketProtocol.getShutdownCauseDescription(cause));
 	}
@@ -0,0 +1,193 @@
+/**
+ ** Copyright (C) SAS Institute, All rights reserved.
+ ** General Public License: http://www.opensource.org/licenses/gpl-license.php
+ **/
+package org.safs.sockets;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Batched, rate-limited and droppable channel for debug messages sent through an
+ * {@link AbstractProtocolRunner}.
+ * <p>
+ * Debug messages are queued by {@link #send(int, String)}, which never blocks, and sent by a
+ * background thread as a single {@link Message#msg_debugs} frame per batch. The thread runs
+ * at minimum priority, so command frames sent by other threads are not queued behind debug
+ * text, and a frame is bounded by {@link #MAX_BATCH_LINES} and {@link #MAX_BATCH_CHARS}. 
+ * Messages not fitting into a frame are sent in the next one.
+ * <p>
+ * Every message has a level, messages above {@link #getLevel()} are not sent at all.
+ * <p>
+ * Under pressure messages are dropped instead of delaying the commands: when the queue is full
+ * or more than {@link #getMaxLinesPerSecond()} messages were sent in the current second. 
+ * Warnings and errors are exempt from the rate limit. The number of dropped messages is 
+ * reported in the next batch.
+ *
+ * @see Message#msg_debugs
+ * @see Message#DEBUG_BATCH_SEPARATOR
+ */
+public class DebugChannel implements Runnable {
+
+	/** maximum number of queued messages, further messages are dropped. */
+	public static final int QUEUE_CAPACITY = 1024;
+
+	/** maximum number of messages sent in one frame. */
+	public static final int MAX_BATCH_LINES = 64;
+
+	/** a batch is closed once it holds this many characters. */
+	public static final int MAX_BATCH_CHARS = 8192;
+
+	/** milliseconds a batch waits to collect more messages. */
+	public static final long BATCH_DELAY = 200;
+
+	/** level of the errors, always sent unless the queue is full. */
+	public static final int LEVEL_ERROR = 1;
+
+	/** level of the warnings, not limited by the rate limit. */
+	public static final int LEVEL_WARN = 2;
+
+	/** level of the informational messages. */
+	public static final int LEVEL_INFO = 3;
+
+	/** level of the verbose messages, like the engine debug text. */
+	public static final int LEVEL_DEBUG = 4;
+
+	private final AbstractProtocolRunner runner;
+	private final BlockingQueue<String> queue = new ArrayBlockingQueue<String>(QUEUE_CAPACITY);
+	private int maxLinesPerSecond = 200;
+	private volatile int level = LEVEL_DEBUG;
+	private volatile boolean shutdown = false;
+	private Thread thread = null;
+
+	/** messages dropped and not yet reported. */
+	private int dropped = 0;
+	/** messages accepted in the current rate limit second. */
+	private int linesThisSecond = 0;
+	private long currentSecond = 0;
+
+	/**
+	 * @param runner the runner whose connection carries the debug frames.
+	 */
+	public DebugChannel(AbstractProtocolRunner runner){
+		this.runner = runner;
+	}
+
+	/**
+	 * @param maxLines messages per second accepted before further messages are dropped, 0 for no limit.
+	 */
+	public void setMaxLinesPerSecond(int maxLines){
+		maxLinesPerSecond = maxLines;
+	}
+
+	/** @return messages per second accepted before further messages are dropped, 0 for no limit. */
+	public int getMaxLinesPerSecond(){
+		return maxLinesPerSecond;
+	}
+
+	/**
+	 * @param maxLevel the highest level sent, like {@link #LEVEL_INFO}, higher levels are filtered out.
+	 */
+	public void setLevel(int maxLevel){
+		level = maxLevel;
+	}
+
+	/** @return the highest level sent, {@link #LEVEL_DEBUG} by default. */
+	public int getLevel(){
+		return level;
+	}
+
+	/**
+	 * Queue a {@link #LEVEL_DEBUG} message.
+	 * @param message
+	 * @return true if the message was queued, false if filtered out or dropped.
+	 * @see #send(int, String)
+	 */
+	public boolean send(String message){
+		return send(LEVEL_DEBUG, message);
+	}
+
+	/**
+	 * Queue a debug message. Never blocks, the message is dropped if the channel is under pressure.
+	 * @param messageLevel the level of the message, like {@link #LEVEL_WARN}.
+	 * @param message
+	 * @return true if the message was queued, false if filtered out or dropped.
+	 */
+	public boolean send(int messageLevel, String message){
+		if(shutdown || message == null || messageLevel > level) return false;
+		synchronized(this){
+			long second = System.currentTimeMillis()/1000;
+			if(second != currentSecond){
+				currentSecond = second;
+				linesThisSecond = 0;
+			}
+			if(messageLevel > LEVEL_WARN && maxLinesPerSecond > 0 && linesThisSecond >= maxLinesPerSecond){
+				dropped++;
+				return false;
+			}
+			linesThisSecond++;
+			if(thread == null){
+				thread = new Thread(this, "DebugChannel");
+				thread.setDaemon(true);
+				thread.setPriority(Thread.MIN_PRIORITY);
+				thread.start();
+			}
+		}
+		if(queue.offer(message)) return true;
+		synchronized(this){ dropped++; }
+		return false;
+	}
+
+	/**
+	 * Stop the sender thread. Queued messages are discarded.
+	 */
+	public void shutdown(){
+		shutdown = true;
+		synchronized(this){
+			if(thread != null) thread.interrupt();
+		}
+		queue.clear();
+	}
+
+	/**
+	 * The sender thread: collects a batch and sends it as one frame. The messages not fitting 
+	 * into the frame stay in the batch for the next frame.
+	 */
+	public void run(){
+		List<String> batch = new ArrayList<String>();
+		StringBuilder frame = new StringBuilder();
+		while(!shutdown){
+			try{
+				if(batch.isEmpty()) batch.add(queue.take());
+				Thread.sleep(BATCH_DELAY);
+			}catch(InterruptedException x){
+				if(shutdown) return;
+			}
+			queue.drainTo(batch, MAX_BATCH_LINES - batch.size());
+			if(batch.isEmpty()) continue;
+			frame.setLength(0);
+			frame.append(Message.msg_debugs).append(Message.msg_sep);
+			int lines = 0;
+			for(String line: batch){
+				if(lines > 0) frame.append(Message.DEBUG_BATCH_SEPARATOR);
+				frame.append(line);
+				lines++;
+				if(frame.length() >= MAX_BATCH_CHARS) break;
+			}
+			batch.subList(0, lines).clear();
+			int droppedLines;
+			synchronized(this){
+				droppedLines = dropped;
+				dropped = 0;
+			}
+			if(droppedLines > 0){
+				if(lines > 0) frame.append(Message.DEBUG_BATCH_SEPARATOR);
+				frame.append(droppedLines).append(" debug message(s) dropped.");
+			}
+			try{ runner.sendProtocolMessage(frame.toString());}
+			catch(Exception x){ /* no connection, debug is droppable */ }
+		}
+	}
+}
@@ -0,0 +1,122 @@
+/**
+ ** Copyright (C) SAS Institute, All rights reserved.
+ ** General Public License: http://www.opensource.org/licenses/gpl-license.php
+ **/
+package org.safs.sockets;
+
+import java.lang.reflect.Array;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Copy-on-write registry of NamedListeners with typed dispatch arrays.
+ * <p>
+ * Registration is synchronized and replaces the internal arrays. Event dispatch reads the
+ * current arrays without locking: {@link #get(Class)} returns the registered listeners
+ * implementing the requested listener interface, so dispatching is a plain loop with no
+ * casting and no ClassCastException for listeners of other types.
+ * <p>
+ * <pre>
+ * for(DebugListener listener: registry.get(DebugListener.class)) listener.onReceiveDebug(text);
+ * </pre>
+ * The returned arrays are shared snapshots and MUST NOT be modified by callers.
+ *
+ * @see NamedListener
+ */
+public class ListenerRegistry {
+
+	private static final NamedListener[] NO_LISTENERS = new NamedListener[0];
+
+	/** all registered listeners in registration order. replaced, never modified. */
+	private volatile NamedListener[] listeners = NO_LISTENERS;
+
+	/** typed listener arrays created so far for the current listeners. replaced, never modified. */
+	private volatile Map<Class<?>, Object[]> typedListeners = new HashMap<Class<?>, Object[]>();
+
+	/**
+	 * @param listener to register.
+	 * @return true if the listener was new and has been added.
+	 */
+	public synchronized boolean add(NamedListener listener){
+		if(listener == null || contains(listener)) return false;
+		NamedListener[] current = listeners;
+		NamedListener[] next = Arrays.copyOf(current, current.length+1);
+		next[current.length] = listener;
+		listeners = next;
+		typedListeners = new HashMap<Class<?>, Object[]>();
+		return true;
+	}
+
+	/**
+	 * @param listener to unregister.
+	 * @return true if the listener was registered and has been removed.
+	 */
+	public synchronized boolean remove(NamedListener listener){
+		NamedListener[] current = listeners;
+		for(int i=0;i<current.length;i++){
+			if(current[i].equals(listener)){
+				NamedListener[] next = new NamedListener[current.length-1];
+				System.arraycopy(current, 0, next, 0, i);
+				System.arraycopy(current, i+1, next, i, current.length-i-1);
+				listeners = next;
+				typedListeners = new HashMap<Class<?>, Object[]>();
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @param listener
+	 * @return true if the listener is registered.
+	 */
+	public boolean contains(NamedListener listener){
+		NamedListener[] current = listeners;
+		for(int i=0;i<current.length;i++){
+			if(current[i].equals(listener)) return true;
+		}
+		return false;
+	}
+
+	/** @return the number of registered listeners. */
+	public int size(){
+		return listeners.length;
+	}
+
+	/** @return all registered listeners. The array MUST NOT be modified. */
+	public NamedListener[] getAll(){
+		return listeners;
+	}
+
+	/**
+	 * @param type the listener interface, like DebugListener.class.
+	 * @return the registered listeners implementing type, in registration order.
+	 * The array MUST NOT be modified.
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T[] get(Class<T> type){
+		Object[] typed = typedListeners.get(type);
+		if(typed == null) typed = createTypedListeners(type);
+		return (T[]) typed;
+	}
+
+	private synchronized Object[] createTypedListeners(Class<?> type){
+		Object[] typed = typedListeners.get(type);
+		if(typed != null) return typed;
+		NamedListener[] current = listeners;
+		int count = 0;
+		for(int i=0;i<current.length;i++){
+			if(type.isInstance(current[i])) count++;
+		}
+		typed = (Object[]) Array.newInstance(type, count);
+		count = 0;
+		for(int i=0;i<current.length;i++){
+			if(type.isInstance(current[i])) typed[count++] = current[i];
+		}
+		Map<Class<?>, Object[]> next = new HashMap<Class<?>, Object[]>(typedListeners);
+		next.put(type, typed);
+		typedListeners = next;
+		return typed;
+	}
+}
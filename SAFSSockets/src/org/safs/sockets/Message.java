@@ -29,6 +29,13 @@ public class Message {
 
 	/** "debug" */
 	public static final String msg_debug = "debug";
+
+	/** "debugs" -- a batch of debug messages separated by {@link #DEBUG_BATCH_SEPARATOR}.
+	 * @see DebugChannel */
+	public static final String msg_debugs = "debugs";
+
+	/** '\u001e' -- the record separator between the debug messages of a {@link #msg_debugs} batch. */
+	public static final char DEBUG_BATCH_SEPARATOR = '\u001e';
 	
 	/** "exception" */
 	public static final String msg_exception = "exception";
@@ -0,0 +1,134 @@
+/**
+ ** Copyright (C) SAS Institute, All rights reserved.
+ ** General Public License: http://www.opensource.org/licenses/gpl-license.php
+ **/
+package org.safs.sockets;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.w3c.tools.codec.Base64Codec;
+import org.w3c.tools.codec.Base64FormatException;
+
+/**
+ * Deflate compression of large message payloads, like result Properties holding view lists
+ * or screenshots.
+ * <p>
+ * A compressed payload is {@link #MARKER} followed by the BASE64 encoded deflate stream of
+ * the UTF-8 bytes of the original payload, so it is still a plain String message of the
+ * {@link SocketProtocol}. Payloads are only compressed when the compression is negotiated at
+ * connect time, they are larger than a threshold and the compressed form is smaller.
+ *
+ * @see SocketProtocol#setPayloadCompression(boolean)
+ * @see SocketProtocol#isPayloadCompressionNegotiated()
+ */
+public class PayloadCompression {
+
+	/** "deflate" -- the name of the feature in the protocol handshake. */
+	public static final String FEATURE = "deflate";
+
+	/** prefix of a compressed payload, starting with the '\u001f' unit separator. */
+	public static final String MARKER = "\u001f"+ FEATURE +":";
+
+	/** payloads smaller than this many characters are not compressed. */
+	public static final int DEFAULT_THRESHOLD = 8192;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private PayloadCompression(){}
+
+	/**
+	 * @param payload message payload, can be null.
+	 * @return true if the payload was compressed by {@link #compress(String, int)}.
+	 */
+	public static boolean isCompressed(String payload){
+		return payload != null && payload.startsWith(MARKER);
+	}
+
+	/**
+	 * Compress a payload if it is at least threshold characters long and gets smaller.
+	 * @param payload message payload, can be null.
+	 * @param threshold minimum number of characters of a compressed payload.
+	 * @return the compressed payload, or the payload itself if it was not worth compressing.
+	 */
+	public static String compress(String payload, int threshold){
+		if(payload == null || payload.length() < threshold) return payload;
+		byte[] raw = payload.getBytes(UTF8);
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 4 + 64);
+		try{
+			deflater.setInput(raw);
+			deflater.finish();
+			byte[] buffer = new byte[BUFFER_SIZE];
+			while(!deflater.finished()){
+				int size = deflater.deflate(buffer);
+				out.write(buffer, 0, size);
+			}
+		}finally{
+			deflater.end();
+		}
+		if(MARKER.length() + Base64Codec.encodedLength(out.size()) >= raw.length) return payload;
+		return MARKER + Base64Codec.encodeToString(out.toByteArray());
+	}
+
+	/**
+	 * @param payload message payload, can be null.
+	 * @return the original payload of a compressed payload, any other payload unchanged.
+	 * @throws DataFormatException if the compressed payload is corrupt or truncated.
+	 */
+	public static String decompress(String payload) throws DataFormatException{
+		if(!isCompressed(payload)) return payload;
+		byte[] data;
+		try{
+			data = Base64Codec.decode(payload.substring(MARKER.length()));
+		}catch(Base64FormatException x){
+			throw new DataFormatException(x.getMessage());
+		}
+		Inflater inflater = new Inflater();
+		ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 4);
+		try{
+			inflater.setInput(data);
+			byte[] buffer = new byte[BUFFER_SIZE];
+			while(!inflater.finished()){
+				int size = inflater.inflate(buffer);
+				if(size == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+					throw new DataFormatException("Truncated compressed payload.");
+				out.write(buffer, 0, size);
+			}
+		}finally{
+			inflater.end();
+		}
+		return new String(out.toByteArray(), UTF8);
+	}
+
+	/**
+	 * @param text characters, can be null.
+	 * @return number of bytes of the UTF-8 encoded text, as sent by the {@link SocketProtocol}.
+	 */
+	public static int utf8Length(CharSequence text){
+		if(text == null) return 0;
+		int length = text.length();
+		int bytes = length;
+		for(int i=0; i<length; i++){
+			char c = text.charAt(i);
+			if(c >= 0x80){
+				if(c < 0x800){
+					bytes++;
+				}else if(Character.isHighSurrogate(c) && i + 1 < length
+						&& Character.isLowSurrogate(text.charAt(i + 1))){
+					// 4 bytes for the pair
+					bytes += 2;
+					i++;
+				}else{
+					bytes += 2;
+				}
+			}
+		}
+		return bytes;
+	}
+}
@@ -0,0 +1,20 @@
+/** 
+ ** Copyright (C) SAS Institute, All rights reserved.
+ ** General Public License: http://www.opensource.org/licenses/gpl-license.php
+ **/
+package org.safs.sockets;
+
+/**
+ * A NamedListener that wishes to be told when the remote peer is considered lost, 
+ * for example because it stopped answering heartbeats.
+ * 
+ * @see AbstractProtocolRunner#setHeartbeatInterval(long)
+ */
+public interface PeerListener extends NamedListener {
+
+    /**
+     * Called when the remote peer is considered dead. No further messages are expected from it.
+     * @param reason a description of why the peer is considered lost.
+     */
+    public void onPeerLost(String reason);
+}
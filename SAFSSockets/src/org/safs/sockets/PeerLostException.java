@@ -0,0 +1,20 @@
+/** 
+ ** Copyright (C) SAS Institute, All rights reserved.
+ ** General Public License: http://www.opensource.org/licenses/gpl-license.php
+ **/
+package org.safs.sockets;
+
+/**
+ * Thrown to every pending remote command when the remote peer is lost: it stopped answering 
+ * heartbeats or its device has been disconnected. 
+ * <p>
+ * It is a remote {@link ShutdownInvocationException} with cause 
+ * {@link SocketProtocol#STATUS_SHUTDOWN_REMOTE_CLIENT}, so existing shutdown handling applies.
+ * @see PeerListener
+ */
+public class PeerLostException extends ShutdownInvocationException {
+
+	public PeerLostException(String message) {
+		super(message, true, SocketProtocol.STATUS_SHUTDOWN_REMOTE_CLIENT);
+	}
+}
@@ -7,7 +7,7 @@ package org.safs.sockets;
 import java.io.*;
 import java.net.*;
 import java.util.Enumeration;
-import java.util.Vector;
+import java.util.Random;
 
 
 /**
@@ -56,6 +56,11 @@ public class SocketProtocol {
 	public static final int MAX_SERVER_PORT = 2500;
 	public static final int NEXT_SERVER_PORT_PACE = 2;
 	
+	/** first delay, in milliseconds, between local controller connection attempts. */
+	public static final int CONNECT_BACKOFF_MIN_MS = 50;
+	/** maximum delay, in milliseconds, between local controller connection attempts. */
+	public static final int CONNECT_BACKOFF_MAX_MS = 2000;
+	
 	private boolean local_mode = true; // determines local or remote operating mode
 	private boolean isRunning = false;
 	
@@ -67,8 +72,22 @@ public class SocketProtocol {
 	 * is supported. The response String is expected to be terminated with the EOM marker. */
 	public static final String MSG_PROTOCOL_VERSION_QUERY = "PROTOCOLVERSION";
 	
+	/** ";"
+	 * Separator of the optional features appended to the handshake prompt and response, 
+	 * like "PROTOCOLVERSION;deflate" and "PROTOCOLVERSION=1;deflate".  The remote runner 
+	 * only answers the features offered by the local runner it supports too, so runners 
+	 * not knowing a feature simply ignore it.
+	 * @see PayloadCompression#FEATURE */
+	public static final String MSG_FEATURE_SEP = ";";
+	
 	public static final String ENV_KEY_REMOTE_PORT = "ENV_KEY_REMOTE_PORT";
 	
+	/** "HEARTBEAT"
+	 * Liveness probe sent periodically by the local controller when heartbeats are enabled. 
+	 * The remote runner echoes it back unchanged. Neither side passes it to processProtocolMessage.
+	 * @see AbstractProtocolRunner#setHeartbeatInterval(long) */
+	public static final String MSG_HEARTBEAT = "HEARTBEAT";
+	
 	
 
 	/** Indicates the Socket is being shutdown normally.
@@ -123,6 +142,15 @@ public class SocketProtocol {
 	 * connections. */
 	private int clientConnectTimeout = 60; //seconds 
 	
+	/** jitter source for the connection backoff delays. */
+	private final Random backoffRandom = new Random();
+	
+	/** time in milliseconds of the first connection attempt not yet connected, 0 if none. */
+	private long connectStartTime = 0;
+	
+	/** milliseconds from the first connection attempt to the verified connection, -1 if never connected. */
+	private long connectTime = -1;
+	
 	/** local controller Socket connection. */
 	protected Socket controllerRunner = null;
 	
@@ -144,7 +172,7 @@ public class SocketProtocol {
     private BufferedWriter bufferedwriter = null;
     
 	/** Named DebugListeners and ConnectionListeners registered with this instance. */
-	private Vector combinedlisteners = new Vector();
+	private final ListenerRegistry combinedlisteners = new ListenerRegistry();
 	
 	/**
 	 * int value providing an indication of why the thread might have been 
@@ -162,6 +190,12 @@ public class SocketProtocol {
 	 */
 	private boolean connected = false;
 	
+	/** offer (local mode) or accept (remote mode) payload compression in the handshake. */
+	private boolean payloadCompression = false;
+	
+	/** true if both sides agreed on payload compression in the last handshake. */
+	private boolean payloadCompressionNegotiated = false;
+	
 	/**
 	 * Default no-op constructor using all defaults.
 	 * The user should change any desired remote settings and add 
@@ -302,14 +336,13 @@ public class SocketProtocol {
 	private void notifyDebug(String text){
 		if(_debugEnabled){
 			boolean success = false;
-			if(combinedlisteners.size() > 0){
-				for(int i=0;i<combinedlisteners.size();i++){
-					try{
-						((DebugListener)combinedlisteners.get(i)).onReceiveDebug(text);
-						success = true;
-					}
-					catch(Exception x){}
+			DebugListener[] listeners = combinedlisteners.get(DebugListener.class);
+			for(int i=0;i<listeners.length;i++){
+				try{
+					listeners[i].onReceiveDebug(text);
+					success = true;
 				}
+				catch(Exception x){}
 			}
 			if(!success) System.out.println(text);
 		}
@@ -337,14 +370,13 @@ public class SocketProtocol {
 	 */
 	private void notifyConnection(){
 		boolean success = false;
-		if(combinedlisteners.size() > 0){
-			for(int i=0;i<combinedlisteners.size();i++){
-				try{
-					((ConnectionListener)combinedlisteners.get(i)).onReceiveConnection();
-					success = true;
-				}
-				catch(Exception x){}
+		ConnectionListener[] listeners = combinedlisteners.get(ConnectionListener.class);
+		for(int i=0;i<listeners.length;i++){
+			try{
+				listeners[i].onReceiveConnection();
+				success = true;
 			}
+			catch(Exception x){}
 		}
 		if(!success) System.out.println("Protocol Runners Connected");		
 	}
@@ -358,14 +390,13 @@ public class SocketProtocol {
 	 */
 	private void notifyLocalShutdown(int shutdownCause){
 		boolean success = false;
-		if(combinedlisteners.size() > 0){
-			for(int i=0;i<combinedlisteners.size();i++){
-				try{
-					((ConnectionListener)combinedlisteners.get(i)).onReceiveLocalShutdown(shutdownCause);
-					success = true;
-				}
-				catch(Exception x){}
+		ConnectionListener[] listeners = combinedlisteners.get(ConnectionListener.class);
+		for(int i=0;i<listeners.length;i++){
+			try{
+				listeners[i].onReceiveLocalShutdown(shutdownCause);
+				success = true;
 			}
+			catch(Exception x){}
 		}
 		if(!success) System.out.println("Protocol Runner performing local shutdown"+ getShutdownCauseDescription(shutdownCause));		
 	}
@@ -379,14 +410,13 @@ public class SocketProtocol {
 	 */
 	private void notifyRemoteShutdown(int shutdownCause){
 		boolean success = false;
-		if(combinedlisteners.size() > 0){
-			for(int i=0;i<combinedlisteners.size();i++){
-				try{
-					((ConnectionListener)combinedlisteners.get(i)).onReceiveRemoteShutdown(shutdownCause);
-					success = true;
-				}
-				catch(Exception x){}
+		ConnectionListener[] listeners = combinedlisteners.get(ConnectionListener.class);
+		for(int i=0;i<listeners.length;i++){
+			try{
+				listeners[i].onReceiveRemoteShutdown(shutdownCause);
+				success = true;
 			}
+			catch(Exception x){}
 		}
 		if(!success) System.out.println("Protocol Runner received remote shutdown"+ getShutdownCauseDescription(shutdownCause));		
 	}
@@ -528,6 +558,9 @@ public class SocketProtocol {
 	 * If the connection is accepted but the validation fails this routine will 
 	 * call notify registered listeners of a local shutdown and proceed to shutdown all 
 	 * sockets and streams.
+	 * <p>
+	 * Failed attempts are retried at the same remotePort until the timeout, with an exponential 
+	 * backoff between {@link #CONNECT_BACKOFF_MIN_MS} and {@link #CONNECT_BACKOFF_MAX_MS}.
 	 * @param sTimeout in seconds to keep trying to make the connection
 	 * @return boolean -- connection established.
 	 * false means "not successfully connected".
@@ -541,44 +574,43 @@ public class SocketProtocol {
 		String debugmsg = TAG+".createRemoteClientConnection(): ";
 		if(! isLocalMode()) throw new IllegalThreadStateException(
 		"Cannot createRemoteClientConnections when running in remote client mode."); 
-		boolean keepTrying = true;
-		int ticks = 0;
-		int msWait = 100;
-		int maxticks = (sTimeout > 0) ? (sTimeout * (1000/msWait)) : 0;
+		long deadline = System.currentTimeMillis() + sTimeout*1000L;
+		int backoff = CONNECT_BACKOFF_MIN_MS;
 		int verifyRemoteTimeoutSecond = 10;
-		int verificationFail = 0;
-		int verificationFailMaxTry = sTimeout<verifyRemoteTimeoutSecond ? 1:(sTimeout/verifyRemoteTimeoutSecond);
+		if(connectStartTime==0) connectStartTime = System.currentTimeMillis();
 		debug(debugmsg+"Local Runner attempting to make remote Runner connection...");
 		try{
-			while(keepTrying){
+			while(true){
 				//Try to bind to the remote ServerSocket at the same remotePort
-				bindToRemoteServer();
+				try{ bindToRemoteServer();}
+				catch(ConnectException x){
+					//nothing listens on the port yet, retry like an unverified connection
+					controllerRunner = null;
+				}
 				
-				if(controllerRunner==null){
-					keepTrying = ticks++ < maxticks;
-					try{ Thread.sleep(msWait);}catch(Exception x){}	
-				}else{
+				if(controllerRunner!=null){
 					debug(debugmsg+"Remote Runner seems to be connected!");
 					controllerRunner.setKeepAlive(keepAlive);
 					connectStreams(controllerRunner);
 					
 					if(verifyRemoteClient(verifyRemoteTimeoutSecond)) {
-						debug(debugmsg+"Remote Runner has been connected!");
+						connectTime = System.currentTimeMillis() - connectStartTime;
+						connectStartTime = 0;
+						debug(debugmsg+"Remote Runner has been connected in "+ connectTime +" ms!");
 						notifyConnection();
 						setConnected(true);
 						return true;
-					}else{
-						//remote Socket is not SAFS client -- cannot proceed
-						debug(debugmsg+"Remote client did NOT verify itself as a remote SocketProtocolRunner!");
-						//Do we need continue to connect?
-						//Yes. If verification fail due to IOException, read input timeout, remote not ready etc.
-						//No. If verification fail due to failure of handshake: "wrong remote", how to detect?
-						verificationFail +=1;
-						keepTrying = (verificationFail<verificationFailMaxTry);							
-						//Close streams and set controllerRunner to null if continue to reconnect
-						if(keepTrying) setConnected(false);
 					}
+					//remote Socket is not SAFS client (yet) -- cannot proceed
+					//A port forwarded by adb accepts connections even if the remote side is not
+					//listening yet; such connections are closed at once, so keep trying until the timeout.
+					debug(debugmsg+"Remote client did NOT verify itself as a remote SocketProtocolRunner!");
+					//Close streams and set controllerRunner to null to reconnect
+					setConnected(false);
 				}
+				if(System.currentTimeMillis() + backoff > deadline) break;
+				try{ Thread.sleep(backoff);}catch(Exception x){}
+				backoff = nextBackoff(backoff);
 			}
 		}catch(IOException io){
 			debug(debugmsg+"createRemoteClientConnection failure: "+ io.getClass().getSimpleName()+", "+ io.getMessage());
@@ -601,6 +633,26 @@ public class SocketProtocol {
 		return false;
 	}
 
+	/**
+	 * Double the delay between connection attempts up to {@link #CONNECT_BACKOFF_MAX_MS}, 
+	 * with a random jitter of +-25% so that parallel connections do not retry in lock step.
+	 * @param backoff the previous delay in milliseconds.
+	 * @return the next delay in milliseconds.
+	 */
+	protected int nextBackoff(int backoff){
+		int next = Math.min(backoff*2, CONNECT_BACKOFF_MAX_MS);
+		int jitter = next/4;
+		return next - jitter + backoffRandom.nextInt(2*jitter+1);
+	}
+	
+	/**
+	 * @return milliseconds from the first connection attempt to the last verified connection, 
+	 * or -1 if no connection has been verified.
+	 */
+	public long getConnectTime(){
+		return connectTime;
+	}
+	
 	/**
 	 * Create the Socket object according to server name and port.
 	 */
@@ -720,10 +772,16 @@ public class SocketProtocol {
 		String debugmsg = TAG+".verifyControllerClient(): ";
 		if(isLocalMode()) throw new IllegalThreadStateException(
 		"Cannot verifyControllerClient when running in local controller mode."); 
+		payloadCompressionNegotiated = false;
 		String result = waitForInput(sTimeout * 1000);
 		if(result != null){
 			if(result.startsWith(MSG_PROTOCOL_VERSION_QUERY)){
-				if(sendResponse(MSG_PROTOCOL_VERSION_QUERY+"="+ protocol)){
+				String features = "";
+				if(payloadCompression && hasFeature(result, PayloadCompression.FEATURE)){
+					features = MSG_FEATURE_SEP + PayloadCompression.FEATURE;
+				}
+				if(sendResponse(MSG_PROTOCOL_VERSION_QUERY+"="+ protocol + features)){
+					payloadCompressionNegotiated = features.length() > 0;
 					debug(debugmsg+"Controller verification has succeeded.");
 					return true;
 				}else{
@@ -765,9 +823,12 @@ public class SocketProtocol {
 		if(!isLocalMode()) throw new IllegalThreadStateException(
 		"Cannot verifyRemoteClient when running in remote client mode."); 
 		// exchange a handshake
-		boolean result = sendResponse(MSG_PROTOCOL_VERSION_QUERY);
+		payloadCompressionNegotiated = false;
+		String prompt = MSG_PROTOCOL_VERSION_QUERY;
+		if(payloadCompression) prompt += MSG_FEATURE_SEP + PayloadCompression.FEATURE;
+		boolean result = sendResponse(prompt);
 		if(result){
-			String response = waitForInput(sTimeout * 1000);
+			String response = readHandshakeResponse(sTimeout * 1000);
 			if(response == null) {
 				debug(debugmsg+"Remote client did not verify in timeout period.");
 				return false;
@@ -775,8 +836,10 @@ public class SocketProtocol {
 			if (response.startsWith(MSG_PROTOCOL_VERSION_QUERY)){
 				String[] split = response.split("=");
 				try{
-					int check = Integer.parseInt(split[1]);
+					int check = Integer.parseInt(split[1].split(MSG_FEATURE_SEP)[0]);
 					if(acceptProtocolVersion(check)){
+						payloadCompressionNegotiated = payloadCompression && 
+								hasFeature(split[1], PayloadCompression.FEATURE);
 						debug(debugmsg+" client protocol "+ protocol +" connected.");
 						return true;
 					}else{
@@ -795,14 +858,87 @@ public class SocketProtocol {
 	}
 
 	/**
-	 * Simply callse closeStreams
+	 * Used Internally.
+	 * @param handshake prompt or response of the handshake, with optional features.
+	 * @param feature the feature to look for.
+	 * @return true if the feature is listed after the protocol version.
+	 */
+	private static boolean hasFeature(String handshake, String feature){
+		String[] features = handshake.split(MSG_FEATURE_SEP);
+		for(int i=1; i<features.length; i++){
+			if(features[i].trim().equalsIgnoreCase(feature)) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Used Internally. Used by Local Controller side.
+	 * Read the handshake response of the remote client with a blocking read.
+	 * Unlike {@link #waitForInput(long)} this returns at once if the remote side closes the 
+	 * connection, as adb does for a forwarded port nobody is listening on yet.
+	 * @param msTimeout timeout in milliseconds
+	 * @return the response without the EOM, or null on timeout or closed connection.
+	 */
+	private String readHandshakeResponse(long msTimeout) throws InvalidObjectException{
+		String debugmsg = TAG+".readHandshakeResponse(): ";
+		if(controllerRunner == null) return waitForInput(msTimeout);
+		if(bufferedreader == null) throw new InvalidObjectException("No Remote Input Stream Connected.");
+		StringBuffer buffer = new StringBuffer();
+		long deadline = System.currentTimeMillis() + msTimeout;
+		int soTimeout = 0;
+		try{
+			soTimeout = controllerRunner.getSoTimeout();
+			while(true){
+				long remaining = deadline - System.currentTimeMillis();
+				if(remaining <= 0) return null;
+				controllerRunner.setSoTimeout((int) remaining);
+				int ichar = bufferedreader.read();
+				if(ichar == -1){
+					debug(debugmsg+"Remote side closed the connection.");
+					return null;
+				}
+				buffer.append((char)ichar);
+				if(buffer.length() >= EOM.length() &&
+				   EOM.equalsIgnoreCase(buffer.substring(buffer.length()- EOM.length()))){
+					if(buffer.length() > EOM.length()) return buffer.substring(0, buffer.length()-EOM.length());
+					// we have received an EOM only! clear it and start over.
+					buffer = new StringBuffer();
+				}
+			}
+		}catch(SocketTimeoutException x){
+			return null;
+		}catch(IOException io){
+			debug(debugmsg+"Read failure: "+ io.getClass().getSimpleName()+", "+ io.getMessage());
+			return null;
+		}finally{
+			try{ controllerRunner.setSoTimeout(soTimeout);}catch(Exception x){}
+		}
+	}
+	
+	/**
+	 * Simply callse closeStreams.
+	 * In remote client mode the ServerSocket is closed as well, releasing the remotePort.
 	 * @see #closeStreams()
 	 */
 	public void closeProtocolRunners(){
 		closeStreams();
+		if(remoteRunner != null){
+			try{ remoteRunner.close();}catch(Exception x){}
+			remoteRunner = null;
+		}
+	}
+	
+	/**
+	 * Drop the current connection without shutting down.
+	 * In remote client mode the ServerSocket stays open, so the next call to 
+	 * {@link #connectProtocolRunners()} accepts the next controller connection.
+	 */
+	public void disconnect(){
+		setConnected(false);
 	}
 	
 	protected final static String debugprefix = "debug:";
+	protected final static String debugsprefix = Message.msg_debugs + Message.msg_sep;
 	/**
 	 * Listen for UTF-8 encoded content from the connected instance and return it to the caller if 
 	 * it is deemed valid.
@@ -870,7 +1006,8 @@ public class SocketProtocol {
 			io.printStackTrace();
 		}
 		// avoid debug logging debug messages twice!
-		if(!(request.indexOf(debugprefix)==0)) debug(debugmsg+"Received client input: "+ request);
+		if(_debugEnabled && !request.startsWith(debugprefix) && !request.startsWith(debugsprefix))
+			debug(debugmsg+"Received client input: "+ request);
 		return request;
 	}
 	
@@ -1015,6 +1152,35 @@ public class SocketProtocol {
 		return protocol;
 	}
 
+	/**
+	 * Enable the compression of large payloads.  In local controller mode the compression 
+	 * is offered to the remote client during the handshake, in remote client mode it is 
+	 * accepted if the controller offers it.  Must be set before connecting to have affect.
+	 * By default payload compression is disabled.
+	 * @param payloadCompression true to offer or accept payload compression.
+	 * @see #isPayloadCompressionNegotiated()
+	 * @see PayloadCompression
+	 */
+	public void setPayloadCompression(boolean payloadCompression) {
+		this.payloadCompression = payloadCompression;
+	}
+
+	/**
+	 * @return true if payload compression is offered or accepted in the handshake.
+	 */
+	public boolean getPayloadCompression() {
+		return payloadCompression;
+	}
+
+	/**
+	 * @return true if both sides agreed on payload compression during the handshake of 
+	 * the current connection.  Only then may compressed payloads be sent.
+	 * @see PayloadCompression#compress(String, int)
+	 */
+	public boolean isPayloadCompressionNegotiated() {
+		return payloadCompressionNegotiated;
+	}
+
 	/**
 	 * Default is set at 60 seconds.  This value is typically used internally for the call to 
 	 * {@link #createRemoteClientConnection(int)}
@@ -12,7 +12,6 @@ import org.safs.android.auto.lib.AndroidTools;
 import org.safs.android.auto.lib.DUtilities;
 import org.safs.android.auto.lib.Process2;
 import org.safs.sockets.AbstractProtocolRunner;
-import org.safs.sockets.AvailablePortFinder;
 import org.safs.sockets.NamedListener;
 import org.safs.sockets.SocketProtocol;
 
@@ -26,9 +25,52 @@ import org.safs.sockets.SocketProtocol;
  */
 public class DroidSocketProtocol extends SocketProtocol{
 
-	String[] tcpfowardParams = {"forward", "tcp:2411", "tcp:2410"};
 	static AndroidTools tools = null;
 	
+	/**
+	 * Runs the 'adb forward' command of {@link DroidSocketProtocol#forwardPort(int, int)}.<br>
+	 * Replace it with {@link DroidSocketProtocol#setPortForwarder(PortForwarder)} to forward 
+	 * ports without adb, e.g. to simulated devices.<br>
+	 */
+	public static interface PortForwarder{
+		/**
+		 * Run 'adb' with the forward parameters.
+		 * @param adbParams	String[], "-s serial forward tcp:localPort tcp:remotePort"
+		 * @throws IOException if the forwarding fails.
+		 * @throws InterruptedException if interrupted while waiting for adb.
+		 */
+		public void forward(String[] adbParams) throws IOException, InterruptedException;
+	}
+	
+	/** Forwards with the adb of the Android SDK. */
+	private static final PortForwarder ADB_FORWARDER = new PortForwarder(){
+		public void forward(String[] adbParams) throws IOException, InterruptedException{
+			Process2 forwardProcess = null;
+			try{
+				if(tools==null) tools = DUtilities.getAndroidTools(null);
+				forwardProcess = tools.adb(adbParams).forwardOutput().waitForSuccess();
+			}finally{
+				if(forwardProcess!=null) forwardProcess.destroy();
+			}
+		}
+	};
+	
+	private static volatile PortForwarder portForwarder = ADB_FORWARDER;
+	
+	/**
+	 * Set the {@link PortForwarder} used by every instance to forward ports.
+	 * @param forwarder the forwarder, or null to forward with adb again.
+	 */
+	public static void setPortForwarder(PortForwarder forwarder){
+		portForwarder = forwarder==null ? ADB_FORWARDER : forwarder;
+	}
+	
+	/**
+	 * Serial number of the device/emulator to forward ports to.<br>
+	 * If null, the shared {@link DUtilities#USE_DEVICE_SERIAL} is used.
+	 */
+	private String deviceSerial = null;
+	
 	public DroidSocketProtocol(){}
 	
 	public DroidSocketProtocol(NamedListener listener){
@@ -75,7 +117,16 @@ public class DroidSocketProtocol extends SocketProtocol{
 				//After forwarding port, should we create the Socket connection always with "localhost"? 
 //				controllerRunner = new Socket("localhost", controllerPort);
 				//If remoteHostname is assigned to an other value (not default "localhost"), this may fail.
-				controllerRunner = new Socket(remoteHostname, controllerPort);
+				try{
+					controllerRunner = new Socket(remoteHostname, controllerPort);
+				}catch(IOException e){
+					//A reused forward may have been dropped by adb (e.g. adb server restart), forward again.
+					if(!PortLeaseManager.isForwarded(deviceSerial, controllerPort, remotePort)) throw e;
+					debug("Fail to connect through the reused port forwarding, forwarding again.");
+					PortLeaseManager.forwardFailed(deviceSerial);
+					if(!forwardPort(controllerPort, remotePort)) throw e;
+					controllerRunner = new Socket(remoteHostname, controllerPort);
+				}
 			}else{
 				debug("Fail to forward from 'local:"+controllerPort+"' to 'device/emulator:"+remotePort+"'");
 				//throw new IOException("Fail to forward from '"+controllerPort+"' to '"+remotePort+"'");
@@ -105,30 +156,46 @@ public class DroidSocketProtocol extends SocketProtocol{
 	}
 	
 	/**
-	 * Use adb to forward local machine's port to a device/emulator's port
+	 * Set the serial number of the device/emulator this protocol instance connects to.<br>
+	 * Each instance carries its own serial, so several instances can connect to different 
+	 * devices concurrently.<br>
+	 * @param serial the device serial number, or null to use {@link DUtilities#USE_DEVICE_SERIAL}
+	 */
+	public void setDeviceSerial(String serial){
+		this.deviceSerial = serial;
+	}
+	
+	/**
+	 * @return the device serial number of this instance, or null if not set.
+	 */
+	public String getDeviceSerial(){
+		return deviceSerial;
+	}
+	
+	/**
+	 * Use adb (or the {@link PortForwarder} set) to forward local machine's port to a device/emulator's port
 	 * 
 	 * @param localPCPort		int,	port number of local machine
 	 * @param remoteDevicePort	int,	port number of device/emulator
 	 * @return
 	 */
 	public boolean forwardPort(int localPCPort, int remoteDevicePort){
-		Process2 forwardProcess = null;
-		
+		if(PortLeaseManager.isForwarded(deviceSerial, localPCPort, remoteDevicePort)){
+			debug("Reusing port forwarding from 'local:"+localPCPort+"' to 'device/emulator:"+remoteDevicePort+"'");
+			return true;
+		}
 		try {
 			debug("Forwarding port from 'local:"+localPCPort+"' to 'device/emulator:"+remoteDevicePort+"'");
-			tcpfowardParams[1] = "tcp:"+localPCPort;
-			tcpfowardParams[2] = "tcp:"+remoteDevicePort;
-			if(tools==null) tools = DUtilities.getAndroidTools(null);
-			forwardProcess = tools.adb(DUtilities.addDeviceSerialParam(tcpfowardParams)).forwardOutput().waitForSuccess();
+			String[] tcpfowardParams = {"forward", "tcp:"+localPCPort, "tcp:"+remoteDevicePort};
+			portForwarder.forward(DUtilities.addDeviceSerialParam(tcpfowardParams, deviceSerial));
+			PortLeaseManager.forwarded(deviceSerial, localPCPort, remoteDevicePort);
 			return true;
 		} catch (InterruptedException e) {
 			debug("Forwarding port error: "+e.getMessage());
 		} catch (IOException e) {
 			debug("Forwarding port error: "+e.getMessage());
-		} finally{
-			if(forwardProcess!=null) forwardProcess.destroy();
 		}
-		
+		PortLeaseManager.forwardFailed(deviceSerial);
 		return false;
 	}
 	
@@ -144,8 +211,9 @@ public class DroidSocketProtocol extends SocketProtocol{
 	 */
 	public void adjustControllerPort(){
 		if(portForwarding){
-			//verify controllerPort is available, if not, get the next available one.
-			controllerPort = AvailablePortFinder.getNextAvailable(controllerPort);
+			//lease an available port, or the port already leased to the device.
+			//Leased ports are never handed out twice, even before adb binds them.
+			controllerPort = PortLeaseManager.leaseControllerPort(deviceSerial, controllerPort).getControllerPort();
 			debug("Port forwarding will be from '"+controllerPort+"'");
 			setControllerPort(controllerPort);
 		}
@@ -0,0 +1,185 @@
+/**
+ ** Copyright (C) SAS Institute, All rights reserved.
+ ** General Public License: http://www.opensource.org/licenses/gpl-license.php
+ **/
+package org.safs.sockets.android;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.safs.sockets.AvailablePortFinder;
+
+/**
+ * Process-wide registry of the local 'controller ports' and the adb port forwards used by
+ * {@link DroidSocketProtocol} instances.<br>
+ *
+ * <p>
+ * Each device serial holds at most one lease. A lease owns one local controller port and
+ * remembers the active adb forward 'local controller port' to 'device port'. Leases are
+ * kept across connections, so later connections to the same device reuse the port and the
+ * forward instead of probing for a free port and spawning adb again. A lease is released only by {@link #releaseDevice(String)},
+ * typically when the device is disconnected.<br>
+ *
+ * <p>
+ * Ports are handed out under a single lock: a port leased to one serial is never handed out
+ * to another one, even before adb has bound it.<br>
+ *
+ * @see DroidSocketProtocol#adjustControllerPort()
+ * @see DroidSocketProtocol#forwardPort(int, int)
+ */
+public class PortLeaseManager {
+
+	/** The key of the lease used when no device serial is given. */
+	private static final String DEFAULT_SERIAL = "";
+
+	/** Leases keyed by device serial. Guarded by itself. */
+	private static final Map<String, PortLease> leases = new HashMap<String, PortLease>();
+
+	/**
+	 * The controller port and adb forward leased to a device serial.
+	 */
+	public static class PortLease {
+		private final String serial;
+		private final int controllerPort;
+		private int forwardedRemotePort = -1;
+
+		private PortLease(String serial, int controllerPort){
+			this.serial = serial;
+			this.controllerPort = controllerPort;
+		}
+
+		/** @return the device serial, empty string for the default device. */
+		public String getSerial(){ return serial; }
+
+		/** @return the local controller port owned by this lease. */
+		public int getControllerPort(){ return controllerPort; }
+
+		/** @return the device port the controller port is forwarded to, or -1 if not forwarded. */
+		public synchronized int getForwardedRemotePort(){ return forwardedRemotePort; }
+
+		public String toString(){
+			return "'"+ serial +"' local:"+ controllerPort +" -> device:"+ getForwardedRemotePort();
+		}
+	}
+
+	private PortLeaseManager(){}
+
+	private static String key(String serial){
+		return serial==null ? DEFAULT_SERIAL : serial.trim();
+	}
+
+	/**
+	 * Lease a local controller port for the device.<br>
+	 * If the device already holds a lease the leased port is returned. Otherwise the first port
+	 * at or above fromPort that is neither leased nor occupied is leased to the device.<br>
+	 *
+	 * @param serial	String, the device serial, null for the default device.
+	 * @param fromPort	int, the first port to consider.
+	 * @return			PortLease, the lease of the device.
+	 * @throws java.util.NoSuchElementException if there are no ports available
+	 */
+	public static PortLease leaseControllerPort(String serial, int fromPort){
+		String key = key(serial);
+		synchronized(leases){
+			PortLease lease = leases.get(key);
+			if(lease!=null) return lease;
+			int port = AvailablePortFinder.getNextAvailable(fromPort);
+			while(isLeased(port)){
+				port = AvailablePortFinder.getNextAvailable(port+1);
+			}
+			lease = new PortLease(key, port);
+			leases.put(key, lease);
+			return lease;
+		}
+	}
+
+	/**
+	 * @param serial	String, the device serial, null for the default device.
+	 * @return			PortLease, the lease of the device or null if it holds none.
+	 */
+	public static PortLease getLease(String serial){
+		synchronized(leases){
+			return leases.get(key(serial));
+		}
+	}
+
+	/**
+	 * @param localPort		int, the local controller port.
+	 * @param remotePort	int, the device port.
+	 * @param serial		String, the device serial, null for the default device.
+	 * @return				boolean, true if adb already forwards localPort to remotePort of the device.
+	 */
+	public static boolean isForwarded(String serial, int localPort, int remotePort){
+		PortLease lease = getLease(serial);
+		if(lease==null || lease.controllerPort!=localPort) return false;
+		synchronized(lease){
+			return lease.forwardedRemotePort==remotePort;
+		}
+	}
+
+	/**
+	 * Record a successful adb forward of the leased controller port.
+	 * @param serial		String, the device serial, null for the default device.
+	 * @param localPort		int, the local controller port.
+	 * @param remotePort	int, the device port.
+	 */
+	public static void forwarded(String serial, int localPort, int remotePort){
+		PortLease lease = getLease(serial);
+		if(lease==null || lease.controllerPort!=localPort) return;
+		synchronized(lease){
+			lease.forwardedRemotePort = remotePort;
+		}
+	}
+
+	/**
+	 * Forget the adb forward of the device, so the next connection forwards again.
+	 * @param serial	String, the device serial, null for the default device.
+	 */
+	public static void forwardFailed(String serial){
+		PortLease lease = getLease(serial);
+		if(lease==null) return;
+		synchronized(lease){
+			lease.forwardedRemotePort = -1;
+		}
+	}
+
+	/**
+	 * Release the lease of the device. To be called when the device is disconnected.<br>
+	 * adb drops the forwards of a disconnected device by itself.
+	 * @param serial	String, the device serial, null for the default device.
+	 * @return			PortLease, the released lease or null if the device held none.
+	 */
+	public static PortLease releaseDevice(String serial){
+		synchronized(leases){
+			return leases.remove(key(serial));
+		}
+	}
+
+	/**
+	 * Release every lease.
+	 */
+	public static void releaseAll(){
+		synchronized(leases){
+			leases.clear();
+		}
+	}
+
+	/**
+	 * @return int, the number of active leases.
+	 */
+	public static int getLeaseCount(){
+		synchronized(leases){
+			return leases.size();
+		}
+	}
+
+	/** Caller must hold the leases lock. */
+	private static boolean isLeased(int port){
+		Iterator<PortLease> it = leases.values().iterator();
+		while(it.hasNext()){
+			if(it.next().controllerPort==port) return true;
+		}
+		return false;
+	}
+}
@@ -4,7 +4,9 @@
  **/
 package org.safs.android.messenger;
 
+import org.safs.sockets.DebugChannel;
 import org.safs.sockets.DebugListener;
+import org.safs.sockets.PayloadCompression;
 import org.safs.sockets.SocketProtocol;
 
 import android.app.Notification;
@@ -61,6 +63,8 @@ public class MessengerService extends Service implements RemoteClientListener,
 		
 	NotificationManager mNM;	
 	RemoteClientRunner tcpServer;
+	/** engine debug messages are sent batched and droppable, never ahead of results. */
+	DebugChannel debugChannel;
 	Looper mServiceLooper;
 	MessengerHandler mServiceHandler;
 	Messenger serviceMessenger;
@@ -102,6 +106,9 @@ public class MessengerService extends Service implements RemoteClientListener,
 		mNM = (NotificationManager)getSystemService(NOTIFICATION_SERVICE);
 		showNotification();
 		tcpServer = new RemoteClientRunner(this);
+		// large engine results are compressed if the controller asks for it
+		tcpServer.protocolserver.setPayloadCompression(true);
+		debugChannel = new DebugChannel(tcpServer);
 		new Thread(tcpServer).start();
 	}
 
@@ -133,6 +140,7 @@ public class MessengerService extends Service implements RemoteClientListener,
 	 */
 	@Override
 	public void onDestroy() {
+		debugChannel.shutdown();
 		tcpServer.shutdownThread();
 		tcpServer = null;
 		debug("Service has been destroyed!");
@@ -159,8 +167,12 @@ public class MessengerService extends Service implements RemoteClientListener,
 		debug(message);
 	}
 
+	/**
+	 * Engine debug messages go through the {@link DebugChannel}: they are batched, rate-limited 
+	 * and dropped under pressure, so they never delay results sent from this handler thread.
+	 */
 	public void onEngineDebug(String message) {
-		sendTCPMessage(safs.msg_debug +	safs.msg_sep + message);
+		debugChannel.send(message);
 	}
 
 	public void onEngineException(String message) {
@@ -272,8 +284,16 @@ public class MessengerService extends Service implements RemoteClientListener,
 	public void onReceiveMessage(String message) {
 		sendIPCMessage(MessageUtil.ID_ENGINE_MESSAGE, message);
 	}	
+	/**
+	 * The controller has connected. The features negotiated in the handshake, like 
+	 * {@link PayloadCompression#FEATURE}, are forwarded to the engine.
+	 */
 	public void onReceiveConnection() {
-		sendIPCMessage(MessageUtil.ID_SERVER_CONNECTED);
+		if(tcpServer != null && tcpServer.protocolserver.isPayloadCompressionNegotiated()){
+			sendIPCMessage(MessageUtil.ID_SERVER_CONNECTED, PayloadCompression.FEATURE);
+		}else{
+			sendIPCMessage(MessageUtil.ID_SERVER_CONNECTED);
+		}
 	}
 
 	/**
@@ -24,9 +24,10 @@ public class RemoteClientRunner extends AbstractProtocolRunner{
 	}
 
 	protected void notifyMessage(String message){
-		if(runnerlisteners.size() > 0){
-			for(int i=0;i<runnerlisteners.size();i++)
-			  try{((RemoteClientListener)runnerlisteners.get(i)).onReceiveMessage(message);}
+		RemoteClientListener[] listeners = runnerlisteners.get(RemoteClientListener.class);
+		if(listeners.length > 0){
+			for(int i=0;i<listeners.length;i++)
+			  try{listeners[i].onReceiveMessage(message);}
 			  catch(Exception x){}
 		}else{
 			debug("No Registered Listeners to receive custom Message: "+ message);
@@ -34,20 +35,21 @@ public class RemoteClientRunner extends AbstractProtocolRunner{
 	}
 	
 	protected void notifyDispatchFile(String filepath){
-		if(runnerlisteners.size() > 0){
-			for(int i=0;i<runnerlisteners.size();i++){
-			  try{((RemoteClientListener)runnerlisteners.get(i)).onReceiveDispatchFile(filepath);}
+		RemoteClientListener[] listeners = runnerlisteners.get(RemoteClientListener.class);
+		if(listeners.length > 0){
+			for(int i=0;i<listeners.length;i++)
+			  try{listeners[i].onReceiveDispatchFile(filepath);}
 			  catch(Exception x){}
-			}
 		}else{
 			debug("No Registered Listeners to receive DispatchFile: "+ filepath);
 		}
 	}
 	
 	protected void notifyDispatchProps(char[] props){
-		if(runnerlisteners.size() > 0){
-			for(int i=0;i<runnerlisteners.size();i++)
-			  try{((RemoteClientListener)runnerlisteners.get(i)).onReceiveDispatchProps(props);}
+		RemoteClientListener[] listeners = runnerlisteners.get(RemoteClientListener.class);
+		if(listeners.length > 0){
+			for(int i=0;i<listeners.length;i++)
+			  try{listeners[i].onReceiveDispatchProps(props);}
 			  catch(Exception x){}
 		}else{
 			debug("No Registered Listeners to receive DispatchProps.");
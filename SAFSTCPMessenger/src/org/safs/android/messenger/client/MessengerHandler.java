@@ -71,7 +71,8 @@ public class MessengerHandler extends MultipleParcelsHandler{
 				break;
 	
 			case MessageUtil.ID_SERVER_CONNECTED:
-				listener.onRemoteConnected();
+				listener.onRemoteConnected(msg.obj == null ? null :
+					MessageUtil.getParcelableMessage((Parcelable)msg.obj));
 				break;
 	
 			case MessageUtil.ID_SERVER_DISCONNECTED:
@@ -18,7 +18,12 @@ public interface MessengerListener extends DebugListener, MultipleParcelListener
 
 	public void prepareNotification(int what);
 	
-	public void onRemoteConnected();
+	/**
+	 * The remote controller has connected.
+	 * @param features the features negotiated with the controller, like 
+	 * {@link org.safs.sockets.PayloadCompression#FEATURE}, or null.
+	 */
+	public void onRemoteConnected(String features);
 	public void onRemoteDisconnected();
 	
 	public void onRemoteDispatchFile(String filepath);
@@ -11,6 +11,7 @@ import java.util.Properties;
 
 import org.safs.android.messenger.MessageUtil;
 import org.safs.sockets.DebugListener;
+import org.safs.sockets.PayloadCompression;
 
 import android.os.Message;
 import android.os.Messenger;
@@ -25,6 +26,7 @@ import android.util.Log;
  * @author Carl Nagle, SAS Institute, Inc.
  * @since   FEB 04, 2012	(CANAGL)	Initial version
  *   <br>	APR 25, 2013	(LeiWang)	Handle message of big size.
+ *   <br>	OCT 19, 2026			Compress large results when the controller negotiated payload compression.
  */
 public class MessengerRunner implements MessengerListener, Runnable{
 
@@ -55,6 +57,12 @@ public class MessengerRunner implements MessengerListener, Runnable{
 	
 	private boolean keeprunning = true;
 	
+	/** true if the remote controller negotiated payload compression, set on the listener thread. */
+	volatile boolean compressPayloads = false;
+	
+	/** results smaller than this many characters are never compressed. */
+	int compressionThreshold = PayloadCompression.DEFAULT_THRESHOLD;
+	
 	public MessengerRunner(Messenger mService){
 		this.mService = mService;
 	}
@@ -90,6 +98,17 @@ public class MessengerRunner implements MessengerListener, Runnable{
 		this.debugListener = debugListener;
 	}
 	
+	public int getCompressionThreshold() {
+		return compressionThreshold;
+	}
+	/**
+	 * @param compressionThreshold results smaller than this many characters are never compressed, 
+	 * even if the remote controller negotiated payload compression.
+	 */
+	public void setCompressionThreshold(int compressionThreshold){
+		this.compressionThreshold = compressionThreshold;
+	}
+	
 	public void debug(String message){
 		if(debugListener!=null){
 			debugListener.onReceiveDebug(message);
@@ -135,16 +154,18 @@ public class MessengerRunner implements MessengerListener, Runnable{
 		synchronized(this){ this.notifyAll(); }
 	}
 	
-	public void onRemoteConnected(){
+	public void onRemoteConnected(String features){
 		debug("Listener received remoteConnected...");
+		compressPayloads = PayloadCompression.FEATURE.equals(features);
 		trd_props = null;
-		trd_message = null;
+		trd_message = features;
 		messageHandled = false;
 		synchronized(this){ this.notifyAll(); }
 	}
 	
 	public void onRemoteDisconnected(){
 		debug("Listener received remoteDisconnected...");
+		compressPayloads = false;
 		trd_props = null;
 		trd_message = null;
 		messageHandled = false;
@@ -328,6 +349,7 @@ public class MessengerRunner implements MessengerListener, Runnable{
 		msg.replyTo = mMessenger;
 		msg.arg1 = statuscode;
 		debug("Engine sending simple result: "+ statuscode +", "+ statusinfo);
+		if(compressPayloads) statusinfo = PayloadCompression.compress(statusinfo, compressionThreshold);
 		
 		try {
 			if(messageHandler!=null)
@@ -376,12 +398,18 @@ public class MessengerRunner implements MessengerListener, Runnable{
 		debug("Engine sending result Propertie.");
 		
 		try {
-			if(messageHandler!=null)
-				return messageHandler.sendMessageAsMultipleParcels(mService, msg, props);
-			else{
+			char[] buffer = null;
+			if(compressPayloads || messageHandler==null){
 				CharArrayWriter chars = new CharArrayWriter();
 				props.store(chars, "ResultProperties");
-				char[] buffer = chars.toCharArray();
+				buffer = chars.toCharArray();
+				// compressed before the Binder hop, the service forwards it as is
+				if(compressPayloads) 
+					buffer = PayloadCompression.compress(String.valueOf(buffer), compressionThreshold).toCharArray();
+			}
+			if(messageHandler!=null)
+				return messageHandler.sendMessageAsMultipleParcels(mService, msg, buffer==null ? props : buffer);
+			else{
 				msg.obj = MessageUtil.setParcelableProps(buffer);
 				mService.send(msg);
 				return true;
@@ -713,10 +713,9 @@ public class DUtilities {
             if (rawImage != null){
             	image = ImageUtils.convertImage(rawImage);
             	if(rotatable){
-            		//When rotate the image got from ImageUtils.convertImage(), sometimes an ImagingOpException
-            		//will be thrown out. ImagingOpException: Unable to transform src image
-            		//So get a copy of the original image and rotate it.
-            		image = ImageUtils.getCopiedImage(image, image.getWidth(), image.getHeight(), null);
+            		//The AffineTransformOp can not rotate the image got from ImageUtils.convertImage(),
+            		//ImagingOpException: Unable to transform src image
+            		//rotateImage() remaps its pixels by index instead, no copy of the image is needed.
             		//According to the rotation, rotate the image back.
             		image = ImageUtils.rotateImage(image, (360-rotation)%360);
             	}
@@ -1074,6 +1073,31 @@ public class DUtilities {
 		return true;
 	}
 
+	/**
+	 * Add the parameter "-s serialNumber" to the parameters passed to command 'adb'.<br>
+	 * Unlike {@link #addDeviceSerialParam(String[])} this does not depend on the shared static 
+	 * {@link #USE_DEVICE_SERIAL}, so callers targeting different devices can run concurrently.<br>
+	 *
+	 * @param params	String[], string array used by command 'adb'
+	 * @param serial	String, the device serial number. If null or empty, {@link #USE_DEVICE_SERIAL} is used.
+	 * @return			String[], string array used by command 'adb'
+	 * @see #addDeviceSerialParam(String[])
+	 */
+	public static String[] addDeviceSerialParam(String[] params, String serial){
+		if(serial==null || serial.trim().length()==0) return addDeviceSerialParam(params);
+		if(params==null){
+			debug("Array params is null.");
+			return params;
+		}
+		String[] newParams = new String[params.length+2];
+		newParams[0] = "-s";
+		newParams[1] = serial.trim();
+		for(int i=0;i<params.length;i++){
+			newParams[i+2] = params[i];
+		}
+		return newParams;
+	}
+
 	/**
 	 * Add the petential parameter "-s serivalNumber" to the parameters passed to command 'adb'.<br>
 	 * This petential parameter is stored in {@link #USE_DEVICE_SERIAL}<br>
@@ -14,12 +14,19 @@ import java.awt.image.DataBuffer;
 import java.awt.image.DataBufferByte;
 import java.awt.image.PixelInterleavedSampleModel;
 import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
 import java.awt.image.WritableRaster;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import javax.imageio.IIOImage;
 import javax.imageio.ImageIO;
@@ -27,6 +34,7 @@ import javax.imageio.ImageWriteParam;
 import javax.imageio.ImageWriter;
 import javax.imageio.plugins.jpeg.JPEGImageWriteParam;
 import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
 
 import com.android.ddmlib.RawImage;
 
@@ -35,6 +43,18 @@ public class ImageUtils{
 	private static Hashtable<?,?> EMPTY_HASH = new Hashtable();
     private static int[] BAND_OFFSETS_32 = { 0, 1, 2, 3 };
     private static int[] BAND_OFFSETS_16 = { 0, 1 };
+
+	/**
+	 * PNG compression quality used by {@link #writePng(RenderedImage, OutputStream)}, 
+	 * a writer mapping the quality to the deflate level uses a low, fast level.
+	 */
+	public static final float PNG_SPEED_QUALITY = 0.75f;
+
+	/** images of one resolution kept by {@link #releaseImage(BufferedImage)}. */
+	private static final int POOLED_IMAGES_PER_SIZE = 2;
+
+	private static final Map<Long, Queue<BufferedImage>> IMAGE_POOL = 
+		new ConcurrentHashMap<Long, Queue<BufferedImage>>();
     
     /**
      * Convert a raw image into a buffered image.
@@ -63,6 +83,154 @@ public class ImageUtils{
         return convertImage(rawImage, null);
     }
 
+    /**
+     * Convert a raw image into a standard TYPE_3BYTE_BGR image by copying the pixels.
+     * <p>
+     * Unlike {@link #convertImage(RawImage)}, which wraps the framebuffer with a custom 
+     * ColorModel, the result is a standard image type, so the ImageIO encoders read its 
+     * raster directly instead of converting it pixel by pixel.  The alpha channel of the 
+     * framebuffer is dropped.
+     *
+     * @param rawImage the raw image of 16 or 32 bits per pixel to convert.
+     * @param image an image to reuse if it is TYPE_3BYTE_BGR of the same size, like one 
+     * from {@link #acquireImage(int, int)}, can be null.
+     * @return the converted image, null if the bits per pixel are not supported.
+     */
+    public static BufferedImage convertImageDirect(RawImage rawImage, BufferedImage image) {
+    	if(rawImage.bpp != 16 && rawImage.bpp != 32) return null;
+    	int width = rawImage.width;
+    	int height = rawImage.height;
+    	if(image == null || image.getType() != BufferedImage.TYPE_3BYTE_BGR ||
+    	   image.getWidth() != width || image.getHeight() != height){
+    		image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+    	}
+    	byte[] bgr = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+    	byte[] data = rawImage.data;
+    	int pixels = width * height;
+    	if(rawImage.bpp == 16){
+    		// RGB 565, as in SixteenBitColorModel
+    		for(int s=0, d=0, end=pixels*3; d<end; s+=2, d+=3){
+    			int pixel = (data[s] & 0xFF) | (data[s+1] & 0xFF) << 8;
+    			bgr[d]   = (byte) ((pixel & 0x1F) << 3);
+    			bgr[d+1] = (byte) ((pixel >> 5 & 0x3F) << 2);
+    			bgr[d+2] = (byte) ((pixel >> 11 & 0x1F) << 3);
+    		}
+    	}else if(rawImage.red_offset == 0 && rawImage.green_offset == 8 && rawImage.blue_offset == 16 &&
+    			 rawImage.red_length == 8 && rawImage.green_length == 8 && rawImage.blue_length == 8){
+    		// RGBA bytes, the framebuffer of most devices
+    		for(int s=0, d=0, end=pixels*3; d<end; s+=4, d+=3){
+    			bgr[d]   = data[s+2];
+    			bgr[d+1] = data[s+1];
+    			bgr[d+2] = data[s];
+    		}
+    	}else{
+    		int redOffset = rawImage.red_offset;
+    		int redMask = getMask(rawImage.red_length);
+    		int redShift = 8 - rawImage.red_length;
+    		int greenOffset = rawImage.green_offset;
+    		int greenMask = getMask(rawImage.green_length);
+    		int greenShift = 8 - rawImage.green_length;
+    		int blueOffset = rawImage.blue_offset;
+    		int blueMask = getMask(rawImage.blue_length);
+    		int blueShift = 8 - rawImage.blue_length;
+    		for(int s=0, d=0, end=pixels*3; d<end; s+=4, d+=3){
+    			int pixel = (data[s] & 0xFF) | (data[s+1] & 0xFF) << 8 | 
+    			            (data[s+2] & 0xFF) << 16 | (data[s+3] & 0xFF) << 24;
+    			bgr[d]   = (byte) (((pixel >>> blueOffset) & blueMask) << blueShift);
+    			bgr[d+1] = (byte) (((pixel >>> greenOffset) & greenMask) << greenShift);
+    			bgr[d+2] = (byte) (((pixel >>> redOffset) & redMask) << redShift);
+    		}
+    	}
+    	return image;
+    }
+
+    /**
+     * Get a TYPE_3BYTE_BGR image of the given size for {@link #convertImageDirect(RawImage, BufferedImage)}, 
+     * recycled from {@link #releaseImage(BufferedImage)} if possible.  The content of the image 
+     * is undefined.
+     * @param width of the image.
+     * @param height of the image.
+     * @return the image.
+     */
+    public static BufferedImage acquireImage(int width, int height) {
+    	Queue<BufferedImage> pool = IMAGE_POOL.get(getPoolKey(width, height));
+    	BufferedImage image = pool == null ? null : pool.poll();
+    	return image != null ? image : new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+    }
+
+    /**
+     * Give back an image of {@link #acquireImage(int, int)} when it is not used anymore.
+     * A few images are kept per resolution, so the screenshots of a device reuse them.
+     * @param image the image, must not be used by the caller afterwards.
+     */
+    public static void releaseImage(BufferedImage image) {
+    	if(image == null || image.getType() != BufferedImage.TYPE_3BYTE_BGR) return;
+    	Long key = getPoolKey(image.getWidth(), image.getHeight());
+    	Queue<BufferedImage> pool = IMAGE_POOL.get(key);
+    	if(pool == null){
+    		synchronized(IMAGE_POOL){
+    			pool = IMAGE_POOL.get(key);
+    			if(pool == null){
+    				pool = new ConcurrentLinkedQueue<BufferedImage>();
+    				IMAGE_POOL.put(key, pool);
+    			}
+    		}
+    	}
+    	if(pool.size() < POOLED_IMAGES_PER_SIZE) pool.offer(image);
+    }
+
+    private static Long getPoolKey(int width, int height) {
+    	return Long.valueOf((long) width << 32 | height);
+    }
+
+    /**
+     * Encode an image as PNG, tuned for speed: a low deflate level where the writer supports 
+     * setting it, see {@link #PNG_SPEED_QUALITY}, and no ImageIO disk cache.
+     * @param image the image, a standard image type like the result of 
+     * {@link #convertImageDirect(RawImage, BufferedImage)} is encoded fastest.
+     * @param out the stream to write to, not closed.
+     * @throws IOException if the image cannot be written.
+     */
+    public static void writePng(RenderedImage image, OutputStream out) throws IOException {
+    	writeImage(image, "png", PNG_SPEED_QUALITY, out);
+    }
+
+    /**
+     * Encode an image as JPEG without the ImageIO disk cache.
+     * @param image the image, it must not have an alpha channel.
+     * @param quality the compression quality between 0.0 and 1.0.
+     * @param out the stream to write to, not closed.
+     * @throws IOException if the image cannot be written.
+     */
+    public static void writeJpeg(RenderedImage image, float quality, OutputStream out) throws IOException {
+    	writeImage(image, "jpg", quality, out);
+    }
+
+    private static void writeImage(RenderedImage image, String format, float quality, OutputStream out) 
+    		throws IOException {
+    	Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(format);
+    	if(!writers.hasNext()) throw new IOException("Can not create ImageWriter for format "+ format +".");
+    	ImageWriter writer = writers.next();
+    	ImageOutputStream ios = new MemoryCacheImageOutputStream(out);
+    	try{
+    		writer.setOutput(ios);
+    		ImageWriteParam param = writer.getDefaultWriteParam();
+    		if(param.canWriteCompressed()){
+    			param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+    			String[] types = param.getCompressionTypes();
+    			if(types != null && types.length > 0 && param.getCompressionType() == null){
+    				param.setCompressionType(types[0]);
+    			}
+    			param.setCompressionQuality(quality);
+    		}
+    		writer.write(null, new IIOImage(image, null, null), param);
+    		ios.flush();
+    	}finally{
+    		ios.close();
+    		writer.dispose();
+    	}
+    }
+
     public static int getMask(int length) {
         int res = 0;
         for (int i = 0 ; i < length ; i++) {
@@ -124,6 +292,9 @@ public class ImageUtils{
         	return null;
         }
 
+        BufferedImage rotated = rotateByIndex(bufferedimage, angle);
+        if(rotated != null) return rotated;
+
         affineTransform.rotate(java.lang.Math.toRadians(angle));    
         AffineTransformOp affineTransformOp = 
         	new AffineTransformOp(affineTransform, AffineTransformOp.TYPE_NEAREST_NEIGHBOR);    
@@ -131,6 +302,58 @@ public class ImageUtils{
         return affineTransformOp.filter(bufferedimage, null);    
     }
     
+	/**
+	 * Rotate an image wrapping a framebuffer, like the result of {@link #convertImage(RawImage)}, 
+	 * by copying the bytes of every pixel to its rotated index.  The AffineTransformOp cannot 
+	 * transform the custom ColorModel of such an image, and copying it into a standard image 
+	 * first goes pixel by pixel.  The rotated image keeps the ColorModel.  Standard image 
+	 * types are left to the AffineTransformOp, which handles them natively.
+	 * @return the rotated image, null if the image is not a custom byte interleaved image.
+	 */
+	private static BufferedImage rotateByIndex(BufferedImage image, int angle){
+		WritableRaster raster = image.getRaster();
+		SampleModel model = raster.getSampleModel();
+		if(image.getType() != BufferedImage.TYPE_CUSTOM || raster.getParent() != null ||
+		   !(raster.getDataBuffer() instanceof DataBufferByte) ||
+		   raster.getDataBuffer().getNumBanks() != 1 || raster.getDataBuffer().getOffset() != 0 ||
+		   !(model instanceof PixelInterleavedSampleModel)) return null;
+		PixelInterleavedSampleModel interleaved = (PixelInterleavedSampleModel) model;
+		int width = image.getWidth();
+		int height = image.getHeight();
+		int bytes = interleaved.getPixelStride();
+		if(interleaved.getScanlineStride() != width * bytes) return null;
+		int dstWidth = angle == 180 ? width : height;
+		int dstHeight = angle == 180 ? height : width;
+		byte[] src = ((DataBufferByte) raster.getDataBuffer()).getData();
+		byte[] dst = new byte[width * height * bytes];
+		for(int y=0, s=0; y<height; y++){
+			for(int x=0; x<width; x++, s+=bytes){
+				int d = getRotatedIndex(x, y, width, height, angle) * bytes;
+				for(int b=0; b<bytes; b++) dst[d+b] = src[s+b];
+			}
+		}
+		PixelInterleavedSampleModel rotatedModel = 
+			new PixelInterleavedSampleModel(DataBuffer.TYPE_BYTE, dstWidth, dstHeight, 
+				bytes, dstWidth * bytes, interleaved.getBandOffsets());
+		WritableRaster rotated = Raster.createWritableRaster(rotatedModel, 
+			new DataBufferByte(dst, dst.length), new Point(0, 0));
+		return new BufferedImage(image.getColorModel(), rotated, image.isAlphaPremultiplied(), EMPTY_HASH);
+	}
+
+	/**
+	 * @return the pixel index of (x, y) of a width x height image rotated clockwise by angle.
+	 */
+	private static int getRotatedIndex(int x, int y, int width, int height, int angle){
+		switch(angle){
+			case 90:
+				return x * height + height - 1 - y;
+			case 180:
+				return (height - 1 - y) * width + width - 1 - x;
+			default:
+				return (width - 1 - x) * height + y;
+		}
+	}
+
 	/**
 	 * Store our BufferedImage into a File;
 	 * If the format is JPG, the third parameter indicate the compression quality.
@@ -0,0 +1,325 @@
+/**
+ ** Copyright (C) SAS Institute, All rights reserved.
+ ** General Public License: http://www.opensource.org/licenses/gpl-license.php
+ **/
+package org.w3c.tools.codec;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Table driven BASE64 codec working on whole byte arrays and ByteBuffers.
+ * <p>
+ * The output is the same as the output of {@link Base64Encoder}: MIME lines of
+ * {@value #LINE_LENGTH} characters separated by '\n'. Decoding follows {@link Base64Decoder}:
+ * characters outside the BASE64 alphabet, like line breaks, are skipped. A padding character
+ * at the third or fourth position of a group of 4 characters ends the data once the group is
+ * complete. At the first or second position it is decoded as the value 1, so "=QUJD" is an
+ * incomplete group and fails.
+ * <p>
+ * {@link Base64Encoder} and {@link Base64Decoder} use this codec for their streams.
+ *
+ * @see Base64Encoder
+ * @see Base64Decoder
+ */
+public class Base64Codec {
+
+	/** characters of an encoded line. */
+	public static final int LINE_LENGTH = 76;
+
+	/** source bytes of an encoded line. */
+	public static final int LINE_BYTES = LINE_LENGTH / 4 * 3;
+
+	private static final byte[] ENCODE =
+		"ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".getBytes();
+
+	/** decode table value of characters skipped while decoding. */
+	private static final int SKIP = -1;
+
+	/** decode table value of the padding character. */
+	private static final int PAD = -2;
+
+	/** value of a padding character decoded as data, the 6 low bits of Base64Decoder's 65. */
+	private static final int PAD_VALUE = 1;
+
+	/** padding flag of the third character of a group. */
+	private static final int PAD_THIRD = 1 << 2;
+
+	/** padding flag of the fourth character of a group. */
+	private static final int PAD_FOURTH = 1 << 3;
+
+	private static final int[] DECODE = new int[256];
+	static {
+		for(int i=0; i<DECODE.length; i++) DECODE[i] = SKIP;
+		for(int i=0; i<ENCODE.length; i++) DECODE[ENCODE[i]] = i;
+		DECODE['='] = PAD;
+	}
+
+	/** index of the decoded bits in a decoding state. */
+	static final int STATE_BITS = 0;
+	/** index of the number of decoded characters, 0-3, in a decoding state. */
+	static final int STATE_COUNT = 1;
+	/** index of the end flag, 1 once the padding is reached, in a decoding state. */
+	static final int STATE_END = 2;
+	/** index of the padding flags of the decoded characters in a decoding state. */
+	static final int STATE_PADS = 3;
+	/** number of ints of a decoding state. */
+	static final int STATE_SIZE = 4;
+
+	private Base64Codec(){}
+
+	/**
+	 * @param length number of bytes to encode.
+	 * @return number of characters of the encoded bytes, line breaks included.
+	 */
+	public static int encodedLength(int length){
+		int quads = (length + 2) / 3;
+		int fullQuads = length / 3;
+		return quads * 4 + (fullQuads > 0 ? (fullQuads - 1) / (LINE_LENGTH / 4) : 0);
+	}
+
+	/**
+	 * Encode bytes into a destination array.
+	 * @param src bytes to encode.
+	 * @param off offset of the first byte to encode.
+	 * @param len number of bytes to encode.
+	 * @param dst destination, must have room for {@link #encodedLength(int)} bytes.
+	 * @param dstOff offset of the first encoded character in dst.
+	 * @return number of characters written to dst.
+	 */
+	public static int encode(byte[] src, int off, int len, byte[] dst, int dstOff){
+		int o = dstOff;
+		int end = off + len;
+		int fullEnd = off + len / 3 * 3;
+		int lineQuads = LINE_LENGTH / 4;
+		int quads = 0;
+		int i = off;
+		while(i < fullEnd){
+			if(quads == lineQuads){
+				dst[o++] = '\n';
+				quads = 0;
+			}
+			int bits = (src[i] & 0xff) << 16 | (src[i+1] & 0xff) << 8 | (src[i+2] & 0xff);
+			dst[o]   = ENCODE[bits >>> 18];
+			dst[o+1] = ENCODE[(bits >>> 12) & 0x3f];
+			dst[o+2] = ENCODE[(bits >>> 6) & 0x3f];
+			dst[o+3] = ENCODE[bits & 0x3f];
+			o += 4;
+			i += 3;
+			quads++;
+		}
+		// the padded last quad is never moved to a new line, like in Base64Encoder
+		int rest = end - i;
+		if(rest > 0){
+			int bits = (src[i] & 0xff) << 16 | (rest == 2 ? (src[i+1] & 0xff) << 8 : 0);
+			dst[o]   = ENCODE[bits >>> 18];
+			dst[o+1] = ENCODE[(bits >>> 12) & 0x3f];
+			dst[o+2] = rest == 2 ? ENCODE[(bits >>> 6) & 0x3f] : (byte) '=';
+			dst[o+3] = '=';
+			o += 4;
+		}
+		return o - dstOff;
+	}
+
+	/**
+	 * @param src bytes to encode.
+	 * @return the encoded bytes.
+	 */
+	public static byte[] encode(byte[] src){
+		return encode(src, 0, src.length);
+	}
+
+	/**
+	 * @param src bytes to encode.
+	 * @param off offset of the first byte to encode.
+	 * @param len number of bytes to encode.
+	 * @return the encoded bytes.
+	 */
+	public static byte[] encode(byte[] src, int off, int len){
+		byte[] dst = new byte[encodedLength(len)];
+		encode(src, off, len, dst, 0);
+		return dst;
+	}
+
+	/**
+	 * Encode the remaining bytes of src into dst. The position of both buffers is advanced.
+	 * @param src bytes to encode.
+	 * @param dst destination, must have room for {@link #encodedLength(int)} bytes.
+	 * @throws BufferOverflowException if dst has not enough room.
+	 */
+	public static void encode(ByteBuffer src, ByteBuffer dst){
+		int len = src.remaining();
+		int size = encodedLength(len);
+		if(dst.remaining() < size) throw new BufferOverflowException();
+		byte[] in = array(src, len);
+		int inOff = src.hasArray() ? src.arrayOffset() + src.position() : 0;
+		if(dst.hasArray() && !dst.isReadOnly()){
+			encode(in, inOff, len, dst.array(), dst.arrayOffset() + dst.position());
+			dst.position(dst.position() + size);
+		}else{
+			dst.put(encode(in, inOff, len));
+		}
+		src.position(src.limit());
+	}
+
+	/**
+	 * @param src bytes to encode.
+	 * @return the encoded characters.
+	 */
+	public static String encodeToString(byte[] src){
+		byte[] encoded = encode(src);
+		char[] chars = new char[encoded.length];
+		for(int i=0; i<encoded.length; i++) chars[i] = (char) encoded[i];
+		return new String(chars);
+	}
+
+	/**
+	 * @param length number of encoded characters.
+	 * @return the maximum number of decoded bytes.
+	 */
+	public static int maxDecodedLength(int length){
+		return (length + 3) / 4 * 3;
+	}
+
+	/**
+	 * Decode BASE64 characters into a destination array.
+	 * @param src BASE64 characters.
+	 * @param off offset of the first character to decode.
+	 * @param len number of characters to decode.
+	 * @param dst destination, must have room for {@link #maxDecodedLength(int)} bytes.
+	 * @param dstOff offset of the first decoded byte in dst.
+	 * @return number of bytes written to dst.
+	 * @throws Base64FormatException if the characters end with an incomplete group.
+	 */
+	public static int decode(byte[] src, int off, int len, byte[] dst, int dstOff) throws Base64FormatException{
+		int[] state = new int[STATE_SIZE];
+		int size = decode(src, off, len, dst, dstOff, state);
+		if(state[STATE_END] == 0 && state[STATE_COUNT] != 0)
+			throw new Base64FormatException("Invalid length.");
+		return size;
+	}
+
+	/**
+	 * @param src BASE64 characters.
+	 * @return the decoded bytes.
+	 * @throws Base64FormatException if the characters end with an incomplete group.
+	 */
+	public static byte[] decode(byte[] src) throws Base64FormatException{
+		byte[] dst = new byte[maxDecodedLength(src.length)];
+		int size = decode(src, 0, src.length, dst, 0);
+		if(size == dst.length) return dst;
+		byte[] result = new byte[size];
+		System.arraycopy(dst, 0, result, 0, size);
+		return result;
+	}
+
+	/**
+	 * @param src BASE64 characters.
+	 * @return the decoded bytes.
+	 * @throws Base64FormatException if the characters end with an incomplete group.
+	 */
+	public static byte[] decode(String src) throws Base64FormatException{
+		byte[] chars = new byte[src.length()];
+		for(int i=0; i<chars.length; i++){
+			char c = src.charAt(i);
+			// characters out of the BASE64 alphabet are skipped anyway
+			chars[i] = c < 0x80 ? (byte) c : (byte) ' ';
+		}
+		return decode(chars);
+	}
+
+	/**
+	 * Decode the remaining characters of src into dst. The position of both buffers is advanced.
+	 * @param src BASE64 characters.
+	 * @param dst destination, must have room for {@link #maxDecodedLength(int)} bytes.
+	 * @throws Base64FormatException if the characters end with an incomplete group.
+	 * @throws BufferOverflowException if dst has not enough room.
+	 */
+	public static void decode(ByteBuffer src, ByteBuffer dst) throws Base64FormatException{
+		int len = src.remaining();
+		byte[] in = array(src, len);
+		int inOff = src.hasArray() ? src.arrayOffset() + src.position() : 0;
+		if(dst.hasArray() && !dst.isReadOnly() && dst.remaining() >= maxDecodedLength(len)){
+			int size = decode(in, inOff, len, dst.array(), dst.arrayOffset() + dst.position());
+			dst.position(dst.position() + size);
+		}else{
+			byte[] out = new byte[maxDecodedLength(len)];
+			dst.put(out, 0, decode(in, inOff, len, out, 0));
+		}
+		src.position(src.limit());
+	}
+
+	/**
+	 * Used internally and by {@link Base64Decoder} to decode a stream chunk by chunk.
+	 * Decodes characters until the end of src or the padded group, the bits of an incomplete
+	 * group are kept in the state for the next chunk.
+	 * @param state {@link #STATE_SIZE} ints: {@link #STATE_BITS}, {@link #STATE_COUNT},
+	 * {@link #STATE_END} and {@link #STATE_PADS}, all 0 before the first chunk.
+	 * @return number of bytes written to dst.
+	 */
+	static int decode(byte[] src, int off, int len, byte[] dst, int dstOff, int[] state){
+		if(state[STATE_END] != 0) return 0;
+		int[] table = DECODE;
+		int bits = state[STATE_BITS];
+		int count = state[STATE_COUNT];
+		int pads = state[STATE_PADS];
+		int o = dstOff;
+		int i = off;
+		int end = off + len;
+		while(i < end){
+			// fast path: a complete group of 4 alphabet characters
+			if(count == 0){
+				while(i + 4 <= end){
+					int c1 = table[src[i] & 0xff];
+					int c2 = table[src[i+1] & 0xff];
+					int c3 = table[src[i+2] & 0xff];
+					int c4 = table[src[i+3] & 0xff];
+					if((c1 | c2 | c3 | c4) < 0) break;
+					int group = c1 << 18 | c2 << 12 | c3 << 6 | c4;
+					dst[o]   = (byte) (group >> 16);
+					dst[o+1] = (byte) (group >> 8);
+					dst[o+2] = (byte) group;
+					o += 3;
+					i += 4;
+				}
+				if(i >= end) break;
+			}
+			int c = table[src[i++] & 0xff];
+			if(c == SKIP) continue;
+			if(c == PAD){
+				pads |= 1 << count;
+				c = PAD_VALUE;
+			}
+			bits = bits << 6 | c;
+			if(++count == 4){
+				// "xx=?" holds one byte, "xxx=" two bytes
+				dst[o++] = (byte) (bits >> 16);
+				if((pads & PAD_THIRD) == 0) dst[o++] = (byte) (bits >> 8);
+				if((pads & (PAD_THIRD | PAD_FOURTH)) == 0) dst[o++] = (byte) bits;
+				boolean padded = (pads & (PAD_THIRD | PAD_FOURTH)) != 0;
+				count = 0;
+				bits = 0;
+				pads = 0;
+				if(padded){
+					state[STATE_END] = 1;
+					break;
+				}
+			}
+		}
+		state[STATE_BITS] = bits;
+		state[STATE_COUNT] = count;
+		state[STATE_PADS] = pads;
+		return o - dstOff;
+	}
+
+	/**
+	 * @return the backing array of a heap buffer, or a copy of the remaining bytes.
+	 * The position of the buffer is not changed.
+	 */
+	private static byte[] array(ByteBuffer buffer, int len){
+		if(buffer.hasArray()) return buffer.array();
+		byte[] copy = new byte[len];
+		buffer.duplicate().get(copy);
+		return copy;
+	}
+}
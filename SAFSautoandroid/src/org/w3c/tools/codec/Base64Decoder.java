@@ -29,10 +29,11 @@ import java.io.UnsupportedEncodingException;
  * @author w3c
  * @since
  * <br>May 17, 2013		(SBJLWA)	Add methods to decode a string to bytes/object.
+ * <br>Oct 19, 2026				Decode in chunks with the table driven {@link Base64Codec}.
  */
 
 public class Base64Decoder {
-    private static final int BUFFER_SIZE = 1024 ;
+    private static final int BUFFER_SIZE = 64 * 1024 ;
 
     InputStream in       = null ;
     OutputStream out     = null ;
@@ -66,39 +67,6 @@ public class Base64Decoder {
 	printHex (bytes, 0, bytes.length) ;
     }
 
-    private final int get1 (byte buf[], int off) {
-	return ((buf[off] & 0x3f) << 2) | ((buf[off+1] & 0x30) >>> 4) ;
-    }
-
-    private final int get2 (byte buf[], int off) {
-	return ((buf[off+1] & 0x0f) << 4) | ((buf[off+2] &0x3c) >>> 2) ;
-    }
-
-    private final int get3 (byte buf[], int off) {
-	return ((buf[off+2] & 0x03) << 6) | (buf[off+3] & 0x3f) ;
-    }
-
-    private final int check (int ch) {
-	if ((ch >= 'A') && (ch <= 'Z')) {
-	    return ch - 'A' ;
-	} else if ((ch >= 'a') && (ch <= 'z')) {
-	    return ch - 'a' + 26 ;
-	} else if ((ch >= '0') && (ch <= '9')) {
-	    return ch - '0' + 52 ;
-	} else {
-	    switch (ch) {
-	      case '=':
-		  return 65 ;
-	      case '+':
-		  return 62 ;
-	      case '/':
-		  return 63 ;
-	      default:
-		  return -1 ;
-	    }
-	}
-    }
-
     /**
      * Do the actual decoding.
      * Process the input stream by decoding it and emiting the resulting bytes
@@ -106,44 +74,23 @@ public class Base64Decoder {
      * @exception IOException If the input or output stream accesses failed.
      * @exception Base64FormatException If the input stream is not compliant
      *    with the BASE64 specification.
+     * @see Base64Codec#decode(byte[], int, int, byte[], int)
      */
 
     public void process () 
 	throws IOException, Base64FormatException
     {
-	byte buffer[] = new byte[BUFFER_SIZE] ;
-	byte chunk[]  = new byte[4] ;
-	int  got      = -1 ;
-	int  ready    = 0 ;
-	
-    fill:
+	byte buffer[]  = new byte[BUFFER_SIZE] ;
+	byte decoded[] = new byte[Base64Codec.maxDecodedLength(BUFFER_SIZE)] ;
+	// an incomplete group is carried to the next chunk in the state
+	int  state[]   = new int[Base64Codec.STATE_SIZE] ;
+	int  got       = -1 ;
 	while ((got = in.read(buffer)) > 0) {
-	    int skiped = 0 ;
-	    while ( skiped < got ) {
-		// Check for un-understood characters:
-		while ( ready < 4 ) {
-		    if ( skiped >= got )
-			continue fill ;
-		    int ch = check (buffer[skiped++]) ;
-		    if ( ch >= 0 )
-			chunk[ready++] = (byte) ch ;
-		}
-		if ( chunk[2] == 65 ) {
-		    out.write(get1(chunk, 0));
-		    return ;
-		} else if ( chunk[3] == 65 ) {
-		    out.write(get1(chunk, 0)) ;
-		    out.write(get2(chunk, 0)) ;
-		    return ;
-		} else {
-		    out.write(get1(chunk, 0)) ;
-		    out.write(get2(chunk, 0)) ;
-		    out.write(get3(chunk, 0)) ;
-		}
-		ready = 0 ;
-	    } 
+	    out.write(decoded, 0, Base64Codec.decode(buffer, 0, got, decoded, 0, state)) ;
+	    if ( state[Base64Codec.STATE_END] != 0 )
+		return ;
 	}
-	if ( ready != 0 )
+	if ( state[Base64Codec.STATE_COUNT] != 0 )
 	    throw new Base64FormatException ("Invalid length.") ;
 	out.flush() ;
     }
@@ -231,28 +178,11 @@ public class Base64Decoder {
      * @throws IllegalThreadStateException
      */
 	public static byte[] decodeBase64Bytes(String base64String, String charset) throws IllegalThreadStateException{
-		ByteArrayInputStream bais = null;
-		ByteArrayOutputStream baos = null;
-		
 		try{
-			//First, get the byte from string with charset.
-			if(charset!=null){
-				bais = new ByteArrayInputStream(base64String.getBytes(charset));
-			}else{
-				bais = new ByteArrayInputStream(base64String.getBytes(Base64Encoder.UTF8_CHARSET));
-			}
-			
-			//Then, decode the bytes to original bytes.
-			baos = new ByteArrayOutputStream();
-			Base64Decoder decoder = new Base64Decoder(bais, baos);
-			decoder.process();
-	
-			return baos.toByteArray();
+			//Get the byte from string with charset, then decode the bytes to original bytes.
+			return Base64Codec.decode(base64String.getBytes(charset!=null? charset: Base64Encoder.UTF8_CHARSET));
 		}catch(Throwable e){
 			throw new IllegalThreadStateException(e.getClass().getName()+":"+e.getMessage());
-		}finally{
-			if(bais!=null) try { bais.close(); } catch (IOException e) { }
-			if(baos!=null) try { baos.close(); } catch (IOException e) { }
 		}
 	}
     
@@ -29,52 +29,31 @@ import java.io.UnsupportedEncodingException;
  * @author w3c
  * @since
  * <br>May 17, 2013		(SBJLWA)	Add methods to encode bytes and object to a string.
+ * <br>Oct 19, 2026				Encode in chunks with the table driven {@link Base64Codec}.
  * 
  */
 
 public class Base64Encoder {
 	public static final String UTF8_CHARSET = "UTF-8";
 	
-    private static final int BUFFER_SIZE = 1024 ; 
-    private static byte encoding[] = 
-    {
-	(byte) 'A', (byte) 'B', (byte) 'C', (byte) 'D', 
-	(byte) 'E', (byte) 'F', (byte) 'G', (byte) 'H',		// 0-7
-	(byte) 'I', (byte) 'J', (byte) 'K', (byte) 'L', 
-	(byte) 'M', (byte) 'N', (byte) 'O', (byte) 'P',		// 8-15
-	(byte) 'Q', (byte) 'R', (byte) 'S', (byte) 'T', 
-	(byte) 'U', (byte) 'V', (byte) 'W', (byte) 'X', 	// 16-23
-	(byte) 'Y', (byte) 'Z', (byte) 'a', (byte) 'b', 
-	(byte) 'c', (byte) 'd', (byte) 'e', (byte) 'f',		// 24-31
-	(byte) 'g', (byte) 'h', (byte) 'i', (byte) 'j', 
-	(byte) 'k', (byte) 'l', (byte) 'm', (byte) 'n',		// 32-39
-	(byte) 'o', (byte) 'p', (byte) 'q', (byte) 'r', 
-	(byte) 's', (byte) 't', (byte) 'u', (byte) 'v',		// 40-47
-	(byte) 'w', (byte) 'x', (byte) 'y', (byte) 'z', 
-	(byte) '0', (byte) '1', (byte) '2', (byte) '3',		// 48-55
-	(byte) '4', (byte) '5', (byte) '6', (byte) '7', 
-	(byte) '8', (byte) '9', (byte) '+', (byte) '/',		// 56-63
-	(byte) '='						// 64
-    };
+    /** bytes read per chunk, whole lines so only the last chunk ends with a partial line. */
+    private static final int BUFFER_SIZE = Base64Codec.LINE_BYTES * 1024 ;
 
     InputStream  in  = null ;
     OutputStream out = null ;
     boolean      stringp = false ;
 
-    private final int get1(byte buf[], int off) {
-	return (buf[off] & 0xfc) >> 2 ;
-    }
-
-    private final int get2(byte buf[], int off) {
-	return ((buf[off]&0x3) << 4) | ((buf[off+1]&0xf0) >>> 4) ;
-    }
-
-    private final int get3(byte buf[], int off) {
-	return ((buf[off+1] & 0x0f) << 2) | ((buf[off+2] & 0xc0) >>> 6) ;
-    }
-
-    private static final int get4(byte buf[], int off) {
-	return buf[off+2] & 0x3f ;
+    /**
+     * Read until the buffer is full or the end of the input stream.
+     * @return the number of bytes read.
+     */
+    private int fill(byte buffer[]) throws IOException {
+	int got = 0 ;
+	int read ;
+	while (got < buffer.length
+	       && (read = in.read(buffer, got, buffer.length-got)) > 0)
+	    got += read ;
+	return got ;
     }
 
     /**
@@ -83,89 +62,24 @@ public class Base64Encoder {
      * stream.
      * @exception IOException If we weren't able to access the input stream or
      *    the output stream.
+     * @see Base64Codec#encode(byte[], int, int, byte[], int)
      */
 
     public void process () 
 	throws IOException
     {
-	byte buffer[] = new byte[BUFFER_SIZE] ;
-	int  got      = -1 ;
-	int  off      = 0 ;
-	int  count    = 0 ;
-	while ((got = in.read(buffer, off, BUFFER_SIZE-off)) > 0) {
-	    if ( (got+off) >= 3 ) {
-		got += off;
-		off  = 0;
-		while (off + 3 <= got) {
-		    int c1 = get1(buffer,off) ;
-		    int c2 = get2(buffer,off) ;
-		    int c3 = get3(buffer,off) ;
-		    int c4 = get4(buffer,off) ;
-		    switch (count) {
-		      case 73:
-			  out.write(encoding[c1]);
-			  out.write(encoding[c2]);
-			  out.write(encoding[c3]);
-			  out.write ('\n') ;
-			  out.write(encoding[c4]) ;
-			  count = 1 ;
-			  break ;
-		      case 74:
-			  out.write(encoding[c1]);
-			  out.write(encoding[c2]);
-			  out.write ('\n') ;
-			  out.write(encoding[c3]);
-			  out.write(encoding[c4]) ;
-			  count = 2 ;
-			  break ;
-		      case 75:
-			  out.write(encoding[c1]);
-			  out.write ('\n') ;
-			  out.write(encoding[c2]);
-			  out.write(encoding[c3]);
-			  out.write(encoding[c4]) ;
-			  count = 3 ;
-			  break ;
-		      case 76:
-			  out.write('\n') ;
-			  out.write(encoding[c1]);
-			  out.write(encoding[c2]);
-			  out.write(encoding[c3]);
-			  out.write(encoding[c4]) ;
-			  count = 4 ;
-			  break ;
-		      default:
-			  out.write(encoding[c1]);
-			  out.write(encoding[c2]);
-			  out.write(encoding[c3]);
-			  out.write(encoding[c4]) ;
-			  count += 4 ;
-			  break ;
-		    }
-		    off += 3 ;
-		}
-		// Copy remaining bytes to beginning of buffer:
-		for ( int i = 0 ; i < 3 ;i++) 
-		    buffer[i] = (i < got-off) ? buffer[off+i] : ((byte) 0) ;
-		off = got-off ;
-	    } else {
-		// Total read amount is less then 3 bytes:
-		off += got;
-	    }
-	}
-	// Manage the last bytes, from 0 to off:
-	switch (off) {
-	  case 1:
-	      out.write(encoding[get1(buffer, 0)]) ;
-	      out.write(encoding[get2(buffer, 0)]) ;
-	      out.write('=') ;
-	      out.write('=') ;
-	      break ;
-	  case 2:
-	      out.write(encoding[get1(buffer, 0)]);
-	      out.write(encoding[get2(buffer, 0)]);
-	      out.write(encoding[get3(buffer, 0)]);
-	      out.write('=');
+	byte buffer[]  = new byte[BUFFER_SIZE] ;
+	byte encoded[] = new byte[Base64Codec.encodedLength(BUFFER_SIZE)] ;
+	boolean first  = true ;
+	int  got       = -1 ;
+	while ((got = fill(buffer)) > 0) {
+	    // a chunk ends with a full line, the padded last group stays on it
+	    if ( !first && got >= 3 )
+		out.write('\n') ;
+	    out.write(encoded, 0, Base64Codec.encode(buffer, 0, got, encoded, 0)) ;
+	    first = false ;
+	    if ( got < BUFFER_SIZE )
+		break ;
 	}
 	return ;
     }
@@ -240,27 +154,12 @@ public class Base64Encoder {
 	 * @throws IllegalThreadStateException
 	 */
 	public static String encodeBase64Bytes(byte[] bytes, String charset) throws IllegalThreadStateException{
-		ByteArrayOutputStream encodedBaos = null;
-		ByteArrayInputStream bais = null;
-		
 		try {
-			//First, encode the raw bytes by Base64
-			bais = new ByteArrayInputStream(bytes);
-			encodedBaos = new ByteArrayOutputStream();
-			Base64Encoder encoder = new Base64Encoder(bais, encodedBaos);
-			encoder.process();
-			
-			//Then, translate the encoded bytes to String with charset
-			if(charset!=null){
-				return encodedBaos.toString(charset);
-			}else{
-				return encodedBaos.toString(UTF8_CHARSET);
-			}
+			//Encode the raw bytes by Base64, then translate the encoded bytes to String with charset
+			byte[] encoded = Base64Codec.encode(bytes);
+			return new String(encoded, charset!=null? charset: UTF8_CHARSET);
 		} catch (Throwable e) {
 			throw new IllegalThreadStateException(e.getClass().getName()+":"+e.getMessage());
-		}finally{
-			if(encodedBaos!=null) try{ encodedBaos.close();}catch(Exception e){}
-			if(bais!=null) try{ bais.close();}catch(Exception e){}
 		}
 	}
 	/**
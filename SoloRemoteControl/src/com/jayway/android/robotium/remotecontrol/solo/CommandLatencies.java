@@ -0,0 +1,131 @@
+/**
+ ** Copyright (C) SAS Institute, All rights reserved.
+ ** General Public License: http://www.opensource.org/licenses/gpl-license.php
+ **/
+package com.jayway.android.robotium.remotecontrol.solo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Latency histograms of the remote commands, by command name and phase.
+ * <p>
+ * A props command goes through 3 phases: waiting for the remote client to be Ready,
+ * sending the command until the client signals Running, and waiting for the Result.
+ * Every phase and the round trip, {@link #PHASE_TOTAL}, has a {@link LatencyHistogram}.
+ * <p>
+ * The class is thread safe.
+ *
+ * @see SoloRemoteControl#performRemotePropsCommand(java.util.Properties, int, int, int)
+ */
+public class CommandLatencies {
+
+	/** waiting for the remote client to be Ready for the command. */
+	public static final int PHASE_READY = 0;
+	/** sending the command until the remote client is Running it. */
+	public static final int PHASE_RUNNING = 1;
+	/** waiting for the Result after the remote client is Running. */
+	public static final int PHASE_RESULT = 2;
+	/** from sending the command to the Result, the round trip. */
+	public static final int PHASE_TOTAL = 3;
+
+	/** names of the phases, by phase index. */
+	public static final String[] PHASE_NAMES = {"ready", "running", "result", "total"};
+
+	private final Map<String, LatencyHistogram[]> commands = new HashMap<String, LatencyHistogram[]>();
+
+	/**
+	 * Record the phases of a command. A failed or timed out command holds the time spent
+	 * until the failure in the phase it failed in, and zero in the later phases.
+	 * @param command name of the command, like "clickOnText".
+	 * @param ready milliseconds waiting for Ready.
+	 * @param running milliseconds from sending the command to Running.
+	 * @param result milliseconds from Running to the Result.
+	 */
+	public synchronized void record(String command, long ready, long running, long result){
+		LatencyHistogram[] phases = getPhases(command);
+		phases[PHASE_READY].record(ready);
+		phases[PHASE_RUNNING].record(running);
+		phases[PHASE_RESULT].record(result);
+		phases[PHASE_TOTAL].record(running + result);
+	}
+
+	/**
+	 * Add every latency recorded by another instance, for example to aggregate the
+	 * commands of a whole run.
+	 * @param other the latencies to add.
+	 */
+	public void add(CommandLatencies other){
+		if(other == this) return;
+		Map<String, LatencyHistogram[]> copy = other.copy();
+		synchronized(this){
+			for(Map.Entry<String, LatencyHistogram[]> entry: copy.entrySet()){
+				LatencyHistogram[] phases = getPhases(entry.getKey());
+				for(int i=0; i<phases.length; i++) phases[i].add(entry.getValue()[i]);
+			}
+		}
+	}
+
+	/**
+	 * @return the names of the recorded commands, sorted.
+	 */
+	public synchronized List<String> getCommands(){
+		List<String> names = new ArrayList<String>(commands.keySet());
+		Collections.sort(names);
+		return names;
+	}
+
+	/**
+	 * @param command name of the command.
+	 * @param phase one of {@link #PHASE_READY}, {@link #PHASE_RUNNING}, {@link #PHASE_RESULT}
+	 * or {@link #PHASE_TOTAL}.
+	 * @return a copy of the histogram of the phase, empty if the command was not recorded.
+	 */
+	public synchronized LatencyHistogram getHistogram(String command, int phase){
+		LatencyHistogram histogram = new LatencyHistogram();
+		LatencyHistogram[] phases = commands.get(command);
+		if(phases != null) histogram.add(phases[phase]);
+		return histogram;
+	}
+
+	/**
+	 * @return true if no command was recorded.
+	 */
+	public synchronized boolean isEmpty(){
+		return commands.isEmpty();
+	}
+
+	/**
+	 * Forget every recorded command.
+	 */
+	public synchronized void reset(){
+		commands.clear();
+	}
+
+	private LatencyHistogram[] getPhases(String command){
+		if(command == null) command = "unknown";
+		LatencyHistogram[] phases = commands.get(command);
+		if(phases == null){
+			phases = new LatencyHistogram[PHASE_NAMES.length];
+			for(int i=0; i<phases.length; i++) phases[i] = new LatencyHistogram();
+			commands.put(command, phases);
+		}
+		return phases;
+	}
+
+	private synchronized Map<String, LatencyHistogram[]> copy(){
+		Map<String, LatencyHistogram[]> copy = new HashMap<String, LatencyHistogram[]>();
+		for(Map.Entry<String, LatencyHistogram[]> entry: commands.entrySet()){
+			LatencyHistogram[] phases = new LatencyHistogram[PHASE_NAMES.length];
+			for(int i=0; i<phases.length; i++){
+				phases[i] = new LatencyHistogram();
+				phases[i].add(entry.getValue()[i]);
+			}
+			copy.put(entry.getKey(), phases);
+		}
+		return copy;
+	}
+}
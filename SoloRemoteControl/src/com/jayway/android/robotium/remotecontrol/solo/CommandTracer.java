@@ -0,0 +1,25 @@
+/**
+ ** Copyright (C) SAS Institute, All rights reserved.
+ ** General Public License: http://www.opensource.org/licenses/gpl-license.php
+ **/
+package com.jayway.android.robotium.remotecontrol.solo;
+
+/**
+ * Receives the time span of every props command performed by any {@link SoloRemoteControl},
+ * for example to draw the commands of a run on a timeline.
+ * <p>
+ * It is called on the thread performing the command, right after the command completed or
+ * failed, so an implementation must be thread safe and must return quickly.
+ *
+ * @see SoloRemoteControl#setCommandTracer(CommandTracer)
+ */
+public interface CommandTracer {
+
+	/**
+	 * @param deviceSerial serial number of the device of the command, null for the shared default.
+	 * @param command name of the command, like "clickOnText".
+	 * @param startNanos {@link System#nanoTime()} before waiting for the remote client to be Ready.
+	 * @param endNanos {@link System#nanoTime()} after the Result, the failure or the timeout.
+	 */
+	void commandPerformed(String deviceSerial, String command, long startNanos, long endNanos);
+}
@@ -0,0 +1,113 @@
+/**
+ ** Copyright (C) SAS Institute, All rights reserved.
+ ** General Public License: http://www.opensource.org/licenses/gpl-license.php
+ **/
+package com.jayway.android.robotium.remotecontrol.solo;
+
+/**
+ * Histogram of latencies in milliseconds with a fixed memory footprint.
+ * <p>
+ * Latencies below {@link #LINEAR_LIMIT} ms are counted exactly, larger latencies in
+ * logarithmic buckets of {@link #SUB_BUCKETS} buckets per power of two, so a percentile
+ * is at most about 3% larger than the measured latency.  The count, total and maximum
+ * are exact.  Recording is a few shifts and an array increment, no allocation.
+ * <p>
+ * The class is not thread safe, callers synchronize.
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 5;
+
+	/** buckets per power of two above {@link #LINEAR_LIMIT}. */
+	public static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	/** latencies below this are counted in a bucket of their own. */
+	public static final int LINEAR_LIMIT = 2 * SUB_BUCKETS;
+
+	/** larger latencies are counted as this many milliseconds. */
+	public static final long MAX_LATENCY = Integer.MAX_VALUE;
+
+	private static final int BUCKETS = bucket(MAX_LATENCY) + 1;
+
+	private final long[] counts = new long[BUCKETS];
+	private long count = 0;
+	private long total = 0;
+	private long max = 0;
+
+	/**
+	 * @param millis latency in milliseconds, negative values are counted as 0.
+	 */
+	public void record(long millis){
+		if(millis < 0) millis = 0;
+		if(millis > MAX_LATENCY) millis = MAX_LATENCY;
+		counts[bucket(millis)]++;
+		count++;
+		total += millis;
+		if(millis > max) max = millis;
+	}
+
+	/**
+	 * Add every latency recorded by another histogram.
+	 * @param other the histogram to add.
+	 */
+	public void add(LatencyHistogram other){
+		for(int i=0; i<BUCKETS; i++) counts[i] += other.counts[i];
+		count += other.count;
+		total += other.total;
+		if(other.max > max) max = other.max;
+	}
+
+	/** @return the number of recorded latencies. */
+	public long getCount(){
+		return count;
+	}
+
+	/** @return the sum of the recorded latencies in milliseconds. */
+	public long getTotal(){
+		return total;
+	}
+
+	/** @return the largest recorded latency in milliseconds, 0 if nothing was recorded. */
+	public long getMax(){
+		return max;
+	}
+
+	/**
+	 * @param percent 0-100.
+	 * @return the latency in milliseconds not exceeded by the given percent of the
+	 * recorded latencies, 0 if nothing was recorded.
+	 */
+	public long getPercentile(int percent){
+		if(count == 0) return 0;
+		long rank = (count * percent + 99) / 100;
+		if(rank < 1) rank = 1;
+		long seen = 0;
+		for(int i=0; i<BUCKETS; i++){
+			seen += counts[i];
+			if(seen >= rank) return Math.min(highestValue(i), max);
+		}
+		return max;
+	}
+
+	/**
+	 * @return "n=3 p50=12ms p95=40ms max=41ms"
+	 */
+	public String toString(){
+		return "n="+ count +" p50="+ getPercentile(50) +"ms p95="+ getPercentile(95) +
+		       "ms max="+ max +"ms";
+	}
+
+	private static int bucket(long millis){
+		if(millis < LINEAR_LIMIT) return (int) millis;
+		// millis >> shift is between SUB_BUCKETS and LINEAR_LIMIT - 1
+		int shift = 63 - Long.numberOfLeadingZeros(millis) - SUB_BUCKET_BITS;
+		return SUB_BUCKETS * shift + (int) (millis >> shift);
+	}
+
+	private static long highestValue(int bucket){
+		if(bucket < LINEAR_LIMIT) return bucket;
+		int shift = bucket / SUB_BUCKETS - 1;
+		long lowest = (long) (bucket - SUB_BUCKETS * shift) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+}
@@ -0,0 +1,430 @@
+/**
+ ** Copyright (C) SAS Institute, All rights reserved.
+ ** General Public License: http://www.opensource.org/licenses/gpl-license.php
+ **/
+package com.jayway.android.robotium.remotecontrol.solo;
+
+import java.io.CharArrayReader;
+import java.io.CharArrayWriter;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.safs.sockets.AbstractProtocolRunner;
+import org.safs.sockets.AvailablePortFinder;
+import org.safs.sockets.SocketProtocol;
+
+/**
+ * In-JVM stand-in for a device running the TCP Messenger Service and the Robotium Test Runner.
+ * <p>
+ * The simulator is the remote client side of the {@link SocketProtocol}: it listens on a local
+ * port, answers the protocol handshake, heartbeats and the Ready/Running/Result sequence of every
+ * dispatched Solo command like MessengerService and SoloProcessor do on a device. Commands are
+ * answered from a scripted {@link SimulatedViewTree}. Latency and failures can be injected.
+ * <p>
+ * A {@link SoloRemoteControl} connects to a simulator without port forwarding:
+ * <p><pre>
+ * SimulatedDevice device = new SimulatedDevice("sim-1", SimulatedViewTree.createDefault());
+ * device.setLatency(20, 80);
+ * device.start();
+ * Solo solo = new Solo();
+ * solo.setPortForwarding(false);
+ * solo.setRemotePort(device.getPort());
+ * solo.initialize();
+ * </pre>
+ * Results are sent from a small shared scheduler instead of a sleeping thread per command, so a
+ * single JVM can simulate a hundred devices.
+ *
+ * @see SimulatedViewTree
+ */
+public class SimulatedDevice extends AbstractProtocolRunner{
+
+	/** first port tried for simulated devices, above the range used by real devices. */
+	public static final int FIRST_SIMULATOR_PORT = 32410;
+
+	/** "simulated failure" -- result info of an injected failure. */
+	public static final String INFO_SIMULATED_FAILURE = "simulated failure";
+
+	/** next port to try, so simulators created before any of them listens get different ports. */
+	private static int nextPort = FIRST_SIMULATOR_PORT;
+
+	/** Sends the delayed results of every simulated device. */
+	private static ScheduledExecutorService scheduler = null;
+
+	/** command fragment to view class fragment, most specific first. */
+	private static final String[][] CLASS_FILTERS = new String[][]{
+		{"imagebutton", "ImageButton"},
+		{"togglebutton", "ToggleButton"},
+		{"radiobutton", "RadioButton"},
+		{"checkbox", "CheckBox"},
+		{"edittext", "EditText"},
+		{"button", "Button"},
+		{"imageview", "ImageView"},
+		{"image", "Image"},
+		{"textview", "TextView"},
+	};
+
+	private final String serial;
+	private final SimulatedViewTree tree;
+	private final Random random = new Random();
+	private Thread thread = null;
+
+	private int minLatency = 0;
+	private int maxLatency = 0;
+	private double failureRate = 0;
+	private double hangRate = 0;
+	private double disconnectRate = 0;
+
+	private final AtomicInteger commandCount = new AtomicInteger();
+	private final AtomicInteger connectionCount = new AtomicInteger();
+
+	/**
+	 * @param serial the serial number reported by the simulated device.
+	 * @param tree the scripted views answering the Solo commands.
+	 */
+	public SimulatedDevice(String serial, SimulatedViewTree tree){
+		super();
+		this.serial = serial;
+		this.tree = tree;
+		setListenerName("SimulatedDevice "+ serial);
+		protocolserver.setLocalMode(false);
+		protocolserver.setRemotePort(nextAvailablePort());
+		_debugEnabled = false;
+		protocolserver._debugEnabled = false;
+	}
+
+	private static synchronized int nextAvailablePort(){
+		int port = AvailablePortFinder.getNextAvailable(nextPort);
+		nextPort = port + 1;
+		return port;
+	}
+
+	private static synchronized ScheduledExecutorService getScheduler(){
+		if(scheduler == null){
+			int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+			scheduler = Executors.newScheduledThreadPool(threads, new ThreadFactory(){
+				public Thread newThread(Runnable r){
+					Thread t = new Thread(r, "SimulatedDeviceResults");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return scheduler;
+	}
+
+	/** @return the serial number reported by the simulated device. */
+	public String getSerialNumber(){
+		return serial;
+	}
+
+	/** @return the local port the simulated device accepts the controller connection on. */
+	public int getPort(){
+		return protocolserver.getRemotePort();
+	}
+
+	/** @return the scripted views of the simulated device. */
+	public SimulatedViewTree getViewTree(){
+		return tree;
+	}
+
+	/**
+	 * Delay every result by a random time between min and max milliseconds.
+	 * @param minMs
+	 * @param maxMs
+	 */
+	public void setLatency(int minMs, int maxMs){
+		minLatency = Math.max(0, minMs);
+		maxLatency = Math.max(minLatency, maxMs);
+	}
+
+	/**
+	 * @param rate 0.0-1.0 probability of a command failing with {@link Message#STATUS_REMOTERESULT_FAIL}.
+	 */
+	public void setFailureRate(double rate){
+		failureRate = rate;
+	}
+
+	/**
+	 * @param rate 0.0-1.0 probability of a command sending Running but never a result,
+	 * as a hanging application would.
+	 */
+	public void setHangRate(double rate){
+		hangRate = rate;
+	}
+
+	/**
+	 * @param rate 0.0-1.0 probability of a command dropping the connection,
+	 * as a crashing test runner would.
+	 */
+	public void setDisconnectRate(double rate){
+		disconnectRate = rate;
+	}
+
+	/** @return the number of commands received. */
+	public int getCommandCount(){
+		return commandCount.get();
+	}
+
+	/** @return the number of controller connections accepted. */
+	public int getConnectionCount(){
+		return connectionCount.get();
+	}
+
+	/**
+	 * Start listening for controller connections in a daemon thread.
+	 */
+	public synchronized void start(){
+		if(thread != null) return;
+		thread = new Thread(this, getListenerName());
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stop the simulated device. The thread closes the connection and releases the port.
+	 */
+	public synchronized void stop(){
+		shutdownThread();
+		thread = null;
+	}
+
+	/**
+	 * A controller connected: the test runner is ready, as after MessengerService has
+	 * notified the engine of the connection.
+	 */
+	@Override
+	public void onReceiveConnection(){
+		connectionCount.incrementAndGet();
+		send(Message.msg_ready);
+	}
+
+	@Override
+	public void processProtocolMessage(String message){
+		int sepindex = message.indexOf(Message.msg_sep);
+		String prefix = sepindex < 1 ? message : message.substring(0, sepindex);
+		if(prefix.equalsIgnoreCase(Message.msg_dispatchprops)){
+			Properties props = new Properties();
+			try{ props.load(new CharArrayReader(message.substring(sepindex + 1).toCharArray()));}
+			catch(Exception x){
+				debug(getListenerName()+" received improper dispatch Properties: "+ x.getMessage());
+				return;
+			}
+			dispatch(props);
+		}else
+		if(prefix.equalsIgnoreCase(Message.msg_remoteshutdown) ||
+		   prefix.equalsIgnoreCase(Message.msg_shutdown)){
+			send(Message.msg_running);
+			send(Message.msg_remoteshutdown);
+			// the service is gone, the next test connects to a new one
+			protocolserver.disconnect();
+		}else
+		if(prefix.equalsIgnoreCase(Message.msg_message) ||
+		   prefix.equalsIgnoreCase(Message.msg_dispatchfile)){
+			commandCount.incrementAndGet();
+			send(Message.msg_running);
+			sendResult(Message.STATUS_REMOTERESULT_OK, "Received custom message "+ message);
+			send(Message.msg_ready);
+		}else{
+			debug(getListenerName()+" ignored message: "+ message);
+		}
+	}
+
+	/**
+	 * Answer a dispatched command: Running at once, the result and Ready after the latency.
+	 */
+	private void dispatch(final Properties props){
+		commandCount.incrementAndGet();
+		send(Message.msg_running);
+		double dice = random.nextDouble();
+		if(dice < disconnectRate){
+			protocolserver.disconnect();
+			return;
+		}
+		if(dice < disconnectRate + hangRate) return;
+		final boolean fail = dice < disconnectRate + hangRate + failureRate;
+		int latency = minLatency + (maxLatency > minLatency ? random.nextInt(maxLatency - minLatency + 1) : 0);
+		final int connection = connectionCount.get();
+		Runnable answer = new Runnable(){
+			public void run(){
+				// the controller of the command is gone
+				if(connection != connectionCount.get()) return;
+				if(fail){
+					props.setProperty(Message.KEY_ISREMOTERESULT, Boolean.toString(true));
+					props.setProperty(Message.KEY_REMOTERESULTCODE, Message.STATUS_REMOTERESULT_FAIL_STRING);
+					props.setProperty(Message.KEY_REMOTERESULTINFO, INFO_SIMULATED_FAILURE);
+				}else{
+					processCommand(props);
+				}
+				sendResultProperties(props);
+				send(Message.msg_ready);
+			}
+		};
+		if(latency > 0) getScheduler().schedule(answer, latency, TimeUnit.MILLISECONDS);
+		else answer.run();
+	}
+
+	/**
+	 * Execute the command against the view tree, storing the result in the props like SoloProcessor.
+	 * @param props the dispatched command, receives the result.
+	 */
+	protected void processCommand(Properties props){
+		String command = props.getProperty(Message.KEY_COMMAND, "").toLowerCase();
+		String classFilter = getClassFilter(command);
+		props.setProperty(Message.KEY_ISREMOTERESULT, Boolean.toString(true));
+		SimulatedViewTree.View view = findView(props, classFilter);
+
+		if(command.equals(Message.cmd_startmainlauncher)){
+			tree.startMainLauncher();
+			setResult(props, Message.STATUS_REMOTERESULT_OK, tree.getCurrentActivityUID());
+		}else
+		if(command.equals(Message.cmd_finishopenedactivities)){
+			tree.finishOpenedActivities();
+			setResult(props, Message.STATUS_REMOTERESULT_OK, "");
+		}else
+		if(command.equals(Message.cmd_goback)){
+			tree.goBack();
+			setResult(props, Message.STATUS_REMOTERESULT_OK, "");
+		}else
+		if(command.equals(Message.cmd_getcurrentactivity)){
+			String uid = tree.getCurrentActivityUID();
+			if(uid == null) setResult(props, Message.STATUS_REMOTERESULT_FAIL, "no activity is running");
+			else setResult(props, Message.STATUS_REMOTERESULT_OK, uid);
+		}else
+		if(command.indexOf("activity") > -1){
+			// waitForActivity, assertCurrentActivity...
+			String name = props.getProperty(Message.PARAM_NAME, props.getProperty(Message.PARAM_CLASS, ""));
+			String current = tree.getCurrentActivity();
+			boolean match = current != null && (name.length() == 0 || name.endsWith(current));
+			setResult(props, Message.STATUS_REMOTERESULT_OK, String.valueOf(match));
+		}else
+		if(command.startsWith("waitfor") || command.startsWith("search")){
+			boolean found = view != null || command.indexOf("close") > -1;
+			setResult(props, Message.STATUS_REMOTERESULT_OK, String.valueOf(found));
+		}else
+		if(command.equals(Message.cmd_getcurrentviews) || command.startsWith("getcurrent")){
+			StringBuffer uids = new StringBuffer();
+			List<SimulatedViewTree.View> views = tree.getCurrentViews(classFilter);
+			for(SimulatedViewTree.View v: views) uids.append(';').append(v.uid);
+			setResult(props, Message.STATUS_REMOTERESULT_OK, uids.toString());
+		}else
+		if(view == null && hasSelector(props)){
+			setResult(props, Message.STATUS_REMOTERESULT_FAIL, "no matching view in "+ tree.getCurrentActivity());
+		}else
+		if(command.startsWith("is")){
+			setResult(props, view == null ? Message.STATUS_REMOTERESULT_FAIL : Message.STATUS_REMOTERESULT_OK,
+			          String.valueOf(view != null && view.checked));
+		}else
+		if(command.equals(Message.cmd_getviewlocation)){
+			if(view == null) setResult(props, Message.STATUS_REMOTERESULT_FAIL, "no matching view");
+			else{
+				int[] loc = tree.getLocation(view);
+				setResult(props, Message.STATUS_REMOTERESULT_OK, ";"+ loc[0] +";"+ loc[1] +";"+ loc[2] +";"+ loc[3]);
+			}
+		}else
+		if(command.equals(Message.cmd_gettextviewvalue)){
+			if(view == null) setResult(props, Message.STATUS_REMOTERESULT_FAIL, "no matching view");
+			else setResult(props, Message.STATUS_REMOTERESULT_OK, view.text);
+		}else
+		if(command.startsWith("get")){
+			if(view == null) setResult(props, Message.STATUS_REMOTERESULT_FAIL, "no matching view");
+			else setResult(props, Message.STATUS_REMOTERESULT_OK, view.uid);
+		}else
+		if(command.startsWith("click") && view != null){
+			tree.click(view);
+			setResult(props, Message.STATUS_REMOTERESULT_OK, "");
+		}else
+		if((command.startsWith("enter") || command.startsWith("type")) && view != null){
+			tree.setText(view, props.getProperty(Message.PARAM_TEXT));
+			setResult(props, Message.STATUS_REMOTERESULT_OK, "");
+		}else
+		if(command.startsWith("clear") && view != null){
+			tree.setText(view, "");
+			setResult(props, Message.STATUS_REMOTERESULT_OK, "");
+		}else{
+			// gestures, keys, sleeps, screenshots... have no effect on the simulated views
+			setResult(props, Message.STATUS_REMOTERESULT_OK, "");
+		}
+	}
+
+	private static boolean hasSelector(Properties props){
+		return props.containsKey(Message.PARAM_REFERENCE) || props.containsKey(Message.PARAM_ID) ||
+		       props.containsKey(Message.PARAM_TEXT) || props.containsKey(Message.PARAM_INDEX);
+	}
+
+	/**
+	 * @return the view selected by the reference, id, text or index parameter of the command, or null.
+	 */
+	private SimulatedViewTree.View findView(Properties props, String classFilter){
+		String value = props.getProperty(Message.PARAM_REFERENCE);
+		if(value != null) return tree.findByUID(value);
+		try{
+			value = props.getProperty(Message.PARAM_ID);
+			if(value != null) return tree.findById(Integer.parseInt(value));
+			value = props.getProperty(Message.PARAM_TEXT);
+			if(value != null) return tree.findByText(value, classFilter);
+			value = props.getProperty(Message.PARAM_INDEX);
+			if(value != null) return tree.findByIndex(Integer.parseInt(value), classFilter);
+		}catch(NumberFormatException x){}
+		return null;
+	}
+
+	/**
+	 * @return the part of the view class names the command applies to, or null for every view.
+	 */
+	private static String getClassFilter(String command){
+		for(int i=0; i<CLASS_FILTERS.length; i++){
+			if(command.indexOf(CLASS_FILTERS[i][0]) > -1) return CLASS_FILTERS[i][1];
+		}
+		return null;
+	}
+
+	private static void setResult(Properties props, int code, String info){
+		props.setProperty(Message.KEY_REMOTERESULTCODE, String.valueOf(code));
+		props.setProperty(Message.KEY_REMOTERESULTINFO, info == null ? "" : info);
+	}
+
+	private void sendResult(int code, String info){
+		send(Message.msg_result + Message.msg_sep + code + Message.msg_sep + info);
+	}
+
+	private void sendResultProperties(Properties props){
+		try{
+			CharArrayWriter chars = new CharArrayWriter();
+			props.store(chars, "ResultProperties");
+			send(Message.msg_resultprops + Message.msg_sep + chars.toString());
+		}catch(Exception x){
+			debug(getListenerName()+" failed to store result Properties: "+ x.getMessage());
+		}
+	}
+
+	private void send(String message){
+		try{ sendProtocolMessage(message);}
+		catch(Exception x){
+			debug(getListenerName()+" is not connected, dropped: "+ message);
+		}
+	}
+
+	/** The simulated device does not command its controller. */
+	@Override
+	public boolean sendShutdown(){
+		return false;
+	}
+
+	/** The simulated device does not command its controller. */
+	@Override
+	public boolean sendDispatchProps(Properties trd){
+		return false;
+	}
+
+	/** The simulated device does not command its controller. */
+	@Override
+	public boolean sendDispatchFile(String filepath){
+		return false;
+	}
+}
@@ -0,0 +1,256 @@
+/**
+ ** Copyright (C) SAS Institute, All rights reserved.
+ ** General Public License: http://www.opensource.org/licenses/gpl-license.php
+ **/
+package com.jayway.android.robotium.remotecontrol.solo;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Scripted view hierarchy of a {@link SimulatedDevice}.
+ * <p>
+ * The script is a Properties object listing the activities and their views:
+ * <p><pre>
+ * main=MainActivity
+ * view.1.activity=MainActivity
+ * view.1.class=android.widget.Button
+ * view.1.text=Next
+ * view.1.id=2131034112
+ * view.1.target=SecondActivity
+ * view.2.activity=MainActivity
+ * view.2.class=android.widget.CheckBox
+ * view.2.checked=true
+ * </pre>
+ * Clicking a view having a target starts the target activity. goBack finishes the current one.
+ * Views are numbered from 1, the numbering ends at the first missing number.
+ * <p>
+ * All methods are synchronized, a tree is used by the device thread and its result threads.
+ *
+ * @see SimulatedDevice
+ */
+public class SimulatedViewTree {
+
+	/** "main" -- script key of the activity started by the main launcher. */
+	public static final String SCRIPT_MAIN = "main";
+	/** "view." -- script key prefix of the views. */
+	public static final String SCRIPT_VIEW = "view.";
+
+	/** UID prefix of the activities. */
+	public static final String ACTIVITY_UID_PREFIX = "simactivity:";
+	/** UID prefix of the views. */
+	public static final String VIEW_UID_PREFIX = "simview:";
+
+	/** height in pixels of each simulated view, views are stacked vertically. */
+	public static final int VIEW_HEIGHT = 80;
+	/** width in pixels of each simulated view. */
+	public static final int VIEW_WIDTH = 480;
+
+	/**
+	 * A simulated view.
+	 */
+	public static class View {
+		public final String uid;
+		public final String activity;
+		public final String className;
+		public final int id;
+		/** activity started when the view is clicked, or null. */
+		public final String target;
+		public String text;
+		public boolean checked;
+		/** position of the view in its activity. */
+		int position;
+
+		View(String uid, String activity, String className, int id, String text, String target, boolean checked){
+			this.uid = uid;
+			this.activity = activity;
+			this.className = className;
+			this.id = id;
+			this.text = text;
+			this.target = target;
+			this.checked = checked;
+		}
+
+		/** @return the simple class name, like "Button". */
+		public String getSimpleClassName(){
+			return className.substring(className.lastIndexOf('.')+1);
+		}
+	}
+
+	private final String mainActivity;
+	private final Map<String, List<View>> activities = new LinkedHashMap<String, List<View>>();
+	private final Map<String, View> viewsByUid = new LinkedHashMap<String, View>();
+	private final LinkedList<String> activityStack = new LinkedList<String>();
+
+	/**
+	 * @param script the activities and views, see the class description.
+	 */
+	public SimulatedViewTree(Properties script){
+		mainActivity = script.getProperty(SCRIPT_MAIN, "MainActivity");
+		activities.put(mainActivity, new ArrayList<View>());
+		for(int i=1; script.getProperty(SCRIPT_VIEW+ i +".class") != null; i++){
+			String prefix = SCRIPT_VIEW+ i +".";
+			String activity = script.getProperty(prefix+"activity", mainActivity);
+			int id = -1;
+			try{ id = Integer.parseInt(script.getProperty(prefix+"id", "-1"));}
+			catch(NumberFormatException x){}
+			View view = new View(VIEW_UID_PREFIX + i, activity,
+			                     script.getProperty(prefix+"class"), id,
+			                     script.getProperty(prefix+"text", ""),
+			                     script.getProperty(prefix+"target"),
+			                     Boolean.parseBoolean(script.getProperty(prefix+"checked")));
+			List<View> views = activities.get(activity);
+			if(views == null){
+				views = new ArrayList<View>();
+				activities.put(activity, views);
+			}
+			view.position = views.size();
+			views.add(view);
+			viewsByUid.put(view.uid, view);
+		}
+	}
+
+	/**
+	 * @return a small two activity application: MainActivity with a TextView, an EditText,
+	 * a CheckBox and a Button starting SecondActivity with a TextView.
+	 */
+	public static SimulatedViewTree createDefault(){
+		Properties script = new Properties();
+		script.setProperty(SCRIPT_MAIN, "MainActivity");
+		addView(script, 1, "MainActivity", "android.widget.TextView", "Hello Robin", null);
+		addView(script, 2, "MainActivity", "android.widget.EditText", "", null);
+		addView(script, 3, "MainActivity", "android.widget.CheckBox", "Remember me", null);
+		addView(script, 4, "MainActivity", "android.widget.Button", "Next", "SecondActivity");
+		addView(script, 5, "SecondActivity", "android.widget.TextView", "Done", null);
+		return new SimulatedViewTree(script);
+	}
+
+	private static void addView(Properties script, int index, String activity, String className, String text, String target){
+		String prefix = SCRIPT_VIEW+ index +".";
+		script.setProperty(prefix+"activity", activity);
+		script.setProperty(prefix+"class", className);
+		script.setProperty(prefix+"text", text);
+		script.setProperty(prefix+"id", String.valueOf(index));
+		if(target != null) script.setProperty(prefix+"target", target);
+	}
+
+	/** Finish every activity and start the main activity. */
+	public synchronized void startMainLauncher(){
+		activityStack.clear();
+		activityStack.addLast(mainActivity);
+	}
+
+	/** Finish every activity. */
+	public synchronized void finishOpenedActivities(){
+		activityStack.clear();
+	}
+
+	/**
+	 * Finish the current activity.
+	 * @return false if no activity was running. */
+	public synchronized boolean goBack(){
+		if(activityStack.isEmpty()) return false;
+		activityStack.removeLast();
+		return true;
+	}
+
+	/** @return the name of the current activity, or null if none is running. */
+	public synchronized String getCurrentActivity(){
+		return activityStack.isEmpty() ? null : activityStack.getLast();
+	}
+
+	/** @return the UID of the current activity, or null if none is running. */
+	public synchronized String getCurrentActivityUID(){
+		String activity = getCurrentActivity();
+		return activity == null ? null : ACTIVITY_UID_PREFIX + activity;
+	}
+
+	/**
+	 * @param classFilter part of the simple class name like "Button", null for all views.
+	 * @return the views of the current activity with a matching class.
+	 */
+	public synchronized List<View> getCurrentViews(String classFilter){
+		List<View> result = new ArrayList<View>();
+		String activity = getCurrentActivity();
+		if(activity == null || !activities.containsKey(activity)) return result;
+		for(View view: activities.get(activity)){
+			if(classFilter == null || view.getSimpleClassName().indexOf(classFilter) > -1) result.add(view);
+		}
+		return result;
+	}
+
+	/**
+	 * @param uid
+	 * @return the view with the UID if it is in the current activity, or null.
+	 */
+	public synchronized View findByUID(String uid){
+		View view = viewsByUid.get(uid);
+		return view != null && view.activity.equals(getCurrentActivity()) ? view : null;
+	}
+
+	/**
+	 * @param id
+	 * @return the view of the current activity with the resource id, or null.
+	 */
+	public synchronized View findById(int id){
+		for(View view: getCurrentViews(null)){
+			if(view.id == id) return view;
+		}
+		return null;
+	}
+
+	/**
+	 * @param text regular expression, or text contained in the view text, like Robotium searches.
+	 * @param classFilter part of the simple class name like "Button", null for all views.
+	 * @return the first matching view of the current activity, or null.
+	 */
+	public synchronized View findByText(String text, String classFilter){
+		for(View view: getCurrentViews(classFilter)){
+			if(view.text.indexOf(text) > -1) return view;
+			try{ if(view.text.matches(text)) return view;}
+			catch(RuntimeException x){ /* not a valid regular expression */ }
+		}
+		return null;
+	}
+
+	/**
+	 * @param index 0-based index among the views with a matching class.
+	 * @param classFilter part of the simple class name like "Button", null for all views.
+	 * @return the view of the current activity, or null.
+	 */
+	public synchronized View findByIndex(int index, String classFilter){
+		List<View> views = getCurrentViews(classFilter);
+		return index >= 0 && index < views.size() ? views.get(index) : null;
+	}
+
+	/**
+	 * Click the view, starting its target activity if it has one.
+	 * @param view
+	 */
+	public synchronized void click(View view){
+		if(view.className.endsWith("CheckBox") || view.className.endsWith("ToggleButton")){
+			view.checked = !view.checked;
+		}
+		if(view.target != null) activityStack.addLast(view.target);
+	}
+
+	/**
+	 * @param view
+	 * @param text the new text of the view.
+	 */
+	public synchronized void setText(View view, String text){
+		view.text = text == null ? "" : text;
+	}
+
+	/**
+	 * @param view
+	 * @return the location of the view as x, y, width, height.
+	 */
+	public synchronized int[] getLocation(View view){
+		return new int[]{0, view.position * VIEW_HEIGHT, VIEW_WIDTH, VIEW_HEIGHT};
+	}
+}
@@ -6104,9 +6104,8 @@ public class Solo extends SoloWorker{
 		try{
 			//Use "adb pull" to retrieve the sequence image from device/emulator and save on local machine
 			String[] pull = {"pull", "", destinationDir};
-			if(serialNumber!=null && !serialNumber.isEmpty()){
-				DUtilities.USE_DEVICE_SERIAL = "-s "+serialNumber;
-			}
+			String serial = serialNumber;
+			if(serial==null || serial.isEmpty()) serial = getDeviceSerial();
 			
 			Process2 process = null;
 			if(androidsdk==null) androidsdk = DUtilities.getAndroidTools(null);
@@ -6115,7 +6114,7 @@ public class Solo extends SoloWorker{
 				pull[1] = absolutePaths.get(i);
 				try {
 					debug("Saving '"+absolutePaths.get(i)+"' to '"+destinationDir+"'");
-					process = androidsdk.adb(DUtilities.addDeviceSerialParam(pull));
+					process = androidsdk.adb(DUtilities.addDeviceSerialParam(pull, serial));
 					process.discardStdout().discardStderr().waitForSuccess();
 					success = true;
 				} catch (Exception ignore) {
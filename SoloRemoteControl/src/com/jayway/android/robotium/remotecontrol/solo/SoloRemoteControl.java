@@ -4,15 +4,19 @@
  **/
 package com.jayway.android.robotium.remotecontrol.solo;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
-import java.util.Vector;
 import java.util.concurrent.TimeoutException;
 
 import org.safs.android.auto.lib.AndroidTools;
 import org.safs.android.auto.lib.DUtilities;
 import org.safs.sockets.ConnectionListener;
 import org.safs.sockets.DebugListener;
+import org.safs.sockets.ListenerRegistry;
 import org.safs.sockets.NamedListener;
+import org.safs.sockets.PeerListener;
+import org.safs.sockets.PeerLostException;
 import org.safs.sockets.RemoteException;
 import org.safs.sockets.ShutdownInvocationException;
 import org.safs.sockets.SocketProtocol;
@@ -26,7 +30,7 @@ import org.safs.sockets.android.DroidSocketProtocol;
  * OCT 11, 2012	(SBJLWA) Remove field startEmulatorPortForwarding, because we can use portForwarding instead.
  * FEB 06, 2013 (CANAGL) Fixed performRemoteShutdown to properly use secsWaitShutdown.
  */
-public class SoloRemoteControl implements SocketProtocolListener, DebugListener{
+public class SoloRemoteControl implements SocketProtocolListener, DebugListener, PeerListener{
 		
 	public static final String listenername = "SoloRemoteControl";
 	
@@ -42,20 +46,51 @@ public class SoloRemoteControl implements SocketProtocolListener, DebugListener{
 	 **/
 	public static String ROOT_DROID_SDK_TOOLS = ROOT_DROID_SDK_DIR +"tools";
 	
-	protected Vector listeners = new Vector();	
+	protected final ListenerRegistry listeners = new ListenerRegistry();
 	protected static LogsInterface log = null;
 	protected SoloRemoteControlRunner runner = null;
 	protected Thread runnerThread = null;
 	
 	public int controllerPort = SocketProtocol.DEFAULT_CONTROLLER_PORT;
+	public int remotePort = SocketProtocol.DEFAULT_REMOTE_PORT;
 	
 	public boolean portForwarding = true;
 	
+	/** serial number of the device/emulator to connect to, null for the shared default. */
+	public String deviceSerial = null;
+	
+	/** milliseconds between heartbeats, 0 disables heartbeats. */
+	public long heartbeatInterval = 0;
+	
+	/** true to offer payload compression to the remote client. */
+	public boolean payloadCompression = false;
+	
+	/** started and not yet shutdown instances, used to route device disconnects. */
+	protected static final List<SoloRemoteControl> activeControls = new ArrayList<SoloRemoteControl>();
+	
 	public static AndroidTools sdk = null;
 	
 	public boolean enableProtocolDebug = true;
 	public boolean enableRunnerDebug = true;
 	
+	/** number of commands dispatched to the remote client. */
+	protected int commandCount = 0;
+	
+	/** maximum number of command round trip times kept by {@link #getCommandTimes()}. */
+	public static final int MAX_COMMAND_TIMES = 256;
+	
+	/** round trip times, in milliseconds, of the most recent commands, failed and timed out ones included. */
+	protected long[] commandTimes = new long[MAX_COMMAND_TIMES];
+	
+	/** number of commands with a stored round trip time. */
+	protected int commandTimesCount = 0;
+	
+	/** latencies of the props commands, failed and timed out ones included, by command name and phase. */
+	protected final CommandLatencies commandLatencies = new CommandLatencies();
+	
+	/** receives the span of every props command of every instance, null if none. */
+	protected static volatile CommandTracer commandTracer = null;
+	
 	/**
 	 * No-arg constructor to instantiate and use all defaults.
 	 * The default implementation does NOT have a LogsInterface object set until a 
@@ -96,7 +131,7 @@ public class SoloRemoteControl implements SocketProtocolListener, DebugListener{
 	 * @see SoloRemoteControlListener
 	 */
 	public void addListener(NamedListener listen){
-		if(! listeners.contains(listen)) listeners.add(listen);
+		listeners.add(listen);
 	}
 	
 	/**
@@ -104,7 +139,7 @@ public class SoloRemoteControl implements SocketProtocolListener, DebugListener{
 	 * @param listen
 	 */
 	public void removeListener(NamedListener listen){
-		if(listeners.contains(listen)) listeners.remove(listen);
+		listeners.remove(listen);
 	}
 	
 	/**
@@ -143,7 +178,9 @@ public class SoloRemoteControl implements SocketProtocolListener, DebugListener{
 		if(!createProtocolRunner()) throw new IllegalThreadStateException("Failed to create the RemoteControlRunner!");
 		//before we start the protocol runner, we can modify some properties of embedded #DroidSocketProtocol
 		modifyEmbeddedProtocol();
+		runner.setHeartbeatInterval(heartbeatInterval);
 		if(!startProtocolRunner()) throw new IllegalThreadStateException("Failed to start the RemoteControlRunner!");
+		synchronized(activeControls){ activeControls.add(this); }
 	}
 	
 	/**
@@ -153,6 +190,7 @@ public class SoloRemoteControl implements SocketProtocolListener, DebugListener{
 	 * 
 	 * For example, we can modify the controllerPort as {@link DroidSocketProtocol#setControllerPort(int)}<br>
 	 * or modify portForwarding as {@link DroidSocketProtocol#setPortForwarding(boolean)}<br>
+	 * or modify the device serial as {@link DroidSocketProtocol#setDeviceSerial(String)}<br>
 	 * 
 	 * If the 'port forwarding' is set to true, we MUST call {@link DroidSocketProtocol#adjustControllerPort()}
 	 * to choose an available port for 'controller'.<br>
@@ -166,6 +204,9 @@ public class SoloRemoteControl implements SocketProtocolListener, DebugListener{
 	protected void modifyEmbeddedProtocol(){
 		if(runner!=null && runner.droidprotocolserver!=null){
 			runner.droidprotocolserver.setPortForwarding(portForwarding);
+			runner.droidprotocolserver.setDeviceSerial(deviceSerial);
+			runner.droidprotocolserver.setRemotePort(remotePort);
+			runner.droidprotocolserver.setPayloadCompression(payloadCompression);
 			runner.droidprotocolserver.adjustControllerPort();
 		}else{
 			debug("runner or runner.droidprotocolserver is null.");
@@ -184,6 +225,17 @@ public class SoloRemoteControl implements SocketProtocolListener, DebugListener{
 		this.controllerPort = controllerPort;
 	}
 	
+	/**
+	 * Set the port the remote messenger service accepts connections on.
+	 * Without port forwarding the controller connects to this port directly, 
+	 * as for a {@link SimulatedDevice}.
+	 * Must be set before {@link #start()} is called to have affect.
+	 * @param remotePort	int, default {@link SocketProtocol#DEFAULT_REMOTE_PORT}
+	 */
+	public void setRemotePort(int remotePort){
+		this.remotePort = remotePort;
+	}
+	
 	/**
 	 * Set if we will forward 'controller port' to remote messenger service's port.
 	 * Must be set before {@link #start()} is called to have affect.
@@ -194,14 +246,102 @@ public class SoloRemoteControl implements SocketProtocolListener, DebugListener{
 		this.portForwarding = portForwarding;
 	}
 	
+	/**
+	 * Set the serial number of the device/emulator whose 'controller port' will be forwarded.
+	 * Must be set before {@link #start()} is called to have affect.
+	 * @param deviceSerial the device serial number, or null to use DUtilities.USE_DEVICE_SERIAL
+	 * @see DroidSocketProtocol#setDeviceSerial(String)
+	 */
+	public void setDeviceSerial(String deviceSerial){
+		this.deviceSerial = deviceSerial;
+	}
+	
+	/**
+	 * Enable heartbeats with the remote client. A remote client silent for 3 heartbeat 
+	 * intervals is considered lost and every pending command fails with a {@link PeerLostException}.
+	 * Must be set before {@link #start()} is called to have affect.
+	 * @param msInterval milliseconds between heartbeats, 0 (the default) disables heartbeats.
+	 * @see org.safs.sockets.AbstractProtocolRunner#setHeartbeatInterval(long)
+	 */
+	public void setHeartbeatInterval(long msInterval){
+		this.heartbeatInterval = msInterval;
+	}
+	
+	/**
+	 * Offer payload compression to the remote client during the handshake.  If the remote 
+	 * client supports it, results larger than a few kilobytes, like view lists or screenshots, 
+	 * are sent deflated and decompressed by the runner.  
+	 * Must be set before {@link #start()} is called to have affect.
+	 * @param payloadCompression true to offer payload compression, false (the default) to 
+	 * receive every result as is.
+	 * @see org.safs.sockets.PayloadCompression
+	 * @see #getPayloadWireBytes()
+	 */
+	public void setPayloadCompression(boolean payloadCompression){
+		this.payloadCompression = payloadCompression;
+	}
+	
 	/**
 	 * Command the RemoteControl infrastructure to shutdown.
 	 * @see SoloRemoteControlRunner#shutdownThread()
 	 */
 	public void shutdown(){
+		synchronized(activeControls){ activeControls.remove(this); }
 		runner.shutdownThread();
 	}
 	
+	/**
+	 * Set the tracer receiving the span of every props command performed by any instance.
+	 * @param tracer the tracer, or null to stop tracing.
+	 * @see #performRemotePropsCommand(Properties, int, int, int)
+	 */
+	public static void setCommandTracer(CommandTracer tracer){
+		commandTracer = tracer;
+	}
+	
+	/**
+	 * Fail the pending and further commands of every started instance connected to the 
+	 * device with a {@link PeerLostException}. To be called when the device is disconnected.
+	 * @param serial the serial number of the disconnected device.
+	 * @return the number of instances notified.
+	 */
+	public static int notifyDeviceDisconnected(String serial){
+		List<SoloRemoteControl> controls = getActiveControls(serial, true);
+		for(SoloRemoteControl control: controls){
+			control.onPeerLost("Device '"+ serial +"' has been disconnected.");
+			control.runner.shutdownThread();
+		}
+		return controls.size();
+	}
+	
+	/**
+	 * Fail the pending and further commands of every started instance connected to the 
+	 * device with a {@link PeerLostException}, while the device itself stays connected. 
+	 * To be called when the process of the remote client crashed or stopped responding.
+	 * The instances still have to be {@link #shutdown()}.
+	 * @param serial the serial number of the device.
+	 * @param reason the reason reported by the PeerLostException, like a stack trace.
+	 * @return the number of instances notified.
+	 */
+	public static int notifyRemoteClientLost(String serial, String reason){
+		List<SoloRemoteControl> controls = getActiveControls(serial, false);
+		for(SoloRemoteControl control: controls){
+			control.onPeerLost(reason);
+		}
+		return controls.size();
+	}
+	
+	private static List<SoloRemoteControl> getActiveControls(String serial, boolean remove){
+		List<SoloRemoteControl> controls = new ArrayList<SoloRemoteControl>();
+		synchronized(activeControls){
+			for(SoloRemoteControl control: activeControls){
+				if(serial != null && serial.equals(control.deviceSerial)) controls.add(control);
+			}
+			if(remove) activeControls.removeAll(controls);
+		}
+		return controls;
+	}
+	
 	boolean remoteException = false;
 	boolean remoteMessage = false;
 	String remoteMessageString = null;
@@ -214,6 +354,8 @@ public class SoloRemoteControl implements SocketProtocolListener, DebugListener{
 	Properties remoteResultProperties = null;
 	boolean localShutdown = false;
 	boolean remoteShutdown = false;
+	boolean peerLost = false;
+	String peerLostReason = null;
 	int shutdownCause = -1;
 	Object lock = new Object();
 
@@ -376,6 +518,19 @@ public class SoloRemoteControl implements SocketProtocolListener, DebugListener{
 		notifyRemoteShutdownListeners(shutdownCause);
 	}
 
+	/**
+	 * The remote client is lost: every pending and further wait fails with a {@link PeerLostException}.
+	 * @see PeerListener#onPeerLost(String)
+	 */
+	public void onPeerLost(String reason) {
+		synchronized(lock){
+			peerLostReason = reason;
+			peerLost = true;
+			try{ lock.notifyAll();}catch(Throwable e){}
+		}
+		debug(listenername +" remote client lost: "+ reason);
+	}
+
 	public String getListenerName() {
 		return listenername;
 	}
@@ -386,9 +541,10 @@ public class SoloRemoteControl implements SocketProtocolListener, DebugListener{
 	
 	public void debug(String message){
 		boolean logged = false;
-		for(int i=0;i< listeners.size(); i++){
+		DebugListener[] typed = listeners.get(DebugListener.class);
+		for(int i=0;i< typed.length; i++){
 			try{
-				((DebugListener)listeners.get(i)).onReceiveDebug(message);
+				typed[i].onReceiveDebug(message);
 				logged = true;
 			}catch(Exception x){}
 		}
@@ -407,11 +563,13 @@ public class SoloRemoteControl implements SocketProtocolListener, DebugListener{
 	 * or remoteShutdown message.  Throw a RemoteException only *IF* we have received 
 	 * a remoteException.  Otherwise, this routine returns doing nothing.
 	 * @throws ShutdownInvocationException if localShutdown or remoteShutdown have been 
-	 * received.
+	 * received, a {@link PeerLostException} if the remote client has been lost.
 	 * @throws RemoteException if remoteException has been received.
 	 */
 	protected void checkExceptions() throws RemoteException, ShutdownInvocationException{
-		if (localShutdown){
+		if (peerLost){
+			throw new PeerLostException(peerLostReason);
+		}else if (localShutdown){
 			throw new ShutdownInvocationException("Unexpected Local Shutdown has been initiated.", false, shutdownCause);
 		}else if (remoteShutdown){
 			throw new ShutdownInvocationException("Unexpected Remote Shutdown has been initiated.", true, shutdownCause);			
@@ -441,7 +599,7 @@ public class SoloRemoteControl implements SocketProtocolListener, DebugListener{
 			long maxTicks = System.currentTimeMillis() + millis;
 			synchronized(lock){
 				while(!remoteConnected && !remoteException &&
-					  !localShutdown   && !remoteShutdown  &&
+					  !localShutdown   && !remoteShutdown  && !peerLost &&
 					  System.currentTimeMillis() < maxTicks){
 						try{ lock.wait(millis); }
 						catch(InterruptedException e){}
@@ -453,9 +611,10 @@ public class SoloRemoteControl implements SocketProtocolListener, DebugListener{
 	}
 	
 	protected void notifyConnectionListeners(){
-		for(int i=0;i< this.listeners.size(); i++){
+		ConnectionListener[] typed = listeners.get(ConnectionListener.class);
+		for(int i=0;i< typed.length; i++){
 			try{
-				((ConnectionListener)listeners.get(i)).onReceiveConnection();
+				typed[i].onReceiveConnection();
 			}catch(Exception x){}
 		}
 	}
@@ -481,7 +640,7 @@ public class SoloRemoteControl implements SocketProtocolListener, DebugListener{
 			long maxTicks = System.currentTimeMillis() + millis;
 			synchronized(lock){
 				while(!remoteReady && !remoteException &&
-						  !localShutdown   && !remoteShutdown  &&
+						  !localShutdown   && !remoteShutdown  && !peerLost &&
 						  System.currentTimeMillis() < maxTicks){
 						try{ lock.wait(millis); }
 						catch(InterruptedException e){}
@@ -493,13 +652,114 @@ public class SoloRemoteControl implements SocketProtocolListener, DebugListener{
 	}
 	
 	protected void notifyReadyListeners(){
-		for(int i=0;i< this.listeners.size(); i++){
+		SocketProtocolListener[] typed = listeners.get(SocketProtocolListener.class);
+		for(int i=0;i< typed.length; i++){
 			try{
-				((SocketProtocolListener)listeners.get(i)).onReceiveReady();
+				typed[i].onReceiveReady();
 			}catch(Exception x){}
 		}
 	}
 	
+	/**
+	 * @return the number of props, file and message commands dispatched to the remote client 
+	 * since this SoloRemoteControl was created.
+	 */
+	public int getCommandCount(){
+		return commandCount;
+	}
+	
+	/**
+	 * @return the dispatch-to-result round trip times, in milliseconds, of the most recent 
+	 * (at most {@link #MAX_COMMAND_TIMES}) props and file commands, oldest first.
+	 */
+	public synchronized long[] getCommandTimes(){
+		int size = Math.min(commandTimesCount, MAX_COMMAND_TIMES);
+		long[] times = new long[size];
+		int first = commandTimesCount - size;
+		for(int i=0;i<size;i++){
+			times[i] = commandTimes[(first + i) % MAX_COMMAND_TIMES];
+		}
+		return times;
+	}
+	
+	/**
+	 * Reset the command count and round trip times, for example when a persistent session 
+	 * is reused by a new test.
+	 */
+	public synchronized void resetCommandStatistics(){
+		commandCount = 0;
+		commandTimesCount = 0;
+		commandLatencies.reset();
+		if(runner != null) runner.resetPayloadStatistics();
+	}
+	
+	/**
+	 * @return the latencies of the props commands performed since the last reset, failed and 
+	 * timed out ones included, by command name and phase.
+	 * @see #resetCommandStatistics()
+	 */
+	public CommandLatencies getCommandLatencies(){
+		return commandLatencies;
+	}
+	
+	/**
+	 * @return the bytes of the results received from the remote client, as sent on the wire.
+	 * @see SoloRemoteControlRunner#getPayloadWireBytes()
+	 */
+	public long getPayloadWireBytes(){
+		return runner == null ? 0 : runner.getPayloadWireBytes();
+	}
+	
+	/**
+	 * @return the bytes of the results received from the remote client, after decompression.
+	 * @see SoloRemoteControlRunner#getPayloadBytes()
+	 */
+	public long getPayloadBytes(){
+		return runner == null ? 0 : runner.getPayloadBytes();
+	}
+	
+	/**
+	 * @return true if the remote client agreed on payload compression.
+	 * @see SocketProtocol#isPayloadCompressionNegotiated()
+	 */
+	public boolean isPayloadCompressionNegotiated(){
+		return runner != null && runner.protocolserver != null && 
+		       runner.protocolserver.isPayloadCompressionNegotiated();
+	}
+	
+	/**
+	 * @return milliseconds from the first connection attempt to the verified connection 
+	 * with the remote client, or -1 if not connected yet.
+	 * @see SocketProtocol#getConnectTime()
+	 */
+	public long getConnectTime(){
+		if(runner == null || runner.protocolserver == null) return -1;
+		return runner.protocolserver.getConnectTime();
+	}
+	
+	/**
+	 * @return true if the runner thread is alive, the protocol has a validated connection 
+	 * and no local or remote shutdown has been received.
+	 */
+	public boolean isSessionAlive(){
+		synchronized(lock){
+			if(localShutdown || remoteShutdown || peerLost) return false;
+		}
+		return runnerThread != null && runnerThread.isAlive() && 
+		       runner != null && runner.protocolserver != null && 
+		       runner.protocolserver.isConnected();
+	}
+	
+	/**
+	 * Store the round trip time of a command. A failed or timed out command is stored 
+	 * with the time from its call to the failure.
+	 * @param millis round trip time in milliseconds.
+	 */
+	protected synchronized void addCommandTime(long millis){
+		commandTimes[commandTimesCount % MAX_COMMAND_TIMES] = millis;
+		commandTimesCount++;
+	}
+	
 	/**
 	 * Default implementation performs the following:
 	 * <p><pre>
@@ -509,6 +769,8 @@ public class SoloRemoteControl implements SocketProtocolListener, DebugListener{
 	 * waitForRemoteRunning(secsWaitRunning);
 	 * return waitForRemoteResult(secsWaitResult);
 	 *  </pre>
+	 * The latencies of the command, completed or not, are recorded in {@link #getCommandLatencies()} 
+	 * and its whole span is passed to the {@link CommandTracer} if set.
 	 * @param props - the Dispatch Properties object containing all required command parameters for the remote client.
 	 * @param secsWaitRead -- timeout in seconds to detect remoteReady.
 	 * @param secsWaitRunning -- timeout in seconds to detect remoteRunning following the dispatch.
@@ -521,14 +783,40 @@ public class SoloRemoteControl implements SocketProtocolListener, DebugListener{
 	 * @see SoloRemoteControlRunner#sendDispatchProps(Properties)
 	 */
 	public Properties performRemotePropsCommand(Properties props, int secsWaitReady, int secsWaitRunning, int secsWaitResult) throws IllegalThreadStateException, RemoteException, TimeoutException, ShutdownInvocationException{
-		resetResults();
-		waitForRemoteReady(secsWaitReady);
-		resetReady();
-		if(runner.sendDispatchProps(props)) {
-			waitForRemoteRunning(secsWaitRunning);
-			return waitForRemoteResult(secsWaitResult);
+		CommandTracer tracer = commandTracer;
+		long traceStart = tracer == null ? 0 : System.nanoTime();
+		long ready = System.currentTimeMillis();
+		long start = -1;
+		long running = -1;
+		boolean completed = false;
+		try{
+			resetResults();
+			waitForRemoteReady(secsWaitReady);
+			resetReady();
+			commandCount++;
+			start = System.currentTimeMillis();
+			if(runner.sendDispatchProps(props)) {
+				waitForRemoteRunning(secsWaitRunning);
+				running = System.currentTimeMillis();
+				Properties result = waitForRemoteResult(secsWaitResult);
+				addCommandTime(System.currentTimeMillis() - start);
+				completed = true;
+				return result;
+			}
+			throw new IllegalThreadStateException("Local ProtocolRunner failed to sendDispatchProps.");
+		}finally{
+			// failed and timed out commands are recorded too, they are the long ones. 
+			// The phase a command failed in holds the time spent until the failure.
+			long end = System.currentTimeMillis();
+			// the caller waited for the whole failed command, the device health sees that time
+			if(!completed) addCommandTime(end - ready);
+			if(start < 0) start = end;
+			if(running < 0) running = end;
+			commandLatencies.record(props.getProperty(Message.KEY_COMMAND), 
+					start - ready, running - start, end - running);
+			if(tracer != null) tracer.commandPerformed(deviceSerial, 
+					props.getProperty(Message.KEY_COMMAND), traceStart, System.nanoTime());
 		}
-		throw new IllegalThreadStateException("Local ProtocolRunner failed to sendDispatchProps.");
 	}
 	
 	/**
@@ -552,14 +840,25 @@ public class SoloRemoteControl implements SocketProtocolListener, DebugListener{
 	 * @see SoloRemoteControlRunner#sendDispatchProps(Properties)
 	 */
 	public Properties performRemoteFileCommand(String filepath, int secsWaitReady, int secsWaitRunning, int secsWaitResult) throws IllegalThreadStateException, RemoteException, TimeoutException, ShutdownInvocationException{
-		resetResults();
-		waitForRemoteReady(secsWaitReady);
-		resetReady();
-		if(runner.sendDispatchFile(filepath)) {
-			waitForRemoteRunning(secsWaitRunning);
-			return waitForRemoteResult(secsWaitResult);
+		long ready = System.currentTimeMillis();
+		boolean completed = false;
+		try{
+			resetResults();
+			waitForRemoteReady(secsWaitReady);
+			resetReady();
+			commandCount++;
+			long start = System.currentTimeMillis();
+			if(runner.sendDispatchFile(filepath)) {
+				waitForRemoteRunning(secsWaitRunning);
+				Properties result = waitForRemoteResult(secsWaitResult);
+				addCommandTime(System.currentTimeMillis() - start);
+				completed = true;
+				return result;
+			}
+			throw new IllegalThreadStateException("Local ProtocolRunner failed to sendDispatchProps.");
+		}finally{
+			if(!completed) addCommandTime(System.currentTimeMillis() - ready);
 		}
-		throw new IllegalThreadStateException("Local ProtocolRunner failed to sendDispatchProps.");
 	}
 	
 	/**
@@ -586,6 +885,7 @@ public class SoloRemoteControl implements SocketProtocolListener, DebugListener{
 		resetResults();
 		waitForRemoteReady(secsWaitReady);
 		resetReady();
+		commandCount++;
 		if(runner.sendMessage(message)) {
 			waitForRemoteRunning(secsWaitRunning);
 			return;
@@ -657,7 +957,7 @@ public class SoloRemoteControl implements SocketProtocolListener, DebugListener{
 			long maxTicks = System.currentTimeMillis() + millis;
 			synchronized(lock){
 				while(!remoteRunning && !remoteResult && !remoteException &&
-						  !localShutdown   && !remoteShutdown  &&
+						  !localShutdown   && !remoteShutdown  && !peerLost &&
 						  System.currentTimeMillis() < maxTicks){
 						try{ lock.wait(millis); }
 						catch(InterruptedException e){}
@@ -669,9 +969,10 @@ public class SoloRemoteControl implements SocketProtocolListener, DebugListener{
 	}	
 
 	protected void notifyRunningListeners(){
-		for(int i=0;i< this.listeners.size(); i++){
+		SocketProtocolListener[] typed = listeners.get(SocketProtocolListener.class);
+		for(int i=0;i< typed.length; i++){
 			try{
-				((SocketProtocolListener)listeners.get(i)).onReceiveRunning();
+				typed[i].onReceiveRunning();
 			}catch(Exception x){}
 		}
 	}
@@ -707,7 +1008,7 @@ public class SoloRemoteControl implements SocketProtocolListener, DebugListener{
 			long maxTicks = System.currentTimeMillis() + millis;
 			synchronized(lock){
 				while(!remoteResult && !remoteException &&
-						  !localShutdown   && !remoteShutdown  &&
+						  !localShutdown   && !remoteShutdown  && !peerLost &&
 						  System.currentTimeMillis() < maxTicks){
 						try{ lock.wait(millis); }
 						catch(InterruptedException e){}
@@ -737,17 +1038,19 @@ public class SoloRemoteControl implements SocketProtocolListener, DebugListener{
 	}	
 
 	protected void notifyResultsListeners(int rc, String info){
-		for(int i=0;i< this.listeners.size(); i++){
+		SocketProtocolListener[] typed = listeners.get(SocketProtocolListener.class);
+		for(int i=0;i< typed.length; i++){
 			try{
-				((SocketProtocolListener)listeners.get(i)).onReceiveResult(rc, info);
+				typed[i].onReceiveResult(rc, info);
 			}catch(Exception x){}
 		}
 	}
 	
 	protected void notifyResultPropsListeners(Properties props){
-		for(int i=0;i< this.listeners.size(); i++){
+		SocketProtocolListener[] typed = listeners.get(SocketProtocolListener.class);
+		for(int i=0;i< typed.length; i++){
 			try{
-				((SocketProtocolListener)listeners.get(i)).onReceiveResultProperties(props);
+				typed[i].onReceiveResultProperties(props);
 			}catch(Exception x){}
 		}
 	}
@@ -771,7 +1074,7 @@ public class SoloRemoteControl implements SocketProtocolListener, DebugListener{
 			long millis = sTimeout * 1000;
 			long maxTicks = System.currentTimeMillis() + millis;
 			synchronized(lock){
-				while(!remoteShutdown && !remoteException && !localShutdown && 
+				while(!remoteShutdown && !remoteException && !localShutdown && !peerLost &&
 					  System.currentTimeMillis() < maxTicks){
 						try{ lock.wait(millis); }
 						catch(InterruptedException e){}
@@ -779,37 +1082,41 @@ public class SoloRemoteControl implements SocketProtocolListener, DebugListener{
 			}
 		}
 		if(remoteException) throw new RemoteException(remoteMessageString);
-		if(! (remoteShutdown || localShutdown)) throw new TimeoutException("waitForRemoteShutdown Timeout before Shutdown");
+		if(! (remoteShutdown || localShutdown || peerLost)) throw new TimeoutException("waitForRemoteShutdown Timeout before Shutdown");
 	}	
 	
 	protected void notifyRemoteShutdownListeners(int cause){
-		for(int i=0;i< this.listeners.size(); i++){
+		SocketProtocolListener[] typed = listeners.get(SocketProtocolListener.class);
+		for(int i=0;i< typed.length; i++){
 			try{
-				((SocketProtocolListener)listeners.get(i)).onReceiveRemoteShutdown(cause);
+				typed[i].onReceiveRemoteShutdown(cause);
 			}catch(Exception x){}
 		}
 	}
 	
 	protected void notifyLocalShutdownListeners(int cause){
-		for(int i=0;i< this.listeners.size(); i++){
+		SocketProtocolListener[] typed = listeners.get(SocketProtocolListener.class);
+		for(int i=0;i< typed.length; i++){
 			try{
-				((SocketProtocolListener)listeners.get(i)).onReceiveLocalShutdown(cause);
+				typed[i].onReceiveLocalShutdown(cause);
 			}catch(Exception x){}
 		}
 	}
 
 	protected void notifyExceptionListeners(String message){
-		for(int i=0;i< this.listeners.size(); i++){
+		SocketProtocolListener[] typed = listeners.get(SocketProtocolListener.class);
+		for(int i=0;i< typed.length; i++){
 			try{
-				((SocketProtocolListener)listeners.get(i)).onReceiveException(message);
+				typed[i].onReceiveException(message);
 			}catch(Exception x){}
 		}
 	}
 
 	protected void notifyMessageListeners(String message){
-		for(int i=0;i< this.listeners.size(); i++){
+		SocketProtocolListener[] typed = listeners.get(SocketProtocolListener.class);
+		for(int i=0;i< typed.length; i++){
 			try{
-				((SocketProtocolListener)listeners.get(i)).onReceiveMessage(message);
+				typed[i].onReceiveMessage(message);
 			}catch(Exception x){}
 		}
 	}
@@ -8,8 +8,10 @@ import java.io.CharArrayReader;
 import java.io.CharArrayWriter;
 import java.io.InvalidObjectException;
 import java.util.Properties;
+import java.util.zip.DataFormatException;
 
 import org.safs.sockets.AbstractProtocolRunner;
+import org.safs.sockets.PayloadCompression;
 import org.safs.sockets.SocketProtocolListener;
 import org.safs.sockets.android.DroidSocketProtocol;
 
@@ -21,6 +23,15 @@ public class SoloRemoteControlRunner extends AbstractProtocolRunner implements S
 	 */
 	public DroidSocketProtocol droidprotocolserver = null;
 	
+	/** UTF-8 bytes of the received result payloads, as sent on the wire. */
+	private long payloadWireBytes = 0;
+	
+	/** UTF-8 bytes of the received result payloads after decompression. */
+	private long payloadBytes = 0;
+	
+	/** number of received result payloads that were compressed. */
+	private int compressedPayloads = 0;
+	
 	private SoloRemoteControlRunner() {
 		protocolserver = droidprotocolserver = new DroidSocketProtocol(this);
 	}
@@ -57,6 +68,9 @@ public class SoloRemoteControlRunner extends AbstractProtocolRunner implements S
 					if(lcprefix.equals(Message.msg_debug)){
 						onReceiveDebug(message.substring(sepindex + 1));
 					}else 
+					if(lcprefix.equals(Message.msg_debugs)){
+						onReceiveDebugBatch(message.substring(sepindex + 1));
+					}else 
 					if(lcprefix.equals(Message.msg_exception)){
 						onReceiveException(message.substring(sepindex + 1));
 					}else 
@@ -72,8 +86,12 @@ public class SoloRemoteControlRunner extends AbstractProtocolRunner implements S
 						}
 						else{
 							rcmsg = tempmsg.substring(0, sepindex);
-							try{ infomsg = tempmsg.substring(sepindex+1);}
-							catch(Exception x){infomsg="";}
+							try{ infomsg = inflatePayload(tempmsg.substring(sepindex+1));}
+							catch(DataFormatException x){
+								// the result is lost, fail the command instead of returning an empty info
+								onReceiveInflateFailure(x);
+								return;
+							}
 						}
 						int rc = -99;
 						try{ rc = Integer.parseInt(rcmsg); }
@@ -86,8 +104,11 @@ public class SoloRemoteControlRunner extends AbstractProtocolRunner implements S
 					if(lcprefix.equals(Message.msg_resultprops)){
 						Properties props = new Properties();
 						try{
-							props.load(new CharArrayReader(message.substring(sepindex + 1).toCharArray()));
+							String payload = inflatePayload(message.substring(sepindex + 1));
+							props.load(new CharArrayReader(payload.toCharArray()));
 							onReceiveResultProperties(props);
+						}catch(DataFormatException x){
+							onReceiveInflateFailure(x);
 						}catch(Exception x){
 							debug("Error loading results Properties: "+
 									          x.getClass().getSimpleName()+", "+ x.getMessage());
@@ -130,68 +151,145 @@ public class SoloRemoteControlRunner extends AbstractProtocolRunner implements S
 		}
 	}
 	
+	/**
+	 * Report a compressed result that could not be decompressed as a remote exception, so 
+	 * the pending command fails with the inflate error instead of returning an empty result.
+	 * @param x the error of the decompression.
+	 * @see #inflatePayload(String)
+	 */
+	protected void onReceiveInflateFailure(DataFormatException x){
+		debug("Error inflating the compressed result: "+ x.getMessage());
+		onReceiveException("Could not inflate the compressed result: "+ x.getMessage());
+	}
+	
+	/**
+	 * Decompress a result payload compressed by the remote client and count its bytes.
+	 * @param payload the payload as received.
+	 * @return the decompressed payload, or the payload itself if it was not compressed.
+	 * @throws DataFormatException if a compressed payload is corrupt.
+	 * @see PayloadCompression
+	 */
+	protected String inflatePayload(String payload) throws DataFormatException{
+		int wireBytes = PayloadCompression.utf8Length(payload);
+		if(!PayloadCompression.isCompressed(payload)){
+			addPayloadBytes(wireBytes, wireBytes, false);
+			return payload;
+		}
+		String inflated = PayloadCompression.decompress(payload);
+		addPayloadBytes(wireBytes, PayloadCompression.utf8Length(inflated), true);
+		return inflated;
+	}
+	
+	private synchronized void addPayloadBytes(int wireBytes, int bytes, boolean compressed){
+		payloadWireBytes += wireBytes;
+		payloadBytes += bytes;
+		if(compressed) compressedPayloads++;
+	}
+	
+	/**
+	 * @return the UTF-8 bytes of the result payloads received since the last reset, as 
+	 * sent on the wire.
+	 * @see #getPayloadBytes()
+	 */
+	public synchronized long getPayloadWireBytes(){
+		return payloadWireBytes;
+	}
+	
+	/**
+	 * @return the UTF-8 bytes of the result payloads received since the last reset, after 
+	 * decompression.  Equals {@link #getPayloadWireBytes()} if nothing was compressed.
+	 */
+	public synchronized long getPayloadBytes(){
+		return payloadBytes;
+	}
+	
+	/**
+	 * @return the number of compressed result payloads received since the last reset.
+	 */
+	public synchronized int getCompressedPayloads(){
+		return compressedPayloads;
+	}
+	
+	/**
+	 * Reset the payload byte counts, for example when a persistent session is reused.
+	 */
+	public synchronized void resetPayloadStatistics(){
+		payloadWireBytes = 0;
+		payloadBytes = 0;
+		compressedPayloads = 0;
+	}
+	
+	/**
+	 * Route each debug message of a {@link Message#msg_debugs} batch to onReceiveDebug.
+	 * @param batch debug messages separated by {@link Message#DEBUG_BATCH_SEPARATOR}
+	 * @see org.safs.sockets.DebugChannel
+	 */
+	protected void onReceiveDebugBatch(String batch) {
+		int start = 0;
+		int end;
+		while((end = batch.indexOf(Message.DEBUG_BATCH_SEPARATOR, start)) > -1){
+			onReceiveDebug(batch.substring(start, end));
+			start = end + 1;
+		}
+		onReceiveDebug(batch.substring(start));
+	}
+
 	public void onReceiveReady() {
 		boolean sent = false;
-		for(int n = 0; n < runnerlisteners.size(); n++){
-			try{
-				((SocketProtocolListener)runnerlisteners.get(n)).onReceiveReady();
-				sent = true;
-			}catch(ClassCastException e){}
+		SocketProtocolListener[] listeners = runnerlisteners.get(SocketProtocolListener.class);
+		for(int n = 0; n < listeners.length; n++){
+			listeners[n].onReceiveReady();
+			sent = true;
 		}
 		if(!sent) System.out.println("Received a remote Ready signal.");
 	}
 
 	public void onReceiveRunning() {
 		boolean sent = false;
-		for(int n = 0; n < runnerlisteners.size(); n++){
-			try{
-				((SocketProtocolListener)runnerlisteners.get(n)).onReceiveRunning();
-				sent = true;
-			}catch(ClassCastException e){}
+		SocketProtocolListener[] listeners = runnerlisteners.get(SocketProtocolListener.class);
+		for(int n = 0; n < listeners.length; n++){
+			listeners[n].onReceiveRunning();
+			sent = true;
 		}
 		if(!sent) System.out.println("Received a remote Running signal.");
 	}
 
 	public void onReceiveResult(int rc, String info) {
 		boolean sent = false;
-		for(int n = 0; n < runnerlisteners.size(); n++){
-			try{
-				((SocketProtocolListener)runnerlisteners.get(n)).onReceiveResult(rc, info);
-				sent = true;
-			}catch(ClassCastException e){}
+		SocketProtocolListener[] listeners = runnerlisteners.get(SocketProtocolListener.class);
+		for(int n = 0; n < listeners.length; n++){
+			listeners[n].onReceiveResult(rc, info);
+			sent = true;
 		}
 		if(!sent) System.out.println("Received a remote Result: "+ rc +", "+ info);
 	}
 
 	public void onReceiveResultProperties(Properties props) {
 		boolean sent = false;
-		for(int n = 0; n < runnerlisteners.size(); n++){
-			try{
-				((SocketProtocolListener)runnerlisteners.get(n)).onReceiveResultProperties(props);
-				sent = true;
-			}catch(ClassCastException e){}
+		SocketProtocolListener[] listeners = runnerlisteners.get(SocketProtocolListener.class);
+		for(int n = 0; n < listeners.length; n++){
+			listeners[n].onReceiveResultProperties(props);
+			sent = true;
 		}
 		if(!sent) System.out.println("Received a remote Result Properties: "+ props.toString());
 	}
 
 	public void onReceiveMessage(String message) {
 		boolean sent = false;
-		for(int n = 0; n < runnerlisteners.size(); n++){
-			try{
-				((SocketProtocolListener)runnerlisteners.get(n)).onReceiveMessage(message);
-				sent = true;
-			}catch(ClassCastException e){}
+		SocketProtocolListener[] listeners = runnerlisteners.get(SocketProtocolListener.class);
+		for(int n = 0; n < listeners.length; n++){
+			listeners[n].onReceiveMessage(message);
+			sent = true;
 		}
 		if(!sent) System.out.println("Received a remote Message: "+ message);
 	}
 
 	public void onReceiveException(String message) {
 		boolean sent = false;
-		for(int n = 0; n < runnerlisteners.size(); n++){
-			try{
-				((SocketProtocolListener)runnerlisteners.get(n)).onReceiveException(message);
-				sent = true;
-			}catch(ClassCastException e){}
+		SocketProtocolListener[] listeners = runnerlisteners.get(SocketProtocolListener.class);
+		for(int n = 0; n < listeners.length; n++){
+			listeners[n].onReceiveException(message);
+			sent = true;
 		}
 		if(!sent) System.out.println("Received a Remote Exception: "+ message);
 	}
@@ -58,7 +58,11 @@ public class SoloWorker implements DebugListener{
 	protected SoloRemoteControl control = null;
 	
 	private int controllerPort = SocketProtocol.DEFAULT_CONTROLLER_PORT;
+	private int remotePort = SocketProtocol.DEFAULT_REMOTE_PORT;
 	private boolean portForwarding = true;
+	private String deviceSerial = null;
+	private long heartbeatInterval = 0;
+	private boolean payloadCompression = false;
 	
 	public SoloWorker() {	}
 
@@ -155,6 +159,10 @@ public class SoloWorker implements DebugListener{
 			control = createRemoteControl();
 			control.setPortForwarding(portForwarding);
 			control.setControllerPort(controllerPort);
+			control.setRemotePort(remotePort);
+			control.setDeviceSerial(deviceSerial);
+			control.setHeartbeatInterval(heartbeatInterval);
+			control.setPayloadCompression(payloadCompression);
 			control.addListener(this);
 			control.setLogsInterface(log);
 			control.start();
@@ -171,6 +179,15 @@ public class SoloWorker implements DebugListener{
 		this.controllerPort = controllerPort;
 	}
 	
+	/**
+	 * Set the port the remote messenger service accepts connections on.
+	 * @param remotePort
+	 * @see SoloRemoteControl#setRemotePort(int)
+	 */
+	public void setRemotePort(int remotePort){
+		this.remotePort = remotePort;
+	}
+	
 	/**
 	 * Set if we will forward 'controller port' to remote messenger service's port.
 	 * @param portForwarding
@@ -179,6 +196,40 @@ public class SoloWorker implements DebugListener{
 		this.portForwarding = portForwarding;
 	}
 	
+	/**
+	 * Set the serial number of the device/emulator to connect to.
+	 * Each worker carries its own serial, so workers of different devices can be initialized concurrently.
+	 * @param deviceSerial the device serial number, or null to use DUtilities.USE_DEVICE_SERIAL
+	 */
+	public void setDeviceSerial(String deviceSerial){
+		this.deviceSerial = deviceSerial;
+	}
+	
+	/**
+	 * Enable heartbeats with the remote client, see {@link SoloRemoteControl#setHeartbeatInterval(long)}.
+	 * Must be set before {@link #initialize()} is called to have affect.
+	 * @param msInterval milliseconds between heartbeats, 0 (the default) disables heartbeats.
+	 */
+	public void setHeartbeatInterval(long msInterval){
+		this.heartbeatInterval = msInterval;
+	}
+	
+	/**
+	 * Offer payload compression to the remote client, see {@link SoloRemoteControl#setPayloadCompression(boolean)}.
+	 * Must be set before {@link #initialize()} is called to have affect.
+	 * @param payloadCompression true to compress large results, false (the default) to send them as is.
+	 */
+	public void setPayloadCompression(boolean payloadCompression){
+		this.payloadCompression = payloadCompression;
+	}
+	
+	/**
+	 * @return the serial number of the device/emulator set by {@link #setDeviceSerial(String)}, or null.
+	 */
+	public String getDeviceSerial(){
+		return deviceSerial;
+	}
+	
 	/**
 	 * Turn on/off the runner's debug message.<br>
 	 * This MUST be called after invoking {@link #initialize()}<br>